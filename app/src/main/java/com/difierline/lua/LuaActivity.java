@@ -1764,9 +1764,7 @@ public class LuaActivity extends AppCompatActivity
       ok = L.LloadFile(filePath);
 
       if (ok == 0) {
-        L.getGlobal("debug");
-        L.getField(-1, "traceback");
-        L.remove(-2);
+        L.pushTraceback();
         L.insert(-2);
         int l = args.length;
         for (int i = 0; i < l; i++) {
@@ -1825,9 +1823,7 @@ public class LuaActivity extends AppCompatActivity
       ok = L.LloadBuffer(bytes, name);
 
       if (ok == 0) {
-        L.getGlobal("debug");
-        L.getField(-1, "traceback");
-        L.remove(-2);
+        L.pushTraceback();
         L.insert(-2);
         int l = args.length;
         for (int i = 0; i < l; i++) {
@@ -1858,9 +1854,7 @@ public class LuaActivity extends AppCompatActivity
           L.pushString(funcName);
           L.rawGet(-2);
           if (L.isFunction(-1)) {
-            L.getGlobal("debug");
-            L.getField(-1, "traceback");
-            L.remove(-2);
+            L.pushTraceback();
             L.insert(-2);
 
             int l = args.length;
@@ -1889,9 +1883,7 @@ public class LuaActivity extends AppCompatActivity
       int ok = L.LloadString(funcSrc);
 
       if (ok == 0) {
-        L.getGlobal("debug");
-        L.getField(-1, "traceback");
-        L.remove(-2);
+        L.pushTraceback();
         L.insert(-2);
 
         int l = args.length;
@@ -5,7 +5,6 @@ import com.luajava.JavaFunction;
 import com.luajava.LuaException;
 import com.luajava.LuaObject;
 import com.luajava.LuaState;
-import com.luajava.LuaStateFactory;
 
 public class LuaAsyncTask extends AsyncTaskX implements LuaGcable {
 
@@ -103,31 +102,10 @@ public class LuaAsyncTask extends AsyncTaskX implements LuaGcable {
 			catch (InterruptedException e) {}
 			return args;
 		}
-		L = LuaStateFactory.newLuaState();
-		L.openLibs();
-		L.pushJavaObject(mLuaContext);
-		if (mLuaContext instanceof LuaActivity) {
-			L.setGlobal("activity");
-		}
-		else if (mLuaContext instanceof LuaService) {
-			L.setGlobal("service");
-		}
-		L.pushJavaObject(this);
-		L.setGlobal("this");
-		L.pushContext(mLuaContext);
-
-		L.getGlobal("luajava");
-		L.pushString(mLuaContext.getLuaDir());
-		L.setField(-2, "luadir"); 
-		L.pop(1);
-
-
 		try {
-			JavaFunction print = new LuaPrint(mLuaContext, L);
-		print.register("print");
-		
-		JavaFunction proc = new LuaProcess(mLuaContext, L);
-		proc.register("proc");
+			L = LuaStatePool.of(mLuaContext).acquire();
+			L.pushJavaObject(this);
+			L.setGlobal("this");
 
 			JavaFunction update = new JavaFunction(L){
 
@@ -140,46 +118,30 @@ public class LuaAsyncTask extends AsyncTaskX implements LuaGcable {
 			};
 
 			update.register("update");
-
-			L.getGlobal("package");       
-
-			L.pushString(mLuaContext.getLuaLpath());
-			L.setField(-2, "path");
-			L.pushString(mLuaContext.getLuaCpath());
-			L.setField(-2, "cpath");
-			L.pop(1); 
-
-			// 初始化 JavaScript 引擎并注册到 Lua
-			JavaScriptEngine jsEngine = new JavaScriptEngine(mLuaContext);
-			L.pushJavaObject(jsEngine);
-			L.setGlobal("javascript");
-			// 也注册为 js 别名
-			L.getGlobal("javascript");
-			L.setGlobal("js");
-			    AIEngine aiEngine = new AIEngine(mLuaContext);
-   L.pushJavaObject(aiEngine);
-   L.setGlobal("ai");
-   // 也注册为 ai 别名（保持一致）
-   L.getGlobal("ai");
-   L.setGlobal("ai");
-    
-
-}
-catch (LuaException e) {
+		}
+		catch (LuaException e) {
 			mLuaContext.sendError("AsyncTask", e);
+			return null;
 		}
-		
+
 		if(loadeds!=null){
 			LuaObject require=L.getLuaObject("require");
+			LuaObject _import=null;
 			try {
 				require.call("import");
-				LuaObject _import=L.getLuaObject("import");
+				_import=L.getLuaObject("import");
 				for(Object s:loadeds)
 					_import.call(s.toString());
 			}
 			catch (LuaException e) {
 			//	e.printStackTrace();
 			}
+			finally {
+				// 释放注册表引用，否则状态无法放回池中
+				require.release();
+				if (_import != null)
+					_import.release();
+			}
 		}
 
 		try {
@@ -187,9 +149,7 @@ catch (LuaException e) {
 			int ok = L.LloadBuffer(mBuffer, "LuaAsyncTask");
 
 			if (ok == 0) {
-				L.getGlobal("debug");
-				L.getField(-1, "traceback");
-				L.remove(-2);
+				L.pushTraceback();
 				L.insert(-2);
 				int l=args.length;
 				for (int i=0;i < l;i++) {
@@ -227,10 +187,21 @@ catch (LuaException e) {
 		catch (LuaException e) {
 			mLuaContext.sendError("onPostExecute", e);
 		}
-		if(L!=null)
-			L.gc(LuaState.LUA_GCCOLLECT, 1);
+		releaseLua();
 		System.gc();
-		//L.close();
+	}
+
+	@Override
+	protected void onCancelled(Object result) {
+		releaseLua();
+		super.onCancelled(result);
+	}
+
+	private void releaseLua() {
+		LuaState l = L;
+		L = null;
+		if (l != null)
+			LuaStatePool.of(mLuaContext).release(l);
 	}
 
 	@Override
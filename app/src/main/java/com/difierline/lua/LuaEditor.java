@@ -18,7 +18,6 @@ import android.view.inputmethod.EditorInfo;
 
 import com.myopicmobile.textwarrior.android.*;
 import com.myopicmobile.textwarrior.common.*;
-import org.luaj.vm2.compiler.LexState;
 
 import java.io.*;
 
@@ -37,6 +36,9 @@ import com.difierline.lua.lxclua.R;
 
 public class LuaEditor extends FreeScrollingTextField {
 
+    // 超过该长度的文本用分段表存储，行号查找与远距离跳转不再线性扫描
+    private static final int PIECE_TABLE_MIN_LENGTH = 1 << 20;
+
     private Document _inputtingDoc;
 
     private boolean _isWordWrap;
@@ -50,7 +52,7 @@ public class LuaEditor extends FreeScrollingTextField {
     private String fontDir = "/sdcard/XCLUA/fonts";
 
     private int _index;
-    private LinearSearchStrategy finder;
+    private HorspoolSearchStrategy finder;
     private int idx;
     private String mKeyword;
 
@@ -224,7 +226,7 @@ public class LuaEditor extends FreeScrollingTextField {
     }
     
     public String getError() {
-        return LexState.errormsg;
+        return LuaParser.getResult().errormsg;
     }
 
     @Override
@@ -357,7 +359,7 @@ public void startFindMode() {
 
     startActionMode(new ActionMode.Callback() {
 
-        private LinearSearchStrategy finder;
+        private HorspoolSearchStrategy finder;
         private int idx;
         private EditText edit;
 
@@ -423,7 +425,7 @@ public void startFindMode() {
         }
 
         private void findNext() {
-            finder = new LinearSearchStrategy();
+            finder = new HorspoolSearchStrategy();
             String kw = edit.getText().toString();
             if (kw.isEmpty()) {
                 selectText(false);
@@ -462,7 +464,7 @@ public void startFindMode() {
 
     public void setText(CharSequence c) {
         //TextBuffer text=new TextBuffer();
-        Document doc = new Document(this);
+        Document doc = new Document(this, c.length() >= PIECE_TABLE_MIN_LENGTH);
         doc.setWordWrap(_isWordWrap);
         doc.setText(c);
         setDocumentProvider(new DocumentProvider(doc));
@@ -524,6 +526,38 @@ public void startFindMode() {
         }
     }
 
+    /**
+     * 把撤销历史写入文件，配合 restoreUndoHistory 在 Activity 重建后恢复撤销
+     */
+    public void saveUndoHistory(String filename) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(filename)));
+        try {
+            createDocumentProvider().writeUndoHistory(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 从文件恢复撤销历史；文本与保存时不一致则不恢复
+     *
+     * @return 是否恢复成功
+     */
+    public boolean restoreUndoHistory(String filename) throws IOException {
+        File file = new File(filename);
+        if (!file.exists()) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return createDocumentProvider().readUndoHistory(in);
+        } finally {
+            in.close();
+        }
+    }
+
     public String getFilePath(){
         return _lastSelectedFile;
     }
@@ -573,7 +607,7 @@ public void startFindMode() {
             idx = 0;
         }
         // TODO: Implement this method
-        finder = new LinearSearchStrategy();
+        finder = new HorspoolSearchStrategy();
         String kw = mKeyword;
         if (kw.isEmpty()) {
             selectText(false);
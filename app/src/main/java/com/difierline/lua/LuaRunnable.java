@@ -343,9 +343,7 @@ public class LuaRunnable extends Thread implements Runnable,LuaMetaTable,LuaGcab
 			ok = L.LloadBuffer(buf, "TimerTask");
 
 			if (ok == 0) {
-				L.getGlobal("debug");
-				L.getField(-1, "traceback");
-				L.remove(-2);
+				L.pushTraceback();
 				L.insert(-2);
 				int l=args.length;
 				for (int i=0;i < l;i++) {
@@ -370,9 +368,7 @@ public class LuaRunnable extends Thread implements Runnable,LuaMetaTable,LuaGcab
 		ok = L.LloadFile(filePath);
 
 		if (ok == 0) {
-			L.getGlobal("debug");
-			L.getField(-1, "traceback");
-			L.remove(-2);
+			L.pushTraceback();
 			L.insert(-2);
 			int l=args.length;
 			for (int i=0;i < l;i++) {
@@ -394,9 +390,7 @@ public class LuaRunnable extends Thread implements Runnable,LuaMetaTable,LuaGcab
 		ok = L.LloadBuffer(bytes, name);
 
 		if (ok == 0) {
-			L.getGlobal("debug");
-			L.getField(-1, "traceback");
-			L.remove(-2);
+			L.pushTraceback();
 			L.insert(-2);
 			int l=args.length;
 			for (int i=0;i < l;i++) {
@@ -415,9 +409,7 @@ public class LuaRunnable extends Thread implements Runnable,LuaMetaTable,LuaGcab
 		int ok = L.LloadString(src);
 
 		if (ok == 0) {
-			L.getGlobal("debug");
-			L.getField(-1, "traceback");
-			L.remove(-2);
+			L.pushTraceback();
 			L.insert(-2);
 			int l=args.length;
 			for (int i=0;i < l;i++) {
@@ -438,9 +430,7 @@ public class LuaRunnable extends Thread implements Runnable,LuaMetaTable,LuaGcab
 			L.setTop(0);
 			L.getGlobal(funcName);
 			if (L.isFunction(-1)) {
-				L.getGlobal("debug");
-				L.getField(-1, "traceback");
-				L.remove(-2);
+				L.pushTraceback();
 				L.insert(-2);
 
 				int l=args.length;
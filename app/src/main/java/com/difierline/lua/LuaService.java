@@ -662,9 +662,7 @@ public class LuaService extends Service implements LuaContext,LuaBroadcastReceiv
 			ok = L.LloadFile(filePath);
 
 			if (ok == 0) {
-				L.getGlobal("debug");
-				L.getField(-1, "traceback");
-				L.remove(-2);
+				L.pushTraceback();
 				L.insert(-2);
 				int l=0;
 				if (args != null)
@@ -694,9 +692,7 @@ public class LuaService extends Service implements LuaContext,LuaBroadcastReceiv
 			ok = L.LloadBuffer(bytes, name);
 
 			if (ok == 0) {
-				L.getGlobal("debug");
-				L.getField(-1, "traceback");
-				L.remove(-2);
+				L.pushTraceback();
 				L.insert(-2);
 				int l=0;
 				if (args != null)
@@ -725,9 +721,7 @@ public class LuaService extends Service implements LuaContext,LuaBroadcastReceiv
 				L.setTop(0);
 				L.getGlobal(funcName);
 				if (L.isFunction(-1)) {
-					L.getGlobal("debug");
-					L.getField(-1, "traceback");
-					L.remove(-2);
+					L.pushTraceback();
 					L.insert(-2);
 
 					int l=0;
@@ -760,9 +754,7 @@ public class LuaService extends Service implements LuaContext,LuaBroadcastReceiv
 			int ok = L.LloadString(funcSrc);
 
 			if (ok == 0) {
-				L.getGlobal("debug");
-				L.getField(-1, "traceback");
-				L.remove(-2);
+				L.pushTraceback();
 				L.insert(-2);
 
 				int l=0;
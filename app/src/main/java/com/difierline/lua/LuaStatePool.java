@@ -0,0 +1,344 @@
+package com.difierline.lua;
+
+import com.luajava.JavaFunction;
+import com.luajava.LuaException;
+import com.luajava.LuaState;
+import com.luajava.LuaStateFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * 预热的 LuaState 池
+ * 供 LuaThread、LuaAsyncTask、LuaTimerTask 使用，池中的状态已完成 openLibs、
+ * print/proc 注册以及 package.path 设置。归还时按值恢复全局表、标准库表、
+ * 基本类型元表、注册表与调试钩子，脚本新增的全局变量会被清除。
+ * 脚本创建的接口代理、回调等仍引用状态时不放回池中。
+ * javascript/js/ai 全局变量在首次访问时才创建。
+ */
+public final class LuaStatePool implements LuaGcable {
+
+	private static final HashMap<LuaContext, LuaStatePool> sPools = new HashMap<>();
+
+	private static final String RESET_KEY = "_LuaStatePoolReset";
+
+	/**
+	 * 记录初始环境并把恢复函数存入注册表
+	 * 全局表、库表及其子表、string 等基本类型的元表和注册表中的非引用项都按值保存，
+	 * 恢复时同时清除调试钩子。存在脚本遗留的 Java 引用时恢复函数返回 false
+	 */
+	private static final String SNAPSHOT =
+		"local KEY = ...\n" +
+		"local G, debug, next, rawset, type = _G, debug, next, rawset, type\n" +
+		"local mtype, collectgarbage = math.type, collectgarbage\n" +
+		"local getmt, setmt, sethook = debug.getmetatable, debug.setmetatable, debug.sethook\n" +
+		"local reg = debug.getregistry()\n" +
+		"local clibs = reg._CLIBS\n" +
+		"local saved, regBase = {}, {}\n" +
+		"local function save(t, depth)\n" +
+		"  if saved[t] or t == clibs then return end\n" +
+		"  local c = {}\n" +
+		"  for k, v in next, t do c[k] = v end\n" +
+		"  saved[t] = {c, getmt(t)}\n" +
+		"  if depth > 0 then\n" +
+		"    for _, v in next, c do\n" +
+		"      if type(v) == 'table' then save(v, depth - 1) end\n" +
+		"    end\n" +
+		"  end\n" +
+		"end\n" +
+		"-- 各基本类型共享的元表\n" +
+		"local samples = {false, 0, next, (coroutine.running()), ''}\n" +
+		"local typemts, nilmt = {}, getmt(nil)\n" +
+		"for i = 1, #samples do typemts[i] = getmt(samples[i]) end\n" +
+		"local function reset()\n" +
+		"  -- 整数键且值不是数字的注册表项是 Java 持有的引用，如代理、回调或 LuaObject\n" +
+		"  for k, v in next, reg do\n" +
+		"    if mtype(k) == 'integer' and k > 2 and type(v) ~= 'number' and regBase[k] ~= v then\n" +
+		"      return false\n" +
+		"    end\n" +
+		"  end\n" +
+		"  sethook()\n" +
+		"  collectgarbage('restart')\n" +
+		"  for i = 1, #samples do setmt(samples[i], typemts[i]) end\n" +
+		"  setmt(nil, nilmt)\n" +
+		"  for k in next, reg do\n" +
+		"    if mtype(k) ~= 'integer' and regBase[k] == nil then reg[k] = nil end\n" +
+		"  end\n" +
+		"  for k, v in next, regBase do\n" +
+		"    if mtype(k) ~= 'integer' then reg[k] = v end\n" +
+		"  end\n" +
+		"  for t, s in next, saved do\n" +
+		"    local c = s[1]\n" +
+		"    for k in next, t do if c[k] == nil then rawset(t, k, nil) end end\n" +
+		"    for k, v in next, c do rawset(t, k, v) end\n" +
+		"    setmt(t, s[2])\n" +
+		"  end\n" +
+		"  return true\n" +
+		"end\n" +
+		"reg[KEY] = reset\n" +
+		"for k, v in next, reg do regBase[k] = v end\n" +
+		"save(G, 2)\n" +
+		"if getmt(G) then save(getmt(G), 0) end\n" +
+		"if getmt('') then save(getmt(''), 1) end\n" +
+		"for k, v in next, regBase do\n" +
+		"  if mtype(k) == nil and type(v) == 'table' then save(v, 1) end\n" +
+		"end";
+
+	private static int sMinSize = 1;
+	private static int sMaxSize = 4;
+
+	private final LuaContext mLuaContext;
+	private final ArrayDeque<LuaState> mIdle = new ArrayDeque<>();
+	private boolean mGc;
+
+	private LuaStatePool(LuaContext luaContext) {
+		mLuaContext = luaContext;
+	}
+
+	/**
+	 * 获取上下文对应的状态池，不存在时创建并在后台预热
+	 * @param luaContext Lua 上下文
+	 * @return 状态池
+	 */
+	public static LuaStatePool of(LuaContext luaContext) {
+		LuaStatePool pool;
+		synchronized (sPools) {
+			pool = sPools.get(luaContext);
+			if (pool != null)
+				return pool;
+			pool = new LuaStatePool(luaContext);
+			sPools.put(luaContext, pool);
+		}
+		luaContext.regGc(pool);
+		pool.prewarm();
+		return pool;
+	}
+
+	/**
+	 * 设置池大小
+	 * @param min 预热的状态数量
+	 * @param max 最多保留的空闲状态数量，为 0 时不复用状态
+	 */
+	public static void setSize(int min, int max) {
+		if (min < 0 || max < 0 || min > max)
+			throw new IllegalArgumentException("min=" + min + ", max=" + max);
+		sMinSize = min;
+		sMaxSize = max;
+	}
+
+	public static int getMinSize() {
+		return sMinSize;
+	}
+
+	public static int getMaxSize() {
+		return sMaxSize;
+	}
+
+	/**
+	 * 在后台线程补足空闲状态
+	 */
+	public void prewarm() {
+		synchronized (this) {
+			if (mGc || mIdle.size() >= sMinSize)
+				return;
+		}
+		Thread t = new Thread("LuaStatePool") {
+			@Override
+			public void run() {
+				for (;;) {
+					synchronized (LuaStatePool.this) {
+						if (mGc || mIdle.size() >= sMinSize)
+							return;
+					}
+					LuaState L;
+					try {
+						L = newState();
+					}
+					catch (LuaException e) {
+						mLuaContext.sendError("LuaStatePool", e);
+						return;
+					}
+					if (!offer(L))
+						return;
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * 取出一个已初始化的 LuaState，没有空闲状态时直接创建
+	 * @return 栈为空的 LuaState
+	 */
+	public LuaState acquire() throws LuaException {
+		LuaState L;
+		synchronized (this) {
+			L = mIdle.pollFirst();
+		}
+		if (L == null)
+			L = newState();
+		prewarm();
+		return L;
+	}
+
+	/**
+	 * 归还 LuaState，恢复初始环境后放回池中；恢复失败或池已满时关闭。
+	 * 脚本创建的代理或回调仍持有引用时既不复用也不关闭，交由 GC 处理
+	 * @param L acquire 返回的状态
+	 */
+	public void release(LuaState L) {
+		if (L == null || L.isClosed())
+			return;
+		boolean ok, inUse;
+		synchronized (L) {
+			L.setTop(0);
+			L.getField(LuaState.LUA_REGISTRYINDEX, RESET_KEY);
+			ok = L.isFunction(-1) && L.pcall(0, 1, 0) == 0;
+			inUse = ok && !L.toBoolean(-1);
+			L.setTop(0);
+		}
+		if (inUse)
+			return;
+		if (ok) {
+			L.gc(LuaState.LUA_GCCOLLECT, 1);
+			if (offer(L))
+				return;
+		}
+		L.close();
+	}
+
+	private boolean offer(LuaState L) {
+		synchronized (this) {
+			if (!mGc && mIdle.size() < sMaxSize) {
+				mIdle.addLast(L);
+				return true;
+			}
+		}
+		L.close();
+		return false;
+	}
+
+	LuaState newState() throws LuaException {
+		LuaState L = LuaStateFactory.newLuaState();
+		L.openLibs();
+		L.pushJavaObject(mLuaContext.getContext());
+		if (mLuaContext instanceof LuaActivity) {
+			L.setGlobal("activity");
+		}
+		else if (mLuaContext instanceof LuaService) {
+			L.setGlobal("service");
+		}
+		else {
+			L.pop(1);
+		}
+		L.pushContext(mLuaContext);
+
+		JavaFunction print = new LuaPrint(mLuaContext, L);
+		print.register("print");
+
+		JavaFunction proc = new LuaProcess(mLuaContext, L);
+		proc.register("proc");
+
+		L.getGlobal("package");
+		L.pushString(mLuaContext.getLuaLpath());
+		L.setField(-2, "path");
+		L.pushString(mLuaContext.getLuaCpath());
+		L.setField(-2, "cpath");
+		L.pop(1);
+
+		L.getGlobal("luajava");
+		L.pushString(mLuaContext.getLuaDir());
+		L.setField(-2, "luadir");
+		L.pop(1);
+
+		// javascript/js/ai 在首次访问时创建
+		L.pushGlobalTable();
+		L.newTable();
+		L.pushJavaFunction(new LazyGlobals(mLuaContext, L));
+		L.setField(-2, "__index");
+		L.setMetaTable(-2);
+		L.pop(1);
+
+		// 先缓存 debug.traceback 的引用，使其属于初始环境而不被视为脚本遗留的引用
+		L.pushTraceback();
+		L.pop(1);
+
+		if (L.LloadString(SNAPSHOT) != 0) {
+			String msg = L.toString(-1);
+			L.close();
+			throw new LuaException("LuaStatePool: " + msg);
+		}
+		L.pushString(RESET_KEY);
+		if (L.pcall(1, 0, 0) != 0) {
+			String msg = L.toString(-1);
+			L.close();
+			throw new LuaException("LuaStatePool: " + msg);
+		}
+		L.setTop(0);
+		return L;
+	}
+
+	@Override
+	public void gc() {
+		synchronized (sPools) {
+			sPools.remove(mLuaContext);
+		}
+		synchronized (this) {
+			mGc = true;
+			for (LuaState L : mIdle)
+				L.close();
+			mIdle.clear();
+		}
+	}
+
+	@Override
+	public boolean isGc() {
+		return mGc;
+	}
+
+	/**
+	 * @return 当前空闲状态的数量
+	 */
+	synchronized int idleCount() {
+		return mIdle.size();
+	}
+
+	/**
+	 * 全局表的 __index，按需创建脚本引擎并写入全局表
+	 */
+	private static final class LazyGlobals extends JavaFunction {
+
+		private final LuaContext mLuaContext;
+
+		LazyGlobals(LuaContext luaContext, LuaState L) {
+			super(L);
+			mLuaContext = luaContext;
+		}
+
+		@Override
+		public int execute() throws LuaException {
+			if (L.type(3) != LuaState.LUA_TSTRING)
+				return 0;
+			String key = L.toString(3);
+			if (key.equals("javascript") || key.equals("js")) {
+				// 初始化 JavaScript 引擎并注册到 Lua
+				JavaScriptEngine jsEngine = new JavaScriptEngine(mLuaContext);
+				L.pushJavaObject(jsEngine);
+				L.pushValue(-1);
+				L.setField(2, "javascript");
+				L.pushValue(-1);
+				L.setField(2, "js");
+				return 1;
+			}
+			if (key.equals("ai")) {
+				AIEngine aiEngine = new AIEngine(mLuaContext);
+				L.pushJavaObject(aiEngine);
+				L.pushValue(-1);
+				L.setField(2, "ai");
+				return 1;
+			}
+			return 0;
+		}
+	}
+}
@@ -10,7 +10,6 @@ import com.luajava.LuaException;
 import com.luajava.LuaMetaTable;
 import com.luajava.LuaObject;
 import com.luajava.LuaState;
-import com.luajava.LuaStateFactory;
 
 import java.io.IOException;
 import java.util.regex.Pattern;
@@ -68,9 +67,9 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 		set(key, value);
 	}
 
-	private LuaState L;
+	private volatile LuaState L;
 	private Handler thandler;
-	public boolean isRun = false;
+	public volatile boolean isRun = false;
 	private LuaContext mLuaContext;
 
 	private boolean mIsLoop;
@@ -134,6 +133,7 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 		}
 		catch (LuaException e) {
 			mLuaContext.sendError(this.toString(), e);
+			releaseState();
 			return;
 		}
 		if (mIsLoop) {
@@ -149,11 +149,21 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 			Looper.loop();
 		}
 		isRun = false;
-		L.gc(LuaState.LUA_GCCOLLECT, 1);
+		releaseState();
 		System.gc();
 		return ;
 	}
 
+	/**
+	 * 把状态还给池，之后 call/set/push/get 都不再访问它
+	 */
+	private void releaseState() {
+		LuaState l = L;
+		L = null;
+		if (l != null)
+			LuaStatePool.of(mLuaContext).release(l);
+	}
+
 	public void call(String func) {
 		push(3, func);
 	}
@@ -170,8 +180,11 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 	}
 
 	public Object get(String key) throws LuaException {
-		L.getGlobal(key);
-		return L.toJavaObject(-1);
+		LuaState l = L;
+		if (l == null)
+			return null;
+		l.getGlobal(key);
+		return l.toJavaObject(-1);
 	}
 
 	public void quit() {
@@ -182,7 +195,7 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 	}
 
 	public void push(int what, String s) {
-		if (!isRun) {
+		if (!isRun || L == null) {
 			mLuaContext.sendMsg("thread is not running");
 			return;
 		}
@@ -198,7 +211,7 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 	}
 
 	public void push(int what, String s, Object[] args) {
-		if (!isRun) {
+		if (!isRun || L == null) {
 			mLuaContext.sendMsg("thread is not running");
 			return;
 		}
@@ -233,49 +246,10 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 	}
 
 
-	private void initLua() throws LuaException {		
-		L = LuaStateFactory.newLuaState();
-		L.openLibs();
-		L.pushJavaObject(mLuaContext.getContext());
-		if (mLuaContext instanceof LuaActivity) {
-			L.setGlobal("activity");
-		}
-		else if (mLuaContext instanceof LuaService) {
-			L.setGlobal("service");
-		}
+	private void initLua() throws LuaException {
+		L = LuaStatePool.of(mLuaContext).acquire();
 		L.pushJavaObject(this);
 		L.setGlobal("this");
-		L.pushContext(mLuaContext);
-
-
-		JavaFunction print = new LuaPrint(mLuaContext, L);
-		print.register("print");
-		
-		JavaFunction proc = new LuaProcess(mLuaContext, L);
-		proc.register("proc");
-
-		L.getGlobal("package"); 
-
-		L.pushString(mLuaContext.getLuaLpath());
-		L.setField(-2, "path");
-		L.pushString(mLuaContext.getLuaCpath());
-		L.setField(-2, "cpath");
-		L.pop(1);          
-
-		// 初始化 JavaScript 引擎并注册到 Lua
-		JavaScriptEngine jsEngine = new JavaScriptEngine(mLuaContext);
-		L.pushJavaObject(jsEngine);
-		L.setGlobal("javascript");
-		// 也注册为 js 别名
-		L.getGlobal("javascript");
-		L.setGlobal("js");
-   		AIEngine aiEngine = new AIEngine(mLuaContext);
-   		L.pushJavaObject(aiEngine);
-   		L.setGlobal("ai");
-   		// 也注册为 ai 别名（保持一致）
-   		L.getGlobal("ai");
-   		L.setGlobal("ai");
-        
 
 		JavaFunction set = new JavaFunction(L) {
 			@Override
@@ -343,9 +317,7 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 			ok = L.LloadBuffer(buf, "TimerTask");
 
 			if (ok == 0) {
-				L.getGlobal("debug");
-				L.getField(-1, "traceback");
-				L.remove(-2);
+				L.pushTraceback();
 				L.insert(-2);
 				int l=args.length;
 				for (int i=0;i < l;i++) {
@@ -370,9 +342,7 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 		ok = L.LloadFile(filePath);
 
 		if (ok == 0) {
-			L.getGlobal("debug");
-			L.getField(-1, "traceback");
-			L.remove(-2);
+			L.pushTraceback();
 			L.insert(-2);
 			int l=args.length;
 			for (int i=0;i < l;i++) {
@@ -394,9 +364,7 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 		ok = L.LloadBuffer(bytes, name);
 
 		if (ok == 0) {
-			L.getGlobal("debug");
-			L.getField(-1, "traceback");
-			L.remove(-2);
+			L.pushTraceback();
 			L.insert(-2);
 			int l=args.length;
 			for (int i=0;i < l;i++) {
@@ -415,9 +383,7 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 		int ok = L.LloadString(src);
 
 		if (ok == 0) {
-			L.getGlobal("debug");
-			L.getField(-1, "traceback");
-			L.remove(-2);
+			L.pushTraceback();
 			L.insert(-2);
 			int l=args.length;
 			for (int i=0;i < l;i++) {
@@ -438,9 +404,7 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 			L.setTop(0);
 			L.getGlobal(funcName);
 			if (L.isFunction(-1)) {
-				L.getGlobal("debug");
-				L.getField(-1, "traceback");
-				L.remove(-2);
+				L.pushTraceback();
 				L.insert(-2);
 
 				int l=args.length;
@@ -475,6 +439,8 @@ public class LuaThread extends Thread implements Runnable,LuaMetaTable,LuaGcable
 		@Override 
 		public void handleMessage(Message msg) { 
 			super.handleMessage(msg);
+			if (L == null)
+				return;
 			Bundle data=msg.getData();
 			switch (msg.what) {
 				case 0:
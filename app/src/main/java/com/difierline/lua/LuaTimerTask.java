@@ -149,51 +149,9 @@ public class LuaTimerTask extends TimerTaskX
 	
 	private void initLua() throws LuaException
 	{
-		L = LuaStateFactory.newLuaState();
-		L.openLibs();
-		L.pushJavaObject(mLuaContext);
-		if(mLuaContext instanceof LuaActivity)
-		{
-			L.setGlobal("activity");
-		}
-		else if(mLuaContext instanceof LuaService)
-		{
-			L.setGlobal("service");
-		}
+		L = LuaStatePool.of(mLuaContext).acquire();
 		L.pushJavaObject(this);
 		L.setGlobal("this");
-		
-		L.pushContext(mLuaContext);
-		
-
-		JavaFunction print = new LuaPrint(mLuaContext,L);
-		print.register("print");
-		
-		JavaFunction proc = new LuaProcess(mLuaContext, L);
-		proc.register("proc");
-
-		L.getGlobal("package"); 
-		
-		L.pushString(mLuaContext.getLuaLpath());
-		L.setField(-2, "path");
-		L.pushString(mLuaContext.getLuaCpath());
-		L.setField(-2, "cpath");
-		L.pop(1);          
-
-		// 初始化 JavaScript 引擎并注册到 Lua
-		JavaScriptEngine jsEngine = new JavaScriptEngine(mLuaContext);
-		L.pushJavaObject(jsEngine);
-		L.setGlobal("javascript");
-		// 也注册为 js 别名
-		L.getGlobal("javascript");
-		L.setGlobal("js");
-        AIEngine aiEngine = new AIEngine(mLuaContext);
-        L.pushJavaObject(aiEngine);
-        L.setGlobal("ai");
-        // 也注册为 ai 别名（保持一致）
-        L.getGlobal("ai");
-        L.setGlobal("ai");
-        
 
 		JavaFunction set = new JavaFunction(L) {
 			@Override
@@ -273,9 +231,7 @@ public class LuaTimerTask extends TimerTaskX
 
 		if (ok == 0)
 		{
-			L.getGlobal("debug");
-			L.getField(-1, "traceback");
-			L.remove(-2);
+			L.pushTraceback();
 			L.insert(-2);
 			int l=args.length;
 			for (int i=0;i < l;i++)
@@ -299,9 +255,7 @@ public class LuaTimerTask extends TimerTaskX
 
 		if (ok == 0)
 		{
-			L.getGlobal("debug");
-			L.getField(-1, "traceback");
-			L.remove(-2);
+			L.pushTraceback();
 			L.insert(-2);
 			int l=args.length;
 			for (int i=0;i < l;i++)
@@ -326,9 +280,7 @@ public class LuaTimerTask extends TimerTaskX
 
 		if (ok == 0)
 		{
-			L.getGlobal("debug");
-			L.getField(-1, "traceback");
-			L.remove(-2);
+			L.pushTraceback();
 			L.insert(-2);
 			int l=args.length;
 			for (int i=0;i < l;i++)
@@ -351,9 +303,7 @@ public class LuaTimerTask extends TimerTaskX
 
 		if (ok == 0)
 		{
-			L.getGlobal("debug");
-			L.getField(-1, "traceback");
-			L.remove(-2);
+			L.pushTraceback();
 			L.insert(-2);
 			int l=args.length;
 			for (int i=0;i < l;i++)
@@ -379,9 +329,7 @@ public class LuaTimerTask extends TimerTaskX
 			L.getGlobal(funcName);
 			if (L.isFunction(-1))
 			{
-				L.getGlobal("debug");
-				L.getField(-1, "traceback");
-				L.remove(-2);
+				L.pushTraceback();
 				L.insert(-2);
 
 				int l=args.length;
@@ -1,5 +1,7 @@
 package com.difierline.lua;
 
+import android.content.Context;
+
 import com.luajava.LuaState;
 import com.luajava.LuaObject;
 import com.luajava.LuaException;
@@ -302,6 +304,24 @@ public class LuaToJavaEngine {
         }
     }
 
+    /**
+     * 编译 Lua 代码为 dex 并加载，不生成 Java 源码
+     * 生成的 dex 缓存在应用私有目录，相同代码再次编译时直接加载
+     * @param luaCode Lua 源代码
+     * @return 可直接执行的函数
+     */
+    public CompiledFunction compileToFunction(String luaCode) {
+        if (luaCode == null || luaCode.isEmpty()) {
+            throw new IllegalArgumentException("Lua 代码不能为空");
+        }
+        try {
+            File dexCache = luaContext.getContext().getDir("luatojava", Context.MODE_PRIVATE);
+            return converter.compileToFunction(luaCode, dexCache);
+        } catch (Exception e) {
+            throw new RuntimeException("编译 Lua 代码失败: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * 获取当前配置选项
      * @return 配置选项的 Map
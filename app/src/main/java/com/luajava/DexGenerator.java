@@ -0,0 +1,1341 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+import com.android.cglib.dx.BinaryOp;
+import com.android.cglib.dx.Code;
+import com.android.cglib.dx.Comparison;
+import com.android.cglib.dx.DexMaker;
+import com.android.cglib.dx.Label;
+import com.android.cglib.dx.Local;
+import com.android.cglib.dx.MethodId;
+import com.android.cglib.dx.TypeId;
+import com.android.cglib.dx.UnaryOp;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+
+import static com.luajava.LuaToJava.*;
+import static com.luajava.RegisterGenerator.ANY;
+import static com.luajava.RegisterGenerator.BOOL;
+import static com.luajava.RegisterGenerator.FLOAT;
+import static com.luajava.RegisterGenerator.INT;
+
+/**
+ * LuaToJava的dex后端
+ * 不经过Java源码，把函数原型直接降低为DexMaker的指令。
+ * 变量合并与类型推断复用{@link RegisterGenerator}，整数、浮点数和布尔变量成为dex寄存器，
+ * 其余仍位于Lua栈上对应的槽位。每条Lua指令对应一个标签，跳转直接生成goto，不需要分派循环。
+ * 生成的类实现{@link CompiledFunction}，每个原型对应一个{@code public int name(LuaJava)}方法，
+ * 闭包通过{@link LuaJava#pushJavaFunction(Object, String, int)}创建
+ *
+ * @author DifierLine
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+final class DexGenerator {
+
+    // ==================== 类型与方法 ====================
+
+    private static final TypeId LUA = TypeId.get(LuaJava.class);
+    private static final TypeId FUNCTION = TypeId.get(CompiledFunction.class);
+    private static final TypeId MATH = TypeId.get(Math.class);
+    private static final TypeId I = TypeId.INT;
+    private static final TypeId J = TypeId.LONG;
+    private static final TypeId D = TypeId.DOUBLE;
+    private static final TypeId Z = TypeId.BOOLEAN;
+    private static final TypeId S = TypeId.STRING;
+    private static final TypeId V = TypeId.VOID;
+
+    private static final MethodId CHECK_STACK = LUA.getMethod(I, "checkStack", I);
+    private static final MethodId SET_TOP = LUA.getMethod(V, "setTop", I);
+    private static final MethodId GET_TOP = LUA.getMethod(I, "getTop");
+    private static final MethodId POP = LUA.getMethod(V, "pop", I);
+    private static final MethodId PUSH_VALUE = LUA.getMethod(V, "pushValue", I);
+    private static final MethodId REPLACE = LUA.getMethod(V, "replace", I);
+    private static final MethodId REMOVE = LUA.getMethod(V, "remove", I);
+    private static final MethodId COPY = LUA.getMethod(V, "copy", I, I);
+    private static final MethodId PUSH_NIL = LUA.getMethod(V, "pushNil");
+    private static final MethodId PUSH_BOOLEAN = LUA.getMethod(V, "pushBoolean", Z);
+    private static final MethodId PUSH_INTEGER = LUA.getMethod(V, "pushInteger", J);
+    private static final MethodId PUSH_NUMBER = LUA.getMethod(V, "pushNumber", D);
+    private static final MethodId PUSH_STRING = LUA.getMethod(V, "pushString", S);
+    private static final MethodId TO_BOOLEAN = LUA.getMethod(Z, "toBoolean", I);
+    private static final MethodId TO_INTEGER = LUA.getMethod(J, "toInteger", I);
+    private static final MethodId TO_NUMBER = LUA.getMethod(D, "toNumber", I);
+    private static final MethodId IS_NIL = LUA.getMethod(Z, "isNil", I);
+    private static final MethodId IS_INTEGER = LUA.getMethod(Z, "isInteger", I);
+    private static final MethodId CREATE_TABLE = LUA.getMethod(V, "createTable", I, I);
+    private static final MethodId GET_TABLE = LUA.getMethod(I, "getTable", I);
+    private static final MethodId SET_TABLE = LUA.getMethod(V, "setTable", I);
+    private static final MethodId GET_FIELD = LUA.getMethod(I, "getField", I, S);
+    private static final MethodId SET_FIELD = LUA.getMethod(V, "setField", I, S);
+    private static final MethodId GET_I = LUA.getMethod(I, "getI", I, J);
+    private static final MethodId SET_I = LUA.getMethod(V, "setI", I, J);
+    private static final MethodId RAW_GET_I = LUA.getMethod(I, "rawGetI", I, J);
+    private static final MethodId RAW_SET_I = LUA.getMethod(V, "rawSetI", I, J);
+    private static final MethodId CALL = LUA.getMethod(V, "call", I, I);
+    private static final MethodId ARITH = LUA.getMethod(V, "arith", I);
+    private static final MethodId COMPARE = LUA.getMethod(I, "compare", I, I, I);
+    private static final MethodId LEN = LUA.getMethod(V, "len", I);
+    private static final MethodId CONCAT = LUA.getMethod(V, "concat", I);
+    private static final MethodId TO_CLOSE = LUA.getMethod(V, "toClose", I);
+    private static final MethodId CLOSE_SLOT = LUA.getMethod(V, "closeSlot", I);
+    private static final MethodId THROW_ERROR = LUA.getMethod(V, "throwError", S);
+    private static final MethodId TFOR_PREP = LUA.getMethod(V, "tforPrep", I);
+    private static final MethodId FOR_COUNT_AT = LUA.getMethod(J, "forCountAt", J, I, J);
+    private static final MethodId FOR_NUMBER = LUA.getMethod(D, "forNumber", I, S);
+    private static final MethodId PUSH_JAVA_FUNCTION = LUA.getMethod(V, "pushJavaFunction", TypeId.OBJECT, S, I);
+    private static final MethodId FOR_COUNT = LUA.getMethod(J, "forCount", J, J, J);
+    private static final MethodId FOR_COUNT_FLOAT = LUA.getMethod(J, "forCount", J, D, J);
+    private static final MethodId IMOD = LUA.getMethod(J, "imod", J, J);
+    private static final MethodId IDIV = LUA.getMethod(J, "idiv", J, J);
+    private static final MethodId FMOD = LUA.getMethod(D, "fmod", D, D);
+    private static final MethodId SHIFT_LEFT = LUA.getMethod(J, "shiftLeft", J, J);
+    private static final MethodId POW = MATH.getMethod(D, "pow", D, D);
+    private static final MethodId FLOOR = MATH.getMethod(D, "floor", D);
+
+    private static final int[] ARITH_OPS = new int[OP_SHR + 1];
+
+    static {
+        ARITH_OPS[OP_ADD] = LuaJava.LUA_OPADD;
+        ARITH_OPS[OP_SUB] = LuaJava.LUA_OPSUB;
+        ARITH_OPS[OP_MUL] = LuaJava.LUA_OPMUL;
+        ARITH_OPS[OP_MOD] = LuaJava.LUA_OPMOD;
+        ARITH_OPS[OP_POW] = LuaJava.LUA_OPPOW;
+        ARITH_OPS[OP_DIV] = LuaJava.LUA_OPDIV;
+        ARITH_OPS[OP_IDIV] = LuaJava.LUA_OPIDIV;
+        ARITH_OPS[OP_BAND] = LuaJava.LUA_OPBAND;
+        ARITH_OPS[OP_BOR] = LuaJava.LUA_OPBOR;
+        ARITH_OPS[OP_BXOR] = LuaJava.LUA_OPBXOR;
+        ARITH_OPS[OP_SHL] = LuaJava.LUA_OPSHL;
+        ARITH_OPS[OP_SHR] = LuaJava.LUA_OPSHR;
+    }
+
+    private final RegisterGenerator g;
+    private final ProtoInfo proto;
+    private final InstructionInfo[] code;
+    private final int n;
+    private final int nregs;
+    private final TypeId type;
+    private Code dx;
+
+    // ==================== 寄存器 ====================
+
+    private Local L;
+    private Local self;
+    /** 类型化变量，位于Lua栈上的变量为null */
+    private Local[] vars;
+    /** 每条指令的标签，最后一个为函数末尾 */
+    private Label[] labels;
+    private Local i0, i1, i2, cmp, cnt, ret;
+    private Local l0, l1;
+    private Local d0, d1, d2;
+    private Local z0, z1;
+    private Local str;
+    private Local izero, lzero, lone, dzero, zfalse;
+    /** 按FORPREP位置索引的循环变量 */
+    private Local[] forI, forS, forN, forD, forL, forDS, forFI;
+
+    private DexGenerator(RegisterGenerator g, ProtoInfo proto, TypeId type) {
+        this.g = g;
+        this.proto = proto;
+        this.code = g.code;
+        this.n = g.n;
+        this.nregs = g.nregs;
+        this.type = type;
+    }
+
+    /**
+     * 生成类
+     * @param owner 转换器
+     * @param protos 全部原型，第0个为主函数，名称已分配
+     * @param className 类名，包名以/分隔
+     * @return 已声明全部方法的DexMaker
+     * @throws LuaException 存在后端不支持的函数
+     */
+    static DexMaker generate(LuaToJava owner, ArrayList<ProtoInfo> protos, String className) throws LuaException {
+        TypeId type = TypeId.get("L" + className + ";");
+        DexMaker dexMaker = new DexMaker();
+        dexMaker.declare(type, className + ".generated", Modifier.PUBLIC | Modifier.FINAL, TypeId.OBJECT, FUNCTION);
+
+        Code ctor = dexMaker.declare(type.getConstructor(), Modifier.PUBLIC);
+        ctor.invokeDirect(TypeId.OBJECT.getConstructor(), null, ctor.getThis(type));
+        ctor.returnVoid();
+
+        for (ProtoInfo proto : protos) {
+            // 指令按函数解码，生成后即释放
+            proto.instrInfo = ProtoReader.decode(proto.code);
+            try {
+                RegisterGenerator g = RegisterGenerator.analyze(owner, proto);
+                if (g == null) {
+                    throw new LuaException("dex后端不支持函数" + proto.name + "(可变参数或扩展指令)");
+                }
+                new DexGenerator(g, proto, type).emitFunction(dexMaker);
+            } finally {
+                proto.instrInfo = null;
+            }
+        }
+
+        ProtoInfo main = protos.get(0);
+        Code execute = dexMaker.declare(type.getMethod(I, "execute", LUA), Modifier.PUBLIC);
+        Local result = execute.newLocal(I);
+        execute.invokeVirtual(type.getMethod(I, main.name, LUA), result,
+                execute.getThis(type), execute.getParameter(0, LUA));
+        execute.returnValue(result);
+
+        declareConstant(dexMaker, type, I, "getFunctionId", 0);
+        declareConstant(dexMaker, type, S, "getFunctionName", main.name);
+        declareConstant(dexMaker, type, I, "getNumParams", main.numParams);
+        declareConstant(dexMaker, type, Z, "isVararg", main.isVararg);
+        declareConstant(dexMaker, type, I, "getNumUpvalues", main.sizeUpvalues);
+        return dexMaker;
+    }
+
+    private static void declareConstant(DexMaker dexMaker, TypeId type, TypeId ret, String name, Object value) {
+        Code c = dexMaker.declare(type.getMethod(ret, name), Modifier.PUBLIC);
+        Local v = c.newLocal(ret);
+        c.loadConstant(v, value);
+        c.returnValue(v);
+    }
+
+    // ==================== 函数 ====================
+
+    private void emitFunction(DexMaker dexMaker) {
+        dx = dexMaker.declare(type.getMethod(I, proto.name, LUA), Modifier.PUBLIC);
+        L = dx.getParameter(0, LUA);
+        self = dx.getThis(type);
+
+        // 局部变量须在第一条指令之前分配
+        vars = new Local[g.ndefs];
+        for (int d = 0; d < g.ndefs; d++) {
+            if (g.find(d) != d) {
+                continue;
+            }
+            switch (g.kind[d]) {
+                case INT: vars[d] = dx.newLocal(J); break;
+                case FLOAT: vars[d] = dx.newLocal(D); break;
+                case BOOL: vars[d] = dx.newLocal(Z); break;
+                default: break;
+            }
+        }
+        forI = new Local[n];
+        forS = new Local[n];
+        forN = new Local[n];
+        forD = new Local[n];
+        forL = new Local[n];
+        forDS = new Local[n];
+        forFI = new Local[n];
+        for (int p = 0; p < n; p++) {
+            if (g.forLoopOf[p] < 0) {
+                continue;
+            }
+            int k = g.forKind(p);
+            if (k != FLOAT) {
+                forI[p] = dx.newLocal(J);
+                forS[p] = dx.newLocal(J);
+                forN[p] = dx.newLocal(J);
+            }
+            if (k != INT) {
+                forD[p] = dx.newLocal(D);
+                forL[p] = dx.newLocal(D);
+                forDS[p] = dx.newLocal(D);
+            }
+            if (k != INT && k != FLOAT) {
+                forFI[p] = dx.newLocal(Z);
+            }
+        }
+        i0 = dx.newLocal(I);
+        i1 = dx.newLocal(I);
+        i2 = dx.newLocal(I);
+        cmp = dx.newLocal(I);
+        cnt = dx.newLocal(I);
+        ret = dx.newLocal(I);
+        l0 = dx.newLocal(J);
+        l1 = dx.newLocal(J);
+        d0 = dx.newLocal(D);
+        d1 = dx.newLocal(D);
+        d2 = dx.newLocal(D);
+        z0 = dx.newLocal(Z);
+        z1 = dx.newLocal(Z);
+        str = dx.newLocal(S);
+        izero = dx.newLocal(I);
+        lzero = dx.newLocal(J);
+        lone = dx.newLocal(J);
+        dzero = dx.newLocal(D);
+        zfalse = dx.newLocal(Z);
+
+        dx.loadConstant(izero, 0);
+        dx.loadConstant(lzero, 0L);
+        dx.loadConstant(lone, 1L);
+        dx.loadConstant(dzero, 0.0);
+        dx.loadConstant(zfalse, false);
+        // 校验器要求寄存器在所有路径上都已赋值
+        for (Local v : vars) {
+            zero(v);
+        }
+        for (int p = 0; p < n; p++) {
+            zero(forI[p]);
+            zero(forS[p]);
+            zero(forN[p]);
+            zero(forD[p]);
+            zero(forL[p]);
+            zero(forDS[p]);
+            zero(forFI[p]);
+        }
+        invoke(CHECK_STACK, null, iconst(i0, 2 * nregs + 8));
+        invoke(SET_TOP, null, iconst(i0, nregs));
+
+        labels = new Label[n + 1];
+        for (int pc = 0; pc <= n; pc++) {
+            labels[pc] = new Label();
+        }
+        // dx不会删除无前驱的基本块，不可达的指令不能生成
+        boolean[] live = reachable();
+        for (int pc = 0; pc < n; pc++) {
+            if (live[pc]) {
+                dx.mark(labels[pc]);
+                emitInstruction(pc);
+            }
+        }
+        if (live[n]) {
+            dx.mark(labels[n]);
+            returnCount(0);
+        }
+    }
+
+    private boolean[] reachable() {
+        boolean[] live = new boolean[n + 1];
+        int[] stack = new int[n + 1];
+        int sp = 0;
+        live[0] = true;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int pc = stack[--sp];
+            if (pc == n) {
+                continue;
+            }
+            for (int t : g.succ[pc]) {
+                if (!live[t]) {
+                    live[t] = true;
+                    stack[sp++] = t;
+                }
+            }
+        }
+        return live;
+    }
+
+    private void zero(Local v) {
+        if (v == null) {
+            return;
+        }
+        if (v.getType().equals(J)) {
+            dx.loadConstant(v, 0L);
+        } else if (v.getType().equals(D)) {
+            dx.loadConstant(v, 0.0);
+        } else {
+            dx.loadConstant(v, false);
+        }
+    }
+
+    // ==================== 基本操作 ====================
+
+    private Local iconst(Local t, int v) {
+        dx.loadConstant(t, v);
+        return t;
+    }
+
+    private void invoke(MethodId m, Local target, Local... args) {
+        dx.invokeVirtual(m, target, L, args);
+    }
+
+    private void invoke(MethodId m, int arg) {
+        invoke(m, null, iconst(i0, arg));
+    }
+
+    /** 跳转到目标指令，目标紧随其后时直接落入 */
+    private void goTo(int pc, int target) {
+        if (target != pc + 1) {
+            dx.jump(labels[Math.min(target, n)]);
+        }
+    }
+
+    private void returnCount(int count) {
+        dx.loadConstant(ret, count);
+        dx.returnValue(ret);
+    }
+
+    private void returnTop() {
+        invoke(GET_TOP, ret);
+        dx.op(BinaryOp.SUBTRACT, ret, ret, iconst(i0, nregs));
+        dx.returnValue(ret);
+    }
+
+    // ==================== 值访问 ====================
+
+    /** 类型化使用 */
+    private Local use(int pc, int r) {
+        return vars[g.useVar(pc, r)];
+    }
+
+    private void push(int pc, int r) {
+        int v = g.useVar(pc, r);
+        switch (g.kind[v]) {
+            case INT: invoke(PUSH_INTEGER, null, vars[v]); break;
+            case FLOAT: invoke(PUSH_NUMBER, null, vars[v]); break;
+            case BOOL: invoke(PUSH_BOOLEAN, null, vars[v]); break;
+            default: invoke(PUSH_VALUE, r + 1); break;
+        }
+    }
+
+    private void pushTyped(Local e, int k) {
+        switch (k) {
+            case INT: invoke(PUSH_INTEGER, null, e); break;
+            case FLOAT: invoke(PUSH_NUMBER, null, e); break;
+            default: invoke(PUSH_BOOLEAN, null, e); break;
+        }
+    }
+
+    private void pushK(int idx) {
+        if (idx < 0 || idx >= proto.constants.length) {
+            invoke(PUSH_NIL, null);
+            return;
+        }
+        Object v = proto.constants[idx];
+        switch (proto.constantTypes[idx]) {
+            case LUA_TBOOLEAN:
+            case LUA_TNUMBER: {
+                int k = g.constKind(idx);
+                pushTyped(constant(idx, k, l0, d0, z0), k);
+                break;
+            }
+            case LUA_TSTRING:
+                dx.loadConstant(str, (String) v);
+                invoke(PUSH_STRING, null, str);
+                break;
+            default:
+                invoke(PUSH_NIL, null);
+                break;
+        }
+    }
+
+    private void pushRK(int pc, int c, boolean k) {
+        if (k) {
+            pushK(c);
+        } else {
+            push(pc, c);
+        }
+    }
+
+    /** 把类型化常量载入对应类型的临时寄存器 */
+    private Local constant(int idx, int k, Local lt, Local dt, Local zt) {
+        Object v = proto.constants[idx];
+        switch (k) {
+            case INT:
+                dx.loadConstant(lt, ((Number) v).longValue());
+                return lt;
+            case FLOAT:
+                dx.loadConstant(dt, ((Number) v).doubleValue());
+                return dt;
+            default:
+                dx.loadConstant(zt, Boolean.TRUE.equals(v));
+                return zt;
+        }
+    }
+
+    /** 写入寄存器r的目标：类型化变量本身，变量位于栈上时为临时寄存器 */
+    private Local target(int pc, int r, int k) {
+        Local v = vars[g.defVar(pc, r)];
+        if (v != null) {
+            return v;
+        }
+        switch (k) {
+            case INT: return l0;
+            case FLOAT: return d2;
+            default: return z0;
+        }
+    }
+
+    /** 完成对{@link #target}的写入，目标位于栈上时压栈后替换 */
+    private void store(int pc, int r, Local t, int k) {
+        if (vars[g.defVar(pc, r)] == null) {
+            pushTyped(t, k);
+            invoke(REPLACE, r + 1);
+        }
+    }
+
+    private void assign(int pc, int r, Local e, int k) {
+        Local v = vars[g.defVar(pc, r)];
+        if (v == null) {
+            pushTyped(e, k);
+            invoke(REPLACE, r + 1);
+        } else if (v != e) {
+            dx.move(v, e);
+        }
+    }
+
+    /** 把栈顶的值写入寄存器并出栈 */
+    private void assignTop(int pc, int r) {
+        int v = g.defVar(pc, r);
+        switch (g.kind[v]) {
+            case INT: invoke(TO_INTEGER, vars[v], iconst(i0, -1)); invoke(POP, 1); break;
+            case FLOAT: invoke(TO_NUMBER, vars[v], iconst(i0, -1)); invoke(POP, 1); break;
+            case BOOL: invoke(TO_BOOLEAN, vars[v], iconst(i0, -1)); invoke(POP, 1); break;
+            default: invoke(REPLACE, r + 1); break;
+        }
+    }
+
+    private void move(int pc, int a, int b) {
+        Local dv = vars[g.defVar(pc, a)];
+        int sv = g.useVar(pc, b);
+        if (dv != null) {
+            dx.move(dv, vars[sv]);
+        } else if (vars[sv] == null) {
+            if (a != b) {
+                invoke(COPY, null, iconst(i0, b + 1), iconst(i1, a + 1));
+            }
+        } else {
+            push(pc, b);
+            invoke(REPLACE, a + 1);
+        }
+    }
+
+    /** 寄存器的真值，结果位于布尔寄存器 */
+    private Local truthy(int pc, int r) {
+        int v = g.useVar(pc, r);
+        switch (g.kind[v]) {
+            case BOOL:
+                return vars[v];
+            case INT: case FLOAT:
+                dx.loadConstant(z0, true);
+                return z0;
+            default:
+                invoke(TO_BOOLEAN, z0, iconst(i0, r + 1));
+                return z0;
+        }
+    }
+
+    private void not(Local t, Local x) {
+        Label isTrue = new Label();
+        Label done = new Label();
+        dx.compare(Comparison.NE, isTrue, x, zfalse);
+        dx.loadConstant(t, true);
+        dx.jump(done);
+        dx.mark(isTrue);
+        dx.loadConstant(t, false);
+        dx.mark(done);
+    }
+
+    private boolean isEnv(int upval) {
+        return g.isEnv(upval);
+    }
+
+    private void pushEnv() {
+        dx.loadConstant(l0, 2L);
+        invoke(RAW_GET_I, null, iconst(i0, LuaJava.LUA_REGISTRYINDEX), l0);
+    }
+
+    private Local key(int idx) {
+        dx.loadConstant(str, (String) proto.constants[idx]);
+        return str;
+    }
+
+    // ==================== 算术 ====================
+
+    /** 类型化算术，结果类型由RegisterGenerator推断 */
+    private void arith(int op, Local t, Local x, int kx, Local y, int ky, int k) {
+        if (k == INT) {
+            switch (op) {
+                case OP_ADD: dx.op(BinaryOp.ADD, t, x, y); break;
+                case OP_SUB: dx.op(BinaryOp.SUBTRACT, t, x, y); break;
+                case OP_MUL: dx.op(BinaryOp.MULTIPLY, t, x, y); break;
+                case OP_MOD: dx.invokeStatic(IMOD, t, x, y); break;
+                case OP_IDIV: dx.invokeStatic(IDIV, t, x, y); break;
+                case OP_BAND: dx.op(BinaryOp.AND, t, x, y); break;
+                case OP_BOR: dx.op(BinaryOp.OR, t, x, y); break;
+                case OP_BXOR: dx.op(BinaryOp.XOR, t, x, y); break;
+                case OP_SHL: dx.invokeStatic(SHIFT_LEFT, t, x, y); break;
+                default:
+                    dx.op(UnaryOp.NEGATE, l1, y);
+                    dx.invokeStatic(SHIFT_LEFT, t, x, l1);
+                    break;
+            }
+            return;
+        }
+        if (kx == INT) {
+            dx.cast(d0, x);
+            x = d0;
+        }
+        if (ky == INT) {
+            dx.cast(d1, y);
+            y = d1;
+        }
+        switch (op) {
+            case OP_ADD: dx.op(BinaryOp.ADD, t, x, y); break;
+            case OP_SUB: dx.op(BinaryOp.SUBTRACT, t, x, y); break;
+            case OP_MUL: dx.op(BinaryOp.MULTIPLY, t, x, y); break;
+            case OP_DIV: dx.op(BinaryOp.DIVIDE, t, x, y); break;
+            case OP_MOD: dx.invokeStatic(FMOD, t, x, y); break;
+            case OP_IDIV:
+                dx.op(BinaryOp.DIVIDE, t, x, y);
+                dx.invokeStatic(FLOOR, t, t);
+                break;
+            default: dx.invokeStatic(POW, t, x, y); break;
+        }
+    }
+
+    private void emitArith(int pc) {
+        InstructionInfo in = code[pc];
+        int op = in.opcode;
+        int base = RegisterGenerator.baseArith(op);
+        int k = g.naturalKind(pc, in.a);
+        if (op == OP_SHLI) {
+            // R[A] := sC << R[B]
+            dx.loadConstant(l1, (long) in.sc);
+            if (k != ANY) {
+                Local t = target(pc, in.a, INT);
+                dx.invokeStatic(SHIFT_LEFT, t, l1, use(pc, in.b));
+                store(pc, in.a, t, INT);
+            } else {
+                invoke(PUSH_INTEGER, null, l1);
+                push(pc, in.b);
+                invoke(ARITH, LuaJava.LUA_OPSHL);
+                assignTop(pc, in.a);
+            }
+            return;
+        }
+        if (k != ANY) {
+            Local y;
+            int ky;
+            switch (op) {
+                case OP_ADDI: case OP_SHRI:
+                    dx.loadConstant(l1, (long) in.sc);
+                    y = l1;
+                    ky = INT;
+                    break;
+                case OP_ADD: case OP_SUB: case OP_MUL: case OP_MOD: case OP_POW: case OP_DIV:
+                case OP_IDIV: case OP_BAND: case OP_BOR: case OP_BXOR: case OP_SHL: case OP_SHR:
+                    y = use(pc, in.c);
+                    ky = g.useKind(pc, in.c);
+                    break;
+                default:
+                    ky = g.constKind(in.c);
+                    y = constant(in.c, ky, l1, d1, z1);
+                    break;
+            }
+            Local t = target(pc, in.a, k);
+            arith(base, t, use(pc, in.b), g.useKind(pc, in.b), y, ky, k);
+            store(pc, in.a, t, k);
+            return;
+        }
+        push(pc, in.b);
+        switch (op) {
+            case OP_ADDI: case OP_SHRI:
+                dx.loadConstant(l1, (long) in.sc);
+                invoke(PUSH_INTEGER, null, l1);
+                break;
+            case OP_ADD: case OP_SUB: case OP_MUL: case OP_MOD: case OP_POW: case OP_DIV:
+            case OP_IDIV: case OP_BAND: case OP_BOR: case OP_BXOR: case OP_SHL: case OP_SHR:
+                push(pc, in.c);
+                break;
+            default:
+                pushK(in.c);
+                break;
+        }
+        invoke(ARITH, ARITH_OPS[base]);
+        assignTop(pc, in.a);
+    }
+
+    // ==================== 比较 ====================
+
+    /** 比较操作数：寄存器、常量或立即数 */
+    private static final class Operand {
+        int kind;
+        int reg = -1;
+        int konst = -1;
+        long imm;
+    }
+
+    private Operand regOperand(int pc, int r) {
+        Operand o = new Operand();
+        o.kind = g.useKind(pc, r);
+        o.reg = r;
+        return o;
+    }
+
+    private Operand constOperand(int idx) {
+        Operand o = new Operand();
+        o.kind = g.constKind(idx);
+        o.konst = idx;
+        return o;
+    }
+
+    private Operand immOperand(long v) {
+        Operand o = new Operand();
+        o.kind = INT;
+        o.imm = v;
+        return o;
+    }
+
+    private Local typed(int pc, Operand o, Local lt, Local dt, Local zt) {
+        if (o.reg >= 0) {
+            return use(pc, o.reg);
+        }
+        if (o.konst >= 0) {
+            return constant(o.konst, o.kind, lt, dt, zt);
+        }
+        dx.loadConstant(lt, o.imm);
+        return lt;
+    }
+
+    /** 操作数位于栈上时返回其索引，否则压栈并返回0 */
+    private int stackIndex(int pc, Operand o) {
+        if (o.reg >= 0 && o.kind == ANY) {
+            return o.reg + 1;
+        }
+        if (o.reg >= 0) {
+            push(pc, o.reg);
+        } else if (o.konst >= 0) {
+            pushK(o.konst);
+        } else {
+            dx.loadConstant(l0, o.imm);
+            invoke(PUSH_INTEGER, null, l0);
+        }
+        return 0;
+    }
+
+    private static Comparison comparison(int op, boolean when) {
+        switch (op) {
+            case LUA_OPLT: return when ? Comparison.LT : Comparison.GE;
+            case LUA_OPLE: return when ? Comparison.LE : Comparison.GT;
+            default: return when ? Comparison.EQ : Comparison.NE;
+        }
+    }
+
+    /**
+     * 比较结果等于when时跳转到target
+     * @param op LUA_OPEQ/LUA_OPLT/LUA_OPLE
+     */
+    private void compareJump(int pc, int op, Operand x, Operand y, boolean when, Label target) {
+        if (RegisterGenerator.isNumeric(x.kind) && RegisterGenerator.isNumeric(y.kind)) {
+            Local a = typed(pc, x, l0, d0, z0);
+            Local b = typed(pc, y, l1, d1, z1);
+            if (x.kind == INT && y.kind == INT) {
+                dx.compareLongs(cmp, a, b);
+            } else {
+                if (x.kind == INT) {
+                    dx.cast(d0, a);
+                    a = d0;
+                }
+                if (y.kind == INT) {
+                    dx.cast(d1, b);
+                    b = d1;
+                }
+                // NaN与任何数比较都不成立
+                dx.compareFloatingPoint(cmp, a, b, 1);
+            }
+            dx.compare(comparison(op, when), target, cmp, izero);
+            return;
+        }
+        if (op == LUA_OPEQ && x.kind != ANY && y.kind != ANY) {
+            if (x.kind == BOOL && y.kind == BOOL) {
+                Local a = typed(pc, x, l0, d0, z0);
+                Local b = typed(pc, y, l1, d1, z1);
+                dx.compare(when ? Comparison.EQ : Comparison.NE, target, a, b);
+            } else {
+                // 类型不同的值不相等
+                dx.loadConstant(z0, !when);
+                dx.compare(Comparison.NE, target, z0, zfalse);
+            }
+            return;
+        }
+        int ix = stackIndex(pc, x);
+        int iy = stackIndex(pc, y);
+        int pushed = (ix == 0 ? 1 : 0) + (iy == 0 ? 1 : 0);
+        if (ix == 0) ix = iy == 0 ? -2 : -1;
+        if (iy == 0) iy = -1;
+        invoke(COMPARE, cmp, iconst(i0, ix), iconst(i1, iy), iconst(i2, op));
+        if (pushed > 0) {
+            invoke(POP, pushed);
+        }
+        dx.compare(when ? Comparison.NE : Comparison.EQ, target, cmp, izero);
+    }
+
+    /** 比较成立与k不同时跳过下一条指令 */
+    private void branch(int pc, int op, Operand x, Operand y) {
+        compareJump(pc, op, x, y, code[pc].k == 0, labels[pc + 2]);
+        goTo(pc, pc + 1);
+    }
+
+    private void test(int pc, Local cond) {
+        dx.compare(code[pc].k == 0 ? Comparison.NE : Comparison.EQ, labels[pc + 2], cond, zfalse);
+    }
+
+    // ==================== 指令 ====================
+
+    private void emitInstruction(int pc) {
+        InstructionInfo in = code[pc];
+        int a = in.a, b = in.b, c = in.c;
+        boolean k = in.k != 0;
+        switch (in.opcode) {
+            case OP_MOVE:
+                move(pc, a, b);
+                break;
+            case OP_LOADI: {
+                Local t = target(pc, a, INT);
+                dx.loadConstant(t, (long) in.sbx);
+                store(pc, a, t, INT);
+                break;
+            }
+            case OP_LOADF: {
+                Local t = target(pc, a, FLOAT);
+                dx.loadConstant(t, (double) in.sbx);
+                store(pc, a, t, FLOAT);
+                break;
+            }
+            case OP_LOADK:
+            case OP_LOADKX: {
+                int idx = in.opcode == OP_LOADK ? (int) in.bx : (int) code[pc + 1].ax;
+                int kk = g.constKind(idx);
+                if (kk != ANY) {
+                    assign(pc, a, constant(idx, kk, l0, d2, z0), kk);
+                } else {
+                    pushK(idx);
+                    assignTop(pc, a);
+                }
+                break;
+            }
+            case OP_LOADFALSE:
+            case OP_LOADTRUE:
+            case OP_LFALSESKIP: {
+                Local t = target(pc, a, BOOL);
+                dx.loadConstant(t, in.opcode == OP_LOADTRUE);
+                store(pc, a, t, BOOL);
+                if (in.opcode == OP_LFALSESKIP) {
+                    goTo(pc, pc + 2);
+                }
+                break;
+            }
+            case OP_LOADNIL:
+                for (int r = a; r <= a + b; r++) {
+                    invoke(PUSH_NIL, null);
+                    assignTop(pc, r);
+                }
+                break;
+            case OP_GETUPVAL:
+                if (isEnv(b)) {
+                    pushEnv();
+                } else {
+                    invoke(PUSH_VALUE, LuaJava.upvalueIndex(b + 2));
+                }
+                assignTop(pc, a);
+                break;
+            case OP_SETUPVAL:
+                push(pc, a);
+                invoke(REPLACE, LuaJava.upvalueIndex(b + 2));
+                break;
+            case OP_GETTABUP:
+                if (isEnv(b)) {
+                    pushEnv();
+                    invoke(GET_FIELD, null, iconst(i0, -1), key(c));
+                    invoke(REMOVE, -2);
+                } else {
+                    invoke(GET_FIELD, null, iconst(i0, LuaJava.upvalueIndex(b + 2)), key(c));
+                }
+                assignTop(pc, a);
+                break;
+            case OP_SETTABUP:
+                if (isEnv(a)) {
+                    pushEnv();
+                    pushRK(pc, c, k);
+                    invoke(SET_FIELD, null, iconst(i0, -2), key(b));
+                    invoke(POP, 1);
+                } else {
+                    pushRK(pc, c, k);
+                    invoke(SET_FIELD, null, iconst(i0, LuaJava.upvalueIndex(a + 2)), key(b));
+                }
+                break;
+            case OP_GETTABLE:
+                if (g.useKind(pc, c) == INT) {
+                    invoke(GET_I, null, iconst(i0, b + 1), use(pc, c));
+                } else {
+                    push(pc, c);
+                    invoke(GET_TABLE, null, iconst(i0, b + 1));
+                }
+                assignTop(pc, a);
+                break;
+            case OP_GETI:
+                dx.loadConstant(l0, (long) c);
+                invoke(GET_I, null, iconst(i0, b + 1), l0);
+                assignTop(pc, a);
+                break;
+            case OP_GETFIELD:
+                invoke(GET_FIELD, null, iconst(i0, b + 1), key(c));
+                assignTop(pc, a);
+                break;
+            case OP_SETTABLE:
+                if (g.useKind(pc, b) == INT) {
+                    pushRK(pc, c, k);
+                    invoke(SET_I, null, iconst(i0, a + 1), use(pc, b));
+                } else {
+                    push(pc, b);
+                    pushRK(pc, c, k);
+                    invoke(SET_TABLE, a + 1);
+                }
+                break;
+            case OP_SETI:
+                pushRK(pc, c, k);
+                dx.loadConstant(l0, (long) b);
+                invoke(SET_I, null, iconst(i0, a + 1), l0);
+                break;
+            case OP_SETFIELD:
+                pushRK(pc, c, k);
+                invoke(SET_FIELD, null, iconst(i0, a + 1), key(b));
+                break;
+            case OP_NEWTABLE: {
+                int hash = in.vb > 0 ? 1 << (in.vb - 1) : 0;
+                invoke(CREATE_TABLE, null, iconst(i0, in.vc), iconst(i1, hash));
+                assignTop(pc, a);
+                break;
+            }
+            case OP_SELF:
+                if (k) {
+                    invoke(GET_FIELD, null, iconst(i0, b + 1), key(c));
+                } else {
+                    push(pc, c);
+                    invoke(GET_TABLE, null, iconst(i0, b + 1));
+                }
+                move(pc, a + 1, b);
+                assignTop(pc, a);
+                break;
+            case OP_ADDI: case OP_ADDK: case OP_SUBK: case OP_MULK: case OP_MODK:
+            case OP_POWK: case OP_DIVK: case OP_IDIVK: case OP_BANDK: case OP_BORK: case OP_BXORK:
+            case OP_SHRI: case OP_SHLI:
+            case OP_ADD: case OP_SUB: case OP_MUL: case OP_MOD: case OP_POW: case OP_DIV:
+            case OP_IDIV: case OP_BAND: case OP_BOR: case OP_BXOR: case OP_SHL: case OP_SHR:
+                emitArith(pc);
+                break;
+            case OP_UNM: {
+                int kk = g.naturalKind(pc, a);
+                if (kk != ANY) {
+                    Local t = target(pc, a, kk);
+                    dx.op(UnaryOp.NEGATE, t, use(pc, b));
+                    store(pc, a, t, kk);
+                } else {
+                    push(pc, b);
+                    invoke(ARITH, LuaJava.LUA_OPUNM);
+                    assignTop(pc, a);
+                }
+                break;
+            }
+            case OP_BNOT:
+                if (g.naturalKind(pc, a) == INT) {
+                    Local t = target(pc, a, INT);
+                    dx.op(UnaryOp.NOT, t, use(pc, b));
+                    store(pc, a, t, INT);
+                } else {
+                    push(pc, b);
+                    invoke(ARITH, LuaJava.LUA_OPBNOT);
+                    assignTop(pc, a);
+                }
+                break;
+            case OP_NOT: {
+                Local x = truthy(pc, b);
+                Local t = target(pc, a, BOOL);
+                not(t, x);
+                store(pc, a, t, BOOL);
+                break;
+            }
+            case OP_LEN:
+                if (g.useKind(pc, b) == ANY) {
+                    invoke(LEN, b + 1);
+                } else {
+                    push(pc, b);
+                    invoke(LEN, -1);
+                    invoke(REMOVE, -2);
+                }
+                assignTop(pc, a);
+                break;
+            case OP_CONCAT:
+                for (int r = a; r < a + b; r++) {
+                    push(pc, r);
+                }
+                invoke(CONCAT, b);
+                assignTop(pc, a);
+                break;
+            case OP_CLOSE:
+                // 函数中没有待关闭变量时只需关闭upvalue，而upvalue按值复制
+                if (g.hasTbc) {
+                    invoke(CLOSE_SLOT, a + 1);
+                }
+                break;
+            case OP_TBC:
+                invoke(TO_CLOSE, a + 1);
+                break;
+            case OP_JMP:
+                goTo(pc, pc + 1 + (int) in.sj);
+                break;
+            case OP_EQ:
+                branch(pc, LUA_OPEQ, regOperand(pc, a), regOperand(pc, b));
+                break;
+            case OP_LT:
+                branch(pc, LUA_OPLT, regOperand(pc, a), regOperand(pc, b));
+                break;
+            case OP_LE:
+                branch(pc, LUA_OPLE, regOperand(pc, a), regOperand(pc, b));
+                break;
+            case OP_EQK:
+                branch(pc, LUA_OPEQ, regOperand(pc, a), constOperand(b));
+                break;
+            case OP_EQI:
+                branch(pc, LUA_OPEQ, regOperand(pc, a), immOperand(in.sb));
+                break;
+            case OP_LTI:
+                branch(pc, LUA_OPLT, regOperand(pc, a), immOperand(in.sb));
+                break;
+            case OP_LEI:
+                branch(pc, LUA_OPLE, regOperand(pc, a), immOperand(in.sb));
+                break;
+            case OP_GTI:
+                branch(pc, LUA_OPLT, immOperand(in.sb), regOperand(pc, a));
+                break;
+            case OP_GEI:
+                branch(pc, LUA_OPLE, immOperand(in.sb), regOperand(pc, a));
+                break;
+            case OP_TEST:
+                test(pc, truthy(pc, a));
+                goTo(pc, pc + 1);
+                break;
+            case OP_TESTSET:
+                test(pc, truthy(pc, b));
+                move(pc, a, b);
+                goTo(pc, pc + 1);
+                break;
+            case OP_CALL:
+                emitCall(pc);
+                break;
+            case OP_TAILCALL:
+                for (int r = a; r < a + b; r++) {
+                    push(pc, r);
+                }
+                invoke(CALL, null, iconst(i0, b - 1), iconst(i1, LuaJava.LUA_MULTRET));
+                returnTop();
+                break;
+            case OP_RETURN:
+                if (b == 0) {
+                    returnTop();
+                } else {
+                    for (int r = a; r < a + b - 1; r++) {
+                        push(pc, r);
+                    }
+                    returnCount(b - 1);
+                }
+                break;
+            case OP_RETURN0:
+                returnCount(0);
+                break;
+            case OP_RETURN1:
+                push(pc, a);
+                returnCount(1);
+                break;
+            case OP_FORPREP:
+                emitForPrep(pc);
+                break;
+            case OP_FORLOOP:
+                emitForLoop(pc);
+                break;
+            case OP_TFORPREP:
+                invoke(TFOR_PREP, a + 1);
+                invoke(TO_CLOSE, a + 4);
+                goTo(pc, pc + 1 + (int) in.bx);
+                break;
+            case OP_TFORCALL:
+                for (int r = a; r < a + 3; r++) {
+                    push(pc, r);
+                }
+                invoke(CALL, null, iconst(i0, 2), iconst(i1, c));
+                for (int r = a + 3 + c; r >= a + 4; r--) {
+                    assignTop(pc, r);
+                }
+                break;
+            case OP_TFORLOOP:
+                if (vars[g.useVar(pc, a + 4)] == null) {
+                    invoke(IS_NIL, z0, iconst(i0, a + 5));
+                    dx.compare(Comparison.NE, labels[pc + 1], z0, zfalse);
+                }
+                move(pc, a + 2, a + 4);
+                goTo(pc, pc + 1 - (int) in.bx);
+                break;
+            case OP_SETLIST:
+                emitSetList(pc);
+                break;
+            case OP_CLOSURE: {
+                ProtoInfo child = proto.subProtos[(int) in.bx];
+                for (int j = 0; j < child.sizeUpvalues; j++) {
+                    UpvalDesc uv = child.upvalues[j];
+                    if (uv.instack) {
+                        push(pc, uv.idx);
+                    } else {
+                        invoke(PUSH_VALUE, LuaJava.upvalueIndex(uv.idx + 2));
+                    }
+                }
+                dx.loadConstant(str, child.name);
+                invoke(PUSH_JAVA_FUNCTION, null, self, str, iconst(i0, child.sizeUpvalues));
+                assignTop(pc, a);
+                break;
+            }
+            default:
+                // MMBIN由算术运算处理，VARARGPREP/NOP/EXTRAARG无操作
+                break;
+        }
+    }
+
+    private void emitCall(int pc) {
+        InstructionInfo in = code[pc];
+        int a = in.a, b = in.b, c = in.c;
+        if (c == 0) {
+            // 消费指令的固定部分先入栈，开放调用的结果紧随其后
+            InstructionInfo consumer = code[pc + 1];
+            if (consumer.opcode != OP_SETLIST) {
+                for (int r = consumer.a; r < a; r++) {
+                    push(pc + 1, r);
+                }
+            }
+            for (int r = a; r < a + b; r++) {
+                push(pc, r);
+            }
+            invoke(CALL, null, iconst(i0, b - 1), iconst(i1, LuaJava.LUA_MULTRET));
+            return;
+        }
+        if (b == 0) {
+            invoke(GET_TOP, i0);
+            dx.op(BinaryOp.SUBTRACT, i0, i0, iconst(i1, nregs + 1));
+            invoke(CALL, null, i0, iconst(i1, c - 1));
+        } else {
+            for (int r = a; r < a + b; r++) {
+                push(pc, r);
+            }
+            invoke(CALL, null, iconst(i0, b - 1), iconst(i1, c - 1));
+        }
+        for (int r = a + c - 2; r >= a; r--) {
+            assignTop(pc, r);
+        }
+    }
+
+    private void emitSetList(int pc) {
+        InstructionInfo in = code[pc];
+        int a = in.a;
+        int last = in.vc;
+        if (in.vb != 0) {
+            for (int i = 1; i <= in.vb; i++) {
+                push(pc, a + i);
+                dx.loadConstant(l0, (long) (last + i));
+                invoke(RAW_SET_I, null, iconst(i0, a + 1), l0);
+            }
+            return;
+        }
+        int fixed = code[pc - 1].a - a - 1;
+        for (int i = 1; i <= fixed; i++) {
+            push(pc, a + i);
+            dx.loadConstant(l0, (long) (last + i));
+            invoke(RAW_SET_I, null, iconst(i0, a + 1), l0);
+        }
+        // 开放调用的结果从栈顶开始逐个写入
+        Label loop = new Label();
+        Label done = new Label();
+        invoke(GET_TOP, cnt);
+        dx.op(BinaryOp.SUBTRACT, cnt, cnt, iconst(i0, nregs));
+        dx.loadConstant(l1, (long) (last + fixed));
+        dx.mark(loop);
+        dx.compare(Comparison.LE, done, cnt, izero);
+        dx.cast(l0, cnt);
+        dx.op(BinaryOp.ADD, l0, l0, l1);
+        invoke(RAW_SET_I, null, iconst(i0, a + 1), l0);
+        dx.op(BinaryOp.SUBTRACT, cnt, cnt, iconst(i1, 1));
+        dx.jump(loop);
+        dx.mark(done);
+    }
+
+    // ==================== for循环 ====================
+
+    private void intOperand(int p, int r, Local into) {
+        Local v = use(p, r);
+        if (v != null && g.useKind(p, r) == INT) {
+            dx.move(into, v);
+        } else {
+            invoke(TO_INTEGER, into, iconst(i0, r + 1));
+        }
+    }
+
+    private void numOperand(int p, int r, String what, Local into) {
+        Local v = use(p, r);
+        switch (g.useKind(p, r)) {
+            case INT:
+                dx.cast(into, v);
+                break;
+            case FLOAT:
+                dx.move(into, v);
+                break;
+            case BOOL:
+                dx.loadConstant(str, "'for' " + what + " must be a number");
+                invoke(THROW_ERROR, null, str);
+                dx.loadConstant(into, 0.0);
+                break;
+            default:
+                dx.loadConstant(str, what);
+                invoke(FOR_NUMBER, into, iconst(i0, r + 1), str);
+                break;
+        }
+    }
+
+    private void count(int p, Local init, Local step, Local into) {
+        int r = code[p].a + 1;
+        Local v = use(p, r);
+        switch (g.useKind(p, r)) {
+            case INT:
+                dx.invokeStatic(FOR_COUNT, into, init, v, step);
+                break;
+            case FLOAT:
+                dx.invokeStatic(FOR_COUNT_FLOAT, into, init, v, step);
+                break;
+            case BOOL:
+                dx.loadConstant(str, "'for' limit must be a number");
+                invoke(THROW_ERROR, null, str);
+                dx.loadConstant(into, 0L);
+                break;
+            default:
+                invoke(FOR_COUNT_AT, into, init, iconst(i0, r + 1), step);
+                break;
+        }
+    }
+
+    /** 操作数不是整数时跳转到target */
+    private void requireInt(int p, int r, Label target) {
+        switch (g.useKind(p, r)) {
+            case INT:
+                return;
+            case ANY:
+                invoke(IS_INTEGER, z0, iconst(i0, r + 1));
+                dx.compare(Comparison.EQ, target, z0, zfalse);
+                return;
+            default:
+                // 其余类型总是走浮点路径，保持当前块可继续写入
+                dx.loadConstant(z0, false);
+                dx.compare(Comparison.EQ, target, z0, zfalse);
+                break;
+        }
+    }
+
+    private void emitForPrep(int p) {
+        int a = code[p].a;
+        int q = g.forLoopOf[p];
+        int k = g.forKind(p);
+        Label skip = labels[q + 1];
+        if (k != FLOAT) {
+            Label floatPath = null;
+            if (k != INT) {
+                floatPath = new Label();
+                requireInt(p, a, floatPath);
+                requireInt(p, a + 2, floatPath);
+                dx.loadConstant(forFI[p], true);
+            }
+            intOperand(p, a + 2, forS[p]);
+            intOperand(p, a, forI[p]);
+            count(p, forI[p], forS[p], forN[p]);
+            dx.compareLongs(cmp, forN[p], lzero);
+            dx.compare(Comparison.EQ, skip, cmp, izero);
+            assign(p, a + 3, forI[p], INT);
+            if (floatPath != null) {
+                dx.jump(labels[p + 1]);
+                dx.mark(floatPath);
+                dx.loadConstant(forFI[p], false);
+            }
+        }
+        if (k != INT) {
+            Local d = forD[p], l = forL[p], ds = forDS[p];
+            numOperand(p, a + 1, "limit", l);
+            numOperand(p, a + 2, "step", ds);
+            numOperand(p, a, "initial value", d);
+            Label nonZero = new Label();
+            Label negative = new Label();
+            Label enter = new Label();
+            // NaN不为0，按负步长处理
+            dx.compareFloatingPoint(cmp, ds, dzero, -1);
+            dx.compare(Comparison.NE, nonZero, cmp, izero);
+            dx.loadConstant(str, "'for' step is zero");
+            invoke(THROW_ERROR, null, str);
+            dx.mark(nonZero);
+            dx.compare(Comparison.LE, negative, cmp, izero);
+            dx.compareFloatingPoint(cmp, l, d, 1);
+            dx.compare(Comparison.LT, skip, cmp, izero);
+            dx.jump(enter);
+            dx.mark(negative);
+            dx.compareFloatingPoint(cmp, d, l, 1);
+            dx.compare(Comparison.LT, skip, cmp, izero);
+            dx.mark(enter);
+            assign(p, a + 3, d, FLOAT);
+        }
+        goTo(p, p + 1);
+    }
+
+    private void emitForLoop(int q) {
+        int p = g.forPrepOf[q];
+        int a = code[q].a;
+        int k = g.forKind(p);
+        Label back = labels[p + 1];
+        Label exit = labels[q + 1];
+        Label floatPath = null;
+        if (k != INT && k != FLOAT) {
+            floatPath = new Label();
+            dx.compare(Comparison.EQ, floatPath, forFI[p], zfalse);
+        }
+        if (k != FLOAT) {
+            dx.op(BinaryOp.SUBTRACT, forN[p], forN[p], lone);
+            dx.compareLongs(cmp, forN[p], lzero);
+            dx.compare(Comparison.EQ, exit, cmp, izero);
+            dx.op(BinaryOp.ADD, forI[p], forI[p], forS[p]);
+            assign(q, a + 3, forI[p], INT);
+            dx.jump(back);
+        }
+        if (floatPath != null) {
+            dx.mark(floatPath);
+        }
+        if (k != INT) {
+            Local d = forD[p], l = forL[p], ds = forDS[p];
+            Label negative = new Label();
+            Label cont = new Label();
+            dx.op(BinaryOp.ADD, d, d, ds);
+            dx.compareFloatingPoint(cmp, ds, dzero, -1);
+            dx.compare(Comparison.LE, negative, cmp, izero);
+            dx.compareFloatingPoint(cmp, d, l, 1);
+            dx.compare(Comparison.GT, exit, cmp, izero);
+            dx.jump(cont);
+            dx.mark(negative);
+            dx.compareFloatingPoint(cmp, l, d, 1);
+            dx.compare(Comparison.GT, exit, cmp, izero);
+            dx.mark(cont);
+            assign(q, a + 3, d, FLOAT);
+            dx.jump(back);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+import android.util.Log;
+
+import com.android.cglib.dx.BinaryOp;
+import com.android.cglib.dx.Code;
+import com.android.cglib.dx.DexMaker;
+import com.android.cglib.dx.Local;
+import com.android.cglib.dx.MethodId;
+import com.android.cglib.dx.TypeId;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 热点调用点的调用器生成器
+ * 调用点命中次数达到阈值后，在后台线程生成直接调用目标方法的{@link JavaInvoker}：
+ * ART上使用DexMaker生成dex类，数值与布尔参数直接从Lua栈读取为基本类型，不经过装箱；
+ * JVM上使用LambdaMetafactory生成调用器，便于在主机上测试。
+ * 生成失败时调用点保持反射调用
+ *
+ * @author DifierLine
+ */
+final class InvokerGenerator {
+
+    private static final String TAG = "InvokerGenerator";
+
+    /** 默认的升级阈值 */
+    static final int DEFAULT_THRESHOLD = 256;
+
+    /** 生成类所在的包 */
+    private static final String INVOKER_PACKAGE = "com/luajava/invoker/";
+
+    /** LambdaMetafactory支持的最大参数个数(含接收者) */
+    private static final int MAX_LAMBDA_ARITY = 4;
+
+    private static final boolean IS_ART = System.getProperty("java.vm.name", "").startsWith("Dalvik");
+
+    private static volatile int threshold = DEFAULT_THRESHOLD;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "LuaJavaInvoker");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    });
+
+    private InvokerGenerator() {
+    }
+
+    /**
+     * 设置升级阈值
+     * @param n 调用点命中多少次后生成调用器，小于等于0时关闭升级
+     */
+    static void setThreshold(int n) {
+        threshold = n;
+    }
+
+    static int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 异步为调用点生成调用器，完成后安装到调用点
+     * @param site 调用点
+     */
+    static void promote(final MethodDispatchTable.CallSite site) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JavaInvoker invoker = generate(site.method, site.signature);
+                    if (invoker != null)
+                        site.install(invoker);
+                } catch (Throwable e) {
+                    Log.w(TAG, "keep reflective call for " + site.method, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 生成调用器
+     * @param m 目标方法
+     * @param signature 调用点的Lua类型签名
+     * @return 调用器，不支持时返回null
+     */
+    static JavaInvoker generate(Method m, long signature) throws Throwable {
+        if (!Modifier.isPublic(m.getModifiers()) || !Modifier.isPublic(m.getDeclaringClass().getModifiers()))
+            return null;
+        return IS_ART ? generateDex(m, signature) : generateLambda(m);
+    }
+
+    /**
+     * 参数是否可以直接从Lua栈读取
+     */
+    private static boolean isDirect(Class<?> type, int luaType) {
+        if (!type.isPrimitive())
+            return false;
+        if (luaType == LuaState.LUA_TBOOLEAN)
+            return type == Boolean.TYPE;
+        if (luaType == LuaState.LUA_TINTEGER || luaType == LuaState.LUA_TNUMBER)
+            return type != Boolean.TYPE && type != Character.TYPE;
+        return false;
+    }
+
+    private static boolean isVisible(ClassLoader loader, Class<?> type) {
+        while (type.isArray())
+            type = type.getComponentType();
+        if (type.isPrimitive())
+            return true;
+        try {
+            return Class.forName(type.getName(), false, loader) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 生成类名只由目标方法与签名决定，dex缓存中的同名文件总是对应相同的代码
+     */
+    private static String invokerName(Method m, long signature) {
+        String desc = m.toString();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < desc.length(); i++) {
+            hash ^= desc.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return INVOKER_PACKAGE + "Invoker_" + m.getName() + "_" + Long.toHexString(hash)
+                + "_" + Long.toHexString(signature);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static JavaInvoker generateDex(Method m, long signature) throws Exception {
+        ClassLoader loader = JavaInvoker.class.getClassLoader();
+        Class<?> owner = m.getDeclaringClass();
+        Class<?>[] params = m.getParameterTypes();
+        Class<?> returnType = m.getReturnType();
+        if (!isVisible(loader, owner) || !isVisible(loader, returnType))
+            return null;
+        for (Class<?> p : params) {
+            if (!isVisible(loader, p))
+                return null;
+        }
+
+        boolean isStatic = Modifier.isStatic(m.getModifiers());
+        boolean[] direct = new boolean[params.length];
+        boolean anyDirect = false;
+        for (int i = 0; i < params.length; i++) {
+            int luaType = MethodDispatchTable.argType(signature, i);
+            direct[i] = isDirect(params[i], luaType);
+            anyDirect |= direct[i];
+            // 其余基本类型参数需要拆箱，交给反射处理
+            if (!direct[i] && params[i].isPrimitive())
+                return null;
+        }
+
+        String className = invokerName(m, signature);
+        TypeId invokerType = TypeId.get("L" + className + ";");
+        TypeId baseType = TypeId.get(JavaInvoker.class);
+        TypeId stateType = TypeId.get(LuaState.Session.class);
+        TypeId ownerType = TypeId.get(owner);
+        TypeId objectsType = TypeId.get(Object[].class);
+
+        DexMaker dexMaker = new DexMaker();
+        dexMaker.declare(invokerType, className + ".generated", Modifier.PUBLIC | Modifier.FINAL, baseType);
+
+        Code ctor = dexMaker.declare(invokerType.getConstructor(), Modifier.PUBLIC);
+        ctor.invokeDirect(baseType.getConstructor(), null, ctor.getThis(invokerType));
+        ctor.returnVoid();
+
+        MethodId call = invokerType.getMethod(TypeId.INT, "call", stateType, TypeId.OBJECT, objectsType, TypeId.INT);
+        Code code = dexMaker.declare(call, Modifier.PUBLIC);
+
+        // locals must all be allocated before the first instruction
+        Local state = code.getParameter(0, stateType);
+        Local target = code.getParameter(1, TypeId.OBJECT);
+        Local args = code.getParameter(2, objectsType);
+        Local first = code.getParameter(3, TypeId.INT);
+        Local index = code.newLocal(TypeId.INT);
+        Local offset = code.newLocal(TypeId.INT);
+        Local lv = code.newLocal(TypeId.LONG);
+        Local dv = code.newLocal(TypeId.DOUBLE);
+        Local iv = code.newLocal(TypeId.INT);
+        Local tmp = code.newLocal(TypeId.OBJECT);
+        Local count = code.newLocal(TypeId.INT);
+        Local receiver = isStatic ? null : code.newLocal(ownerType);
+        TypeId[] paramTypes = new TypeId[params.length];
+        Local[] values = new Local[params.length];
+        for (int i = 0; i < params.length; i++) {
+            paramTypes[i] = TypeId.get(params[i]);
+            values[i] = code.newLocal(paramTypes[i]);
+        }
+        Local ret = returnType == Void.TYPE ? null : code.newLocal(TypeId.get(returnType));
+
+        if (!isStatic)
+            code.cast(receiver, target);
+        for (int i = 0; i < params.length; i++) {
+            code.loadConstant(offset, i);
+            if (!direct[i]) {
+                code.aget(tmp, args, offset);
+                code.cast(values[i], tmp);
+                continue;
+            }
+            code.op(BinaryOp.ADD, index, first, offset);
+            int luaType = MethodDispatchTable.argType(signature, i);
+            if (luaType == LuaState.LUA_TBOOLEAN) {
+                code.invokeVirtual(stateType.getMethod(TypeId.BOOLEAN, "toBoolean", TypeId.INT), values[i], state, index);
+            } else if (luaType == LuaState.LUA_TINTEGER) {
+                code.invokeVirtual(stateType.getMethod(TypeId.LONG, "toInteger", TypeId.INT), lv, state, index);
+                convertNumber(code, values[i], params[i], lv, Long.TYPE, iv);
+            } else {
+                code.invokeVirtual(stateType.getMethod(TypeId.DOUBLE, "toNumber", TypeId.INT), dv, state, index);
+                convertNumber(code, values[i], params[i], dv, Double.TYPE, iv);
+            }
+        }
+
+        MethodId targetMethod = ownerType.getMethod(TypeId.get(returnType), m.getName(), paramTypes);
+        if (isStatic)
+            code.invokeStatic(targetMethod, ret, values);
+        else if (owner.isInterface())
+            code.invokeInterface(targetMethod, ret, receiver, values);
+        else
+            code.invokeVirtual(targetMethod, ret, receiver, values);
+
+        if (ret == null) {
+            code.loadConstant(count, 0);
+            code.returnValue(count);
+        } else {
+            if (returnType.isPrimitive()) {
+                // 经过JavaInvoker.pushReturn，用户为包装类注册的Pusher同样生效
+                code.invokeStatic(baseType.getMethod(TypeId.VOID, "pushReturn", stateType, TypeId.get(returnType)),
+                        null, state, ret);
+            } else {
+                code.invokeVirtual(stateType.getMethod(TypeId.VOID, "pushObjectValue", TypeId.OBJECT), null, state, ret);
+            }
+            code.loadConstant(count, 1);
+            code.returnValue(count);
+        }
+
+        ClassLoader generated = dexMaker.generateAndLoad(loader, null);
+        Class<?> invokerClass = generated.loadClass(className.replace('/', '.'));
+        JavaInvoker invoker = (JavaInvoker) invokerClass.getDeclaredConstructor().newInstance();
+        invoker.direct = anyDirect ? direct : null;
+        return invoker;
+    }
+
+    /**
+     * 将long/double转换为参数类型，与LuaState.convertLuaNumber的截断规则一致
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void convertNumber(Code code, Local target, Class<?> type, Local source, Class<?> sourceType, Local iv) {
+        if (type == sourceType) {
+            code.move(target, source);
+        } else if (type == Short.TYPE || type == Byte.TYPE) {
+            code.cast(iv, source);
+            code.cast(target, iv);
+        } else {
+            code.cast(target, source);
+        }
+    }
+
+    /** LambdaMetafactory使用的函数接口，按参数个数(含接收者)区分 */
+    interface Fn0 { Object invoke(); }
+    interface Fn1 { Object invoke(Object a); }
+    interface Fn2 { Object invoke(Object a, Object b); }
+    interface Fn3 { Object invoke(Object a, Object b, Object c); }
+    interface Fn4 { Object invoke(Object a, Object b, Object c, Object d); }
+    interface VoidFn0 { void invoke(); }
+    interface VoidFn1 { void invoke(Object a); }
+    interface VoidFn2 { void invoke(Object a, Object b); }
+    interface VoidFn3 { void invoke(Object a, Object b, Object c); }
+    interface VoidFn4 { void invoke(Object a, Object b, Object c, Object d); }
+
+    private static final Class<?>[] FN = {Fn0.class, Fn1.class, Fn2.class, Fn3.class, Fn4.class};
+    private static final Class<?>[] VOID_FN = {VoidFn0.class, VoidFn1.class, VoidFn2.class, VoidFn3.class, VoidFn4.class};
+
+    private static JavaInvoker generateLambda(Method m) throws Throwable {
+        boolean isStatic = Modifier.isStatic(m.getModifiers());
+        boolean isVoid = m.getReturnType() == Void.TYPE;
+        int arity = m.getParameterTypes().length + (isStatic ? 0 : 1);
+        if (arity > MAX_LAMBDA_ARITY)
+            return null;
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle impl = lookup.unreflect(m);
+        Class<?> fnType = isVoid ? VOID_FN[arity] : FN[arity];
+        MethodType erased = MethodType.genericMethodType(arity);
+        MethodType instantiated = impl.type().wrap();
+        if (isVoid) {
+            erased = erased.changeReturnType(Void.TYPE);
+            instantiated = instantiated.changeReturnType(Void.TYPE);
+        }
+        Object fn = LambdaMetafactory.metafactory(lookup, "invoke", MethodType.methodType(fnType),
+                erased, impl, instantiated).getTarget().invokeWithArguments();
+        return new LambdaInvoker(fn, arity, isStatic, isVoid);
+    }
+
+    /**
+     * 包装LambdaMetafactory生成的函数对象
+     */
+    private static final class LambdaInvoker extends JavaInvoker {
+        private final Object fn;
+        private final int arity;
+        private final boolean isStatic;
+        private final boolean isVoid;
+
+        LambdaInvoker(Object fn, int arity, boolean isStatic, boolean isVoid) {
+            this.fn = fn;
+            this.arity = arity;
+            this.isStatic = isStatic;
+            this.isVoid = isVoid;
+        }
+
+        private Object arg(Object target, Object[] args, int i) {
+            if (isStatic)
+                return args[i];
+            return i == 0 ? target : args[i - 1];
+        }
+
+        @Override
+        public int call(LuaState.Session S, Object target, Object[] args, int first) throws Throwable {
+            Object a = arity > 0 ? arg(target, args, 0) : null;
+            Object b = arity > 1 ? arg(target, args, 1) : null;
+            Object c = arity > 2 ? arg(target, args, 2) : null;
+            Object d = arity > 3 ? arg(target, args, 3) : null;
+            if (isVoid) {
+                switch (arity) {
+                    case 0: ((VoidFn0) fn).invoke(); break;
+                    case 1: ((VoidFn1) fn).invoke(a); break;
+                    case 2: ((VoidFn2) fn).invoke(a, b); break;
+                    case 3: ((VoidFn3) fn).invoke(a, b, c); break;
+                    default: ((VoidFn4) fn).invoke(a, b, c, d); break;
+                }
+                return 0;
+            }
+            Object ret;
+            switch (arity) {
+                case 0: ret = ((Fn0) fn).invoke(); break;
+                case 1: ret = ((Fn1) fn).invoke(a); break;
+                case 2: ret = ((Fn2) fn).invoke(a, b); break;
+                case 3: ret = ((Fn3) fn).invoke(a, b, c); break;
+                default: ret = ((Fn4) fn).invoke(a, b, c, d); break;
+            }
+            S.pushObjectValue(ret);
+            return 1;
+        }
+    }
+}
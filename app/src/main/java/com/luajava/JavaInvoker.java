@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+/**
+ * 直接调用Java方法的调用器
+ * 由{@link InvokerGenerator}为热点调用点生成，替代反射的Method.invoke。
+ * 实现类可能位于动态生成的dex中，因此构造方法与call方法必须为public
+ *
+ * @author DifierLine
+ */
+public abstract class JavaInvoker {
+
+    /**
+     * 由调用器直接从Lua栈读取的参数位置，这些位置不需要预先转换到args中；
+     * 为null表示所有参数都由调用方转换
+     */
+    boolean[] direct;
+
+    public JavaInvoker() {
+    }
+
+    /**
+     * 调用目标方法并将返回值压入Lua栈
+     * @param S 参数所在LuaState的会话，调用方已持有LuaState的监视器
+     * @param target 调用对象，静态方法时忽略
+     * @param args 已转换的参数，{@link #direct}标记的位置不会被读取
+     * @param first 第一个参数所在的栈索引
+     * @return 压栈的返回值数量，void方法返回0
+     * @throws Throwable 目标方法抛出的异常原样抛出
+     */
+    public abstract int call(LuaState.Session S, Object target, Object[] args, int first) throws Throwable;
+
+    /*
+     * 生成的调用器用下列方法压入基本类型返回值：包装类都使用默认Pusher时直接压入，
+     * 否则装箱后经过LuaConverters，与反射调用的结果一致
+     */
+
+    public static void pushReturn(LuaState.Session S, boolean v) throws LuaException {
+        if (LuaConverters.hasDefaultPrimitivePushers())
+            S.pushBoolean(v);
+        else
+            S.pushObjectValue(v);
+    }
+
+    public static void pushReturn(LuaState.Session S, byte v) throws LuaException {
+        if (LuaConverters.hasDefaultPrimitivePushers())
+            S.pushInteger(v);
+        else
+            S.pushObjectValue(v);
+    }
+
+    public static void pushReturn(LuaState.Session S, short v) throws LuaException {
+        if (LuaConverters.hasDefaultPrimitivePushers())
+            S.pushInteger(v);
+        else
+            S.pushObjectValue(v);
+    }
+
+    public static void pushReturn(LuaState.Session S, char v) throws LuaException {
+        if (LuaConverters.hasDefaultPrimitivePushers())
+            S.pushInteger(v);
+        else
+            S.pushObjectValue(v);
+    }
+
+    public static void pushReturn(LuaState.Session S, int v) throws LuaException {
+        if (LuaConverters.hasDefaultPrimitivePushers())
+            S.pushInteger(v);
+        else
+            S.pushObjectValue(v);
+    }
+
+    public static void pushReturn(LuaState.Session S, long v) throws LuaException {
+        if (LuaConverters.hasDefaultPrimitivePushers())
+            S.pushInteger(v);
+        else
+            S.pushObjectValue(v);
+    }
+
+    public static void pushReturn(LuaState.Session S, float v) throws LuaException {
+        if (LuaConverters.hasDefaultPrimitivePushers())
+            S.pushNumber(v);
+        else
+            S.pushObjectValue(v);
+    }
+
+    public static void pushReturn(LuaState.Session S, double v) throws LuaException {
+        if (LuaConverters.hasDefaultPrimitivePushers())
+            S.pushNumber(v);
+        else
+            S.pushObjectValue(v);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+/**
+ * 压入Lua的Java对象句柄表
+ * 对象存放在连续的槽位中，空闲槽位以int数组组成的栈复用，分配与释放均为O(1)且不装箱。
+ * 句柄低位为槽位号，高位为该槽位的代数，槽位每次释放后代数加一，
+ * 过期句柄(已被释放或槽位已被复用)的查询返回null，释放操作被忽略。
+ * 与LuaState其余部分一样不做同步，由调用方保证同一时刻只有一个线程访问
+ *
+ * @author DifierLine
+ */
+final class JavaObjectTable {
+
+    /** 句柄中槽位号占用的位数 */
+    private static final int SLOT_BITS = 22;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    /** 最大槽位数，超出后无法再压入对象 */
+    private static final int MAX_SLOTS = 1 << SLOT_BITS;
+    private static final int GENERATION_MASK = (1 << (32 - SLOT_BITS)) - 1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Object[] objects = new Object[INITIAL_CAPACITY];
+    private int[] generations = new int[INITIAL_CAPACITY];
+    /** 空闲槽位栈 */
+    private int[] free = new int[INITIAL_CAPACITY];
+    private int freeCount;
+    /** 从未使用过的最小槽位 */
+    private int top;
+    private int size;
+
+    /**
+     * 保存对象并分配句柄
+     * @param obj 非null对象
+     * @return 句柄
+     */
+    int add(Object obj) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (top == objects.length)
+                grow();
+            slot = top++;
+        }
+        objects[slot] = obj;
+        size++;
+        return (generations[slot] << SLOT_BITS) | slot;
+    }
+
+    /**
+     * 获取句柄对应的对象
+     * @param handle 句柄
+     * @return 对象，句柄无效或已过期时返回null
+     */
+    Object get(int handle) {
+        int slot = handle & SLOT_MASK;
+        if (slot >= top || generations[slot] != handle >>> SLOT_BITS)
+            return null;
+        return objects[slot];
+    }
+
+    /**
+     * 替换仍然有效的句柄对应的对象
+     * @param handle 句柄
+     * @param obj 新对象
+     * @return 句柄有效时返回true
+     */
+    boolean set(int handle, Object obj) {
+        int slot = handle & SLOT_MASK;
+        if (slot >= top || generations[slot] != handle >>> SLOT_BITS || objects[slot] == null)
+            return false;
+        objects[slot] = obj;
+        return true;
+    }
+
+    /**
+     * 释放句柄，槽位立即可被复用
+     * @param handle 句柄
+     */
+    void remove(int handle) {
+        int slot = handle & SLOT_MASK;
+        if (slot >= top || generations[slot] != handle >>> SLOT_BITS || objects[slot] == null)
+            return;
+        objects[slot] = null;
+        generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+        free[freeCount++] = slot;
+        size--;
+    }
+
+    /**
+     * @return 当前保存的对象数量
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * 释放全部对象并使所有已分配的句柄失效
+     */
+    void clear() {
+        for (int slot = 0; slot < top; slot++) {
+            if (objects[slot] != null) {
+                objects[slot] = null;
+                generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+            }
+        }
+        // 保留代数，之前发出的句柄在槽位复用后仍然无法命中
+        freeCount = 0;
+        for (int slot = top - 1; slot >= 0; slot--)
+            free[freeCount++] = slot;
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = objects.length;
+        if (capacity >= MAX_SLOTS)
+            throw new IllegalStateException("too many java objects in lua state");
+        int next = Math.min(capacity << 1, MAX_SLOTS);
+        Object[] newObjects = new Object[next];
+        System.arraycopy(objects, 0, newObjects, 0, capacity);
+        objects = newObjects;
+        int[] newGenerations = new int[next];
+        System.arraycopy(generations, 0, newGenerations, 0, capacity);
+        generations = newGenerations;
+        int[] newFree = new int[next];
+        System.arraycopy(free, 0, newFree, 0, freeCount);
+        free = newFree;
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+import android.net.Uri;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Java与Lua之间的值转换注册表
+ * Java到Lua的转换按值的Class查找，首次遇到某个Class时沿父类和接口解析一次并缓存；
+ * Lua到Java的转换按目标Class与lua_type查找，每个值只读取一次类型
+ *
+ * @author DifierLine
+ */
+public final class LuaConverters {
+
+    /**
+     * 将Java值压入Lua栈
+     */
+    public interface Pusher {
+        /**
+         * @param S 调用方已持有LuaState的监视器
+         * @param value 非null的值
+         */
+        void push(LuaState.Session S, Object value) throws LuaException;
+    }
+
+    /**
+     * 将Lua栈上的值转换为Java值
+     */
+    public interface Reader {
+        /**
+         * @param S 调用方已持有LuaState的监视器
+         * @param idx 栈索引
+         * @param type idx处的lua_type
+         * @return 转换结果，返回null表示无法转换，交由默认规则处理
+         */
+        Object read(LuaState.Session S, int idx, int type) throws LuaException;
+    }
+
+    private static final int TYPE_COUNT = LuaState.LUA_TINTEGER + 1;
+
+    /** 按声明的Class注册的Pusher */
+    private static final ConcurrentHashMap<Class<?>, Pusher> pushers = new ConcurrentHashMap<>();
+    /** 按具体Class解析后的Pusher */
+    private static final ConcurrentHashMap<Class<?>, Pusher> resolved = new ConcurrentHashMap<>();
+    /** 按目标Class注册的Reader，数组下标为lua_type */
+    private static final ConcurrentHashMap<Class<?>, Reader[]> readers = new ConcurrentHashMap<>();
+    /** toJavaObject使用的Reader，数组下标为lua_type */
+    private static volatile Reader[] objectReaders;
+    /** 基本类型包装类的默认Pusher，用于判断是否被替换 */
+    private static final HashMap<Class<?>, Pusher> primitiveDefaults = new HashMap<>();
+    /** 包装类都使用默认Pusher时为true */
+    private static volatile boolean defaultPrimitives = true;
+
+    private LuaConverters() {
+    }
+
+    /**
+     * 注册Java到Lua的转换，对clazz的子类与实现类同样生效
+     * @param clazz 值的类型
+     * @param pusher 转换器，为null时移除
+     */
+    public static synchronized void register(Class<?> clazz, Pusher pusher) {
+        if (pusher == null)
+            pushers.remove(clazz);
+        else
+            pushers.put(clazz, pusher);
+        resolved.clear();
+        boolean defaults = true;
+        for (Map.Entry<Class<?>, Pusher> e : primitiveDefaults.entrySet())
+            defaults &= pushers.get(e.getKey()) == e.getValue();
+        defaultPrimitives = defaults;
+    }
+
+    /**
+     * 注册Lua到Java的转换，只对参数类型恰好为target的情况生效
+     * @param target 目标类型，Object.class对应{@link LuaState#toJavaObject(int)}
+     * @param type lua_type
+     * @param reader 转换器，为null时移除
+     */
+    public static synchronized void register(Class<?> target, int type, Reader reader) {
+        if (type < 0 || type >= TYPE_COUNT)
+            throw new IllegalArgumentException("type " + type);
+        if (target == Object.class) {
+            if (reader == null)
+                throw new IllegalArgumentException("can not remove default reader");
+            Reader[] rs = objectReaders.clone();
+            rs[type] = reader;
+            objectReaders = rs;
+            return;
+        }
+        Reader[] old = readers.get(target);
+        Reader[] rs = old == null ? new Reader[TYPE_COUNT] : old.clone();
+        rs[type] = reader;
+        readers.put(target, rs);
+    }
+
+    /**
+     * 获取值的Pusher
+     * @param clazz 值的具体类型
+     * @return Pusher，不会为null
+     */
+    static Pusher pusher(Class<?> clazz) {
+        Pusher p = resolved.get(clazz);
+        if (p == null) {
+            p = resolve(clazz);
+            resolved.put(clazz, p);
+        }
+        return p;
+    }
+
+    /**
+     * 基本类型包装类是否都使用默认Pusher，
+     * 为true时基本类型返回值可以不经装箱直接压入
+     */
+    static boolean hasDefaultPrimitivePushers() {
+        return defaultPrimitives;
+    }
+
+    /**
+     * 获取参数类型对应的Reader
+     * @return Reader，未注册时返回null
+     */
+    static Reader reader(Class<?> target, int type) {
+        Reader[] rs = readers.get(target);
+        return rs == null ? null : rs[type];
+    }
+
+    /**
+     * 按lua_type将栈上的值转换为默认的Java对象
+     */
+    static Object toJavaObject(LuaState.Session S, int idx) throws LuaException {
+        int type = S.type(idx);
+        if (type < 0)
+            return null;
+        return objectReaders[type].read(S, idx, type);
+    }
+
+    private static Pusher resolve(Class<?> clazz) {
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            Pusher p = pushers.get(c);
+            if (p != null)
+                return p;
+        }
+        ArrayDeque<Class<?>> queue = new ArrayDeque<>();
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces())
+                queue.add(i);
+        }
+        while (!queue.isEmpty()) {
+            Class<?> i = queue.poll();
+            Pusher p = pushers.get(i);
+            if (p != null)
+                return p;
+            for (Class<?> s : i.getInterfaces())
+                queue.add(s);
+        }
+        return JAVA_OBJECT;
+    }
+
+    /**
+     * 作为userdata压入，未注册类型的默认行为
+     */
+    public static final Pusher JAVA_OBJECT = new Pusher() {
+        @Override
+        public void push(LuaState.Session S, Object value) {
+            S.pushJavaObject(value);
+        }
+    };
+
+    /**
+     * byte[]作为Lua字符串压入，不经过String
+     */
+    public static final Pusher BYTES_AS_STRING = new Pusher() {
+        @Override
+        public void push(LuaState.Session S, Object value) {
+            S.pushString((byte[]) value);
+        }
+    };
+
+    /**
+     * ByteBuffer的剩余内容作为Lua字符串压入，不改变position
+     */
+    public static final Pusher BYTE_BUFFER_AS_STRING = new Pusher() {
+        @Override
+        public void push(LuaState.Session S, Object value) {
+            ByteBuffer buf = (ByteBuffer) value;
+            int n = buf.remaining();
+            if (buf.hasArray() && buf.arrayOffset() + buf.position() == 0) {
+                S.pushString(buf.array(), n);
+            } else {
+                byte[] bytes = new byte[n];
+                buf.duplicate().get(bytes);
+                S.pushString(bytes);
+            }
+        }
+    };
+
+    /**
+     * CharSequence作为Lua字符串压入
+     */
+    public static final Pusher CHAR_SEQUENCE_AS_STRING = new Pusher() {
+        @Override
+        public void push(LuaState.Session S, Object value) {
+            S.pushString(value.toString());
+        }
+    };
+
+    /**
+     * 基本类型数组整体转换为Lua表
+     */
+    public static final Pusher ARRAY_AS_TABLE = new Pusher() {
+        @Override
+        public void push(LuaState.Session S, Object value) throws LuaException {
+            if (value instanceof int[]) {
+                int[] a = (int[]) value;
+                S.createTable(a.length, 0);
+                for (int i = 0; i < a.length; i++) {
+                    S.pushInteger(a[i]);
+                    S.rawSetI(-2, i + 1);
+                }
+            } else if (value instanceof long[]) {
+                long[] a = (long[]) value;
+                S.createTable(a.length, 0);
+                for (int i = 0; i < a.length; i++) {
+                    S.pushInteger(a[i]);
+                    S.rawSetI(-2, i + 1);
+                }
+            } else if (value instanceof double[]) {
+                double[] a = (double[]) value;
+                S.createTable(a.length, 0);
+                for (int i = 0; i < a.length; i++) {
+                    S.pushNumber(a[i]);
+                    S.rawSetI(-2, i + 1);
+                }
+            } else if (value instanceof float[]) {
+                float[] a = (float[]) value;
+                S.createTable(a.length, 0);
+                for (int i = 0; i < a.length; i++) {
+                    S.pushNumber(a[i]);
+                    S.rawSetI(-2, i + 1);
+                }
+            } else if (value instanceof short[]) {
+                short[] a = (short[]) value;
+                S.createTable(a.length, 0);
+                for (int i = 0; i < a.length; i++) {
+                    S.pushInteger(a[i]);
+                    S.rawSetI(-2, i + 1);
+                }
+            } else if (value instanceof byte[]) {
+                byte[] a = (byte[]) value;
+                S.createTable(a.length, 0);
+                for (int i = 0; i < a.length; i++) {
+                    S.pushInteger(a[i]);
+                    S.rawSetI(-2, i + 1);
+                }
+            } else if (value instanceof char[]) {
+                char[] a = (char[]) value;
+                S.createTable(a.length, 0);
+                for (int i = 0; i < a.length; i++) {
+                    S.pushInteger(a[i]);
+                    S.rawSetI(-2, i + 1);
+                }
+            } else if (value instanceof boolean[]) {
+                boolean[] a = (boolean[]) value;
+                S.createTable(a.length, 0);
+                for (int i = 0; i < a.length; i++) {
+                    S.pushBoolean(a[i]);
+                    S.rawSetI(-2, i + 1);
+                }
+            } else {
+                S.pushJavaObject(value);
+            }
+        }
+    };
+
+    /**
+     * 注册常用Java与Android类型从Lua字符串/数字的转换：
+     * File、android.net.Uri、BigInteger、BigDecimal
+     * 这些转换会让接受这些类型的重载也能匹配Lua字符串，因此默认不启用
+     */
+    public static void registerCommonReaders() {
+        register(File.class, LuaState.LUA_TSTRING, new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                return new File(S.toString(idx));
+            }
+        });
+        register(Uri.class, LuaState.LUA_TSTRING, new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                return Uri.parse(S.toString(idx));
+            }
+        });
+        Reader bigInteger = new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                if (type == LuaState.LUA_TNUMBER && S.isInteger(idx))
+                    return BigInteger.valueOf(S.toInteger(idx));
+                try {
+                    return new BigInteger(S.toString(idx));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        };
+        register(BigInteger.class, LuaState.LUA_TNUMBER, bigInteger);
+        register(BigInteger.class, LuaState.LUA_TSTRING, bigInteger);
+        Reader bigDecimal = new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                if (type == LuaState.LUA_TNUMBER) {
+                    if (S.isInteger(idx))
+                        return BigDecimal.valueOf(S.toInteger(idx));
+                    return BigDecimal.valueOf(S.toNumber(idx));
+                }
+                try {
+                    return new BigDecimal(S.toString(idx));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        };
+        register(BigDecimal.class, LuaState.LUA_TNUMBER, bigDecimal);
+        register(BigDecimal.class, LuaState.LUA_TSTRING, bigDecimal);
+    }
+
+    static {
+        Pusher bool = new Pusher() {
+            @Override
+            public void push(LuaState.Session S, Object value) {
+                S.pushBoolean((Boolean) value);
+            }
+        };
+        Pusher integer = new Pusher() {
+            @Override
+            public void push(LuaState.Session S, Object value) {
+                S.pushInteger(((Number) value).longValue());
+            }
+        };
+        Pusher number = new Pusher() {
+            @Override
+            public void push(LuaState.Session S, Object value) {
+                S.pushNumber(((Number) value).doubleValue());
+            }
+        };
+        pushers.put(Boolean.class, bool);
+        pushers.put(Long.class, integer);
+        pushers.put(Integer.class, integer);
+        pushers.put(Short.class, integer);
+        pushers.put(Byte.class, integer);
+        pushers.put(Float.class, number);
+        pushers.put(Double.class, number);
+        pushers.put(Character.class, new Pusher() {
+            @Override
+            public void push(LuaState.Session S, Object value) {
+                S.pushInteger((Character) value);
+            }
+        });
+        for (Class<?> c : new Class<?>[]{Boolean.class, Long.class, Integer.class, Short.class,
+                Byte.class, Float.class, Double.class, Character.class})
+            primitiveDefaults.put(c, pushers.get(c));
+        pushers.put(String.class, new Pusher() {
+            @Override
+            public void push(LuaState.Session S, Object value) {
+                S.pushString((String) value);
+            }
+        });
+        pushers.put(LuaString.class, new Pusher() {
+            @Override
+            public void push(LuaState.Session S, Object value) {
+                S.pushString(((LuaString) value).toByteArray());
+            }
+        });
+        pushers.put(JavaFunction.class, new Pusher() {
+            @Override
+            public void push(LuaState.Session S, Object value) throws LuaException {
+                S.pushJavaFunction((JavaFunction) value);
+            }
+        });
+        pushers.put(LuaObject.class, new Pusher() {
+            @Override
+            public void push(LuaState.Session S, Object value) {
+                LuaObject ref = (LuaObject) value;
+                if (ref.getLuaState() == S.getLuaState())
+                    ref.push();
+                else
+                    S.pushJavaObject(ref);
+            }
+        });
+
+        Reader[] rs = new Reader[TYPE_COUNT];
+        Reader nil = new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                return null;
+            }
+        };
+        for (int i = 0; i < TYPE_COUNT; i++)
+            rs[i] = nil;
+        rs[LuaState.LUA_TBOOLEAN] = new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                return S.toBoolean(idx);
+            }
+        };
+        rs[LuaState.LUA_TSTRING] = new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                return S.toString(idx);
+            }
+        };
+        rs[LuaState.LUA_TFUNCTION] = new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                return new LuaFunction<>(S.getLuaState(), idx);
+            }
+        };
+        rs[LuaState.LUA_TTABLE] = new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                return new LuaTable<>(S.getLuaState(), idx);
+            }
+        };
+        rs[LuaState.LUA_TNUMBER] = new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                if (S.isInteger(idx))
+                    return S.toInteger(idx);
+                return S.toNumber(idx);
+            }
+        };
+        Reader userdata = new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) throws LuaException {
+                if (S.isObject(idx))
+                    return S.getObjectFromUserdata(idx);
+                return new LuaObject(S.getLuaState(), idx);
+            }
+        };
+        rs[LuaState.LUA_TUSERDATA] = userdata;
+        rs[LuaState.LUA_TLIGHTUSERDATA] = userdata;
+        objectReaders = rs;
+
+        Reader bytes = new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                return S.toBuffer(idx);
+            }
+        };
+        register(byte[].class, LuaState.LUA_TSTRING, bytes);
+        register(ByteBuffer.class, LuaState.LUA_TSTRING, new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                return ByteBuffer.wrap(S.toBuffer(idx));
+            }
+        });
+        register(char[].class, LuaState.LUA_TSTRING, new Reader() {
+            @Override
+            public Object read(LuaState.Session S, int idx, int type) {
+                return S.toString(idx).toCharArray();
+            }
+        });
+    }
+}
@@ -24,59 +24,124 @@
 
 package com.luajava;
 
-import android.util.Log;
-
 import com.difierline.lua.LuaContext;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Class that implements the InvocationHandler interface.
  * This class is used in the LuaJava's proxy system.
  * When a proxy object is accessed, the method invoked is
  * called from Lua
+ * <p>
+ * The Lua functions implementing the interface methods are resolved once when
+ * the handler is created. The handler only holds the LuaObjects it resolved, so
+ * their registry references are released together with the proxy.
+ * Each invocation still reads the table field and compares it with the resolved
+ * function; once the field has been reassigned, that method is looked up by name
+ * on every invocation, as are methods that were not present in the table at
+ * creation time.
  * @author Rizzato
  * @author Thiago Ponte
  */
 public class LuaInvocationHandler implements InvocationHandler {
+	/**
+	 * Method tables of single interfaces. Both keys and values are weak: a table
+	 * stays cached while some handler uses it and is dropped with the interface
+	 */
+	private static final Map<Class<?>, WeakReference<MethodTable>> tables = new WeakHashMap<>();
+
 	private final LuaContext mContext;
 	private final LuaObject obj;
-    private static ArrayList cache=new ArrayList();
+	private final MethodTable table;
+	private final LuaObject[] functions;
+
 	public LuaInvocationHandler(LuaObject obj) {
+		this(obj, null);
+	}
+
+	/**
+	 * @param obj Lua table or function implementing the interfaces
+	 * @param interfaces interfaces implemented by the proxy, null to look every method up by name
+	 */
+	public LuaInvocationHandler(LuaObject obj, Class<?>[] interfaces) {
 		this.obj = obj;
-		cache.add(obj);
-		mContext=obj.getLuaState().getContext();
+		mContext = obj.getLuaState().getContext();
+		if (interfaces == null || interfaces.length == 0) {
+			table = MethodTable.EMPTY;
+			functions = null;
+			return;
+		}
+		table = MethodTable.of(interfaces);
+		functions = new LuaObject[table.names.length];
+		synchronized (obj.L) {
+			LuaState.Session S = obj.S;
+			int top = S.getTop();
+			obj.push();
+			if (S.isFunction(-1)) {
+				for (int i = 0; i < functions.length; i++)
+					functions[i] = obj;
+			}
+			else if (S.isTable(-1)) {
+				for (int i = 0; i < functions.length; i++) {
+					S.getField(-1, table.names[i]);
+					if (!S.isNil(-1))
+						functions[i] = S.getLuaObject(-1);
+					S.pop(1);
+				}
+			}
+			S.setTop(top);
+		}
 	}
 
 	/**
 	 * Function called when a proxy object function is invoked.
 	 */
 	public Object invoke(Object proxy, Method method, Object[] args) throws LuaException {
-		Log.i("LuaInvocationHandler", "invoke: "+obj+";"+method+";"+ Arrays.toString(args));
+		Class<?> retType = method.getReturnType();
+		if (obj.L.getPointer() == 0)
+			return defaultValue(retType);
+
+		String methodName = method.getName();
+		Integer slot = table.slots.get(method);
+
 		synchronized (obj.L) {
-			String methodName = method.getName();
-			LuaObject func;
-			if (obj.isFunction()){
-				func = obj;
-			}
-			else{
-				func = obj.getField(methodName);
-			}
-			Class<?> retType = method.getReturnType();
-
-			if (func.isNil()) {
-				if (retType.equals(boolean.class) || retType.equals(Boolean.class))
-					return false;
-				else if (retType.isPrimitive() || Number.class.isAssignableFrom(retType))
-					return 0;
-				else
-					return null;
+			LuaObject func = slot != null ? functions[slot] : null;
+			if (func != obj) {
+				LuaState.Session S = obj.S;
+				obj.push();
+				if (S.isFunction(-1)) {
+					func = obj;
+				}
+				else {
+					S.getField(-1, methodName);
+					if (func != null) {
+						// The table field was reassigned: drop the resolved function
+						// and look this method up by name from now on
+						func.push();
+						boolean same = S.rawequal(-1, -2) != 0;
+						S.pop(1);
+						if (!same) {
+							functions[slot] = null;
+							func.release();
+							func = null;
+						}
+					}
+					if (func == null && !S.isNil(-1))
+						func = S.getLuaObject(-1);
+					S.pop(1);
+				}
+				S.pop(1);
 			}
 
+			if (func == null)
+				return defaultValue(retType);
+
 			Object ret = null;
 			try {
 				// Checks if returned type is void. if it is returns null.
@@ -93,13 +158,76 @@ public class LuaInvocationHandler implements InvocationHandler {
 			}
 			catch (Exception e) {
 				mContext.sendError(methodName, e);
-			}  	
+			}
 			if (ret == null)
-				if (retType.equals(boolean.class) || retType.equals(Boolean.class))
-					return false;
-				else if (retType.isPrimitive() || Number.class.isAssignableFrom(retType))
-					return 0;
+				return defaultValue(retType);
 			return ret;
 		}
 	}
+
+	/**
+	 * Releases the Lua functions resolved for this handler. The proxy falls back
+	 * to looking methods up by name afterwards.
+	 */
+	public void release() {
+		if (functions == null)
+			return;
+		for (int i = 0; i < functions.length; i++) {
+			LuaObject f = functions[i];
+			functions[i] = null;
+			if (f != null && f != obj)
+				f.release();
+		}
+	}
+
+	private static Object defaultValue(Class<?> retType) {
+		if (retType.equals(boolean.class) || retType.equals(Boolean.class))
+			return false;
+		else if (retType.isPrimitive() || Number.class.isAssignableFrom(retType))
+			return 0;
+		else
+			return null;
+	}
+
+	/**
+	 * Maps the methods of a set of interfaces to slots, one slot per method name
+	 */
+	private static final class MethodTable {
+		static final MethodTable EMPTY = new MethodTable(new Class<?>[0]);
+
+		final String[] names;
+		final HashMap<Method, Integer> slots = new HashMap<>();
+
+		private MethodTable(Class<?>[] interfaces) {
+			HashMap<String, Integer> byName = new HashMap<>();
+			for (Class<?> c : interfaces) {
+				for (Method m : c.getMethods()) {
+					Integer slot = byName.get(m.getName());
+					if (slot == null) {
+						slot = byName.size();
+						byName.put(m.getName(), slot);
+					}
+					slots.put(m, slot);
+				}
+			}
+			names = new String[byName.size()];
+			for (Map.Entry<String, Integer> e : byName.entrySet())
+				names[e.getValue()] = e.getKey();
+		}
+
+		static MethodTable of(Class<?>[] interfaces) {
+			if (interfaces.length != 1)
+				return new MethodTable(interfaces);
+			Class<?> c = interfaces[0];
+			synchronized (tables) {
+				WeakReference<MethodTable> ref = tables.get(c);
+				MethodTable table = ref == null ? null : ref.get();
+				if (table == null) {
+					table = new MethodTable(interfaces);
+					tables.put(c, new WeakReference<>(table));
+				}
+				return table;
+			}
+		}
+	}
 }
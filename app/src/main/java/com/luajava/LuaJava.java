@@ -64,20 +64,21 @@ public class LuaJava {
 
     // ==================== 算术操作常量 ====================
 
+    // 与lua.h中lua_arith的操作码一致
     public static final int LUA_OPADD = 0;
     public static final int LUA_OPSUB = 1;
     public static final int LUA_OPMUL = 2;
-    public static final int LUA_OPDIV = 3;
-    public static final int LUA_OPIDIV = 4;
-    public static final int LUA_OPMOD = 5;
-    public static final int LUA_OPPOW = 6;
-    public static final int LUA_OPUNM = 7;
-    public static final int LUA_OPBNOT = 8;
-    public static final int LUA_OPBAND = 9;
-    public static final int LUA_OPBOR = 10;
-    public static final int LUA_OPBXOR = 11;
-    public static final int LUA_OPSHL = 12;
-    public static final int LUA_OPSHR = 13;
+    public static final int LUA_OPMOD = 3;
+    public static final int LUA_OPPOW = 4;
+    public static final int LUA_OPDIV = 5;
+    public static final int LUA_OPIDIV = 6;
+    public static final int LUA_OPBAND = 7;
+    public static final int LUA_OPBOR = 8;
+    public static final int LUA_OPBXOR = 9;
+    public static final int LUA_OPSHL = 10;
+    public static final int LUA_OPSHR = 11;
+    public static final int LUA_OPUNM = 12;
+    public static final int LUA_OPBNOT = 13;
 
     // ==================== 比较操作常量 ====================
 
@@ -89,6 +90,9 @@ public class LuaJava {
 
     private final LuaState L;
 
+    /** {@link #_toValue}读到的数值的位模式 */
+    private long valueBits;
+
     // ==================== 构造函数 ====================
 
     /**
@@ -957,6 +961,583 @@ public class LuaJava {
         }
     }
 
+    // ==================== 寄存器后端辅助 ====================
+
+    /**
+     * 整数取模，结果符号与除数相同
+     * @param a 被除数
+     * @param b 除数
+     * @return a % b
+     */
+    public static long imod(long a, long b) throws LuaException {
+        if (b == 0) {
+            throw new LuaException("attempt to perform 'n%0'");
+        }
+        long m = a % b;
+        if (m != 0 && (m ^ b) < 0) {
+            m += b;
+        }
+        return m;
+    }
+
+    /**
+     * 整数整除，向负无穷取整
+     * @param a 被除数
+     * @param b 除数
+     * @return a // b
+     */
+    public static long idiv(long a, long b) throws LuaException {
+        if (b == 0) {
+            throw new LuaException("attempt to perform 'n//0'");
+        }
+        long q = a / b;
+        if ((a ^ b) < 0 && q * b != a) {
+            q--;
+        }
+        return q;
+    }
+
+    /**
+     * 浮点取模，结果符号与除数相同
+     * @param a 被除数
+     * @param b 除数
+     * @return a % b
+     */
+    public static double fmod(double a, double b) {
+        double m = a % b;
+        if ((m > 0) ? b < 0 : (m < 0 && b != m)) {
+            m += b;
+        }
+        return m;
+    }
+
+    /**
+     * 整数移位，n为负数时逻辑右移，超过63位时结果为0
+     * @param x 被移位的值
+     * @param n 左移位数
+     * @return x << n
+     */
+    public static long shiftLeft(long x, long n) {
+        if (n <= -64 || n >= 64) {
+            return 0;
+        }
+        return n >= 0 ? x << n : x >>> -n;
+    }
+
+    /** 2^63，超出long范围的最小浮点数 */
+    private static final double TWO_63 = 0x1p63;
+
+    /**
+     * 整数与浮点数相等，不经过double转换，2^53以上的整数也精确
+     */
+    public static boolean eqIntFloat(long i, double f) {
+        return f >= -TWO_63 && f < TWO_63 && (long) f == i && (double) (long) f == f;
+    }
+
+    /**
+     * 精确比较 i < f
+     */
+    public static boolean ltIntFloat(long i, double f) {
+        if (f >= TWO_63) {
+            return true;
+        }
+        // i < f 等价于 i < ceil(f)，NaN不满足f > -2^63
+        return f > -TWO_63 && i < (long) Math.ceil(f);
+    }
+
+    /**
+     * 精确比较 i <= f
+     */
+    public static boolean leIntFloat(long i, double f) {
+        if (f >= TWO_63) {
+            return true;
+        }
+        return f >= -TWO_63 && i <= (long) Math.floor(f);
+    }
+
+    /**
+     * 精确比较 f < i
+     */
+    public static boolean ltFloatInt(double f, long i) {
+        if (f < -TWO_63) {
+            return true;
+        }
+        return f < TWO_63 && (long) Math.floor(f) < i;
+    }
+
+    /**
+     * 精确比较 f <= i
+     */
+    public static boolean leFloatInt(double f, long i) {
+        if (f < -TWO_63) {
+            return true;
+        }
+        return f < TWO_63 && (long) Math.ceil(f) <= i;
+    }
+
+    /**
+     * 计算整数for循环的迭代次数
+     * @param init 初始值
+     * @param limit 终止值
+     * @param step 步长
+     * @return 迭代次数(无符号)，0表示不执行循环
+     */
+    public static long forCount(long init, long limit, long step) throws LuaException {
+        if (step == 0) {
+            throw new LuaException("'for' step is zero");
+        }
+        if (step > 0 ? init > limit : init < limit) {
+            return 0;
+        }
+        long count = step > 0 ? divideUnsigned(limit - init, step)
+                : divideUnsigned(init - limit, -(step + 1) + 1L);
+        return count + 1;
+    }
+
+    /**
+     * 计算终止值为浮点数的整数for循环的迭代次数，终止值按步长方向取整，超出整数范围时截断
+     * @param init 初始值
+     * @param limit 终止值
+     * @param step 步长
+     * @return 迭代次数(无符号)，0表示不执行循环
+     */
+    public static long forCount(long init, double limit, long step) throws LuaException {
+        if (step == 0) {
+            throw new LuaException("'for' step is zero");
+        }
+        double f = step < 0 ? Math.ceil(limit) : Math.floor(limit);
+        long lim;
+        if (f >= -0x1p63 && f < 0x1p63) {
+            lim = (long) f;
+        } else if (limit > 0) {
+            if (step < 0) {
+                return 0;
+            }
+            lim = Long.MAX_VALUE;
+        } else {
+            if (step > 0) {
+                return 0;
+            }
+            lim = Long.MIN_VALUE;
+        }
+        return forCount(init, lim, step);
+    }
+
+    /**
+     * 计算整数for循环的迭代次数，终止值位于栈上
+     * @param init 初始值
+     * @param limitIdx 终止值索引
+     * @param step 步长
+     * @return 迭代次数(无符号)，0表示不执行循环
+     */
+    public long forCountAt(long init, int limitIdx, long step) throws LuaException {
+        if (step == 0) {
+            throw new LuaException("'for' step is zero");
+        }
+        if (isInteger(limitIdx)) {
+            return forCount(init, toInteger(limitIdx), step);
+        }
+        return forCount(init, forNumber(limitIdx, "limit"), step);
+    }
+
+    /**
+     * 读取for循环的数值参数
+     * @param idx 索引
+     * @param what 参数名(initial value/limit/step)
+     * @return 数值
+     */
+    public double forNumber(int idx, String what) throws LuaException {
+        if (!isNumber(idx)) {
+            throw new LuaException("'for' " + what + " must be a number");
+        }
+        return toNumber(idx);
+    }
+
+    /**
+     * 泛型for循环准备：迭代对象是没有__call元方法的表时，改为使用全局next遍历该表
+     * @param idx 迭代函数索引，idx + 1为状态
+     */
+    public void tforPrep(int idx) {
+        if (type(idx) != LUA_TTABLE) {
+            return;
+        }
+        if (getMetaTable(idx) != 0) {
+            boolean callable = getField(-1, "__call") != LUA_TNIL;
+            pop(2);
+            if (callable) {
+                return;
+            }
+        }
+        pushValue(idx);
+        replace(idx + 1);
+        rawGetI(LUA_REGISTRYINDEX, 2);
+        getField(-1, "next");
+        remove(-2);
+        replace(idx);
+    }
+
+    // ==================== 寄存器后端的值 ====================
+
+    /**
+     * 寄存器后端中字符串、表、函数等值的占位对象
+     * 这些值只能由Lua持有，保存在寄存器对应的栈槽中，Java局部变量只保存该标记；
+     * nil、布尔值与数值分别以null、Boolean、Long与Double保存在Java局部变量中
+     */
+    public static final Object SLOT = new Object();
+
+    private static final int VALUE_NIL = 0;
+    private static final int VALUE_FALSE = 1;
+    private static final int VALUE_TRUE = 2;
+    private static final int VALUE_INTEGER = 3;
+    private static final int VALUE_FLOAT = 4;
+
+    /**
+     * 读取栈上的值
+     * @param idx 索引，可以是upvalue索引
+     * @param slot 值为字符串、表等时复制到的栈槽
+     * @return 寄存器后端的值
+     */
+    public Object value(int idx, int slot) {
+        return toValue(idx, slot, false);
+    }
+
+    /**
+     * 弹出栈顶的值
+     * @param slot 值为字符串、表等时放入的栈槽
+     * @return 寄存器后端的值
+     */
+    public Object popValue(int slot) {
+        return toValue(-1, slot, true);
+    }
+
+    private Object toValue(int idx, int slot, boolean pop) {
+        synchronized (L) {
+            switch (_toValue(L.getPointer(), idx, slot, pop)) {
+                case VALUE_NIL:
+                    return null;
+                case VALUE_FALSE:
+                    return Boolean.FALSE;
+                case VALUE_TRUE:
+                    return Boolean.TRUE;
+                case VALUE_INTEGER:
+                    return Long.valueOf(valueBits);
+                case VALUE_FLOAT:
+                    return Double.longBitsToDouble(valueBits);
+                default:
+                    return SLOT;
+            }
+        }
+    }
+
+    private native int _toValue(long ptr, int idx, int slot, boolean pop);
+
+    /**
+     * 压入寄存器后端的值
+     * @param v 值，字符串常量以String给出
+     * @param slot v为{@link #SLOT}时值所在的栈槽
+     */
+    public void push(Object v, int slot) {
+        if (v == SLOT) {
+            pushValue(slot);
+        } else if (v == null) {
+            pushNil();
+        } else if (v instanceof Long) {
+            pushInteger((Long) v);
+        } else if (v instanceof Double) {
+            pushNumber((Double) v);
+        } else if (v instanceof Boolean) {
+            pushBoolean((Boolean) v);
+        } else {
+            pushString((String) v);
+        }
+    }
+
+    /**
+     * 把值放入栈槽，用于只能在栈上访问的表、待关闭变量与迭代器
+     * @param v 值
+     * @param slot 栈槽
+     * @return slot
+     */
+    public int at(Object v, int slot) {
+        if (v != SLOT) {
+            push(v, slot);
+            replace(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * 复制寄存器，值位于栈槽中时同时复制栈槽
+     * @param v 源寄存器的值
+     * @param from 源栈槽
+     * @param to 目标栈槽
+     * @return 目标寄存器的值
+     */
+    public Object move(Object v, int from, int to) {
+        if (v == SLOT && from != to) {
+            copy(from, to);
+        }
+        return v;
+    }
+
+    /**
+     * 把字符串放入栈槽
+     * @param s 字符串
+     * @param slot 栈槽
+     * @return {@link #SLOT}
+     */
+    public Object string(String s, int slot) {
+        pushString(s);
+        replace(slot);
+        return SLOT;
+    }
+
+    /**
+     * 真值判断，只有nil与false为假
+     */
+    public static boolean truthy(Object v) {
+        return v != null && v != Boolean.FALSE;
+    }
+
+    /**
+     * 二元算术运算，两个操作数都是数值时在Java中计算，否则由lua_arith处理字符串转换与元方法
+     * @param op LUA_OPADD等
+     * @param x 左操作数
+     * @param xi x为{@link #SLOT}时所在的栈槽
+     * @param y 右操作数
+     * @param yi y为{@link #SLOT}时所在的栈槽
+     * @param slot 结果为字符串、表等时放入的栈槽
+     * @return 结果
+     */
+    public Object arith(int op, Object x, int xi, Object y, int yi, int slot) throws LuaException {
+        Object v = numberArith(op, x, y);
+        if (v != null) {
+            return v;
+        }
+        push(x, xi);
+        push(y, yi);
+        arith(op);
+        return popValue(slot);
+    }
+
+    /**
+     * 一元算术运算
+     * @param op LUA_OPUNM或LUA_OPBNOT
+     * @param x 操作数
+     * @param xi x为{@link #SLOT}时所在的栈槽
+     * @param slot 结果为字符串、表等时放入的栈槽
+     * @return 结果
+     */
+    public Object arith(int op, Object x, int xi, int slot) {
+        if (op == LUA_OPUNM) {
+            if (x instanceof Long) {
+                return -(Long) x;
+            }
+            if (x instanceof Double) {
+                return -(Double) x;
+            }
+        } else if (x instanceof Long) {
+            return ~(Long) x;
+        }
+        push(x, xi);
+        arith(op);
+        return popValue(slot);
+    }
+
+    /**
+     * 数值的算术运算
+     * @return 结果，操作数不都是数值、需要把浮点数转换为整数或为幂运算时返回null。
+     * 幂运算交给Lua，Math.pow的舍入与C的pow不一定相同
+     */
+    private static Object numberArith(int op, Object x, Object y) throws LuaException {
+        if (x instanceof Long && y instanceof Long) {
+            long a = (Long) x;
+            long b = (Long) y;
+            switch (op) {
+                case LUA_OPADD: return a + b;
+                case LUA_OPSUB: return a - b;
+                case LUA_OPMUL: return a * b;
+                case LUA_OPMOD: return imod(a, b);
+                case LUA_OPIDIV: return idiv(a, b);
+                case LUA_OPBAND: return a & b;
+                case LUA_OPBOR: return a | b;
+                case LUA_OPBXOR: return a ^ b;
+                case LUA_OPSHL: return shiftLeft(a, b);
+                case LUA_OPSHR: return shiftLeft(a, -b);
+                case LUA_OPDIV: return (double) a / b;
+                default: return null;
+            }
+        }
+        if ((x instanceof Long || x instanceof Double) && (y instanceof Long || y instanceof Double)) {
+            double a = ((Number) x).doubleValue();
+            double b = ((Number) y).doubleValue();
+            switch (op) {
+                case LUA_OPADD: return a + b;
+                case LUA_OPSUB: return a - b;
+                case LUA_OPMUL: return a * b;
+                case LUA_OPDIV: return a / b;
+                case LUA_OPMOD: return fmod(a, b);
+                case LUA_OPIDIV: return Math.floor(a / b);
+                default: return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 相等比较，字符串、表等交给lua_compare以调用__eq元方法
+     * @param x 左操作数，字符串常量以String给出
+     * @param xi x为{@link #SLOT}时所在的栈槽
+     * @param y 右操作数，字符串常量以String给出
+     * @param yi y为{@link #SLOT}时所在的栈槽
+     * @return x == y
+     */
+    public boolean eq(Object x, int xi, Object y, int yi) {
+        boolean xs = x == SLOT || x instanceof String;
+        boolean ys = y == SLOT || y instanceof String;
+        if (xs || ys) {
+            return xs && ys && compareValues(x, xi, y, yi, LUA_OPEQ);
+        }
+        if (x instanceof Long && y instanceof Double) {
+            return eqIntFloat((Long) x, (Double) y);
+        }
+        if (x instanceof Double && y instanceof Long) {
+            return eqIntFloat((Long) y, (Double) x);
+        }
+        if (x instanceof Double && y instanceof Double) {
+            return (double) (Double) x == (Double) y;
+        }
+        return x == null ? y == null : x.equals(y);
+    }
+
+    /**
+     * 小于比较，参数同{@link #eq}
+     * @return x < y
+     */
+    public boolean lt(Object x, int xi, Object y, int yi) {
+        if (x instanceof Long) {
+            long a = (Long) x;
+            if (y instanceof Long) {
+                return a < (Long) y;
+            }
+            if (y instanceof Double) {
+                return ltIntFloat(a, (Double) y);
+            }
+        } else if (x instanceof Double) {
+            double a = (Double) x;
+            if (y instanceof Long) {
+                return ltFloatInt(a, (Long) y);
+            }
+            if (y instanceof Double) {
+                return a < (Double) y;
+            }
+        }
+        return compareValues(x, xi, y, yi, LUA_OPLT);
+    }
+
+    /**
+     * 小于等于比较，参数同{@link #eq}
+     * @return x <= y
+     */
+    public boolean le(Object x, int xi, Object y, int yi) {
+        if (x instanceof Long) {
+            long a = (Long) x;
+            if (y instanceof Long) {
+                return a <= (Long) y;
+            }
+            if (y instanceof Double) {
+                return leIntFloat(a, (Double) y);
+            }
+        } else if (x instanceof Double) {
+            double a = (Double) x;
+            if (y instanceof Long) {
+                return leFloatInt(a, (Long) y);
+            }
+            if (y instanceof Double) {
+                return a <= (Double) y;
+            }
+        }
+        return compareValues(x, xi, y, yi, LUA_OPLE);
+    }
+
+    private boolean compareValues(Object x, int xi, Object y, int yi, int op) {
+        int pushed = 0;
+        if (x != SLOT) {
+            push(x, xi);
+            xi = -1;
+            pushed++;
+        }
+        if (y != SLOT) {
+            push(y, yi);
+            yi = -1;
+            if (pushed++ > 0) {
+                xi = -2;
+            }
+        }
+        boolean r = compare(xi, yi, op) != 0;
+        if (pushed > 0) {
+            pop(pushed);
+        }
+        return r;
+    }
+
+    /**
+     * 泛型for与数值for的整数判断
+     */
+    public static boolean isInteger(Object v) {
+        return v instanceof Long;
+    }
+
+    /**
+     * 读取for循环的数值参数
+     * @param v 参数
+     * @param idx v为{@link #SLOT}时所在的栈槽
+     * @param what 参数名(initial value/limit/step)
+     * @return 数值
+     */
+    public double forNumber(Object v, int idx, String what) throws LuaException {
+        if (v instanceof Long) {
+            return (Long) v;
+        }
+        if (v instanceof Double) {
+            return (Double) v;
+        }
+        if (v == SLOT) {
+            return forNumber(idx, what);
+        }
+        throw new LuaException("'for' " + what + " must be a number");
+    }
+
+    /**
+     * 计算整数for循环的迭代次数，终止值可以是任意值
+     * @param init 初始值
+     * @param limit 终止值
+     * @param idx limit为{@link #SLOT}时所在的栈槽
+     * @param step 步长
+     * @return 迭代次数(无符号)，0表示不执行循环
+     */
+    public long forCount(long init, Object limit, int idx, long step) throws LuaException {
+        if (step == 0) {
+            throw new LuaException("'for' step is zero");
+        }
+        if (limit instanceof Long) {
+            return forCount(init, (long) (Long) limit, step);
+        }
+        return forCount(init, forNumber(limit, idx, "limit"), step);
+    }
+
+    private static long divideUnsigned(long n, long d) {
+        if (d < 0) {
+            return (n ^ Long.MIN_VALUE) >= (d ^ Long.MIN_VALUE) ? 1 : 0;
+        }
+        if (n >= 0) {
+            return n / d;
+        }
+        long q = ((n >>> 1) / d) << 1;
+        long r = n - q * d;
+        return q + ((r ^ Long.MIN_VALUE) >= (d ^ Long.MIN_VALUE) ? 1 : 0);
+    }
+
     // ==================== 扩展操作 ====================
 
     /**
@@ -1309,8 +1890,10 @@ public class LuaJava {
 
     /**
      * 推送Java函数到栈上
+     * 栈顶的nUpvalues个值成为函数的upvalue。第1个upvalue保留给函数索引，
+     * 方法内第i个upvalue(从0开始)位于{@code upvalueIndex(i + 2)}
      * @param obj 包含方法的对象
-     * @param methodName 方法名
+     * @param methodName 方法名，签名须为{@code int name(LuaJava)}
      * @param nUpvalues upvalue数量
      */
     public void pushJavaFunction(Object obj, String methodName, int nUpvalues) {
@@ -59,29 +59,23 @@ import java.util.Map;
  */
 @SuppressLint("UseSparseArrays")
 public final class LuaJavaAPI {
-    private final static HashMap<Class<?>, Method[]> methodsMap = new HashMap<Class<?>, Method[]>();
-    private final static Map<String, Method[]> methodCache = new HashMap<String, Method[]>();
-    private final static HashMap<Class<?>, HashMap<String, ArrayList<Method>>> methodCache3 = new HashMap<Class<?>, HashMap<String, ArrayList<Method>>>();
-    private final static HashMap<String, Method> stringMethodCache = new HashMap<>();
-    private final static HashMap<String, Method> integerMethodCache = new HashMap<>();
-    private final static HashMap<String, Method> doubleMethodCache = new HashMap<>();
-    private final static HashMap<String, Method> boolMethodCache = new HashMap<>();
-    private final static HashMap<String, Method> voidMethodCache = new HashMap<>();
     private final static HashMap<Integer, Object> javaObjectMap = new HashMap<>();
 
     private LuaJavaAPI() {
     }
 
     public static void clearCaches() {
-        methodCache.clear();
-        methodsMap.clear();
-        methodCache3.clear();
+        MethodDispatchTable.clearAll();
+    }
 
-        stringMethodCache.clear();
-        integerMethodCache.clear();
-        doubleMethodCache.clear();
-        boolMethodCache.clear();
-        voidMethodCache.clear();
+    /**
+     * Sets how many times a call site must be hit before a direct invoker is
+     * generated for it.
+     *
+     * @param threshold number of hits, 0 or less keeps every call reflective
+     */
+    public static void setInvokerThreshold(int threshold) {
+        InvokerGenerator.setThreshold(threshold);
     }
 
     /**
@@ -98,6 +92,7 @@ public final class LuaJavaAPI {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         Object obj = L.getJavaObject(idx);
         synchronized (L) {
+            LuaState.Session S = L.session();
             int ret = 0;
             if (type == 0)
                 if (checkMethod(L, obj, searchName) != 0)
@@ -117,7 +112,7 @@ public final class LuaJavaAPI {
 
             if ((type == 0 || type == 6) && obj instanceof LuaMetaTable) {
                 Object res = ((LuaMetaTable) obj).__index(searchName);
-                L.pushObjectValue(res);
+                S.pushObjectValue(res);
                 return 6;
             }
 
@@ -130,150 +125,81 @@ public final class LuaJavaAPI {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         Object obj = L.getJavaObject(idx);
         synchronized (L) {
+            LuaState.Session S = L.session();
             StringBuilder msgBuilder = new StringBuilder();
-            Method method = null;
-            int top = L.getTop();
-            int methodType = -1;
-            if (top == 0) {
-                methodType = LuaState.LUA_TNIL;
-                method = voidMethodCache.get(cacheName);
-                if (method != null) {
-                    Object ret;
-                    try {
-                        ret = method.invoke(obj);
-                    } catch (Exception e) {
-                        //e.printStackTrace();
-                        msgBuilder.append("  at ").append(method).append("\n  -> ").append((e.getCause() != null) ? e.getCause() : e).append("\n");
-                        throw new LuaException("Invalid method call.\n" + msgBuilder.toString());
-                    }
-                    // Void function returns null
-                    if (ret == null && method.getReturnType().equals(Void.TYPE))
-                        return 0;
-                    // push result
-                    L.pushObjectValue(ret);
-                    return 1;
-                }
+            int top = S.getTop();
+            Object[] objs = new Object[top];
+            int[] type = new int[top];
+            for (int i = 0; i < top; i++) {
+                type[i] = S.type(i + 1);
             }
 
-            Object[] objs = new Object[top];
-
-            if (top == 1) {
-                switch (L.type(1)) {
-                    case LuaState.LUA_TSTRING:
-                        methodType = LuaState.LUA_TSTRING;
-                        method = stringMethodCache.get(cacheName);
-                        if (method != null)
-                            objs[0] = L.toString(1);
-                        break;
-                    case LuaState.LUA_TBOOLEAN:
-                        methodType = LuaState.LUA_TBOOLEAN;
-                        method = boolMethodCache.get(cacheName);
-                        if (method != null)
-                            objs[0] = L.toBoolean(1);
-                        break;
-                    case LuaState.LUA_TNUMBER:
-                        if (L.isInteger(1)) {
-                            methodType = LuaState.LUA_TINTEGER;
-                            method = integerMethodCache.get(cacheName);
-                            if (method != null)
-                                objs[0] = LuaState.convertLuaNumber(L.toInteger(1), method.getParameterTypes()[0]);
-                        } else {
-                            methodType = LuaState.LUA_TNUMBER;
-                            method = doubleMethodCache.get(cacheName);
-                            if (method != null)
-                                objs[0] = LuaState.convertLuaNumber(L.toNumber(1), method.getParameterTypes()[0]);
+            MethodDispatchTable.MethodGroup group = getMethodGroup(obj, methodName(cacheName));
+            long signature = MethodDispatchTable.signature(S, type, 1);
 
+            // resolved call sites for this argument signature
+            if (signature != MethodDispatchTable.NO_SIGNATURE) {
+                for (MethodDispatchTable.CallSite site : group.sites()) {
+                    if (site.signature != signature)
+                        continue;
+                    JavaInvoker invoker = site.invoker();
+                    boolean[] direct = invoker != null ? invoker.direct : null;
+                    if (!convertArguments(L, site.parameterTypes, type, objs, 1, direct) || !site.accepts(objs))
+                        continue;
+                    if (invoker != null) {
+                        try {
+                            return invoker.call(S, obj, objs, 1);
+                        } catch (LuaException e) {
+                            throw e;
+                        } catch (Throwable e) {
+                            msgBuilder.append("  at ").append(site.method).append("\n  -> ").append(e).append("\n");
+                            throw new LuaException("Invalid method call.\n" + msgBuilder.toString());
                         }
-                        break;
-                }
-                if (method != null) {
+                    }
                     Object ret;
                     try {
-                        if (!Modifier.isPublic(method.getModifiers()))
-                            method.setAccessible(true);
-
-                        ret = method.invoke(obj, objs);
+                        ret = site.method.invoke(obj, objs);
                     } catch (Exception e) {
-                        //e.printStackTrace();
-                        msgBuilder.append("  at ").append(method).append("\n  -> ").append((e.getCause() != null) ? e.getCause() : e).append("\n");
+                        msgBuilder.append("  at ").append(site.method).append("\n  -> ").append((e.getCause() != null) ? e.getCause() : e).append("\n");
                         throw new LuaException("Invalid method call.\n" + msgBuilder.toString());
                     }
-
                     // Void function returns null
-                    if (ret == null && method.getReturnType().equals(Void.TYPE))
+                    if (ret == null && site.isVoid)
                         return 0;
-
                     // push result
-                    L.pushObjectValue(ret);
+                    S.pushObjectValue(ret);
                     return 1;
                 }
             }
 
-            Method[] methods = methodCache.get(cacheName);
-            int[] type = new int[top];
-            for (int i = 0; i < top; i++) {
-                type[i] = L.type(i + 1);
-            }
             // gets method and arguments
+            Method[] methods = group.methods;
             for (Method m : methods) {
-
                 Class[] parameters = m.getParameterTypes();
                 if (parameters.length != top)
                     continue;
 
-                boolean okMethod = true;
-
-                for (int j = 0; j < parameters.length; j++) {
-                    /*if(parameters[j].isPrimitive()&&objs[j] instanceof Number){
-                        objs[j]=parameters[j].cast(objs[j]);
-                    } else if(!parameters[j].isInstance(objs[j]) ){
-                        okMethod=false;
-                        break;
-                    }*/
-                    try {
-                        objs[j] = compareTypes(L, parameters[j], type[j], j + 1);
-                    } catch (Exception e) {
-                        okMethod = false;
-                        break;
-                    }
-                }
-
-                if (okMethod) {
-                    method = m;
+                if (convertArguments(L, parameters, type, objs, 1, null)) {
                     Object ret;
                     try {
-                        if (!Modifier.isPublic(method.getModifiers()))
-                            method.setAccessible(true);
-                        ret = method.invoke(obj, objs);
+                        if (!Modifier.isPublic(m.getModifiers()))
+                            m.setAccessible(true);
+                        ret = m.invoke(obj, objs);
                     } catch (Exception e) {
                         //e.printStackTrace();
-                        msgBuilder.append("  at ").append(method).append("\n  -> ").append((e.getCause() != null) ? e.getCause() : e).append("\n");
+                        msgBuilder.append("  at ").append(m).append("\n  -> ").append((e.getCause() != null) ? e.getCause() : e).append("\n");
                         continue;
                     }
 
-                    switch (methodType) {
-                        case LuaState.LUA_TSTRING:
-                            stringMethodCache.put(cacheName, method);
-                            break;
-                        case LuaState.LUA_TINTEGER:
-                            integerMethodCache.put(cacheName, method);
-                            break;
-                        case LuaState.LUA_TNUMBER:
-                            doubleMethodCache.put(cacheName, method);
-                            break;
-                        case LuaState.LUA_TBOOLEAN:
-                            boolMethodCache.put(cacheName, method);
-                            break;
-                        case LuaState.LUA_TNIL:
-                            voidMethodCache.put(cacheName, method);
-                            break;
-                    }
+                    if (signature != MethodDispatchTable.NO_SIGNATURE)
+                        group.add(new MethodDispatchTable.CallSite(signature, m, type, objs));
+
                     // Void function returns null
-                    if (ret == null && method.getReturnType().equals(Void.TYPE))
+                    if (ret == null && m.getReturnType().equals(Void.TYPE))
                         return 0;
 
                     // push result
-                    L.pushObjectValue(ret);
+                    S.pushObjectValue(ret);
                     return 1;
                 }
             }
@@ -291,6 +217,46 @@ public final class LuaJavaAPI {
         }
     }
 
+    /**
+     * Converts the arguments on the stack to the given parameter types.
+     *
+     * @param L          the state holding the arguments
+     * @param parameters target parameter types
+     * @param type       lua type of each argument
+     * @param objs       receives the converted arguments
+     * @param first      stack index of the first argument
+     * @param direct     arguments read from the stack by a generated invoker, may be null
+     * @return false if some argument can not be converted
+     */
+    private static boolean convertArguments(LuaState L, Class<?>[] parameters, int[] type, Object[] objs, int first,
+                                            boolean[] direct) {
+        for (int j = 0; j < parameters.length; j++) {
+            if (direct != null && direct[j])
+                continue;
+            try {
+                objs[j] = compareTypes(L, parameters[j], type[j], first + j);
+            } catch (Exception e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Extracts the method name from the tag built by objectIndex
+     * (<code>className@name</code> or <code>className.name</code>).
+     */
+    private static String methodName(String cacheName) {
+        int sep = Math.max(cacheName.lastIndexOf('@'), cacheName.lastIndexOf('.'));
+        return sep < 0 ? cacheName : cacheName.substring(sep + 1);
+    }
+
+    private static MethodDispatchTable.MethodGroup getMethodGroup(Object obj, String methodName) {
+        if (obj instanceof Class)
+            return MethodDispatchTable.of((Class<?>) obj).group(methodName, true);
+        return MethodDispatchTable.of(obj.getClass()).group(methodName, false);
+    }
+
     /**
      * Java implementation of the metamethod __newindex
      *
@@ -305,6 +271,7 @@ public final class LuaJavaAPI {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         Object obj = L.getJavaObject(idx);
         synchronized (L) {
+            LuaState.Session S = L.session();
             int res;
             if (type == 0 || type == 1) {
                 res = setFieldValue(L, obj, searchName);
@@ -319,7 +286,7 @@ public final class LuaJavaAPI {
             }
             if (type == 0 || type == 3) {
                 if (obj instanceof LuaMetaTable) {
-                    ((LuaMetaTable) obj).__newIndex(searchName, L.toJavaObject(-1));
+                    ((LuaMetaTable) obj).__newIndex(searchName, S.toJavaObject(-1));
                     return 3;
                 }
             }
@@ -329,6 +296,7 @@ public final class LuaJavaAPI {
 
     public static int setFieldValue(LuaState L, Object obj, String fieldName) throws LuaException {
         synchronized (L) {
+            LuaState.Session S = L.session();
             Field field = null;
             Class objClass;
             boolean isClass = false;
@@ -359,7 +327,7 @@ public final class LuaJavaAPI {
                 if (!Modifier.isPublic(field.getModifiers()))
                     field.setAccessible(true);
 
-                field.set(obj, compareTypes(L, type, L.getTop()));
+                field.set(obj, compareTypes(L, type, S.getTop()));
             } catch (LuaException e) {
                 argError(L, fieldName, -1, type);
             } catch (Exception e) {
@@ -418,6 +386,7 @@ public final class LuaJavaAPI {
         Object obj = L.getJavaObject(idx);
 
         synchronized (L) {
+            LuaState.Session S = L.session();
             if (obj.getClass().isArray()) {
                 Class<?> type = obj.getClass().getComponentType();
                 try {
@@ -427,11 +396,11 @@ public final class LuaJavaAPI {
                     argError(L, obj.getClass().getName() + " [" + index + "]", 3, type);
                 }
             } else if (obj instanceof List) {
-                ((List<Object>) obj).set(index, L.toJavaObject(3));
+                ((List<Object>) obj).set(index, S.toJavaObject(3));
             } else if (obj instanceof Map) {
-                ((Map<Long, Object>) obj).put((long) index, L.toJavaObject(3));
+                ((Map<Long, Object>) obj).put((long) index, S.toJavaObject(3));
             } else {
-                throw new LuaException("can not set " + obj.getClass().getName() + " value: " + L.toJavaObject(3) + " in " + index);
+                throw new LuaException("can not set " + obj.getClass().getName() + " value: " + S.toJavaObject(3) + " in " + index);
             }
             return 0;
         }
@@ -440,6 +409,7 @@ public final class LuaJavaAPI {
     public static int setArrayValue(LuaState L, Object obj, int index) throws LuaException {
 
         synchronized (L) {
+            LuaState.Session S = L.session();
             if (obj.getClass().isArray()) {
                 Class<?> type = obj.getClass().getComponentType();
                 try {
@@ -449,11 +419,11 @@ public final class LuaJavaAPI {
                     argError(L, obj.getClass().getName() + " [" + index + "]", 3, type);
                 }
             } else if (obj instanceof List) {
-                ((List<Object>) obj).set(index, L.toJavaObject(-1));
+                ((List<Object>) obj).set(index, S.toJavaObject(-1));
             } else if (obj instanceof Map) {
-                ((Map<Long, Object>) obj).put((long) index, L.toJavaObject(-1));
+                ((Map<Long, Object>) obj).put((long) index, S.toJavaObject(-1));
             } else {
-                throw new LuaException("can not set " + obj.getClass().getName() + " value: " + L.toJavaObject(-1) + " in " + index);
+                throw new LuaException("can not set " + obj.getClass().getName() + " value: " + S.toJavaObject(-1) + " in " + index);
             }
             return 0;
         }
@@ -464,6 +434,7 @@ public final class LuaJavaAPI {
         Object obj = L.getJavaObject(idx);
 
         synchronized (L) {
+            LuaState.Session S = L.session();
             Object ret = null;
             if (obj.getClass().isArray()) {
                 ret = Array.get(obj, index);
@@ -474,7 +445,7 @@ public final class LuaJavaAPI {
             } else {
                 throw new LuaException("can not get " + obj.getClass().getName() + " value in " + index);
             }
-            L.pushObjectValue(ret);
+            S.pushObjectValue(ret);
             return 1;
         }
     }
@@ -484,39 +455,40 @@ public final class LuaJavaAPI {
         Object obj = L.getJavaObject(idx);
 
         synchronized (L) {
-            if (L.isBoolean(-1) && L.toBoolean(-1)) {
-                L.pop(1);
+            LuaState.Session S = L.session();
+            if (S.isBoolean(-1) && S.toBoolean(-1)) {
+                S.pop(1);
                 return asTable(L, obj);
             }
             try {
-                L.newTable();
-                int ret = L.getTop();
+                S.newTable();
+                int ret = S.getTop();
                 if (obj == null)
                     return 1;
                 if (obj.getClass().isArray()) {
                     int n = Array.getLength(obj);
                     for (int i = 0; i <= n - 1; i++) {
                         Object v = Array.get(obj, i);
-                        L.pushObjectValue(v);
-                        L.rawSetI(-2, i + 1);
+                        S.pushObjectValue(v);
+                        S.rawSetI(-2, i + 1);
                     }
                 } else if (obj instanceof Collection) {
                     Collection list = (Collection) obj;
                     int i = 1;
                     for (Object v : list) {
-                        L.pushObjectValue(v);
-                        L.rawSetI(-2, i++);
+                        S.pushObjectValue(v);
+                        S.rawSetI(-2, i++);
                     }
                 } else if (obj instanceof Map) {
                     Map map = (Map) obj;
                     for (Object o : map.entrySet()) {
                         Map.Entry entry = (Map.Entry) o;
-                        L.pushObjectValue(entry.getKey());
-                        L.pushObjectValue(entry.getValue());
-                        L.setTable(-3);
+                        S.pushObjectValue(entry.getKey());
+                        S.pushObjectValue(entry.getValue());
+                        S.setTable(-3);
                     }
                 }
-                L.pushValue(ret);
+                S.pushValue(ret);
                 return 1;
             } catch (Exception e) {
                 throw new LuaException("can not astable: " + e.getMessage());
@@ -526,34 +498,35 @@ public final class LuaJavaAPI {
 
     private static int asTable(LuaState L, Object obj) throws LuaException {
         synchronized (L) {
+            LuaState.Session S = L.session();
             try {
-                L.newTable();
+                S.newTable();
                 if (obj == null)
                     return 1;
                 if (obj.getClass().isArray()) {
                     int n = Array.getLength(obj);
                     for (int i = 0; i <= n - 1; i++) {
                         asTable(L, Array.get(obj, i));
-                        L.rawSetI(-2, i + 1);
+                        S.rawSetI(-2, i + 1);
                     }
                 } else if (obj instanceof Collection) {
                     Collection list = (Collection) obj;
                     int i = 1;
                     for (Object v : list) {
                         asTable(L, v);
-                        L.rawSetI(-2, i++);
+                        S.rawSetI(-2, i++);
                     }
                 } else if (obj instanceof Map) {
                     Map map = (Map) obj;
                     for (Object o : map.entrySet()) {
                         Map.Entry entry = (Map.Entry) o;
-                        L.pushObjectValue(entry.getKey());
+                        S.pushObjectValue(entry.getKey());
                         asTable(L, entry.getValue());
-                        L.setTable(-3);
+                        S.setTable(-3);
                     }
                 } else {
-                    L.pop(1);
-                    L.pushObjectValue(obj);
+                    S.pop(1);
+                    S.pushObjectValue(obj);
                 }
                 return 1;
             } catch (Exception e) {
@@ -568,9 +541,10 @@ public final class LuaJavaAPI {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         Class clazz = (Class) L.getJavaObject(idx);
         synchronized (L) {
+            LuaState.Session S = L.session();
             try {
                 Object obj = Array.newInstance(clazz, size);
-                L.pushJavaObject(obj);
+                S.pushJavaObject(obj);
             } catch (Exception e) {
                 throw new LuaException("can not create a array: " + e.getMessage());
             }
@@ -582,14 +556,15 @@ public final class LuaJavaAPI {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         Class clazz = (Class) L.getJavaObject(idx);
         synchronized (L) {
+            LuaState.Session S = L.session();
             try {
-                int top = L.getTop();
+                int top = S.getTop();
                 int[] dimensions = new int[top - 1];
                 for (int i = 0; i < top - 1; i++) {
-                    dimensions[i] = (int) L.toInteger(i + 2);
+                    dimensions[i] = (int) S.toInteger(i + 2);
                 }
                 Object obj = Array.newInstance(clazz, dimensions);
-                L.pushJavaObject(obj);
+                S.pushJavaObject(obj);
             } catch (Exception e) {
                 throw new LuaException("can not create a array: " + e.getMessage());
             }
@@ -674,14 +649,15 @@ public final class LuaJavaAPI {
         Class<?> clazz = (Class<?>) L.getJavaObject(idx);
 
         synchronized (L) {
+            LuaState.Session S = L.session();
             if (clazz.isPrimitive()) {
-                int top = L.getTop();
+                int top = S.getTop();
                 for (int i = 2; i <= top; i++) {
                     toPrimitive(L, clazz, i);
                 }
                 return top - 1;
             } else if (Modifier.isAbstract(clazz.getModifiers())) {
-                if (!L.isTable(2))
+                if (!S.isTable(2))
                     argError(L, "javaOverride", 1, "table");
                 return javaOverride(luaState, idx);
             } else {
@@ -695,8 +671,9 @@ public final class LuaJavaAPI {
         Class<?> clazz = (Class<?>) L.getJavaObject(idx);
 
         synchronized (L) {
+            LuaState.Session S = L.session();
             final LuaTable<String, LuaFunction> t = new LuaTable<String, LuaFunction>(L, 2);
-            L.remove(2);
+            S.remove(2);
             Class<?> cls = new LuaEnhancer(clazz).create(new MethodFilter() {
                 @Override
                 public boolean filter(Method method, String name) {
@@ -708,9 +685,9 @@ public final class LuaJavaAPI {
             int r = getObjInstance(L, cls);
             if (r == 0)
                 return 0;
-            EnhancerInterface obj = (EnhancerInterface) L.toJavaObject(-1);
+            EnhancerInterface obj = (EnhancerInterface) S.toJavaObject(-1);
             obj.setMethodInterceptor_Enhancer(new LuaMethodInterceptor(t));
-            L.pushJavaObject(obj);
+            S.pushJavaObject(obj);
             return 1;
         }
     }
@@ -719,6 +696,7 @@ public final class LuaJavaAPI {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         Class<?> clazz = (Class<?>) L.getJavaObject(idx);
         synchronized (L) {
+            LuaState.Session S = L.session();
             if (clazz.isPrimitive() || clazz == String.class) {
                 return createArray(L, clazz);
             } else if (clazz.isArray()) {
@@ -732,12 +710,12 @@ public final class LuaJavaAPI {
             } else if (Modifier.isAbstract(clazz.getModifiers())) {
                 return createAbstractProxy(L, clazz);
             } else {
-                if (L.objLen(-1) == 0) {
+                if (S.objLen(-1) == 0) {
                     return createArray(L, clazz);
                 } else {
-                    L.getI(-1, 1);
-                    Object o = L.toJavaObject(-1);
-                    L.pop(1);
+                    S.getI(-1, 1);
+                    Object o = S.toJavaObject(-1);
+                    S.pop(1);
                     if (clazz.isAssignableFrom(o.getClass()))
                         return createArray(L, clazz);
                     else
@@ -774,36 +752,37 @@ public final class LuaJavaAPI {
         Object obj = L.getJavaObject(idx);
 
         synchronized (L) {
+            LuaState.Session S = L.session();
             if (obj instanceof LuaMetaTable) {
-                int n = L.getTop();
+                int n = S.getTop();
                 Object[] args = new Object[n - 1];
                 for (int i = 2; i <= n; i++) {
-                    args[i - 2] = L.toJavaObject(i);
+                    args[i - 2] = S.toJavaObject(i);
                 }
                 Object ret = ((LuaMetaTable) obj).__call(args);
-                L.pushObjectValue(ret);
+                S.pushObjectValue(ret);
                 return 1;
             } else {
-                if (L.isTable(2)) {
+                if (S.isTable(2)) {
                     if (obj.getClass().isArray() && Array.getLength(obj) == 0)
                         return createArray(L, obj.getClass());
-                    L.pushNil();
+                    S.pushNil();
                     if (obj instanceof List) {
                         List list = (List) obj;
-                        while (L.next(2) != 0) {
-                            list.add(L.toJavaObject(-1));
-                            L.pop(1);
+                        while (S.next(2) != 0) {
+                            list.add(S.toJavaObject(-1));
+                            S.pop(1);
                         }
                     } else {
-                        while (L.next(2) != 0) {
-                            if (L.isNumber(-2))
-                                setArrayValue(L, obj, (int) L.toInteger(-2));
+                        while (S.next(2) != 0) {
+                            if (S.isNumber(-2))
+                                setArrayValue(L, obj, (int) S.toInteger(-2));
                             else
-                                javaSetter(L, obj, L.toString(-2));
-                            L.pop(1);
+                                javaSetter(L, obj, S.toString(-2));
+                            S.pop(1);
                         }
                     }
-                    L.setTop(1);
+                    S.setTop(1);
                     return 1;
                 } else {
                     return 0;
@@ -878,14 +857,15 @@ public final class LuaJavaAPI {
         Object obj = L.getJavaObject(idx);
 
         synchronized (L) {
+            LuaState.Session S = L.session();
             if (obj == null)
-                L.pushString("null");
+                S.pushString("null");
             else {
                 String ret = obj.toString();
                 if(ret!=null)
-                    L.pushString(ret);
+                    S.pushString(ret);
                 else
-                    L.pushString(obj.getClass().getName());
+                    S.pushString(obj.getClass().getName());
             }
             return 1;
         }
@@ -926,10 +906,11 @@ public final class LuaJavaAPI {
         Object obj = L.getJavaObject(idx);
 
         synchronized (L) {
+            LuaState.Session S = L.session();
             if (obj == null)
-                L.pushString("null");
+                S.pushString("null");
             else
-                L.pushString(obj.getClass().getName());
+                S.pushString(obj.getClass().getName());
             return 1;
         }
     }
@@ -959,6 +940,7 @@ public final class LuaJavaAPI {
         Object obj = L.getJavaObject(idx);
 
         synchronized (L) {
+            LuaState.Session S = L.session();
             int ret;
             try {
                 if (obj instanceof CharSequence)
@@ -973,7 +955,7 @@ public final class LuaJavaAPI {
                 throw new LuaException(e);
             }
 
-            L.pushInteger(ret);
+            S.pushInteger(ret);
 
             return 1;
         }
@@ -981,17 +963,18 @@ public final class LuaJavaAPI {
 
     private static int getObjInstance(LuaState L, Class<?> clazz) throws LuaException {
         synchronized (L) {
-            int top = L.getTop();
+            LuaState.Session S = L.session();
+            int top = S.getTop();
             if (top == 1) {
                 try {
                     Object ret = clazz.getDeclaredConstructor().newInstance();
-                    L.pushJavaObject(ret);
+                    S.pushJavaObject(ret);
                     return 1;
                 } catch (Exception e) {
                     try {
                         Constructor<?> ctr = clazz.getConstructor(Context.class);
                         Object ret = ctr.newInstance(L.getContext().getContext());
-                        L.pushJavaObject(ret);
+                        S.pushJavaObject(ret);
                         return 1;
                     } catch (Exception ignored) {
                     }
@@ -1029,7 +1012,7 @@ public final class LuaJavaAPI {
                         msgBuilder.append("  at ").append(constructor).append("\n  -> ").append((e.getCause() != null) ? e.getCause() : e).append("\n");
                         continue;
                     }
-                    L.pushJavaObject(ret);
+                    S.pushJavaObject(ret);
                     return 1;
                     //break;
                 }
@@ -1066,7 +1049,7 @@ public final class LuaJavaAPI {
             if (ret == null) {
                 throw new LuaException("Couldn't instantiate java Object");
             }
-            L.pushJavaObject(ret);
+            S.pushJavaObject(ret);
             return 1;*/
         }
     }
@@ -1074,53 +1057,16 @@ public final class LuaJavaAPI {
     public static int getContext(long luaState) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            L.pushJavaObject(L.getContext());
+            LuaState.Session S = L.session();
+            S.pushJavaObject(L.getContext());
         }
         return 1;
     }
 
     public static ArrayList<Method> getMethod(Class<?> clazz, String methodName, boolean isClass) {
-        //String className = clazz.getName();
-        HashMap<String, ArrayList<Method>> cList = methodCache3.get(clazz);
-        if (cList == null) {
-            cList = new HashMap<>();
-            methodCache3.put(clazz, cList);
-        }
-
-        ArrayList<Method> mlist = cList.get(methodName);
-        if (mlist == null) {
-            Method[] methods = methodsMap.get(clazz);
-            if (methods == null) {
-                methods = clazz.getMethods();
-                methodsMap.put(clazz, methods);
-            }
-            for (Method method : methods) {
-                String name = method.getName();
-                ArrayList<Method> list = cList.get(name);
-                if (list == null) {
-                    list = new ArrayList<Method>();
-                    cList.put(name, list);
-                }
-                list.add(method);
-            }
-            mlist = cList.get(methodName);
-        }
-
-        if (mlist == null) {
-            mlist = new ArrayList<Method>();
-        }
-        if (isClass) {
-            ArrayList<Method> slist = new ArrayList<Method>();
-            for (Method m : mlist) {
-                if (Modifier.isStatic(m.getModifiers()))
-                    slist.add(m);
-            }
-
-            if (slist.isEmpty()) {
-                slist = getMethod(Class.class, methodName, false);
-            }
-            return slist;
-        }
+        Method[] methods = MethodDispatchTable.of(clazz).group(methodName, isClass).methods;
+        ArrayList<Method> mlist = new ArrayList<Method>(methods.length);
+        Collections.addAll(mlist, methods);
         return mlist;
     }
 
@@ -1136,6 +1082,7 @@ public final class LuaJavaAPI {
     public static int checkField(LuaState L, Object obj, String fieldName)
             throws LuaException {
         synchronized (L) {
+            LuaState.Session S = L.session();
             Field field = null;
             Class objClass;
             boolean isClass = false;
@@ -1168,7 +1115,7 @@ public final class LuaJavaAPI {
                 throw new LuaException(e);
             }
 
-            L.pushObjectValue(ret);
+            S.pushObjectValue(ret);
             if (Modifier.isFinal(field.getModifiers()))
                 return 5;
             else
@@ -1186,32 +1133,9 @@ public final class LuaJavaAPI {
      * @return number of returned objects
      */
     public static int checkMethod(LuaState L, Object obj, String methodName) throws LuaException {
-        synchronized (L) {
-            String cacheName = L.toString(-1);
-            Method[] mlist = getJavaMethod(obj, methodName, cacheName);
-            if (mlist.length == 0)
-                return 0;
-            return 2;
-        }
-    }
-
-    private static Method[] getJavaMethod(Object obj, String methodName, String cacheName) {
-        Class<?> clazz;
-        boolean isClass = false;
-        if (obj instanceof Class) {
-            clazz = (Class<?>) obj;
-            isClass = true;
-        } else {
-            clazz = obj.getClass();
-        }
-        Method[] mlist = methodCache.get(cacheName);
-        if (mlist == null) {
-            ArrayList<Method> list = getMethod(clazz, methodName, isClass);
-            mlist = new Method[list.size()];
-            list.toArray(mlist);
-            methodCache.put(cacheName, mlist);
-        }
-        return mlist;
+        if (getMethodGroup(obj, methodName).methods.length == 0)
+            return 0;
+        return 2;
     }
 
     /**
@@ -1224,6 +1148,7 @@ public final class LuaJavaAPI {
      */
     public static int checkClass(LuaState L, Object obj, String className) throws LuaException {
         synchronized (L) {
+            LuaState.Session S = L.session();
             Class clazz;
 
             if (obj instanceof Class) {
@@ -1234,7 +1159,7 @@ public final class LuaJavaAPI {
 
             try {
                 Class<?> c = Class.forName(clazz.getName() + "$" + className);
-                L.pushJavaObject(c);
+                S.pushJavaObject(c);
                 return 3;
             } catch (Exception e) {
 
@@ -1242,7 +1167,7 @@ public final class LuaJavaAPI {
             Class[] clazzes = clazz.getClasses();
             for (Class c : clazzes) {
                 if (c.getSimpleName().equals(className)) {
-                    L.pushJavaObject(c);
+                    S.pushJavaObject(c);
                     return 3;
                 }
             }
@@ -1252,13 +1177,14 @@ public final class LuaJavaAPI {
 
     public static int javaGetter(LuaState L, Object obj, String methodName) throws LuaException {
         synchronized (L) {
+            LuaState.Session S = L.session();
             Class<?> clazz;
 
-            Method method = null;
+            Method method;
             boolean isClass = false;
             if (obj instanceof Map) {
                 Map map = (Map) obj;
-                L.pushObjectValue(map.get(methodName));
+                S.pushObjectValue(map.get(methodName));
                 return 1;
             } else if (obj instanceof Class) {
                 clazz = (Class) obj;
@@ -1270,23 +1196,9 @@ public final class LuaJavaAPI {
             if (Character.isLowerCase(c)) {
                 methodName = Character.toUpperCase(c) + methodName.substring(1);
             }
-            String cacheName = clazz.toString() + "@<-" + methodName;
-            if (!isClass)
-                method = voidMethodCache.get(cacheName);
-            if (method == null) {
-                try {
-                    method = clazz.getMethod("get" + methodName);
-                } catch (NoSuchMethodException e) {
-                    try {
-                        method = clazz.getMethod("is" + methodName);
-                    } catch (NoSuchMethodException e1) {
-                        return 0;
-                    }
-                }
-                if (isClass && !Modifier.isStatic(method.getModifiers()))
-                    return 0;
-                voidMethodCache.put(cacheName, method);
-            }
+            method = MethodDispatchTable.of(clazz).getter(methodName, isClass);
+            if (method == null)
+                return 0;
 
             Object ret;
             try {
@@ -1296,9 +1208,9 @@ public final class LuaJavaAPI {
             }
 
             if (ret instanceof CharSequence)
-                L.pushString(ret.toString());
+                S.pushString(ret.toString());
             else
-                L.pushObjectValue(ret);
+                S.pushObjectValue(ret);
             return 1;
         }
     }
@@ -1312,12 +1224,13 @@ public final class LuaJavaAPI {
 
     public static int javaSetter(LuaState L, Object obj, String methodName) throws LuaException {
         synchronized (L) {
+            LuaState.Session S = L.session();
             Class clazz;
             boolean isClass = false;
 
             if (obj instanceof Map) {
                 Map map = (Map) obj;
-                map.put(methodName, L.toJavaObject(-1));
+                map.put(methodName, S.toJavaObject(-1));
                 return 1;
             } else if (obj instanceof Class) {
                 clazz = (Class) obj;
@@ -1326,7 +1239,7 @@ public final class LuaJavaAPI {
                 clazz = obj.getClass();
             }
 
-            if (methodName.length() > 2 && methodName.substring(0, 2).equals("on") && L.type(-1) == LuaState.LUA_TFUNCTION)
+            if (methodName.length() > 2 && methodName.substring(0, 2).equals("on") && S.type(-1) == LuaState.LUA_TFUNCTION)
                 return javaSetListener(L, obj, methodName, isClass);
 
             int ret = javaSetMethod(L, obj, methodName, isClass);
@@ -1338,6 +1251,7 @@ public final class LuaJavaAPI {
 
     private static int setDeclaredFieldValue(LuaState L, Object obj, String fieldName) throws LuaException {
         synchronized (L) {
+            LuaState.Session S = L.session();
             Field field = null;
             Class objClass;
             boolean isClass = false;
@@ -1385,7 +1299,7 @@ public final class LuaJavaAPI {
                 if (!Modifier.isPublic(field.getModifiers()))
                     field.setAccessible(true);
 
-                field.set(obj, compareTypes(L, type, L.getTop()));
+                field.set(obj, compareTypes(L, type, S.getTop()));
             } catch (LuaException e) {
                 argError(L, fieldName, 3, type);
             } catch (Exception e) {
@@ -1399,6 +1313,7 @@ public final class LuaJavaAPI {
 
     private static int javaSetListener(LuaState L, Object obj, String methodName, boolean isClass) throws LuaException {
         synchronized (L) {
+            LuaState.Session S = L.session();
             String name = "setOn" + methodName.substring(2) + "Listener";
             ArrayList<Method> methods = getMethod(obj.getClass(), name, isClass);
             for (Method m : methods) {
@@ -1407,12 +1322,12 @@ public final class LuaJavaAPI {
 
                 Class<?>[] tp = m.getParameterTypes();
                 if (tp.length == 1 && tp[0].isInterface()) {
-                    L.newTable();
-                    L.pushValue(-2);
-                    L.setField(-2, methodName);
+                    S.newTable();
+                    S.pushValue(-2);
+                    S.setField(-2, methodName);
                     try {
-                        Object listener = L.getLuaObject(-1).createProxy(tp[0]);
-                        L.pop(1);
+                        Object listener = S.getLuaObject(-1).createProxy(tp[0]);
+                        S.pop(1);
                         m.invoke(obj, listener);
                         return 1;
                     } catch (Exception e) {
@@ -1426,57 +1341,32 @@ public final class LuaJavaAPI {
 
     private static int javaSetMethod(LuaState L, Object obj, String methodName, boolean isClass) throws LuaException {
         synchronized (L) {
+            LuaState.Session S = L.session();
             char c = methodName.charAt(0);
             if (Character.isLowerCase(c)) {
                 methodName = Character.toUpperCase(c) + methodName.substring(1);
             }
             String name = "set" + methodName;
-            Method method = null;
-            int methodType = -1;
-            String cacheName = obj.getClass().getName() + "@->" + name;
+            MethodDispatchTable.MethodGroup group = MethodDispatchTable.of(obj.getClass()).group(name, isClass);
 
+            int top = S.getTop();
+            int[] type = {S.type(top)};
             Object[] objs = new Object[1];
-            switch (L.type(-1)) {
-                case LuaState.LUA_TSTRING:
-                    methodType = LuaState.LUA_TSTRING;
-                    method = stringMethodCache.get(cacheName);
-                    if (method != null)
-                        objs[0] = L.toString(-1);
-                    break;
-                case LuaState.LUA_TBOOLEAN:
-                    methodType = LuaState.LUA_TBOOLEAN;
-                    method = boolMethodCache.get(cacheName);
-                    if (method != null)
-                        objs[0] = L.toBoolean(-1);
-                    break;
-                case LuaState.LUA_TNUMBER:
-                    if (L.isInteger(-1)) {
-                        methodType = LuaState.LUA_TINTEGER;
-                        method = integerMethodCache.get(cacheName);
-                        if (method != null)
-                            objs[0] = LuaState.convertLuaNumber(L.toInteger(-1), method.getParameterTypes()[0]);
-                    } else {
-                        methodType = LuaState.LUA_TNUMBER;
-                        method = doubleMethodCache.get(cacheName);
-                        if (method != null)
-                            objs[0] = LuaState.convertLuaNumber(L.toNumber(-1), method.getParameterTypes()[0]);
-                    }
-                    break;
-            }
-
-            if (method != null) {
+            long signature = MethodDispatchTable.signature(S, type, top);
+            for (MethodDispatchTable.CallSite site : group.sites()) {
+                if (site.signature != signature || !convertArguments(L, site.parameterTypes, type, objs, top, null)
+                        || !site.accepts(objs))
+                    continue;
                 try {
-                    method.invoke(obj, objs);
+                    site.method.invoke(obj, objs);
                     return 1;
                 } catch (Exception e) {
                     throw new LuaException(e);
                 }
             }
 
-            ArrayList<Method> methods = getMethod(obj.getClass(), name, isClass);
-            Object arg = null;
             StringBuilder buf = new StringBuilder();
-            for (Method m : methods) {
+            for (Method m : group.methods) {
                 if (isClass && !Modifier.isStatic(m.getModifiers()))
                     continue;
 
@@ -1485,60 +1375,46 @@ public final class LuaJavaAPI {
                     continue;
 
                 try {
-                    arg = compareTypes(L, tp[0], L.getTop());
+                    objs[0] = compareTypes(L, tp[0], type[0], top);
                 } catch (LuaException e) {
                     buf.append("-> ").append(tp[0]);
                     buf.append("\n");
                     continue;
                 }
 
-                switch (methodType) {
-                    case LuaState.LUA_TSTRING:
-                        stringMethodCache.put(cacheName, m);
-                        break;
-                    case LuaState.LUA_TINTEGER:
-                        integerMethodCache.put(cacheName, m);
-                        break;
-                    case LuaState.LUA_TNUMBER:
-                        doubleMethodCache.put(cacheName, m);
-                        break;
-                    case LuaState.LUA_TBOOLEAN:
-                        boolMethodCache.put(cacheName, m);
-                        break;
-                }
+                group.add(new MethodDispatchTable.CallSite(signature, m, type, objs));
 
                 try {
-                    m.invoke(obj, arg);
+                    m.invoke(obj, objs);
                     return 1;
                 } catch (Exception e) {
                     throw new LuaException(e);
                 }
 
             }
-            int top = L.getTop();
-            if (L.type(top) == LuaState.LUA_TTABLE) {
-                L.getField(1, name);
+            if (type[0] == LuaState.LUA_TTABLE) {
+                S.getField(1, name);
                 LuaFunction func = L.getFunction(-1);
-                if (L.type(-1) == LuaState.LUA_TFUNCTION) {
+                if (S.type(-1) == LuaState.LUA_TFUNCTION) {
                     if (func != null) {
-                        int len = L.rawLen(top);
+                        int len = S.rawLen(top);
                         //Object[] args = new Object[len];
                         for (int i = 0; i < len; i++) {
-                            L.getI(top, i + 1);
-                            //args[i] = L.toJavaObject(-1);
+                            S.getI(top, i + 1);
+                            //args[i] = S.toJavaObject(-1);
                         }
-                        // throw new LuaException("Invalid setter "+L.typeName(1)+";"+L.typeName(2)+";"+L.typeName(3)+";"+L.typeName(4)+";"+L.typeName(5)+";"+len + Arrays.toString(args));
+                        // throw new LuaException("Invalid setter "+S.typeName(1)+";"+S.typeName(2)+";"+S.typeName(3)+";"+S.typeName(4)+";"+S.typeName(5)+";"+len + Arrays.toString(args));
                         // func.call(args);
-                        int ok = L.pcall(len, 0, 0);
+                        int ok = S.pcall(len, 0, 0);
                         if (ok == 0)
                             return 1;
                         else
-                            throw new LuaException(L.toString(-1));
+                            throw new LuaException(S.toString(-1));
                     }
                 }
             }
             if (buf.length() > 0)
-                throw new LuaException("Invalid setter " + methodName + ". Invalid Parameters.\n" + buf.toString() + L.toJavaObject(-1).getClass());
+                throw new LuaException("Invalid setter " + methodName + ". Invalid Parameters.\n" + buf.toString() + S.toJavaObject(-1).getClass());
         }
         return 0;
     }
@@ -1546,10 +1422,11 @@ public final class LuaJavaAPI {
     private static int createProxyObject(LuaState L, String implem)
             throws LuaException {
         synchronized (L) {
+            LuaState.Session S = L.session();
             try {
-                LuaObject luaObj = L.getLuaObject(2);
+                LuaObject luaObj = S.getLuaObject(2);
                 Object proxy = luaObj.createProxy(implem);
-                L.pushJavaObject(proxy);
+                S.pushJavaObject(proxy);
             } catch (Exception e) {
                 throw new LuaException(e);
             }
@@ -1560,15 +1437,17 @@ public final class LuaJavaAPI {
 
     private static int createProxyObject(LuaState L, Class implem) throws LuaException {
         synchronized (L) {
-            L.pushJavaObject(createProxyObject(L, implem, 2));
+            LuaState.Session S = L.session();
+            S.pushJavaObject(createProxyObject(L, implem, 2));
             return 1;
         }
     }
 
     private static Object createProxyObject(LuaState L, Class implem, int idx) throws LuaException {
         synchronized (L) {
+            LuaState.Session S = L.session();
             try {
-                LuaObject luaObj = L.getLuaObject(idx);
+                LuaObject luaObj = S.getLuaObject(idx);
                 return luaObj.createProxy(implem);
             } catch (Exception e) {
                 throw new LuaException(e);
@@ -1578,7 +1457,8 @@ public final class LuaJavaAPI {
 
     private static int createArray(LuaState L, Class<?> type) throws LuaException {
         synchronized (L) {
-            L.pushJavaObject(createArray(L, type, 2));
+            LuaState.Session S = L.session();
+            S.pushJavaObject(createArray(L, type, 2));
             return 1;
         }
     }
@@ -1586,74 +1466,94 @@ public final class LuaJavaAPI {
 
     private static Object createArray(LuaState L, Class<?> type, int idx) throws LuaException {
         synchronized (L) {
+            LuaState.Session S = L.session();
             try {
-                int n = L.objLen(idx);
-                Object array = Array.newInstance(type, n);
+                int n = S.objLen(idx);
+                if (idx < 0)
+                    idx = S.getTop() + idx + 1;
+                Object array;
                 /*if(n==0)
                     return array.getClass();
 */
+                // 基本类型数组直接写入对应类型的数组，每个元素只需一次lua_geti
                 if (type == String.class) {
-                    for (int i = 1; i <= n; i++) {
-                        L.pushNumber(i);
-                        L.getTable(idx);
-                        Array.set(array, i - 1, L.toString(-1));
-                        L.pop(1);
+                    String[] a = new String[n];
+                    for (int i = 0; i < n; i++) {
+                        S.getI(idx, i + 1);
+                        a[i] = S.toString(-1);
+                        S.pop(1);
                     }
+                    array = a;
                 } else if (type == Double.TYPE) {
-                    for (int i = 1; i <= n; i++) {
-                        L.pushNumber(i);
-                        L.getTable(idx);
-                        Array.set(array, i - 1, L.toNumber(-1));
-                        L.pop(1);
+                    double[] a = new double[n];
+                    for (int i = 0; i < n; i++) {
+                        S.getI(idx, i + 1);
+                        a[i] = S.toNumber(-1);
+                        S.pop(1);
                     }
+                    array = a;
                 } else if (type == Float.TYPE) {
-                    for (int i = 1; i <= n; i++) {
-                        L.pushNumber(i);
-                        L.getTable(idx);
-                        Array.set(array, i - 1, (float) L.toNumber(-1));
-                        L.pop(1);
+                    float[] a = new float[n];
+                    for (int i = 0; i < n; i++) {
+                        S.getI(idx, i + 1);
+                        a[i] = (float) S.toNumber(-1);
+                        S.pop(1);
                     }
+                    array = a;
                 } else if (type == Long.TYPE) {
-                    for (int i = 1; i <= n; i++) {
-                        L.pushNumber(i);
-                        L.getTable(idx);
-                        Array.set(array, i - 1, L.toInteger(-1));
-                        L.pop(1);
+                    long[] a = new long[n];
+                    for (int i = 0; i < n; i++) {
+                        S.getI(idx, i + 1);
+                        a[i] = S.toInteger(-1);
+                        S.pop(1);
                     }
+                    array = a;
                 } else if (type == Integer.TYPE) {
-                    for (int i = 1; i <= n; i++) {
-                        L.pushNumber(i);
-                        L.getTable(idx);
-                        Array.set(array, i - 1, (int) L.toInteger(-1));
-                        L.pop(1);
+                    int[] a = new int[n];
+                    for (int i = 0; i < n; i++) {
+                        S.getI(idx, i + 1);
+                        a[i] = (int) S.toInteger(-1);
+                        S.pop(1);
                     }
+                    array = a;
                 } else if (type == Short.TYPE) {
-                    for (int i = 1; i <= n; i++) {
-                        L.pushNumber(i);
-                        L.getTable(idx);
-                        Array.set(array, i - 1, (short) L.toInteger(-1));
-                        L.pop(1);
+                    short[] a = new short[n];
+                    for (int i = 0; i < n; i++) {
+                        S.getI(idx, i + 1);
+                        a[i] = (short) S.toInteger(-1);
+                        S.pop(1);
                     }
+                    array = a;
                 } else if (type == Character.TYPE) {
-                    for (int i = 1; i <= n; i++) {
-                        L.pushNumber(i);
-                        L.getTable(idx);
-                        Array.set(array, i - 1, (char) L.toInteger(-1));
-                        L.pop(1);
+                    char[] a = new char[n];
+                    for (int i = 0; i < n; i++) {
+                        S.getI(idx, i + 1);
+                        a[i] = (char) S.toInteger(-1);
+                        S.pop(1);
                     }
+                    array = a;
                 } else if (type == Byte.TYPE) {
-                    for (int i = 1; i <= n; i++) {
-                        L.pushNumber(i);
-                        L.getTable(idx);
-                        Array.set(array, i - 1, (byte) L.toInteger(-1));
-                        L.pop(1);
+                    byte[] a = new byte[n];
+                    for (int i = 0; i < n; i++) {
+                        S.getI(idx, i + 1);
+                        a[i] = (byte) S.toInteger(-1);
+                        S.pop(1);
+                    }
+                    array = a;
+                } else if (type == Boolean.TYPE) {
+                    boolean[] a = new boolean[n];
+                    for (int i = 0; i < n; i++) {
+                        S.getI(idx, i + 1);
+                        a[i] = S.toBoolean(-1);
+                        S.pop(1);
                     }
+                    array = a;
                 } else {
+                    array = Array.newInstance(type, n);
                     for (int i = 1; i <= n; i++) {
-                        L.pushNumber(i);
-                        L.getTable(idx);
-                        Array.set(array, i - 1, compareTypes(L, type, L.getTop()));
-                        L.pop(1);
+                        S.getI(idx, i);
+                        Array.set(array, i - 1, compareTypes(L, type, S.getTop()));
+                        S.pop(1);
                     }
                 }
                 return array;
@@ -1665,7 +1565,8 @@ public final class LuaJavaAPI {
 
     private static int createList(LuaState L, Class<?> type) throws LuaException {
         synchronized (L) {
-            L.pushJavaObject(createList(L, (Class<List<Object>>) type, 2));
+            LuaState.Session S = L.session();
+            S.pushJavaObject(createList(L, (Class<List<Object>>) type, 2));
             return 1;
         }
     }
@@ -1673,7 +1574,8 @@ public final class LuaJavaAPI {
 
     private static Object createList(LuaState L, Class<List<Object>> type, int idx) throws LuaException {
         synchronized (L) {
-            int n = L.objLen(idx);
+            LuaState.Session S = L.session();
+            int n = S.objLen(idx);
             try {
                 List<Object> list;
                 if (type.equals(List.class))
@@ -1681,10 +1583,10 @@ public final class LuaJavaAPI {
                 else
                     list = type.getDeclaredConstructor().newInstance();
                 for (int i = 1; i <= n; i++) {
-                    L.pushNumber(i);
-                    L.getTable(idx);
-                    list.add(L.toJavaObject(-1));
-                    L.pop(1);
+                    S.pushNumber(i);
+                    S.getTable(idx);
+                    list.add(S.toJavaObject(-1));
+                    S.pop(1);
                 }
                 return list;
             } catch (Exception e) {
@@ -1697,7 +1599,8 @@ public final class LuaJavaAPI {
     private static int createMap(LuaState L, Class<?> clazz) throws LuaException {
         // TODO: Implement this method
         synchronized (L) {
-            L.pushJavaObject(createMap(L, (Class<Map<Object, Object>>) clazz, 2));
+            LuaState.Session S = L.session();
+            S.pushJavaObject(createMap(L, (Class<Map<Object, Object>>) clazz, 2));
             return 1;
         }
     }
@@ -1705,16 +1608,17 @@ public final class LuaJavaAPI {
     private static Object createMap(LuaState L, Class<Map<Object, Object>> clazz, int idx) throws LuaException {
         // TODO: Implement this method
         synchronized (L) {
+            LuaState.Session S = L.session();
             try {
                 Map<Object, Object> map;
                 if (clazz.equals(Map.class))
                     map = new HashMap<>();
                 else
                     map = clazz.getDeclaredConstructor().newInstance();
-                L.pushNil();
-                while (L.next(idx) != 0) {
-                    map.put(L.toJavaObject(-2), L.toJavaObject(-1));
-                    L.pop(1);
+                S.pushNil();
+                while (S.next(idx) != 0) {
+                    map.put(S.toJavaObject(-2), S.toJavaObject(-1));
+                    S.pop(1);
                 }
                 return map;
             } catch (Exception e) {
@@ -1725,16 +1629,24 @@ public final class LuaJavaAPI {
 
     private static Object compareTypes(LuaState L, Class<?> parameter, int idx)
             throws LuaException {
-        return compareTypes(L, parameter, L.type(idx), idx);
+        return compareTypes(L, parameter, L.session().type(idx), idx);
     }
 
 
     private static Object compareTypes(LuaState L, Class<?> parameter, int type, int idx)
             throws LuaException {
+        // 调用方均已持有L的监视器
+        LuaState.Session S = L.session();
         boolean okType = true;
         Object obj = null;
         if (type == LuaState.LUA_TNIL)
             return null;
+        LuaConverters.Reader reader = LuaConverters.reader(parameter, type);
+        if (reader != null) {
+            obj = reader.read(S, idx, type);
+            if (obj != null)
+                return obj;
+        }
         switch (type) {
             case LuaState.LUA_TBOOLEAN: //boolean
             {
@@ -1742,7 +1654,7 @@ public final class LuaJavaAPI {
                     okType = false;
                     break;
                 }
-                obj = L.toBoolean(idx);
+                obj = S.toBoolean(idx);
             }
             break;
             case LuaState.LUA_TSTRING: //string
@@ -1750,7 +1662,7 @@ public final class LuaJavaAPI {
                 if (!parameter.isAssignableFrom(String.class)) {
                     okType = false;
                 } else {
-                    obj = L.toString(idx);
+                    obj = S.toString(idx);
                 }
             }
             break;
@@ -1761,14 +1673,14 @@ public final class LuaJavaAPI {
                 } else if (!parameter.isAssignableFrom(LuaFunction.class)) {
                     okType = false;
                 } else {
-                    obj = L.getLuaObject(idx);
+                    obj = S.getLuaObject(idx);
                 }
             }
             break;
             case LuaState.LUA_TTABLE: //table
             {
                 if (parameter.isAssignableFrom(LuaTable.class)) {
-                    obj = L.getLuaObject(idx);
+                    obj = S.getLuaObject(idx);
                 } else if (parameter.isArray()) {
                     obj = createArray(L, parameter.getComponentType(), idx);
                 } else if (List.class.isAssignableFrom(parameter)) {
@@ -1851,19 +1763,19 @@ public final class LuaJavaAPI {
                     okType = false;
                     break;
                 }
-                if (L.isInteger(idx)) {
-                    Long lg = L.toInteger(idx);
+                if (S.isInteger(idx)) {
+                    Long lg = S.toInteger(idx);
                     obj = LuaState.convertLuaNumber(lg, parameter);
-                } else if (L.isNumber(idx)) {
-                    Double db = L.toNumber(idx);
+                } else if (S.isNumber(idx)) {
+                    Double db = S.toNumber(idx);
                     obj = LuaState.convertLuaNumber(db, parameter);
                 }
             }
             break;
             case LuaState.LUA_TUSERDATA: //userdata
             {
-                if (L.isObject(idx)) {
-                    Object userObj = L.getObjectFromUserdata(idx);
+                if (S.isObject(idx)) {
+                    Object userObj = S.getObjectFromUserdata(idx);
                     if (userObj == null) {
                         return null;
                     } else if (parameter.isPrimitive()) {
@@ -1895,7 +1807,7 @@ public final class LuaJavaAPI {
                     if (!parameter.isAssignableFrom(LuaObject.class)) {
                         okType = false;
                     } else {
-                        obj = L.getLuaObject(idx);
+                        obj = S.getLuaObject(idx);
                     }
                 }
             }
@@ -1971,13 +1883,14 @@ public final class LuaJavaAPI {
     public static int javaGetClass(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
             Class<?> clazz = obj.getClass();
-            L.pushJavaObject(clazz);
+            S.pushJavaObject(clazz);
             return 1;
         }
     }
@@ -1988,12 +1901,13 @@ public final class LuaJavaAPI {
     public static int javaGetClassName(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
-            L.pushString(obj.getClass().getName());
+            S.pushString(obj.getClass().getName());
             return 1;
         }
     }
@@ -2004,8 +1918,9 @@ public final class LuaJavaAPI {
     public static int javaIsNull(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
-            L.pushBoolean(obj == null);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
+            S.pushBoolean(obj == null);
             return 1;
         }
     }
@@ -2016,13 +1931,14 @@ public final class LuaJavaAPI {
     public static int javaGetSimpleName(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null || !(obj instanceof Class)) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
             Class<?> clazz = (Class<?>) obj;
-            L.pushString(clazz.getSimpleName());
+            S.pushString(clazz.getSimpleName());
             return 1;
         }
     }
@@ -2033,17 +1949,18 @@ public final class LuaJavaAPI {
     public static int javaGetPackageName(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null || !(obj instanceof Class)) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
             Class<?> clazz = (Class<?>) obj;
             Package pkg = clazz.getPackage();
             if (pkg != null) {
-                L.pushString(pkg.getName());
+                S.pushString(pkg.getName());
             } else {
-                L.pushNil();
+                S.pushNil();
             }
             return 1;
         }
@@ -2055,17 +1972,18 @@ public final class LuaJavaAPI {
     public static int javaGetSuperclass(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null || !(obj instanceof Class)) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
             Class<?> clazz = (Class<?>) obj;
             Class<?> superClass = clazz.getSuperclass();
             if (superClass != null) {
-                L.pushJavaObject(superClass);
+                S.pushJavaObject(superClass);
             } else {
-                L.pushNil();
+                S.pushNil();
             }
             return 1;
         }
@@ -2077,17 +1995,18 @@ public final class LuaJavaAPI {
     public static int javaGetInterfaces(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null || !(obj instanceof Class)) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
             Class<?> clazz = (Class<?>) obj;
             Class<?>[] interfaces = clazz.getInterfaces();
-            L.createTable(interfaces.length, 0);
+            S.createTable(interfaces.length, 0);
             for (int i = 0; i < interfaces.length; i++) {
-                L.pushJavaObject(interfaces[i]);
-                L.rawSetI(-2, i + 1);
+                S.pushJavaObject(interfaces[i]);
+                S.rawSetI(-2, i + 1);
             }
             return 1;
         }
@@ -2099,13 +2018,14 @@ public final class LuaJavaAPI {
     public static int javaIsInterface(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null || !(obj instanceof Class)) {
-                L.pushBoolean(false);
+                S.pushBoolean(false);
                 return 1;
             }
             Class<?> clazz = (Class<?>) obj;
-            L.pushBoolean(clazz.isInterface());
+            S.pushBoolean(clazz.isInterface());
             return 1;
         }
     }
@@ -2116,13 +2036,14 @@ public final class LuaJavaAPI {
     public static int javaIsArray(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null || !(obj instanceof Class)) {
-                L.pushBoolean(false);
+                S.pushBoolean(false);
                 return 1;
             }
             Class<?> clazz = (Class<?>) obj;
-            L.pushBoolean(clazz.isArray());
+            S.pushBoolean(clazz.isArray());
             return 1;
         }
     }
@@ -2133,9 +2054,10 @@ public final class LuaJavaAPI {
     public static int javaGetComponentType(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
             Class<?> clazz = null;
@@ -2145,9 +2067,9 @@ public final class LuaJavaAPI {
                 clazz = obj.getClass().getComponentType();
             }
             if (clazz != null) {
-                L.pushJavaObject(clazz);
+                S.pushJavaObject(clazz);
             } else {
-                L.pushNil();
+                S.pushNil();
             }
             return 1;
         }
@@ -2163,17 +2085,18 @@ public final class LuaJavaAPI {
     public static int javaCallStatic(long luaState, String className, String methodName) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
+            LuaState.Session S = L.session();
             try {
                 Class<?> clazz = Class.forName(className);
-                int nargs = L.getTop() - 2;
+                int nargs = S.getTop() - 2;
                 Class<?>[] paramTypes = getParamTypes(L, 3, nargs);
                 Method method = clazz.getMethod(methodName, paramTypes);
                 Object[] args = getArgs(L, 3, nargs, paramTypes);
                 Object result = method.invoke(null, args);
                 if (result != null) {
-                    L.pushObjectValue(result);
+                    S.pushObjectValue(result);
                 } else {
-                    L.pushNil();
+                    S.pushNil();
                 }
                 return 1;
             } catch (Exception e) {
@@ -2192,14 +2115,15 @@ public final class LuaJavaAPI {
     public static int javaGetStaticField(long luaState, String className, String fieldName) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
+            LuaState.Session S = L.session();
             try {
                 Class<?> clazz = Class.forName(className);
                 Field field = clazz.getField(fieldName);
                 Object value = field.get(null);
                 if (value != null) {
-                    L.pushObjectValue(value);
+                    S.pushObjectValue(value);
                 } else {
-                    L.pushNil();
+                    S.pushNil();
                 }
                 return 1;
             } catch (Exception e) {
@@ -2218,10 +2142,11 @@ public final class LuaJavaAPI {
     public static int javaSetStaticField(long luaState, String className, String fieldName) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
+            LuaState.Session S = L.session();
             try {
                 Class<?> clazz = Class.forName(className);
                 Field field = clazz.getField(fieldName);
-                Object value = L.toJavaObject(3);
+                Object value = S.toJavaObject(3);
                 field.set(null, value);
                 return 0;
             } catch (Exception e) {
@@ -2239,17 +2164,18 @@ public final class LuaJavaAPI {
     public static int javaGetMethods(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null || !(obj instanceof Class)) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
             Class<?> clazz = (Class<?>) obj;
             Method[] methods = clazz.getMethods();
-            L.createTable(methods.length, 0);
+            S.createTable(methods.length, 0);
             for (int i = 0; i < methods.length; i++) {
-                L.pushString(methods[i].getName());
-                L.rawSetI(-2, i + 1);
+                S.pushString(methods[i].getName());
+                S.rawSetI(-2, i + 1);
             }
             return 1;
         }
@@ -2264,17 +2190,18 @@ public final class LuaJavaAPI {
     public static int javaGetFields(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null || !(obj instanceof Class)) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
             Class<?> clazz = (Class<?>) obj;
             Field[] fields = clazz.getFields();
-            L.createTable(fields.length, 0);
+            S.createTable(fields.length, 0);
             for (int i = 0; i < fields.length; i++) {
-                L.pushString(fields[i].getName());
-                L.rawSetI(-2, i + 1);
+                S.pushString(fields[i].getName());
+                S.rawSetI(-2, i + 1);
             }
             return 1;
         }
@@ -2289,17 +2216,18 @@ public final class LuaJavaAPI {
     public static int javaGetConstructors(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null || !(obj instanceof Class)) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
             Class<?> clazz = (Class<?>) obj;
             Constructor<?>[] constructors = clazz.getConstructors();
-            L.createTable(constructors.length, 0);
+            S.createTable(constructors.length, 0);
             for (int i = 0; i < constructors.length; i++) {
-                L.pushString(constructors[i].toString());
-                L.rawSetI(-2, i + 1);
+                S.pushString(constructors[i].toString());
+                S.rawSetI(-2, i + 1);
             }
             return 1;
         }
@@ -2314,9 +2242,10 @@ public final class LuaJavaAPI {
     public static int javaImportClass(long luaState, String className) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
+            LuaState.Session S = L.session();
             try {
                 Class<?> clazz = Class.forName(className);
-                L.pushJavaObject(clazz);
+                S.pushJavaObject(clazz);
                 return 1;
             } catch (ClassNotFoundException e) {
                 throw new LuaException("Class not found: " + className);
@@ -2333,14 +2262,15 @@ public final class LuaJavaAPI {
     public static int javaNewWithConstructor(long luaState, String className) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
+            LuaState.Session S = L.session();
             try {
                 Class<?> clazz = Class.forName(className);
-                int nargs = L.getTop() - 1;
+                int nargs = S.getTop() - 1;
                 Class<?>[] paramTypes = getParamTypes(L, 2, nargs);
                 Constructor<?> constructor = clazz.getConstructor(paramTypes);
                 Object[] args = getArgs(L, 2, nargs, paramTypes);
                 Object instance = constructor.newInstance(args);
-                L.pushJavaObject(instance);
+                S.pushJavaObject(instance);
                 return 1;
             } catch (Exception e) {
                 throw new LuaException(e);
@@ -2357,17 +2287,18 @@ public final class LuaJavaAPI {
     public static int javaGetObjectMethods(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
             Class<?> clazz = obj.getClass();
             Method[] methods = clazz.getMethods();
-            L.createTable(methods.length, 0);
+            S.createTable(methods.length, 0);
             for (int i = 0; i < methods.length; i++) {
-                L.pushString(methods[i].getName());
-                L.rawSetI(-2, i + 1);
+                S.pushString(methods[i].getName());
+                S.rawSetI(-2, i + 1);
             }
             return 1;
         }
@@ -2383,8 +2314,9 @@ public final class LuaJavaAPI {
     public static int javaGetDeclaredField(long luaState, Object obj, String fieldName) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
+            LuaState.Session S = L.session();
             if (obj == null) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
             try {
@@ -2393,9 +2325,9 @@ public final class LuaJavaAPI {
                 field.setAccessible(true);
                 Object value = field.get(obj);
                 if (value != null) {
-                    L.pushObjectValue(value);
+                    S.pushObjectValue(value);
                 } else {
-                    L.pushNil();
+                    S.pushNil();
                 }
                 return 1;
             } catch (Exception e) {
@@ -2414,6 +2346,7 @@ public final class LuaJavaAPI {
     public static int javaSetDeclaredField(long luaState, Object obj, String fieldName) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
+            LuaState.Session S = L.session();
             if (obj == null) {
                 return 0;
             }
@@ -2421,7 +2354,7 @@ public final class LuaJavaAPI {
                 Class<?> clazz = obj instanceof Class ? (Class<?>) obj : obj.getClass();
                 Field field = clazz.getDeclaredField(fieldName);
                 field.setAccessible(true);
-                Object value = L.toJavaObject(3);
+                Object value = S.toJavaObject(3);
                 field.set(obj, value);
                 return 0;
             } catch (Exception e) {
@@ -2440,12 +2373,13 @@ public final class LuaJavaAPI {
     public static int javaCallDeclaredMethod(long luaState, Object obj, String methodName) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
+            LuaState.Session S = L.session();
             if (obj == null) {
-                L.pushNil();
+                S.pushNil();
                 return 1;
             }
             try {
-                int nargs = L.getTop() - 2;
+                int nargs = S.getTop() - 2;
                 Class<?> clazz = obj instanceof Class ? (Class<?>) obj : obj.getClass();
                 Class<?>[] paramTypes = getParamTypes(L, 3, nargs);
                 Method method = clazz.getDeclaredMethod(methodName, paramTypes);
@@ -2453,9 +2387,9 @@ public final class LuaJavaAPI {
                 Object[] args = getArgs(L, 3, nargs, paramTypes);
                 Object result = method.invoke(obj, args);
                 if (result != null) {
-                    L.pushObjectValue(result);
+                    S.pushObjectValue(result);
                 } else {
-                    L.pushNil();
+                    S.pushNil();
                 }
                 return 1;
             } catch (Exception e) {
@@ -2474,12 +2408,13 @@ public final class LuaJavaAPI {
     public static int javaIsInstance(long luaState, Object obj, Object targetClass) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
+            LuaState.Session S = L.session();
             if (obj == null || targetClass == null || !(targetClass instanceof Class)) {
-                L.pushBoolean(false);
+                S.pushBoolean(false);
                 return 1;
             }
             Class<?> target = (Class<?>) targetClass;
-            L.pushBoolean(target.isInstance(obj));
+            S.pushBoolean(target.isInstance(obj));
             return 1;
         }
     }
@@ -2493,11 +2428,12 @@ public final class LuaJavaAPI {
     public static int javaHashCode(long luaState, int idx) throws LuaException {
         LuaState L = LuaStateFactory.getExistingState(luaState);
         synchronized (L) {
-            Object obj = L.getJavaObject(idx);
+            LuaState.Session S = L.session();
+            Object obj = S.getJavaObject(idx);
             if (obj == null) {
-                L.pushInteger(0);
+                S.pushInteger(0);
             } else {
-                L.pushInteger(obj.hashCode());
+                S.pushInteger(obj.hashCode());
             }
             return 1;
         }
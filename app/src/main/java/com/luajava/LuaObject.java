@@ -62,9 +62,13 @@ public class LuaObject implements Serializable {
 
 	protected final LuaState L;
 
+	/** L的会话视图，只能在synchronized (L)块中使用 */
+	protected final LuaState.Session S;
+
 
 	protected LuaObject(LuaState L) {
 		this.L = L;
+		this.S = L.session();
 	}
 	/**
 	 * Creates a reference to an object in the variable globalName
@@ -75,9 +79,10 @@ public class LuaObject implements Serializable {
 	protected LuaObject(LuaState L, String globalName) {
 		synchronized (L) {
 			this.L = L;
-			L.getGlobal(globalName);
+			this.S = L.session();
+			S.getGlobal(globalName);
 			registerValue(-1);
-			L.pop(1);
+			S.pop(1);
 		}
 	}
 
@@ -92,17 +97,18 @@ public class LuaObject implements Serializable {
 	protected LuaObject(LuaObject parent, String name) throws LuaException {
 		synchronized (parent.getLuaState()) {
 			this.L = parent.getLuaState();
+			this.S = L.session();
 
 			if (!parent.isTable() && !parent.isUserdata()) {
 				throw new LuaException("Object parent should be a table or userdata .");
 			}
 
 			parent.push();
-			L.pushString(name);
-			L.getTable(-2);
-			L.remove(-2);
+			S.pushString(name);
+			S.getTable(-2);
+			S.remove(-2);
 			registerValue(-1);
-			L.pop(1);
+			S.pop(1);
 		}
 	}
 
@@ -119,15 +125,16 @@ public class LuaObject implements Serializable {
 	protected LuaObject(LuaObject parent, Number name) throws LuaException {
 		synchronized (parent.getLuaState()) {
 			this.L = parent.getLuaState();
+			this.S = L.session();
 			if (!parent.isTable() && !parent.isUserdata())
 				throw new LuaException("Object parent should be a table or userdata .");
 
 			parent.push();
-			L.pushNumber(name.doubleValue());
-			L.getTable(-2);
-			L.remove(-2);
+			S.pushNumber(name.doubleValue());
+			S.getTable(-2);
+			S.remove(-2);
 			registerValue(-1);
-			L.pop(1);
+			S.pop(1);
 		}
 	}
 
@@ -149,13 +156,14 @@ public class LuaObject implements Serializable {
 				throw new LuaException("Object parent should be a table or userdata .");
 
 			this.L = parent.getLuaState();
+			this.S = L.session();
 
 			parent.push();
 			name.push();
-			L.getTable(-2);
-			L.remove(-2);
+			S.getTable(-2);
+			S.remove(-2);
 			registerValue(-1);
-			L.pop(1);
+			S.pop(1);
 		}
 	}
 
@@ -169,6 +177,7 @@ public class LuaObject implements Serializable {
 	protected LuaObject(LuaState L, int index) {
 		synchronized (L) {
 			this.L = L;
+			this.S = L.session();
 
 			registerValue(index);
 		}
@@ -189,8 +198,8 @@ public class LuaObject implements Serializable {
 	 */
 	protected void registerValue(int index) {
 		synchronized (L) {
-			L.pushValue(index);
-			int key;ref = L.Lref(LuaState.LUA_REGISTRYINDEX);
+			S.pushValue(index);
+			int key;ref = S.Lref(LuaState.LUA_REGISTRYINDEX);
 //			ref = new Integer(key);
 		}
 	}
@@ -294,8 +303,8 @@ public class LuaObject implements Serializable {
 	public boolean isNil() {
 		synchronized (L) {
 			push();
-			boolean bool = L.isNil(-1);
-			L.pop(1);
+			boolean bool = S.isNil(-1);
+			S.pop(1);
 			return bool;
 		}
 	}
@@ -303,8 +312,8 @@ public class LuaObject implements Serializable {
 	public boolean isBoolean() {
 		synchronized (L) {
 			push();
-			boolean bool = L.isBoolean(-1);
-			L.pop(1);
+			boolean bool = S.isBoolean(-1);
+			S.pop(1);
 			return bool;
 		}
 	}
@@ -312,8 +321,8 @@ public class LuaObject implements Serializable {
 	public boolean isNumber() {
 		synchronized (L) {
 			push();
-			boolean bool = L.isNumber(-1);
-			L.pop(1);
+			boolean bool = S.isNumber(-1);
+			S.pop(1);
 			return bool;
 		}
 	}
@@ -321,8 +330,8 @@ public class LuaObject implements Serializable {
 	public boolean isInteger() {
 		synchronized (L) {
 			push();
-			boolean bool = L.isInteger(-1);
-			L.pop(1);
+			boolean bool = S.isInteger(-1);
+			S.pop(1);
 			return bool;
 		}
 	}
@@ -330,8 +339,8 @@ public class LuaObject implements Serializable {
 	public boolean isString() {
 		synchronized (L) {
 			push();
-			boolean bool = L.isString(-1);
-			L.pop(1);
+			boolean bool = S.isString(-1);
+			S.pop(1);
 			return bool;
 		}
 	}
@@ -339,8 +348,8 @@ public class LuaObject implements Serializable {
 	public boolean isFunction() {
 		synchronized (L) {
 			push();
-			boolean bool = L.isFunction(-1);
-			L.pop(1);
+			boolean bool = S.isFunction(-1);
+			S.pop(1);
 			return bool;
 		}
 	}
@@ -348,8 +357,8 @@ public class LuaObject implements Serializable {
 	public boolean isJavaObject() {
 		synchronized (L) {
 			push();
-			boolean bool = L.isObject(-1);
-			L.pop(1);
+			boolean bool = S.isObject(-1);
+			S.pop(1);
 			return bool;
 		}
 	}
@@ -357,8 +366,8 @@ public class LuaObject implements Serializable {
 	public boolean isJavaFunction() {
 		synchronized (L) {
 			push();
-			boolean bool = L.isJavaFunction(-1);
-			L.pop(1);
+			boolean bool = S.isJavaFunction(-1);
+			S.pop(1);
 			return bool;
 		}
 	}
@@ -366,8 +375,8 @@ public class LuaObject implements Serializable {
 	public boolean isTable() {
 		synchronized (L) {
 			push();
-			boolean bool = L.isTable(-1);
-			L.pop(1);
+			boolean bool = S.isTable(-1);
+			S.pop(1);
 			return bool;
 		}
 	}
@@ -375,8 +384,8 @@ public class LuaObject implements Serializable {
 	public boolean isUserdata() {
 		synchronized (L) {
 			push();
-			boolean bool = L.isUserdata(-1);
-			L.pop(1);
+			boolean bool = S.isUserdata(-1);
+			S.pop(1);
 			return bool;
 		}
 	}
@@ -384,8 +393,8 @@ public class LuaObject implements Serializable {
 	public int type() {
 		synchronized (L) {
 			push();
-			int type = L.type(-1);
-			L.pop(1);
+			int type = S.type(-1);
+			S.pop(1);
 			return type;
 		}
 	}
@@ -393,8 +402,8 @@ public class LuaObject implements Serializable {
 	public boolean getBoolean() {
 		synchronized (L) {
 			push();
-			boolean bool = L.toBoolean(-1);
-			L.pop(1);
+			boolean bool = S.toBoolean(-1);
+			S.pop(1);
 			return bool;
 		}
 	}
@@ -402,8 +411,8 @@ public class LuaObject implements Serializable {
 	public double getNumber() {
 		synchronized (L) {
 			push();
-			double db = L.toNumber(-1);
-			L.pop(1);
+			double db = S.toNumber(-1);
+			S.pop(1);
 			return db;
 		}
 	}
@@ -411,8 +420,8 @@ public class LuaObject implements Serializable {
 	public long getInteger() {
 		synchronized (L) {
 			push();
-			long lg = L.toInteger(-1);
-			L.pop(1);
+			long lg = S.toInteger(-1);
+			S.pop(1);
 			return lg;
 		}
 	}
@@ -420,8 +429,8 @@ public class LuaObject implements Serializable {
 	public String getString() {
 		synchronized (L) {
 			push();
-			String str = L.toString(-1);
-			L.pop(1);
+			String str = S.toString(-1);
+			S.pop(1);
 			return str;
 		}
 	}
@@ -430,7 +439,7 @@ public class LuaObject implements Serializable {
 		synchronized (L) {
 			push();
 			LuaTable td = new LuaTable(L, -1);
-			L.pop(1);
+			S.pop(1);
 			return td;
 		}
 	}
@@ -439,7 +448,7 @@ public class LuaObject implements Serializable {
 		synchronized (L) {
 			push();
 			LuaFunction<?> ft = new LuaFunction(L, -1);
-			L.pop(1);
+			S.pop(1);
 			return ft;
 		}
 	}
@@ -448,8 +457,8 @@ public class LuaObject implements Serializable {
 	public Object getObject() throws LuaException {
 		synchronized (L) {
 			push();
-			Object obj = L.getObjectFromUserdata(-1);
-			L.pop(1);
+			Object obj = S.getObjectFromUserdata(-1);
+			S.pop(1);
 			return obj;
 		}
 	}
@@ -463,16 +472,18 @@ public class LuaObject implements Serializable {
 	}
 
 	public void setField(String field, Object obj) {
-		push();
-		try {
-			L.pushObjectValue(obj);
-		}
-		catch (LuaException e) {
-			L.pushNil();
-		}
+		synchronized (L) {
+			push();
+			try {
+				S.pushObjectValue(obj);
+			}
+			catch (LuaException e) {
+				S.pushNil();
+			}
 
-		L.setField(-2, field);
-		L.pop(1);
+			S.setField(-2, field);
+			S.pop(1);
+		}
 	}
 
 	public LuaObject getI(long idx) throws LuaException {
@@ -480,15 +491,77 @@ public class LuaObject implements Serializable {
 	}
 
 	public void setI(long idx, Object obj) {
+		synchronized (L) {
+			push();
+			try {
+				S.pushObjectValue(obj);
+			}
+			catch (LuaException e) {
+				S.pushNil();
+			}
+			S.setI(-2, idx);
+			S.pop(1);
+		}
+	}
+
+	/**
+	 * Pushes the error handler, the object and the arguments and runs pcall.
+	 * On success the results are left on the stack right after the error
+	 * handler, which sits at <code>top + 1</code>. On failure the stack is
+	 * restored and a LuaException is thrown. Must be called while holding L.
+	 * 
+	 * @return the stack top before the call
+	 */
+	private int pcall(Object[] args, int nres) throws LuaException {
+		int top = S.getTop();
 		push();
-		try {
-			L.pushObjectValue(obj);
+		int type = S.type(-1);
+		if (type != LuaState.LUA_TFUNCTION && type != LuaState.LUA_TTABLE
+				&& type != LuaState.LUA_TUSERDATA && type != LuaState.LUA_TLIGHTUSERDATA) {
+			S.setTop(top);
+			throw new LuaException("Invalid object. Not a function, table or userdata .");
+		}
+		S.pushTraceback();
+		S.insert(-2);
+		int nargs = 0;
+		if (args != null) {
+			nargs = args.length;
+			try {
+				for (int i = 0; i < nargs; i++)
+					S.pushObjectValue(args[i]);
+			}
+			catch (LuaException e) {
+				S.setTop(top);
+				throw e;
+			}
 		}
-		catch (LuaException e) {
-			L.pushNil();
+
+		int err = S.pcall(nargs, nres, -2 - nargs);
+
+		if (err != 0) {
+			String str;
+			if (S.isString(-1))
+				str = S.toString(-1);
+			else
+				str = "";
+			S.setTop(top);
+
+			if (err == LuaState.LUA_ERRRUN) {
+				str = "Runtime error. " + str;
+			}
+			else if (err == LuaState.LUA_ERRMEM) {
+				str = "Memory allocation error. " + str;
+			}
+			else if (err == LuaState.LUA_ERRERR) {
+				str = "Error while running the error handler function. " + str;
+			}
+			else {
+				str = "Lua Error code " + err + ". " + str;
+			}
+
+			throw new LuaException(str);
 		}
-		L.setI(-2, idx);
-		L.pop(1);
+		return top;
 	}
 
 	/**
@@ -503,66 +576,48 @@ public class LuaObject implements Serializable {
 	 */
 	public Object[] call_aux(Object[] args, int nres) throws LuaException {
 		synchronized (L) {
-			if (!isFunction() && !isTable() && !isUserdata())
-				throw new LuaException("Invalid object. Not a function, table or userdata .");
+			int top = pcall(args, nres);
+			int base = top + 2;
+			if (nres == LuaState.LUA_MULTRET)
+				nres = S.getTop() - base + 1;
 
-			int top = L.getTop();
-			push();
-			int nargs;
-			L.getGlobal("debug");
-			L.getField(-1, "traceback");
-			L.remove(-2);
-			L.insert(-2);
-			if (args != null) {
-				nargs = args.length;
-				for (int i = 0; i < nargs; i++) {
-					Object obj = args[i];
-					L.pushObjectValue(obj);
-				}
+			Object[] res = new Object[nres];
+			try {
+				for (int i = 0; i < nres; i++)
+					res[i] = S.toJavaObject(base + i);
 			}
-			else
-				nargs = 0;
-
-			int err = L.pcall(nargs, nres, -2-nargs);
-
-			if (err != 0) {
-				String str;
-				if (L.isString(-1)) {
-					str = L.toString(-1);
-					L.pop(1);
-				}
-				else
-					str = "";
-
-				if (err == LuaState.LUA_ERRRUN) {
-					str = "Runtime error. " + str;
-				}
-				else if (err == LuaState.LUA_ERRMEM) {
-					str = "Memory allocation error. " + str;
-				}
-				else if (err == LuaState.LUA_ERRERR) {
-					str = "Error while running the error handler function. " + str;
-				}
-				else {
-					str = "Lua Error code " + err + ". " + str;
-				}
-
-				throw new LuaException(str);
+			finally {
+				S.setTop(top);
 			}
+			return res;
+		}
+	}
 
-			if (nres == LuaState.LUA_MULTRET)
-				nres = L.getTop() - top;
-			if (L.getTop() - top < nres) {
-				throw new LuaException("Invalid Number of Results .");
+	/**
+	 * Calls the object represented by <code>this</code> and stores the results into
+	 * <code>results</code> instead of allocating a new array. Slots after the last
+	 * returned value are set to null.
+	 * 
+	 * @param args -
+	 *            Call arguments
+	 * @param results -
+	 *            Receives the returned objects
+	 * @return int - Number of values returned by the call, may be larger than results.length
+	 * @throws LuaException
+	 */
+	public int callInto(Object[] args, Object[] results) throws LuaException {
+		synchronized (L) {
+			int top = pcall(args, LuaState.LUA_MULTRET);
+			int base = top + 2;
+			int n = S.getTop() - base + 1;
+			try {
+				for (int i = 0; i < results.length; i++)
+					results[i] = i < n ? S.toJavaObject(base + i) : null;
 			}
-
-			Object[] res = new Object[nres];
-
-			for (int i = nres; i > 0; i--) {
-				res[i - 1] = L.toJavaObject(-1);
-				L.pop(1);
+			finally {
+				S.setTop(top);
 			}
-			return res;
+			return n;
 		}
 	}
 
@@ -575,66 +630,28 @@ public class LuaObject implements Serializable {
 	 * @throws LuaException
 	 */
 	public Object call(Object... args) throws LuaException {
-		return call_aux(args, 1)[0];
-	}
-
-	public LuaObject[] _call_aux(Object[] args, int nres) throws LuaException {
 		synchronized (L) {
-			if (!isFunction() && !isTable() && !isUserdata())
-				throw new LuaException("Invalid object. Not a function, table or userdata .");
-
-			int top = L.getTop();
-			push();
-			int nargs;
-			if (args != null) {
-				nargs = args.length;
-				for (int i = 0; i < nargs; i++) {
-					Object obj = args[i];
-					L.pushObjectValue(obj);
-				}
+			int top = pcall(args, 1);
+			try {
+				return S.toJavaObject(top + 2);
 			}
-			else
-				nargs = 0;
-
-			int err = L.pcall(nargs, nres, 0);
-
-			if (err != 0) {
-				String str;
-				if (L.isString(-1)) {
-					str = L.toString(-1);
-					L.pop(1);
-				}
-				else
-					str = "";
-
-				if (err == LuaState.LUA_ERRRUN) {
-					str = "Runtime error. " + str;
-				}
-				else if (err == LuaState.LUA_ERRMEM) {
-					str = "Memory allocation error. " + str;
-				}
-				else if (err == LuaState.LUA_ERRERR) {
-					str = "Error while running the error handler function. " + str;
-				}
-				else {
-					str = "Lua Error code " + err + ". " + str;
-				}
-
-				throw new LuaException(str);
+			finally {
+				S.setTop(top);
 			}
+		}
+	}
 
+	public LuaObject[] _call_aux(Object[] args, int nres) throws LuaException {
+		synchronized (L) {
+			int top = pcall(args, nres);
+			int base = top + 2;
 			if (nres == LuaState.LUA_MULTRET)
-				nres = L.getTop() - top;
-			if (L.getTop() - top < nres) {
-				throw new LuaException("Invalid Number of Results .");
-			}
+				nres = S.getTop() - base + 1;
 
 			LuaObject[] res = new LuaObject[nres];
-
-			for (int i = nres; i > 0; i--) {
-				res[i - 1] = L.getLuaObject(-1);
-				L.pop(1);
-			}
+			for (int i = 0; i < nres; i++)
+				res[i] = S.getLuaObject(base + i);
+			S.setTop(top);
 			return res;
 		}
 	}
@@ -648,7 +665,12 @@ public class LuaObject implements Serializable {
 	 * @throws LuaException
 	 */
 	public LuaObject _call(Object... args) throws LuaException {
-		return _call_aux(args, 1)[0];
+		synchronized (L) {
+			int top = pcall(args, 1);
+			LuaObject res = S.getLuaObject(top + 2);
+			S.setTop(top);
+			return res;
+		}
 	}
 
 	public byte[] dump() throws LuaException {
@@ -658,7 +680,7 @@ public class LuaObject implements Serializable {
 
 			push();
 			byte[] buf=L.dump(-1);
-			L.pop(1);
+			S.pop(1);
 			return buf;
 		}
 	}
@@ -668,18 +690,18 @@ public class LuaObject implements Serializable {
 			if (!isTable())
 				throw new LuaException("Invalid object. Not a table .");
 			push();
-			int n = L.objLen(-1);
+			int n = S.objLen(-1);
 			Object array = Array.newInstance(Object.class, n);
 			for (int i = 1;i <= n;i++) {
-				L.pushInteger(i);
-				L.getTable(-2);
+				S.pushInteger(i);
+				S.getTable(-2);
 				try {
-					Array.set(array, i - 1, L.toJavaObject(-1));
+					Array.set(array, i - 1, S.toJavaObject(-1));
 				}
 				catch (LuaException e) {}
-				L.pop(1);
+				S.pop(1);
 			}
-			L.pop(1);
+			S.pop(1);
 			return (Object[])array;
 		}
 	}
@@ -750,7 +772,7 @@ public class LuaObject implements Serializable {
 			for (int i = 0; st.hasMoreTokens(); i++)
 				interfaces[i] = Class.forName(st.nextToken());
 
-			InvocationHandler handler = new LuaInvocationHandler(this);
+			InvocationHandler handler = new LuaInvocationHandler(this, interfaces);
 
 			return Proxy.newProxyInstance(this.getClass().getClassLoader(), interfaces, handler);
 		}
@@ -768,7 +790,7 @@ public class LuaObject implements Serializable {
             }
 			Class[] interfaces = new Class[]{implem};
 
-			InvocationHandler handler = new LuaInvocationHandler(this);
+			InvocationHandler handler = new LuaInvocationHandler(this, interfaces);
 
 			return Proxy.newProxyInstance(implem.getClassLoader(), interfaces, handler);
 		}
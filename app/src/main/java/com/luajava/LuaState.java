@@ -25,15 +25,11 @@
 package com.luajava;
 
 
-import android.annotation.SuppressLint;
 import android.util.Log;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
@@ -121,6 +117,14 @@ public class LuaState {
     // 用于避免死锁的 ReentrantLock
     private final java.util.concurrent.locks.ReentrantLock lock = new java.util.concurrent.locks.ReentrantLock();
 
+    private final Session session = new Session();
+
+    /** 注册表中保存debug.traceback引用号的键，同一lua_State的所有LuaState共享 */
+    private static final String TRACEBACK_KEY = "_LuaJavaTraceback";
+
+    /** debug.traceback在注册表中的引用号，0表示尚未缓存 */
+    private int tracebackRef;
+
     //private long stateId;
 
     protected LuaState() {
@@ -181,6 +185,23 @@ public class LuaState {
         return luaJava;
     }
 
+    /**
+     * 获取该LuaState的会话视图
+     * 会话上的栈操作不再单独获取LuaState的监视器，必须在synchronized (L)块中使用：
+     * <pre>
+     * synchronized (L) {
+     *     LuaState.Session S = L.session();
+     *     S.pushObjectValue(key);
+     *     S.getTable(-2);
+     *     ...
+     * }
+     * </pre>
+     * @return 会话，每个LuaState只有一个实例
+     */
+    public Session session() {
+        return session;
+    }
+
     /**
      * Closes state and removes the object from the LuaStateFactory
      */
@@ -192,11 +213,11 @@ public class LuaState {
         // 先获取锁，确保没有其他线程正在使用 LuaState
         lock.lock();
         try {
-            LuaStateFactory.removeLuaState(luaState);
+            // 关闭时Java对象的__gc仍要通过LuaStateFactory找到本状态，关闭后再移除
             _close(luaState);
+            LuaStateFactory.removeLuaState(luaState);
             this.luaState = 0;
-            javaObjectGcList.clear();
-            javaObjectMap.clear();
+            javaObjects.clear();
         } finally {
             lock.unlock();
         }
@@ -216,11 +237,10 @@ public class LuaState {
         if (tryLockNoWait()) {
             try {
                 if (luaState != 0) {
-                    LuaStateFactory.removeLuaState(luaState);
                     _close(luaState);
+                    LuaStateFactory.removeLuaState(luaState);
                     luaState = 0;
-                    javaObjectGcList.clear();
-                    javaObjectMap.clear();
+                    javaObjects.clear();
                 }
             } catch (Exception e) {
                 Log.e("luaState", "Error in finalize for luaState " + luaState, e);
@@ -265,129 +285,129 @@ public class LuaState {
 
     /********************* Lua Native Interface *************************/
 
-    private synchronized native long _newstate();
+    private native long _newstate();
 
-    private synchronized native void _close(long ptr);
+    private native void _close(long ptr);
 
-    private synchronized native long _newthread(long ptr);
+    private native long _newthread(long ptr);
 
     // Stack manipulation
-    private synchronized native int _getTop(long ptr);
+    private native int _getTop(long ptr);
 
-    private synchronized native void _setTop(long ptr, int idx);
+    private native void _setTop(long ptr, int idx);
 
-    private synchronized native void _pushValue(long ptr, int idx);
+    private native void _pushValue(long ptr, int idx);
 
-    private synchronized native void _rotate(long ptr, int idx, int n);
+    private native void _rotate(long ptr, int idx, int n);
 
-    private synchronized native void _copy(long ptr, int fromidx, int toidx);
+    private native void _copy(long ptr, int fromidx, int toidx);
 
-    private synchronized native void _remove(long ptr, int idx);
+    private native void _remove(long ptr, int idx);
 
-    private synchronized native void _insert(long ptr, int idx);
+    private native void _insert(long ptr, int idx);
 
-    private synchronized native void _replace(long ptr, int idx);
+    private native void _replace(long ptr, int idx);
 
-    private synchronized native int _checkStack(long ptr, int sz);
+    private native int _checkStack(long ptr, int sz);
 
-    private synchronized native void _xmove(long from, long to, int n);
+    private native void _xmove(long from, long to, int n);
 
     // Access functions
-    private synchronized native int _isNumber(long ptr, int idx);
+    private native int _isNumber(long ptr, int idx);
 
-    private synchronized native int _isInteger(long ptr, int idx);
+    private native int _isInteger(long ptr, int idx);
 
-    private synchronized native int _isString(long ptr, int idx);
+    private native int _isString(long ptr, int idx);
 
-    private synchronized native int _isCFunction(long ptr, int idx);
+    private native int _isCFunction(long ptr, int idx);
 
-    private synchronized native int _isUserdata(long ptr, int idx);
+    private native int _isUserdata(long ptr, int idx);
 
-    private synchronized native int _type(long ptr, int idx);
+    private native int _type(long ptr, int idx);
 
-    private synchronized native String _typeName(long ptr, int tp);
+    private native String _typeName(long ptr, int tp);
 
-    private synchronized native int _equal(long ptr, int idx1, int idx2);
+    private native int _equal(long ptr, int idx1, int idx2);
 
-    private synchronized native int _compare(long ptr, int idx1, int idx2, int op);
+    private native int _compare(long ptr, int idx1, int idx2, int op);
 
-    private synchronized native int _rawequal(long ptr, int idx1, int idx2);
+    private native int _rawequal(long ptr, int idx1, int idx2);
 
-    private synchronized native int _lessThan(long ptr, int idx1, int idx2);
+    private native int _lessThan(long ptr, int idx1, int idx2);
 
-    private synchronized native double _toNumber(long ptr, int idx);
+    private native double _toNumber(long ptr, int idx);
 
-    private synchronized native long _toInteger(long ptr, int idx);
+    private native long _toInteger(long ptr, int idx);
 
-    private synchronized native int _toBoolean(long ptr, int idx);
+    private native int _toBoolean(long ptr, int idx);
 
-    private synchronized native byte[] _toString(long ptr, int idx);
+    private native byte[] _toString(long ptr, int idx);
 
-    private synchronized native byte[] _toBuffer(long ptr, int idx);
+    private native byte[] _toBuffer(long ptr, int idx);
 
-    private synchronized native int _objlen(long ptr, int idx);
+    private native int _objlen(long ptr, int idx);
 
-    private synchronized native int _rawlen(long ptr, int idx);
+    private native int _rawlen(long ptr, int idx);
 
-    private synchronized native long _toThread(long ptr, int idx);
+    private native long _toThread(long ptr, int idx);
 
     // Push functions
-    private synchronized native void _pushNil(long ptr);
+    private native void _pushNil(long ptr);
 
-    private synchronized native void _pushNumber(long ptr, double number);
+    private native void _pushNumber(long ptr, double number);
 
-    private synchronized native void _pushInteger(long ptr, long integer);
+    private native void _pushInteger(long ptr, long integer);
 
-    private synchronized native void _pushString(long ptr, String str);
+    private native void _pushString(long ptr, String str);
 
-    private synchronized native void _pushLString(long ptr, byte[] bytes, int n);
+    private native void _pushLString(long ptr, byte[] bytes, int n);
 
-    private synchronized native void _pushBoolean(long ptr, int bool);
+    private native void _pushBoolean(long ptr, int bool);
 
     // Get functions
-    private synchronized native int _getTable(long ptr, int idx);
+    private native int _getTable(long ptr, int idx);
 
-    private synchronized native int _getField(long ptr, int idx, String k);
+    private native int _getField(long ptr, int idx, String k);
 
-    private synchronized native int _getI(long ptr, int idx, long n);
+    private native int _getI(long ptr, int idx, long n);
 
-    private synchronized native int _rawGet(long ptr, int idx);
+    private native int _rawGet(long ptr, int idx);
 
-    private synchronized native int _rawGetI(long ptr, int idx, long n);
+    private native int _rawGetI(long ptr, int idx, long n);
 
-    private synchronized native void _createTable(long ptr, int narr, int nrec);
+    private native void _createTable(long ptr, int narr, int nrec);
 
-    private synchronized native int _getMetaTable(long ptr, int idx);
+    private native int _getMetaTable(long ptr, int idx);
 
-    private synchronized native int _getUserValue(long ptr, int idx);
+    private native int _getUserValue(long ptr, int idx);
 
     // Set functions
-    private synchronized native void _setTable(long ptr, int idx);
+    private native void _setTable(long ptr, int idx);
 
-    private synchronized native void _setField(long ptr, int idx, String k);
+    private native void _setField(long ptr, int idx, String k);
 
-    private synchronized native void _setI(long ptr, int idx, long n);
+    private native void _setI(long ptr, int idx, long n);
 
-    private synchronized native void _rawSet(long ptr, int idx);
+    private native void _rawSet(long ptr, int idx);
 
-    private synchronized native void _rawSetI(long ptr, int idx, long n);
+    private native void _rawSetI(long ptr, int idx, long n);
 
-    private synchronized native int _setMetaTable(long ptr, int idx);
+    private native int _setMetaTable(long ptr, int idx);
 
-    private synchronized native void _setUserValue(long ptr, int idx);
+    private native void _setUserValue(long ptr, int idx);
 
-    private synchronized native void _call(long ptr, int nArgs, int nResults);
+    private native void _call(long ptr, int nArgs, int nResults);
 
-    private synchronized native int _pcall(long ptr, int nArgs, int Results, int errFunc);
+    private native int _pcall(long ptr, int nArgs, int Results, int errFunc);
 
     // Coroutine Functions
-    private synchronized native int _yield(long ptr, int nResults);
+    private native int _yield(long ptr, int nResults);
 
-    private synchronized native int _resume(long ptr, long from, int nargs);
+    private native int _resume(long ptr, long from, int nargs);
 
-    private synchronized native int _status(long ptr);
+    private native int _status(long ptr);
 
-    private synchronized native int _isYieldable(long ptr);
+    private native int _isYieldable(long ptr);
 
     // Gargabe Collection Functions
     final public static int LUA_GCSTOP = 0;
@@ -399,131 +419,126 @@ public class LuaState {
     final public static int LUA_GCSETPAUSE = 6;
     final public static int LUA_GCSETSTEPMUL = 7;
 
-    private synchronized native int _gc(long ptr, int what, int data);
+    private native int _gc(long ptr, int what, int data);
 
     // Miscellaneous Functions
-    private synchronized native int _error(long ptr);
+    private native int _error(long ptr);
 
-    private synchronized native int _next(long ptr, int idx);
+    private native int _next(long ptr, int idx);
 
-    private synchronized native void _concat(long ptr, int n);
+    private native void _concat(long ptr, int n);
 
     // Some macros
-    private synchronized native void _pop(long ptr, int n);
+    private native void _pop(long ptr, int n);
 
-    private synchronized native void _newTable(long ptr);
+    private native void _newTable(long ptr);
 
-    private synchronized native int _strlen(long ptr, int idx);
+    private native int _strlen(long ptr, int idx);
 
-    private synchronized native int _isFunction(long ptr, int idx);
+    private native int _isFunction(long ptr, int idx);
 
-    private synchronized native int _isTable(long ptr, int idx);
+    private native int _isTable(long ptr, int idx);
 
-    private synchronized native int _isNil(long ptr, int idx);
+    private native int _isNil(long ptr, int idx);
 
-    private synchronized native int _isBoolean(long ptr, int idx);
+    private native int _isBoolean(long ptr, int idx);
 
-    private synchronized native int _isThread(long ptr, int idx);
+    private native int _isThread(long ptr, int idx);
 
-    private synchronized native int _isNone(long ptr, int idx);
+    private native int _isNone(long ptr, int idx);
 
-    private synchronized native int _isNoneOrNil(long ptr, int idx);
+    private native int _isNoneOrNil(long ptr, int idx);
 
-    private synchronized native void _pushGlobalTable(long ptr);
+    private native void _pushGlobalTable(long ptr);
 
-    private synchronized native void _setGlobal(long ptr, String name);
+    private native void _setGlobal(long ptr, String name);
 
-    private synchronized native int _getGlobal(long ptr, String name);
+    private native int _getGlobal(long ptr, String name);
 
 
     // LuaLibAux
-    private synchronized native int _LdoFile(long ptr, String fileName);
+    private native int _LdoFile(long ptr, String fileName);
 
-    private synchronized native int _LdoString(long ptr, String string);
-    //private synchronized native int _doBuffer(long ptr, byte[] buff, long sz, String n);
+    private native int _LdoString(long ptr, String string);
+    //private native int _doBuffer(long ptr, byte[] buff, long sz, String n);
 
-    private synchronized native int _LgetMetaField(long ptr, int obj, String e);
+    private native int _LgetMetaField(long ptr, int obj, String e);
 
-    private synchronized native int _LcallMeta(long ptr, int obj, String e);
+    private native int _LcallMeta(long ptr, int obj, String e);
 
-    private synchronized native int _LargError(long ptr, int numArg, String extraMsg);
+    private native int _LargError(long ptr, int numArg, String extraMsg);
 
-    private synchronized native String _LcheckString(long ptr, int numArg);
+    private native String _LcheckString(long ptr, int numArg);
 
-    private synchronized native String _LoptString(long ptr, int numArg, String def);
+    private native String _LoptString(long ptr, int numArg, String def);
 
-    private synchronized native double _LcheckNumber(long ptr, int numArg);
+    private native double _LcheckNumber(long ptr, int numArg);
 
-    private synchronized native double _LoptNumber(long ptr, int numArg, double def);
+    private native double _LoptNumber(long ptr, int numArg, double def);
 
-    private synchronized native int _LcheckInteger(long ptr, int numArg);
+    private native int _LcheckInteger(long ptr, int numArg);
 
-    private synchronized native int _LoptInteger(long ptr, int numArg, int def);
+    private native int _LoptInteger(long ptr, int numArg, int def);
 
-    private synchronized native void _LcheckStack(long ptr, int sz, String msg);
+    private native void _LcheckStack(long ptr, int sz, String msg);
 
-    private synchronized native void _LcheckType(long ptr, int nArg, int t);
+    private native void _LcheckType(long ptr, int nArg, int t);
 
-    private synchronized native void _LcheckAny(long ptr, int nArg);
+    private native void _LcheckAny(long ptr, int nArg);
 
-    private synchronized native int _LnewMetatable(long ptr, String tName);
+    private native int _LnewMetatable(long ptr, String tName);
 
-    private synchronized native void _LgetMetatable(long ptr, String tName);
+    private native void _LgetMetatable(long ptr, String tName);
 
-    private synchronized native void _Lwhere(long ptr, int lvl);
+    private native void _Lwhere(long ptr, int lvl);
 
-    private synchronized native int _Lref(long ptr, int t);
+    private native int _Lref(long ptr, int t);
 
-    private synchronized native void _LunRef(long ptr, int t, int ref);
+    private native void _LunRef(long ptr, int t, int ref);
 
-    private synchronized native int _LloadFile(long ptr, String fileName);
+    private native int _LloadFile(long ptr, String fileName);
 
-    private synchronized native int _LloadBuffer(long ptr, byte[] buff, long sz, String name);
+    private native int _LloadBuffer(long ptr, byte[] buff, long sz, String name);
 
-    private synchronized native int _LloadString(long ptr, String s);
+    private native int _LloadString(long ptr, String s);
 
-    private synchronized native String _Lgsub(long ptr, String s, String p, String r);
+    private native String _Lgsub(long ptr, String s, String p, String r);
 
-    private synchronized native byte[] _LtoString(long ptr, int idx);
+    private native byte[] _LtoString(long ptr, int idx);
 
-    private synchronized native String _getUpValue(long ptr, int funcindex, int n);
+    private native String _getUpValue(long ptr, int funcindex, int n);
 
-    private synchronized native String _setUpValue(long ptr, int funcindex, int n);
+    private native String _setUpValue(long ptr, int funcindex, int n);
 
-    private synchronized native byte[] _dump(long ptr, int funcindex);
+    private native byte[] _dump(long ptr, int funcindex);
 
     /**
      * 分析Lua代码，检测潜在的运行时错误
      * 返回格式: "行号:列号:错误信息"，如果没有错误则返回null
      */
-    private synchronized native String _analyzeCode(long ptr, String code);
-
-    /**
-     * 解析Lua代码获取Proto信息，返回JSON格式的字节码结构
-     */
-    private synchronized native String _parseProto(long ptr, String code);
+    private native String _analyzeCode(long ptr, String code);
 
-    private synchronized native void _openBase(long ptr);
+    private native void _openBase(long ptr);
 
-    private synchronized native void _openTable(long ptr);
+    private native void _openTable(long ptr);
 
-    private synchronized native void _openIo(long ptr);
+    private native void _openIo(long ptr);
 
-    private synchronized native void _openOs(long ptr);
+    private native void _openOs(long ptr);
 
-    private synchronized native void _openString(long ptr);
+    private native void _openString(long ptr);
 
-    private synchronized native void _openMath(long ptr);
+    private native void _openMath(long ptr);
 
-    private synchronized native void _openDebug(long ptr);
+    private native void _openDebug(long ptr);
 
-    private synchronized native void _openPackage(long ptr);
+    private native void _openPackage(long ptr);
 
-    private synchronized native void _openLibs(long ptr);
+    private native void _openLibs(long ptr);
 
     // Java Interface -----------------------------------------------------
 
-    public LuaState newThread() {
+    public synchronized LuaState newThread() {
         LuaState l = new LuaState(_newthread(luaState));
         LuaStateFactory.insertLuaState(l);
         return l;
@@ -531,416 +546,410 @@ public class LuaState {
 
     // STACK MANIPULATION
 
-    public int getTop() {
+    public synchronized int getTop() {
         return _getTop(luaState);
     }
 
-    public void setTop(int idx) {
+    public synchronized void setTop(int idx) {
         _setTop(luaState, idx);
     }
 
-    public void pushValue(int idx) {
+    public synchronized void pushValue(int idx) {
         _pushValue(luaState, idx);
     }
 
-    public void rotate(int idx, int n) {
+    public synchronized void rotate(int idx, int n) {
         _rotate(luaState, idx, n);
     }
 
-    public void copy(int fromidx, int toidx) {
+    public synchronized void copy(int fromidx, int toidx) {
         _copy(luaState, fromidx, toidx);
     }
 
-    public void remove(int idx) {
+    public synchronized void remove(int idx) {
         _remove(luaState, idx);
     }
 
-    public void insert(int idx) {
+    public synchronized void insert(int idx) {
         _insert(luaState, idx);
     }
 
-    public void replace(int idx) {
+    public synchronized void replace(int idx) {
         _replace(luaState, idx);
     }
 
-    public int checkStack(int sz) {
+    public synchronized int checkStack(int sz) {
         return _checkStack(luaState, sz);
     }
 
-    public void xmove(LuaState to, int n) {
+    public synchronized void xmove(LuaState to, int n) {
         _xmove(luaState, to.luaState, n);
     }
 
     // ACCESS FUNCTION
 
-    public boolean isNumber(int idx) {
+    public synchronized boolean isNumber(int idx) {
         return (_isNumber(luaState, idx) != 0);
     }
 
-    public boolean isInteger(int idx) {
+    public synchronized boolean isInteger(int idx) {
         return (_isInteger(luaState, idx) != 0);
     }
 
-    public boolean isString(int idx) {
+    public synchronized boolean isString(int idx) {
         return (_isString(luaState, idx) != 0);
     }
 
-    public boolean isFunction(int idx) {
+    public synchronized boolean isFunction(int idx) {
         return (_isFunction(luaState, idx) != 0);
     }
 
-    public boolean isCFunction(int idx) {
+    public synchronized boolean isCFunction(int idx) {
         return (_isCFunction(luaState, idx) != 0);
     }
 
-    public boolean isUserdata(int idx) {
+    public synchronized boolean isUserdata(int idx) {
         return (_isUserdata(luaState, idx) != 0);
     }
 
-    public boolean isTable(int idx) {
+    public synchronized boolean isTable(int idx) {
         return (_isTable(luaState, idx) != 0);
     }
 
-    public boolean isBoolean(int idx) {
+    public synchronized boolean isBoolean(int idx) {
         return (_isBoolean(luaState, idx) != 0);
     }
 
-    public boolean isNil(int idx) {
+    public synchronized boolean isNil(int idx) {
         return (_isNil(luaState, idx) != 0);
     }
 
-    public boolean isThread(int idx) {
+    public synchronized boolean isThread(int idx) {
         return (_isThread(luaState, idx) != 0);
     }
 
-    public boolean isNone(int idx) {
+    public synchronized boolean isNone(int idx) {
         return (_isNone(luaState, idx) != 0);
     }
 
-    public boolean isNoneOrNil(int idx) {
+    public synchronized boolean isNoneOrNil(int idx) {
         return (_isNoneOrNil(luaState, idx) != 0);
     }
 
-    public int type(int idx) {
+    public synchronized int type(int idx) {
         return _type(luaState, idx);
     }
 
-    public String typeName(int tp) {
+    public synchronized String typeName(int tp) {
         return _typeName(luaState, tp);
     }
 
-    public int equal(int idx1, int idx2) {
+    public synchronized int equal(int idx1, int idx2) {
         return _equal(luaState, idx1, idx2);
     }
 
-    public int compare(int idx1, int idx2, int op) {
+    public synchronized int compare(int idx1, int idx2, int op) {
         return _compare(luaState, idx1, idx2, op);
     }
 
-    public int rawequal(int idx1, int idx2) {
+    public synchronized int rawequal(int idx1, int idx2) {
         return _rawequal(luaState, idx1, idx2);
     }
 
-    public int lessThan(int idx1, int idx2) {
+    public synchronized int lessThan(int idx1, int idx2) {
         return _lessThan(luaState, idx1, idx2);
     }
 
-    public double toNumber(int idx) {
+    public synchronized double toNumber(int idx) {
         return _toNumber(luaState, idx);
     }
 
-    public long toInteger(int idx) {
+    public synchronized long toInteger(int idx) {
         return _toInteger(luaState, idx);
     }
 
-    public boolean toBoolean(int idx) {
+    public synchronized boolean toBoolean(int idx) {
         return (_toBoolean(luaState, idx) != 0);
     }
 
-    public String toString(int idx) {
+    public synchronized String toString(int idx) {
         return new String(_toString(luaState, idx));
     }
 
-    public byte[] toBuffer(int idx) {
+    public synchronized byte[] toBuffer(int idx) {
         return _toBuffer(luaState, idx);
     }
 
-    public int strLen(int idx) {
+    public synchronized int strLen(int idx) {
         return _strlen(luaState, idx);
     }
 
-    public int objLen(int idx) {
+    public synchronized int objLen(int idx) {
         return _objlen(luaState, idx);
     }
 
-    public int rawLen(int idx) {
+    public synchronized int rawLen(int idx) {
         return _rawlen(luaState, idx);
     }
 
-    public LuaState toThread(int idx) {
+    public synchronized LuaState toThread(int idx) {
         return new LuaState(_toThread(luaState, idx));
     }
 
     //PUSH FUNCTIONS
 
-    public void pushNil() {
+    public synchronized void pushNil() {
         _pushNil(luaState);
     }
 
-    public void pushNumber(double db) {
+    public synchronized void pushNumber(double db) {
         _pushNumber(luaState, db);
     }
 
-    public void pushInteger(long integer) {
+    public synchronized void pushInteger(long integer) {
         _pushInteger(luaState, integer);
     }
 
-    public void pushString(String str) {
+    public synchronized void pushString(String str) {
         if (str == null)
             _pushNil(luaState);
         else
             _pushString(luaState, str);
     }
 
-    public void pushString(byte[] bytes) {
+    public synchronized void pushString(byte[] bytes) {
         if (bytes == null)
             _pushNil(luaState);
         else
             _pushLString(luaState, bytes, bytes.length);
     }
 
-    public void pushBoolean(boolean bool) {
+    public synchronized void pushBoolean(boolean bool) {
         _pushBoolean(luaState, bool ? 1 : 0);
     }
 
     // GET FUNCTIONS
 
-    public int getTable(int idx) {
+    public synchronized int getTable(int idx) {
         return _getTable(luaState, idx);
     }
 
-    public int getField(int idx, String k) {
+    public synchronized int getField(int idx, String k) {
         return _getField(luaState, idx, k);
     }
 
-    public int getI(int idx, long n) {
+    public synchronized int getI(int idx, long n) {
         return _getI(luaState, idx, n);
     }
 
-    public int rawGet(int idx) {
+    public synchronized int rawGet(int idx) {
         return _rawGet(luaState, idx);
     }
 
-    public int rawGetI(int idx, long n) {
+    public synchronized int rawGetI(int idx, long n) {
         return _rawGetI(luaState, idx, n);
     }
 
-    public void createTable(int narr, int nrec) {
+    public synchronized void createTable(int narr, int nrec) {
         _createTable(luaState, narr, nrec);
     }
 
-    public void newTable() {
+    public synchronized void newTable() {
         _newTable(luaState);
     }
 
     // if returns 0, there is no metatable
-    public int getMetaTable(int idx) {
+    public synchronized int getMetaTable(int idx) {
         return _getMetaTable(luaState, idx);
     }
 
-    public int getUserValue(int idx) {
+    public synchronized int getUserValue(int idx) {
         return _getUserValue(luaState, idx);
     }
 
     // SET FUNCTIONS
 
-    public void setTable(int idx) {
+    public synchronized void setTable(int idx) {
         _setTable(luaState, idx);
     }
 
-    public void setField(int idx, String k) {
+    public synchronized void setField(int idx, String k) {
         _setField(luaState, idx, k);
     }
 
-    public void setI(int idx, long n) {
+    public synchronized void setI(int idx, long n) {
         _setI(luaState, idx, n);
     }
 
-    public void rawSet(int idx) {
+    public synchronized void rawSet(int idx) {
         _rawSet(luaState, idx);
     }
 
-    public void rawSetI(int idx, long n) {
+    public synchronized void rawSetI(int idx, long n) {
         _rawSetI(luaState, idx, n);
     }
 
     // if returns 0, cannot set the metatable to the given object
-    public int setMetaTable(int idx) {
+    public synchronized int setMetaTable(int idx) {
         return _setMetaTable(luaState, idx);
     }
 
-    public void setUserValue(int idx) {
+    public synchronized void setUserValue(int idx) {
         _setUserValue(luaState, idx);
     }
 
-    public void call(int nArgs, int nResults) {
+    public synchronized void call(int nArgs, int nResults) {
         _call(luaState, nArgs, nResults);
     }
 
     // returns 0 if ok of one of the error codes defined
-    public int pcall(int nArgs, int nResults, int errFunc) {
+    public synchronized int pcall(int nArgs, int nResults, int errFunc) {
         return _pcall(luaState, nArgs, nResults, errFunc);
     }
 
-    public int yield(int nResults) {
+    public synchronized int yield(int nResults) {
         return _yield(luaState, nResults);
     }
 
-    public int resume(LuaState from, int nArgs) {
+    public synchronized int resume(LuaState from, int nArgs) {
         return _resume(luaState, from.getPointer(), nArgs);
     }
 
-    public int status() {
+    public synchronized int status() {
         return _status(luaState);
     }
 
-    public int isYieldable() {
+    public synchronized int isYieldable() {
         return _isYieldable(luaState);
     }
 
-    public int gc(int what, int data) {
-        for (Integer i : javaObjectGcList) {
-            javaObjectMap.remove(i);
-            //Log.i("lua", "gc: "+i+";"+javaObjectMap.remove(i));
-        }
-        //Log.i("lua", "gc:2 "+javaObjectMap.size()+";"+javaObjectMap);
-        javaObjectGcList.clear();
+    public synchronized int gc(int what, int data) {
         return _gc(luaState, what, data);
     }
 
 
-    public int next(int idx) {
+    public synchronized int next(int idx) {
         return _next(luaState, idx);
     }
 
-    public int error() {
+    public synchronized int error() {
         return _error(luaState);
     }
 
-    public void concat(int n) {
+    public synchronized void concat(int n) {
         _concat(luaState, n);
     }
 
 
     // FUNCTION FROM lauxlib
     // returns 0 if ok
-    public int LdoFile(String fileName) {
+    public synchronized int LdoFile(String fileName) {
         return _LdoFile(luaState, fileName);
     }
 
     // returns 0 if ok
-    public int LdoString(String str) {
+    public synchronized int LdoString(String str) {
         return _LdoString(luaState, str);
     }
 
-    public int LgetMetaField(int obj, String e) {
+    public synchronized int LgetMetaField(int obj, String e) {
         return _LgetMetaField(luaState, obj, e);
     }
 
-    public int LcallMeta(int obj, String e) {
+    public synchronized int LcallMeta(int obj, String e) {
         return _LcallMeta(luaState, obj, e);
     }
 
 
-    public int LargError(int numArg, String extraMsg) {
+    public synchronized int LargError(int numArg, String extraMsg) {
         return _LargError(luaState, numArg, extraMsg);
     }
 
-    public String LcheckString(int numArg) {
+    public synchronized String LcheckString(int numArg) {
         return _LcheckString(luaState, numArg);
     }
 
-    public String LoptString(int numArg, String def) {
+    public synchronized String LoptString(int numArg, String def) {
         return _LoptString(luaState, numArg, def);
     }
 
-    public double LcheckNumber(int numArg) {
+    public synchronized double LcheckNumber(int numArg) {
         return _LcheckNumber(luaState, numArg);
     }
 
-    public double LoptNumber(int numArg, double def) {
+    public synchronized double LoptNumber(int numArg, double def) {
         return _LoptNumber(luaState, numArg, def);
     }
 
-    public int LcheckInteger(int numArg) {
+    public synchronized int LcheckInteger(int numArg) {
         return _LcheckInteger(luaState, numArg);
     }
 
-    public int LoptInteger(int numArg, int def) {
+    public synchronized int LoptInteger(int numArg, int def) {
         return _LoptInteger(luaState, numArg, def);
     }
 
-    public void LcheckStack(int sz, String msg) {
+    public synchronized void LcheckStack(int sz, String msg) {
         _LcheckStack(luaState, sz, msg);
     }
 
-    public void LcheckType(int nArg, int t) {
+    public synchronized void LcheckType(int nArg, int t) {
         _LcheckType(luaState, nArg, t);
     }
 
-    public void LcheckAny(int nArg) {
+    public synchronized void LcheckAny(int nArg) {
         _LcheckAny(luaState, nArg);
     }
 
-    public int LnewMetatable(String tName) {
+    public synchronized int LnewMetatable(String tName) {
         return _LnewMetatable(luaState, tName);
     }
 
-    public void LgetMetatable(String tName) {
+    public synchronized void LgetMetatable(String tName) {
         _LgetMetatable(luaState, tName);
     }
 
-    public void Lwhere(int lvl) {
+    public synchronized void Lwhere(int lvl) {
         _Lwhere(luaState, lvl);
     }
 
-    public int Lref(int t) {
+    public synchronized int Lref(int t) {
         return _Lref(luaState, t);
     }
 
-    public void LunRef(int t, int ref) {
+    public synchronized void LunRef(int t, int ref) {
         _LunRef(luaState, t, ref);
     }
 
-    public int LloadFile(String fileName) {
+    public synchronized int LloadFile(String fileName) {
         return _LloadFile(luaState, fileName);
     }
 
-    public int LloadString(String s) {
+    public synchronized int LloadString(String s) {
         return _LloadString(luaState, s);
     }
 
-    public int LloadBuffer(byte[] buff, String name) {
+    public synchronized int LloadBuffer(byte[] buff, String name) {
         return _LloadBuffer(luaState, buff, buff.length, name);
     }
 
-    public String Lgsub(String s, String p, String r) {
+    public synchronized String Lgsub(String s, String p, String r) {
         return _Lgsub(luaState, s, p, r);
     }
 
-    public String LtoString(int idx) {
+    public synchronized String LtoString(int idx) {
         return new String(_LtoString(luaState, idx));
     }
 
-    public String getUpValue(int funcindex, int n) {
+    public synchronized String getUpValue(int funcindex, int n) {
         return _getUpValue(luaState, funcindex, n);
     }
 
-    public String setUpValue(int funcindex, int n) {
+    public synchronized String setUpValue(int funcindex, int n) {
         return _setUpValue(luaState, funcindex, n);
     }
 
-    public byte[] dump(int funcindex) {
+    public synchronized byte[] dump(int funcindex) {
         return _dump(luaState, funcindex);
     }
 
@@ -949,26 +958,26 @@ public class LuaState {
      * @param code 要分析的Lua代码
      * @return 错误信息格式 "行号:列号:错误信息"，如果没有错误则返回null
      */
-    public String analyzeCode(String code) {
+    public synchronized String analyzeCode(String code) {
         return _analyzeCode(luaState, code);
     }
-
-    /**
-     * 解析Lua代码获取Proto信息，返回JSON格式的字节码结构
-     * @param code Lua代码
-     * @return JSON格式的Proto信息，包含指令、常量、子函数等
-     */
-    public String parseProto(String code) {
-        return _parseProto(luaState, code);
-    }
     
     //IMPLEMENTED C MACROS
 
-    public void pop(int n) {
+    public synchronized void pop(int n) {
         //setTop(- (n) - 1);
         _pop(luaState, n);
     }
 
+    /**
+     * 压入debug.traceback作为pcall的错误处理函数
+     * 第一次使用时从全局表中取出并保存到注册表，之后只需一次rawgeti；
+     * debug库不可用时压入nil
+     */
+    public synchronized void pushTraceback() {
+        session.pushTraceback();
+    }
+
 
     public synchronized void pushGlobalTable() {
         _pushGlobalTable(luaState);
@@ -983,39 +992,39 @@ public class LuaState {
     }
 
     // Functions to open lua libraries
-    public void openBase() {
+    public synchronized void openBase() {
         _openBase(luaState);
     }
 
-    public void openTable() {
+    public synchronized void openTable() {
         _openTable(luaState);
     }
 
-    public void openIo() {
+    public synchronized void openIo() {
         _openIo(luaState);
     }
 
-    public void openOs() {
+    public synchronized void openOs() {
         _openOs(luaState);
     }
 
-    public void openString() {
+    public synchronized void openString() {
         _openString(luaState);
     }
 
-    public void openMath() {
+    public synchronized void openMath() {
         _openMath(luaState);
     }
 
-    public void openDebug() {
+    public synchronized void openDebug() {
         _openDebug(luaState);
     }
 
-    public void openPackage() {
+    public synchronized void openPackage() {
         _openPackage(luaState);
     }
 
-    public void openLibs() {
+    public synchronized void openLibs() {
         _openLibs(luaState);
         _openLuajava(luaState);
         pushPrimitive();
@@ -1029,7 +1038,7 @@ public class LuaState {
      *
      * @param stateId
      */
-    private synchronized native void _openLuajava(long stateId);
+    private native void _openLuajava(long stateId);
 
     /**
      * Gets a Object from a userdata
@@ -1038,7 +1047,7 @@ public class LuaState {
      * @param idx index of the lua stack
      * @return Object
      */
-    private synchronized native int _getObjectFromUserdata(long L, int idx) throws LuaException;
+    private native int _getObjectFromUserdata(long L, int idx) throws LuaException;
 
     /**
      * Returns whether a userdata contains a Java Object
@@ -1047,7 +1056,7 @@ public class LuaState {
      * @param idx index of the lua stack
      * @return boolean
      */
-    private synchronized native boolean _isObject(long L, int idx);
+    private native boolean _isObject(long L, int idx);
 
     /**
      * Pushes a Java Object into the state stack
@@ -1055,7 +1064,7 @@ public class LuaState {
      * @param L
      * @param idx
      */
-    private synchronized native void _pushJavaObject(long L, String name, int idx, boolean isclass);
+    private native void _pushJavaObject(long L, String name, int idx, boolean isclass);
 
     /**
      * Pushes a JavaFunction into the state stack
@@ -1063,7 +1072,7 @@ public class LuaState {
      * @param L
      * @param func
      */
-    private synchronized native void _pushJavaFunction(long L, JavaFunction func) throws LuaException;
+    private native void _pushJavaFunction(long L, JavaFunction func) throws LuaException;
 
     /**
      * Returns whether a userdata contains a Java Function
@@ -1072,9 +1081,9 @@ public class LuaState {
      * @param idx index of the lua stack
      * @return boolean
      */
-    private synchronized native boolean _isJavaFunction(long L, int idx);
+    private native boolean _isJavaFunction(long L, int idx);
 
-    public void openLuajava() {
+    public synchronized void openLuajava() {
         _openLuajava(luaState);
         pushPrimitive();
         Pattern.compile("/(?:^|\\s)[\\u0780-\\u07BF]+?(?:\\s|$)/g");
@@ -1087,7 +1096,7 @@ public class LuaState {
      * @return Object
      * @throws LuaException if the lua object does not represent a java object.
      */
-    public Object getObjectFromUserdata(int idx) throws LuaException {
+    public synchronized Object getObjectFromUserdata(int idx) throws LuaException {
         return getJavaObject(_getObjectFromUserdata(luaState, idx));
     }
 
@@ -1097,7 +1106,7 @@ public class LuaState {
      * @param idx index of the lua stack
      * @return boolean
      */
-    public boolean isObject(int idx) {
+    public synchronized boolean isObject(int idx) {
         return _isObject(luaState, idx);
     }
 
@@ -1108,53 +1117,28 @@ public class LuaState {
      *
      * @param obj Object to be pushed into lua
      */
-    private int sIdx = 0;
-    private static final AtomicInteger ssIdx = new AtomicInteger();
-    @SuppressLint("UseSparseArrays")
-    private final HashMap<Integer, Object> javaObjectMap = new HashMap<>();
-    private final ArrayList<Integer> javaObjectGcList = new ArrayList<>();
+    private final JavaObjectTable javaObjects = new JavaObjectTable();
 
-    public void pushJavaObject(int idx, Object obj) {
-        javaObjectMap.put(idx, obj);
+    /**
+     * 替换句柄对应的Java对象，句柄已失效时忽略
+     */
+    public synchronized void pushJavaObject(int idx, Object obj) {
+        javaObjects.set(idx, obj);
     }
 
-    public Object getJavaObject(int i) {
-        return javaObjectMap.get(i);
+    public synchronized Object getJavaObject(int i) {
+        return javaObjects.get(i);
     }
 
-    public void removeJavaObject(int i) {
-        javaObjectGcList.add(i);
-        //javaObjectMap.remove(i);
+    /**
+     * 释放句柄，由userdata的__gc调用
+     */
+    public synchronized void removeJavaObject(int i) {
+        javaObjects.remove(i);
     }
 
-    public void pushJavaObject(Object obj) {
-
-        if (obj == null) {
-            pushNil();
-            return;
-        }
-        int idx = sIdx++;
-        /*int idx = 0;
-        synchronized (ssIdx) {
-            idx = ssIdx.addAndGet(1);
-        }*/
-        pushJavaObject(idx, obj);
-
-        Class clazz;
-        if (obj instanceof Class)
-            clazz = (Class) obj;
-        else
-            clazz = obj.getClass();
-
-        try {
-            if (obj instanceof Class)
-                _pushJavaObject(luaState, clazz.getName(), idx, true);
-            else
-                _pushJavaObject(luaState, clazz.getName(), idx, false);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
+    public synchronized void pushJavaObject(Object obj) {
+        session.pushJavaObject(obj);
     }
 
     /**
@@ -1162,7 +1146,7 @@ public class LuaState {
      *
      * @param func
      */
-    public void pushJavaFunction(JavaFunction func) throws LuaException {
+    public synchronized void pushJavaFunction(JavaFunction func) throws LuaException {
         _pushJavaFunction(luaState, func);
     }
 
@@ -1172,53 +1156,19 @@ public class LuaState {
      * @param idx index of the lua stack
      * @return boolean
      */
-    public boolean isJavaFunction(int idx) {
+    public synchronized boolean isJavaFunction(int idx) {
         return _isJavaFunction(luaState, idx);
     }
 
     /**
      * Pushes into the stack any object value.<br>
      * This function checks if the object could be pushed as a lua type, if not
-     * pushes the java object.
+     * pushes the java object. Conversions are looked up in {@link LuaConverters}.
      *
      * @param obj
      */
-    public void pushObjectValue(Object obj) throws LuaException {
-        if (obj == null) {
-            pushNil();
-        } else if (obj instanceof Boolean) {
-            Boolean bool = (Boolean) obj;
-            pushBoolean(bool);
-        } else if (obj instanceof Long) {
-            pushInteger((Long) obj);
-        } else if (obj instanceof Integer) {
-            pushInteger((Integer) obj);
-        } else if (obj instanceof Short) {
-            pushInteger((Short) obj);
-        } else if (obj instanceof Character) {
-            pushInteger((Character) obj);
-        } else if (obj instanceof Byte) {
-            pushInteger((Byte) obj);
-        } else if (obj instanceof Float) {
-            pushNumber((Float) obj);
-        } else if (obj instanceof Double) {
-            pushNumber((Double) obj);
-        } else if (obj instanceof String) {
-            pushString((String) obj);
-        } else if (obj instanceof LuaString) {
-            pushString(((LuaString) obj).toByteArray());
-        } else if (obj instanceof JavaFunction) {
-            JavaFunction func = (JavaFunction) obj;
-            pushJavaFunction(func);
-        } else if (obj instanceof LuaObject) {
-            LuaObject ref = (LuaObject) obj;
-            if (ref.getLuaState() == this)
-                ref.push();
-            else
-                pushJavaObject(ref);
-        } else {
-            pushJavaObject(obj);
-        }
+    public synchronized void pushObjectValue(Object obj) throws LuaException {
+        session.pushObjectValue(obj);
     }
 
     /**
@@ -1229,32 +1179,7 @@ public class LuaState {
      * @return Java object equivalent to the Lua one
      */
     public synchronized Object toJavaObject(int idx) throws LuaException {
-        Object obj = null;
-
-        if (isBoolean(idx)) {
-            obj = toBoolean(idx);
-        } else if (type(idx) == LuaState.LUA_TSTRING) {
-            obj = toString(idx);
-        } else if (isFunction(idx)) {
-            obj = getLuaObject(idx).getFunction();
-        } else if (isTable(idx)) {
-            obj = getLuaObject(idx).getTable();
-        } else if (type(idx) == LuaState.LUA_TNUMBER) {
-            if (isInteger(idx))
-                obj = toInteger(idx);
-            else
-                obj = toNumber(idx);
-        } else if (isUserdata(idx)) {
-            if (isObject(idx)) {
-                obj = getObjectFromUserdata(idx);
-            } else {
-                obj = getLuaObject(idx);
-            }
-        } else if (isNil(idx)) {
-            obj = null;
-        }
-
-        return obj;
+        return session.toJavaObject(idx);
     }
 
     /**
@@ -1263,7 +1188,7 @@ public class LuaState {
      * @param globalName
      * @return LuaObject
      */
-    public LuaObject getLuaObject(String globalName) {
+    public synchronized LuaObject getLuaObject(String globalName) {
         pushGlobalTable();
         pushString(globalName);
         rawGet(-2);
@@ -1323,13 +1248,8 @@ public class LuaState {
      * @param index position on the stack
      * @return LuaObject
      */
-    public LuaObject getLuaObject(int index) {
-        if (isFunction(index))
-            return new LuaFunction(this, index);
-        else if (isTable(index))
-            return new LuaTable(this, index);
-        else
-            return new LuaObject(this, index);
+    public synchronized LuaObject getLuaObject(int index) {
+        return session.getLuaObject(index);
     }
 
     /**
@@ -1452,4 +1372,336 @@ public class LuaState {
             return obj.getFunction();
         return null;
     }
+
+    /**
+     * LuaState的会话视图，必须在持有LuaState监视器(synchronized (L))时使用
+     * 方法与LuaState上的同名方法语义相同，但直接调用本地方法，
+     * 一次加锁即可完成任意多个栈操作
+     */
+    public final class Session {
+
+        private Session() {
+        }
+
+        public LuaState getLuaState() {
+            return LuaState.this;
+        }
+
+        public int getTop() {
+            return _getTop(luaState);
+        }
+
+        public void setTop(int idx) {
+            _setTop(luaState, idx);
+        }
+
+        public void pop(int n) {
+            _pop(luaState, n);
+        }
+
+        public void pushValue(int idx) {
+            _pushValue(luaState, idx);
+        }
+
+        public void remove(int idx) {
+            _remove(luaState, idx);
+        }
+
+        public void insert(int idx) {
+            _insert(luaState, idx);
+        }
+
+        public int type(int idx) {
+            return _type(luaState, idx);
+        }
+
+        public String typeName(int tp) {
+            return _typeName(luaState, tp);
+        }
+
+        public boolean isNil(int idx) {
+            return (_isNil(luaState, idx) != 0);
+        }
+
+        public boolean isBoolean(int idx) {
+            return (_isBoolean(luaState, idx) != 0);
+        }
+
+        public boolean isNumber(int idx) {
+            return (_isNumber(luaState, idx) != 0);
+        }
+
+        public boolean isInteger(int idx) {
+            return (_isInteger(luaState, idx) != 0);
+        }
+
+        public boolean isString(int idx) {
+            return (_isString(luaState, idx) != 0);
+        }
+
+        public boolean isTable(int idx) {
+            return (_isTable(luaState, idx) != 0);
+        }
+
+        public boolean isFunction(int idx) {
+            return (_isFunction(luaState, idx) != 0);
+        }
+
+        public boolean isUserdata(int idx) {
+            return (_isUserdata(luaState, idx) != 0);
+        }
+
+        public boolean isObject(int idx) {
+            return _isObject(luaState, idx);
+        }
+
+        public boolean isJavaFunction(int idx) {
+            return _isJavaFunction(luaState, idx);
+        }
+
+        public boolean toBoolean(int idx) {
+            return (_toBoolean(luaState, idx) != 0);
+        }
+
+        public long toInteger(int idx) {
+            return _toInteger(luaState, idx);
+        }
+
+        public double toNumber(int idx) {
+            return _toNumber(luaState, idx);
+        }
+
+        public String toString(int idx) {
+            return new String(_toString(luaState, idx));
+        }
+
+        public byte[] toBuffer(int idx) {
+            return _toBuffer(luaState, idx);
+        }
+
+        public int rawequal(int idx1, int idx2) {
+            return _rawequal(luaState, idx1, idx2);
+        }
+
+        public int objLen(int idx) {
+            return _objlen(luaState, idx);
+        }
+
+        public int rawLen(int idx) {
+            return _rawlen(luaState, idx);
+        }
+
+        public void pushNil() {
+            _pushNil(luaState);
+        }
+
+        public void pushBoolean(boolean bool) {
+            _pushBoolean(luaState, bool ? 1 : 0);
+        }
+
+        public void pushInteger(long integer) {
+            _pushInteger(luaState, integer);
+        }
+
+        public void pushNumber(double db) {
+            _pushNumber(luaState, db);
+        }
+
+        public void pushString(String str) {
+            if (str == null)
+                _pushNil(luaState);
+            else
+                _pushString(luaState, str);
+        }
+
+        public void pushString(byte[] bytes) {
+            if (bytes == null)
+                _pushNil(luaState);
+            else
+                _pushLString(luaState, bytes, bytes.length);
+        }
+
+        /**
+         * 压入bytes的前length个字节作为Lua字符串
+         */
+        public void pushString(byte[] bytes, int length) {
+            if (bytes == null)
+                _pushNil(luaState);
+            else
+                _pushLString(luaState, bytes, length);
+        }
+
+        public void createTable(int narr, int nrec) {
+            _createTable(luaState, narr, nrec);
+        }
+
+        public void newTable() {
+            _newTable(luaState);
+        }
+
+        public int getTable(int idx) {
+            return _getTable(luaState, idx);
+        }
+
+        public void setTable(int idx) {
+            _setTable(luaState, idx);
+        }
+
+        public int getField(int idx, String k) {
+            return _getField(luaState, idx, k);
+        }
+
+        public void setField(int idx, String k) {
+            _setField(luaState, idx, k);
+        }
+
+        public int getI(int idx, long n) {
+            return _getI(luaState, idx, n);
+        }
+
+        public void setI(int idx, long n) {
+            _setI(luaState, idx, n);
+        }
+
+        public int rawGet(int idx) {
+            return _rawGet(luaState, idx);
+        }
+
+        public void rawSet(int idx) {
+            _rawSet(luaState, idx);
+        }
+
+        public int rawGetI(int idx, long n) {
+            return _rawGetI(luaState, idx, n);
+        }
+
+        public void rawSetI(int idx, long n) {
+            _rawSetI(luaState, idx, n);
+        }
+
+        public int next(int idx) {
+            return _next(luaState, idx);
+        }
+
+        public int pcall(int nArgs, int nResults, int errFunc) {
+            return _pcall(luaState, nArgs, nResults, errFunc);
+        }
+
+        /**
+         * @see LuaState#pushTraceback()
+         */
+        public void pushTraceback() {
+            int ref = tracebackRef;
+            if (ref == 0) {
+                if (_getField(luaState, LUA_REGISTRYINDEX, TRACEBACK_KEY) == LUA_TNUMBER)
+                    ref = (int) _toInteger(luaState, -1);
+                _pop(luaState, 1);
+            }
+            if (ref != 0) {
+                tracebackRef = ref;
+                _rawGetI(luaState, LUA_REGISTRYINDEX, ref);
+                return;
+            }
+            if (_getGlobal(luaState, "debug") == LUA_TTABLE)
+                _getField(luaState, -1, "traceback");
+            else
+                _pushNil(luaState);
+            _remove(luaState, -2);
+            if (_isFunction(luaState, -1) == 0)
+                return;
+            _pushValue(luaState, -1);
+            ref = _Lref(luaState, LUA_REGISTRYINDEX);
+            _pushInteger(luaState, ref);
+            _setField(luaState, LUA_REGISTRYINDEX, TRACEBACK_KEY);
+            tracebackRef = ref;
+        }
+
+        public void pushGlobalTable() {
+            _pushGlobalTable(luaState);
+        }
+
+        public int getGlobal(String global) {
+            return _getGlobal(luaState, global);
+        }
+
+        public void setGlobal(String name) {
+            _setGlobal(luaState, name);
+        }
+
+        public int Lref(int t) {
+            return _Lref(luaState, t);
+        }
+
+        public void LunRef(int t, int ref) {
+            _LunRef(luaState, t, ref);
+        }
+
+        public Object getJavaObject(int i) {
+            return javaObjects.get(i);
+        }
+
+        public Object getObjectFromUserdata(int idx) throws LuaException {
+            return javaObjects.get(_getObjectFromUserdata(luaState, idx));
+        }
+
+        public void pushJavaFunction(JavaFunction func) throws LuaException {
+            _pushJavaFunction(luaState, func);
+        }
+
+        /**
+         * @see LuaState#pushJavaObject(Object)
+         */
+        public void pushJavaObject(Object obj) {
+            if (obj == null) {
+                _pushNil(luaState);
+                return;
+            }
+            int idx = javaObjects.add(obj);
+
+            Class clazz;
+            if (obj instanceof Class)
+                clazz = (Class) obj;
+            else
+                clazz = obj.getClass();
+
+            try {
+                if (obj instanceof Class)
+                    _pushJavaObject(luaState, clazz.getName(), idx, true);
+                else
+                    _pushJavaObject(luaState, clazz.getName(), idx, false);
+            } catch (Exception e) {
+                javaObjects.remove(idx);
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * @see LuaState#pushObjectValue(Object)
+         */
+        public void pushObjectValue(Object obj) throws LuaException {
+            if (obj == null)
+                _pushNil(luaState);
+            else
+                LuaConverters.pusher(obj.getClass()).push(this, obj);
+        }
+
+        /**
+         * @see LuaState#toJavaObject(int)
+         */
+        public Object toJavaObject(int idx) throws LuaException {
+            return LuaConverters.toJavaObject(this, idx);
+        }
+
+        /**
+         * @see LuaState#getLuaObject(int)
+         */
+        public LuaObject getLuaObject(int index) {
+            if (isFunction(index))
+                return new LuaFunction<>(LuaState.this, index);
+            else if (isTable(index))
+                return new LuaTable<>(LuaState.this, index);
+            else
+                return new LuaObject(LuaState.this, index);
+        }
+    }
 }
@@ -24,27 +24,27 @@
 
 package com.luajava;
 
-import android.util.Log;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This class is responsible for instantiating new LuaStates.
- * When a new LuaState is instantiated it is put into a List
- * and an index is returned. This index is registred in Lua
+ * When a new LuaState is instantiated it is put into a table
+ * keyed by its native pointer. The pointer is registred in Lua
  * and it is used to find the right LuaState when lua calls
  * a Java Function.
  * 
+ * Lookups are lock-free; only inserting and removing states
+ * takes the factory lock.
+ * 
  * @author Thiago Ponte
  */
 public final class LuaStateFactory
 {
 	/**
-	 * Array with all luaState's instances
+	 * Table with all luaState's instances, replaced when it grows
 	 */
-	private static final Map<Long,LuaState> states = new HashMap<Long,LuaState>();
+	private static volatile StateTable states = new StateTable(64);
 	
 	/**
 	 * Non-public constructor. 
@@ -56,11 +56,11 @@ public final class LuaStateFactory
 	 * Method that creates a new instance of LuaState
 	 * @return LuaState
 	 */
-	public synchronized static LuaState newLuaState()
+	public static LuaState newLuaState()
 	{
 		LuaState L = new LuaState();
 		
-		states.put(L.getPointer(), L);
+		insertLuaState(L);
 
 		return L;
 	}
@@ -70,13 +70,16 @@ public final class LuaStateFactory
 	 * @param index
 	 * @return LuaState
 	 */
-	public synchronized static LuaState getExistingState(long index)
+	public static LuaState getExistingState(long index)
 	{
-		LuaState l= states.get(index);
-		if(l==null)
+		LuaState l = states.get(index);
+		if(l != null)
+			return l;
+		synchronized(LuaStateFactory.class)
 		{
-			l=new LuaState(index);
-			states.put(index,l);
+			l = states.get(index);
+			if(l == null)
+				l = new LuaState(index);
 		}
 		return l;
 	}
@@ -89,9 +92,15 @@ public final class LuaStateFactory
 	 */
 	public synchronized static long insertLuaState(LuaState L)
 	{
-		states.put(L.getPointer(), L);
-		
-		return L.getPointer();
+		long ptr = L.getPointer();
+		StateTable table = states;
+		if(!table.put(ptr, L))
+		{
+			table = table.rehash();
+			table.put(ptr, L);
+			states = table;
+		}
+		return ptr;
 	}
 	
 	/**
@@ -100,8 +109,117 @@ public final class LuaStateFactory
 	 */
 	public synchronized static void removeLuaState(long idx)
 	{
-		states.put(idx, null);
+		states.remove(idx);
 	}
-	
 
+	/**
+	 * Open addressing table from native pointer to LuaState.
+	 * Readers never lock: a slot's value is published before its key,
+	 * so a reader that sees the key also sees the state. Writers are
+	 * serialized by the factory lock. Removed slots keep their key with
+	 * a null value; the allocator frequently reuses a freed lua_State
+	 * address, which then takes the same slot again. Removed slots of
+	 * other keys are dropped when the table is rehashed.
+	 */
+	private static final class StateTable
+	{
+		private final AtomicLongArray keys;
+		private final AtomicReferenceArray<LuaState> values;
+		private final int mask;
+		private final int limit;
+		/** slots with a key, including removed ones; guarded by the factory lock */
+		private int used;
+
+		StateTable(int capacity)
+		{
+			keys = new AtomicLongArray(capacity);
+			values = new AtomicReferenceArray<LuaState>(capacity);
+			mask = capacity - 1;
+			limit = capacity / 4 * 3;
+		}
+
+		private static int hash(long key)
+		{
+			// lua_State pointers are aligned, mix the high bits into the low ones
+			key *= 0x9E3779B97F4A7C15L;
+			return (int) (key ^ (key >>> 32));
+		}
+
+		LuaState get(long key)
+		{
+			for(int i = hash(key) & mask; ; i = (i + 1) & mask)
+			{
+				long k = keys.get(i);
+				if(k == key)
+					return values.get(i);
+				if(k == 0)
+					return null;
+			}
+		}
+
+		/**
+		 * @return false if the table is full and has to be rehashed
+		 */
+		boolean put(long key, LuaState L)
+		{
+			for(int i = hash(key) & mask; ; i = (i + 1) & mask)
+			{
+				long k = keys.get(i);
+				if(k == key)
+				{
+					values.set(i, L);
+					return true;
+				}
+				if(k == 0)
+				{
+					if(used >= limit)
+						return false;
+					values.set(i, L);
+					keys.set(i, key);
+					used++;
+					return true;
+				}
+			}
+		}
+
+		void remove(long key)
+		{
+			for(int i = hash(key) & mask; ; i = (i + 1) & mask)
+			{
+				long k = keys.get(i);
+				if(k == key)
+				{
+					values.set(i, null);
+					return;
+				}
+				if(k == 0)
+					return;
+			}
+		}
+
+		/**
+		 * Copies the live states into a new table sized for them
+		 */
+		StateTable rehash()
+		{
+			int capacity = keys.length();
+			int live = 0;
+			for(int i = 0; i < capacity; i++)
+			{
+				if(values.get(i) != null)
+					live++;
+			}
+			int size = 64;
+			while(size / 2 <= live + 1)
+				size <<= 1;
+			StateTable table = new StateTable(size);
+			for(int i = 0; i < capacity; i++)
+			{
+				LuaState L = values.get(i);
+				if(L != null)
+					table.put(keys.get(i), L);
+			}
+			return table;
+		}
+	}
 }
@@ -5,191 +5,348 @@ import java.util.Map.*;
 
 public class LuaTable <K, V>extends LuaObject implements Map <K,V>{
 
+	private static final String NEXT_KEY = "_LuaTableNext";
+
+	/** 游标使用的next，在pcall中调用以捕获invalid key to 'next' */
+	private static final String NEXT =
+		"local next = next\n" +
+		"return function(t, k) return next(t, k) end";
+
 	@Override
 	public void clear() {
-		// TODO: Implement this method
-		push();
-		L.pushNil();
-		while (L.next(-2) != 0) {
-			L.pop(1);
-			L.pushValue(-1);
-			L.pushNil();
-			L.setTable(-4);
+		synchronized (L) {
+			push();
+			S.pushNil();
+			while (S.next(-2) != 0) {
+				S.pop(1);
+				S.pushValue(-1);
+				S.pushNil();
+				S.setTable(-4);
+			}
+			S.pop(1);
 		}
-		L.pop(1);
 	}
 
 	@Override
 	public boolean containsKey(Object key) {
-		// TODO: Implement this method
-		boolean b=false;
-		push();
-		try {
-			L.pushObjectValue(key);
-			b = L.getTable(-2) != LuaState.LUA_TNIL;
-			L.pop(1);
-		}
-		catch (LuaException e) {
-			return false;
+		synchronized (L) {
+			boolean b=false;
+			push();
+			try {
+				S.pushObjectValue(key);
+				b = S.getTable(-2) != LuaState.LUA_TNIL;
+				S.pop(1);
+			}
+			catch (LuaException e) {
+				return false;
+			}
+			S.pop(1);
+			return b;
 		}
-		L.pop(1);
-		return b;
 	}
 
 	@Override
 	public boolean containsValue(Object value) {
-		// TODO: Implement this method
-		return false;
+		synchronized (L) {
+			push();
+			try {
+				S.pushObjectValue(value);
+			}
+			catch (LuaException e) {
+				S.pop(1);
+				return false;
+			}
+			boolean isObject = S.isObject(-1);
+			S.pushNil();
+			while (S.next(-3) != 0) {
+				boolean found;
+				if (isObject && S.isObject(-1)) {
+					try {
+						Object obj = S.getObjectFromUserdata(-1);
+						found = obj == value || obj != null && obj.equals(value);
+					}
+					catch (LuaException e) {
+						found = false;
+					}
+				}
+				else {
+					found = S.rawequal(-1, -3) != 0;
+				}
+				if (found) {
+					S.pop(4);
+					return true;
+				}
+				S.pop(1);
+			}
+			S.pop(2);
+			return false;
+		}
 	}
 
 	@Override
 	public Set<Entry<K,V>> entrySet() {
-		// TODO: Implement this method
-		HashSet<Entry<K,V>> sets=new HashSet<Entry<K,V>>();
-		push();
-		L.pushNil();
-		while (L.next(-2) != 0) {
-			try {
-				sets.add(new LuaEntry<K,V>((K)L.toJavaObject(-2), (V)L.toJavaObject(-1)));
+		return new AbstractSet<Entry<K,V>>() {
+			@Override
+			public Iterator<Entry<K,V>> iterator() {
+				return cursor();
 			}
-			catch (LuaException e) {}
-			L.pop(1);
-		}
-		L.pop(1);
-		return sets;
+
+			@Override
+			public int size() {
+				return LuaTable.this.size();
+			}
+		};
 	}
 
 	@Override
 	public V get(Object key) {
-		// TODO: Implement this method
-		push();
-		V obj=null;
-		try {
-			L.pushObjectValue(key);
-			L.getTable(-2);
-			obj = (V) L.toJavaObject(-1);
-			L.pop(1);
+		synchronized (L) {
+			push();
+			V obj=null;
+			try {
+				S.pushObjectValue(key);
+				S.getTable(-2);
+				obj = (V) S.toJavaObject(-1);
+				S.pop(1);
+			}
+			catch (LuaException e) {}
+			S.pop(1);
+			return obj;
 		}
-		catch (LuaException e) {}
-		L.pop(1);
-		return obj;
 	}
 
 
 	@Override
 	public boolean isEmpty() {
-		// TODO: Implement this method
-		push();
-		L.pushNil();
-		boolean b=L.next(-2) == 0;
-		if (b)
-			L.pop(1);
-		else
-			L.pop(3);
-		return b;
+		synchronized (L) {
+			push();
+			S.pushNil();
+			boolean b=S.next(-2) == 0;
+			if (b)
+				S.pop(1);
+			else
+				S.pop(3);
+			return b;
+		}
 	}
 
 	@Override
 	public Set<K> keySet() {
-		// TODO: Implement this method
-		HashSet<K> sets=new HashSet<K>();
-		push();
-		L.pushNil();
-		while (L.next(-2) != 0) {
-			try {
-				sets.add((K)L.toJavaObject(-2));
+		return new AbstractSet<K>() {
+			@Override
+			public Iterator<K> iterator() {
+				final Cursor cursor = cursor();
+				return new Iterator<K>() {
+					@Override
+					public boolean hasNext() {
+						return cursor.hasNext();
+					}
+
+					@Override
+					public K next() {
+						return cursor.next().getKey();
+					}
+
+					@Override
+					public void remove() {
+						cursor.remove();
+					}
+				};
 			}
-			catch (LuaException e) {}
-			L.pop(1);
-		}
-		L.pop(1);
-		return sets;
+
+			@Override
+			public int size() {
+				return LuaTable.this.size();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+		};
 	}
 
 	@Override
 	public V put(K key, V value) {
-		// TODO: Implement this method
-		push();
-		try {
-			L.pushObjectValue(key);
-			L.pushObjectValue(value);
-			L.setTable(-3);
+		synchronized (L) {
+			push();
+			try {
+				S.pushObjectValue(key);
+				S.pushObjectValue(value);
+				S.setTable(-3);
+			}
+			catch (LuaException e) {}
+			S.pop(1);
+			return null;
 		}
-		catch (LuaException e) {}
-		L.pop(1);
-		return null;
 	}
 
 	@Override
-	public void putAll(Map p1) {
-		// TODO: Implement this method
+	public void putAll(Map<? extends K, ? extends V> map) {
+		synchronized (L) {
+			push();
+			for (Entry<? extends K, ? extends V> e : map.entrySet()) {
+				try {
+					S.pushObjectValue(e.getKey());
+				}
+				catch (LuaException ex) {
+					continue;
+				}
+				try {
+					S.pushObjectValue(e.getValue());
+				}
+				catch (LuaException ex) {
+					S.pushNil();
+				}
+				S.setTable(-3);
+			}
+			S.pop(1);
+		}
 	}
 
 	@Override
 	public V remove(Object key) {
-		// TODO: Implement this method
-		push();
-		try {
-			L.pushObjectValue(key);
-			L.setTable(-2);
+		synchronized (L) {
+			push();
+			try {
+				S.pushObjectValue(key);
+				S.pushNil();
+				S.setTable(-3);
+			}
+			catch (LuaException e) {}
+			S.pop(1);
+			return null;
 		}
-		catch (LuaException e) {}
-		L.pop(1);
-		return null;
 	}
 
 	public boolean isList() {
-		push();
-		int len=L.rawLen(-1);
-		if(len!=0){
-			pop();
-			return true;
+		synchronized (L) {
+			push();
+			int len=S.rawLen(-1);
+			if(len!=0){
+				pop();
+				return true;
+			}
+			S.pushNil();
+			boolean b=S.next(-2) == 0;
+			if (b)
+				S.pop(1);
+			else
+				S.pop(3);
+			return b;
 		}
-		L.pushNil();
-		boolean b=L.next(-2) == 0;
-		if (b)
-			L.pop(1);
-		else
-			L.pop(3);
-		return b;
 	}
 
 	public int length() {
-		// TODO: Implement this method
-		push();
-		int len=L.rawLen(-1);
-		pop();
-		return len;
+		synchronized (L) {
+			push();
+			int len=S.rawLen(-1);
+			pop();
+			return len;
+		}
 	}
 	
 	@Override
 	public int size() {
-		// TODO: Implement this method
-		int n=0;
-		push();
-		L.pushNil();
-		while (L.next(-2) != 0) {
-			n++;
-			L.pop(1);
+		synchronized (L) {
+			int n=0;
+			push();
+			S.pushNil();
+			while (S.next(-2) != 0) {
+				n++;
+				S.pop(1);
+			}
+			S.pop(1);
+			return n;
 		}
-		L.pop(1);
-		return n;
 	}
 
 	@Override
 	public Collection<V> values() {
-		ArrayList<V> sets=new ArrayList<>();
-		push();
-		L.pushNil();
-		while (L.next(-2) != 0) {
-			try {
-				sets.add((V)L.toJavaObject(-1));
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				final Cursor cursor = cursor();
+				return new Iterator<V>() {
+					@Override
+					public boolean hasNext() {
+						return cursor.hasNext();
+					}
+
+					@Override
+					public V next() {
+						return cursor.next().getValue();
+					}
+
+					@Override
+					public void remove() {
+						cursor.remove();
+					}
+				};
 			}
-			catch (LuaException e) {}
-			L.pop(1);
+
+			@Override
+			public int size() {
+				return LuaTable.this.size();
+			}
+		};
+	}
+
+	/**
+	 * 返回按lua_next顺序遍历表的游标
+	 * 游标只记录当前键，每一步只取出一个键值对，不会预先复制整个表。
+	 * 与Lua的next相同，遍历过程中不能向表中添加新键，但可以通过remove删除当前键；
+	 * next因此失败时抛出ConcurrentModificationException
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * 一次性复制整个表，只获取一次LuaState的锁
+	 * 数组部分(t[1]..t[#t])中的整数与浮点数直接存放在long[]/double[]中不装箱，
+	 * 其余键值对存放在哈希部分
+	 */
+	public Snapshot snapshot() {
+		synchronized (L) {
+			push();
+			int n = S.rawLen(-1);
+			Snapshot snap = new Snapshot(n);
+			for (int i = 0; i < n; i++) {
+				int type = S.rawGetI(-1, i + 1);
+				if (type == LuaState.LUA_TNUMBER) {
+					if (S.isInteger(-1))
+						snap.setInteger(i, S.toInteger(-1));
+					else
+						snap.setNumber(i, S.toNumber(-1));
+				}
+				else if (type != LuaState.LUA_TNIL) {
+					try {
+						snap.setObject(i, type, S.toJavaObject(-1));
+					}
+					catch (LuaException e) {}
+				}
+				S.pop(1);
+			}
+			S.pushNil();
+			while (S.next(-2) != 0) {
+				// 数组部分已经复制过的整数键
+				if (n > 0 && S.isInteger(-2)) {
+					long k = S.toInteger(-2);
+					if (k >= 1 && k <= n) {
+						S.pop(1);
+						continue;
+					}
+				}
+				try {
+					snap.addEntry(S.toJavaObject(-2), S.toJavaObject(-1));
+				}
+				catch (LuaException e) {}
+				S.pop(1);
+			}
+			S.pop(1);
+			return snap;
 		}
-		L.pop(1);
-		return sets;
 	}
 
 
@@ -238,4 +395,325 @@ public class LuaTable <K, V>extends LuaObject implements Map <K,V>{
 			mValue = v;
 		}
 	}
+
+	/**
+	 * 表的遍历游标，见{@link #cursor()}
+	 */
+	public class Cursor implements Iterator<Entry<K,V>> {
+
+		/** 当前键，null表示从头开始 */
+		private Object key;
+		/** 字符串键的原始字节，按原样压回栈中 */
+		private byte[] keyBytes;
+		/** 表、函数、userdata等引用类型的键 */
+		private LuaObject keyRef;
+		private LuaEntry<K,V> next;
+		private boolean started;
+		private boolean done;
+		private boolean canRemove;
+
+		protected Cursor() {
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && !done)
+				advance();
+			return next != null;
+		}
+
+		@Override
+		public Entry<K,V> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Entry<K,V> e = next;
+			next = null;
+			canRemove = true;
+			return e;
+		}
+
+		/**
+		 * 删除最近一次next返回的键
+		 */
+		@Override
+		public void remove() {
+			if (!canRemove || next != null)
+				throw new IllegalStateException();
+			canRemove = false;
+			synchronized (L) {
+				push();
+				pushKey();
+				S.pushNil();
+				S.setTable(-3);
+				S.pop(1);
+			}
+		}
+
+		/**
+		 * 压入注册表中缓存的next包装函数，首次使用时创建
+		 */
+		private void pushNext() {
+			if (S.getField(LuaState.LUA_REGISTRYINDEX, NEXT_KEY) == LuaState.LUA_TFUNCTION)
+				return;
+			S.pop(1);
+			if (L.LloadString(NEXT) != 0 || S.pcall(0, 1, 0) != 0) {
+				String msg = S.toString(-1);
+				S.pop(1);
+				throw new IllegalStateException(msg);
+			}
+			S.pushValue(-1);
+			S.setField(LuaState.LUA_REGISTRYINDEX, NEXT_KEY);
+		}
+
+		private void pushKey() {
+			if (!started)
+				S.pushNil();
+			else if (keyRef != null)
+				keyRef.push();
+			else if (keyBytes != null)
+				S.pushString(keyBytes);
+			else if (key instanceof Long)
+				S.pushInteger((Long) key);
+			else if (key instanceof Double)
+				S.pushNumber((Double) key);
+			else
+				S.pushBoolean((Boolean) key);
+		}
+
+		private void advance() {
+			synchronized (L) {
+				push();
+				pushNext();
+				S.pushValue(-2);
+				pushKey();
+				// 表在两步之间被修改或键已被回收时next会报错，必须在保护模式下调用
+				if (S.pcall(2, 2, 0) != 0) {
+					String msg = S.toString(-1);
+					S.pop(2);
+					done = true;
+					next = null;
+					throw new ConcurrentModificationException(msg);
+				}
+				if (S.isNil(-2)) {
+					S.pop(3);
+					done = true;
+					key = null;
+					keyBytes = null;
+					keyRef = null;
+					return;
+				}
+				started = true;
+				Object k;
+				keyBytes = null;
+				keyRef = null;
+				switch (S.type(-2)) {
+					case LuaState.LUA_TSTRING:
+						keyBytes = S.toBuffer(-2);
+						k = new String(keyBytes);
+						break;
+					case LuaState.LUA_TNUMBER:
+						if (S.isInteger(-2))
+							k = S.toInteger(-2);
+						else
+							k = S.toNumber(-2);
+						break;
+					case LuaState.LUA_TBOOLEAN:
+						k = S.toBoolean(-2);
+						break;
+					default:
+						keyRef = S.getLuaObject(-2);
+						k = keyRef;
+						if (S.isObject(-2)) {
+							try {
+								k = S.getObjectFromUserdata(-2);
+							}
+							catch (LuaException e) {}
+						}
+						break;
+				}
+				key = k;
+				Object v = null;
+				try {
+					v = S.toJavaObject(-1);
+				}
+				catch (LuaException e) {}
+				S.pop(3);
+				next = new LuaEntry<K,V>((K) k, (V) v);
+			}
+		}
+	}
+
+	/**
+	 * 表内容的副本，见{@link #snapshot()}
+	 * 数组部分按下标0..length()-1访问，对应Lua中的t[1]..t[#t]
+	 */
+	public static class Snapshot {
+
+		private final int length;
+		/** 数组部分每个元素的Lua类型，整数为{@link LuaState#LUA_TINTEGER} */
+		private final byte[] types;
+		private long[] integers;
+		private double[] numbers;
+		private Object[] objects;
+		private Object[] keys = new Object[8];
+		private Object[] values = new Object[8];
+		private int hashSize;
+
+		Snapshot(int length) {
+			this.length = length;
+			this.types = new byte[length];
+		}
+
+		void setInteger(int i, long value) {
+			if (integers == null)
+				integers = new long[length];
+			integers[i] = value;
+			types[i] = LuaState.LUA_TINTEGER;
+		}
+
+		void setNumber(int i, double value) {
+			if (numbers == null)
+				numbers = new double[length];
+			numbers[i] = value;
+			types[i] = LuaState.LUA_TNUMBER;
+		}
+
+		void setObject(int i, int type, Object value) {
+			if (objects == null)
+				objects = new Object[length];
+			objects[i] = value;
+			types[i] = (byte) type;
+		}
+
+		void addEntry(Object key, Object value) {
+			if (hashSize == keys.length) {
+				keys = Arrays.copyOf(keys, hashSize * 2);
+				values = Arrays.copyOf(values, hashSize * 2);
+			}
+			keys[hashSize] = key;
+			values[hashSize] = value;
+			hashSize++;
+		}
+
+		/**
+		 * @return 数组部分的长度，即#t
+		 */
+		public int length() {
+			return length;
+		}
+
+		/**
+		 * @return 第i个元素的Lua类型，整数为{@link LuaState#LUA_TINTEGER}
+		 */
+		public int type(int i) {
+			return types[i];
+		}
+
+		/**
+		 * @return 数组部分是否全部为整数
+		 */
+		public boolean isIntegerArray() {
+			for (byte t : types) {
+				if (t != LuaState.LUA_TINTEGER)
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @return 数组部分是否全部为数字
+		 */
+		public boolean isNumberArray() {
+			for (byte t : types) {
+				if (t != LuaState.LUA_TINTEGER && t != LuaState.LUA_TNUMBER)
+					return false;
+			}
+			return true;
+		}
+
+		public long getInteger(int i) {
+			if (types[i] == LuaState.LUA_TINTEGER)
+				return integers[i];
+			if (types[i] == LuaState.LUA_TNUMBER)
+				return (long) numbers[i];
+			return 0;
+		}
+
+		public double getNumber(int i) {
+			if (types[i] == LuaState.LUA_TNUMBER)
+				return numbers[i];
+			if (types[i] == LuaState.LUA_TINTEGER)
+				return integers[i];
+			return 0;
+		}
+
+		/**
+		 * @return 第i个元素，数字会被装箱
+		 */
+		public Object get(int i) {
+			switch (types[i]) {
+				case LuaState.LUA_TNIL:
+					return null;
+				case LuaState.LUA_TINTEGER:
+					return integers[i];
+				case LuaState.LUA_TNUMBER:
+					return numbers[i];
+				default:
+					return objects[i];
+			}
+		}
+
+		/**
+		 * @return 数组部分的整数副本，非数字元素为0
+		 */
+		public long[] toLongArray() {
+			long[] arr = new long[length];
+			for (int i = 0; i < length; i++)
+				arr[i] = getInteger(i);
+			return arr;
+		}
+
+		/**
+		 * @return 数组部分的浮点数副本，非数字元素为0
+		 */
+		public double[] toDoubleArray() {
+			double[] arr = new double[length];
+			for (int i = 0; i < length; i++)
+				arr[i] = getNumber(i);
+			return arr;
+		}
+
+		/**
+		 * @return 哈希部分(数组部分以外)的键值对数量
+		 */
+		public int hashSize() {
+			return hashSize;
+		}
+
+		public Object key(int i) {
+			if (i >= hashSize)
+				throw new IndexOutOfBoundsException();
+			return keys[i];
+		}
+
+		public Object value(int i) {
+			if (i >= hashSize)
+				throw new IndexOutOfBoundsException();
+			return values[i];
+		}
+
+		/**
+		 * @return 包含数组部分与哈希部分的Map，数组部分的键为Long
+		 */
+		public Map<Object, Object> toMap() {
+			HashMap<Object, Object> map = new HashMap<>(length + hashSize);
+			for (int i = 0; i < length; i++) {
+				if (types[i] != LuaState.LUA_TNIL)
+					map.put((long) i + 1, get(i));
+			}
+			for (int i = 0; i < hashSize; i++)
+				map.put(keys[i], values[i]);
+			return map;
+		}
+	}
 }
@@ -23,17 +23,13 @@
 
 package com.luajava;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
+import com.android.cglib.dx.DexMaker;
+
+import java.io.File;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Random;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Lua转Java代码转换器
@@ -43,8 +39,6 @@ import java.util.regex.Pattern;
  */
 public class LuaToJava {
 
-    private static final String TAG = "LuaToJava";
-
     // ==================== Lua常量定义 ====================
 
     public static final int LUAI_MAXSTACK = 1000000;
@@ -182,7 +176,7 @@ public class LuaToJava {
 
     // ==================== 操作码名称 ====================
 
-    private static final String[] OP_NAMES = {
+    static final String[] OP_NAMES = {
         "MOVE", "LOADI", "LOADF", "LOADK", "LOADKX", "LOADFALSE", "LFALSESKIP", "LOADTRUE",
         "LOADNIL", "GETUPVAL", "SETUPVAL", "GETTABUP", "GETTABLE", "GETI", "GETFIELD", "SETTABUP",
         "SETTABLE", "SETI", "SETFIELD", "NEWTABLE", "SELF", "ADDI", "ADDK", "SUBK",
@@ -202,20 +196,21 @@ public class LuaToJava {
 
     // ==================== 算术操作常量 ====================
 
+    // 与lua.h中lua_arith的操作码一致
     public static final int LUA_OPADD = 0;
     public static final int LUA_OPSUB = 1;
     public static final int LUA_OPMUL = 2;
-    public static final int LUA_OPDIV = 3;
-    public static final int LUA_OPIDIV = 4;
-    public static final int LUA_OPMOD = 5;
-    public static final int LUA_OPPOW = 6;
-    public static final int LUA_OPUNM = 7;
-    public static final int LUA_OPBNOT = 8;
-    public static final int LUA_OPBAND = 9;
-    public static final int LUA_OPBOR = 10;
-    public static final int LUA_OPBXOR = 11;
-    public static final int LUA_OPSHL = 12;
-    public static final int LUA_OPSHR = 13;
+    public static final int LUA_OPMOD = 3;
+    public static final int LUA_OPPOW = 4;
+    public static final int LUA_OPDIV = 5;
+    public static final int LUA_OPIDIV = 6;
+    public static final int LUA_OPBAND = 7;
+    public static final int LUA_OPBOR = 8;
+    public static final int LUA_OPBXOR = 9;
+    public static final int LUA_OPSHL = 10;
+    public static final int LUA_OPSHR = 11;
+    public static final int LUA_OPUNM = 12;
+    public static final int LUA_OPBNOT = 13;
 
     // ==================== 比较操作常量 ====================
 
@@ -228,14 +223,16 @@ public class LuaToJava {
     private boolean usePureJava = false;
     private boolean obfuscate = false;
     private boolean stringEncryption = false;
+    private boolean useRegisters = false;
     private int seed = 0;
     private String moduleName = "LuaModule";
     private String className = "LuaGenerated";
     private Random random;
+    private final ProtoReader reader = new ProtoReader();
 
     // ==================== Proto信息 ====================
 
-    private static class ProtoInfo {
+    static class ProtoInfo {
         int id;
         String name;
         int numParams;
@@ -250,7 +247,7 @@ public class LuaToJava {
         int sizeUpvalues;
     }
 
-    private static class UpvalDesc {
+    static class UpvalDesc {
         boolean instack;
         int idx;
         String name;
@@ -306,6 +303,18 @@ public class LuaToJava {
         return this;
     }
 
+    /**
+     * 设置是否使用寄存器分配后端
+     * 启用后寄存器生成为Java局部变量，后端不支持的函数(可变参数等)仍逐指令生成。
+     * 该后端仍慢于解释器，只供测试与基准程序使用
+     * @param useRegisters 是否使用寄存器分配后端
+     * @return this
+     */
+    LuaToJava setUseRegisters(boolean useRegisters) {
+        this.useRegisters = useRegisters;
+        return this;
+    }
+
     /**
      * 设置随机种子
      * @param seed 随机种子
@@ -345,288 +354,123 @@ public class LuaToJava {
      * @return Java代码
      */
     public String compile(String luaCode) throws LuaException {
-        LuaState L = LuaStateFactory.newLuaState();
-        try {
-            L.openLibs();
-            
-            String protoJson = L.parseProto(luaCode);
-            if (protoJson == null) {
-                throw new LuaException("无法解析Lua代码");
-            }
-            
-            if (protoJson.startsWith("{") == false) {
-                throw new LuaException("Lua语法错误: " + protoJson);
-            }
-            
-            return compileFromJson(protoJson);
-        } finally {
-            L.close();
-        }
+        return compile(ByteBuffer.wrap(dump(luaCode)));
     }
 
     /**
-     * 从JSON格式的Proto信息生成Java代码
-     * @param json Proto的JSON字符串
+     * 编译lua_dump生成的字节码为Java代码
+     * @param chunk 字节码，从当前位置读取
      * @return Java代码
      */
-    private String compileFromJson(String json) throws LuaException {
+    public String compile(ByteBuffer chunk) throws LuaException {
+        ProtoInfo mainProto = reader.read(chunk);
+        
+        ArrayList<ProtoInfo> protos = new ArrayList<>();
+        collectProtos(mainProto, protos);
+        
+        StringBuilder sb = new StringBuilder();
+        generateJavaCode(sb, protos);
+        return sb.toString();
+    }
+
+    /**
+     * 编译Lua代码为dex并加载
+     * 不生成Java源码，适合在设备上预编译常用模块
+     * @param luaCode Lua代码
+     * @param dexCache dex缓存目录，为null时使用dexmaker.dexcache属性或应用私有目录
+     * @return 可直接执行的函数
+     */
+    public CompiledFunction compileToFunction(String luaCode, File dexCache) throws LuaException {
+        return compileToFunction(ByteBuffer.wrap(dump(luaCode)), dexCache);
+    }
+
+    /**
+     * 编译lua_dump生成的字节码为dex并加载
+     * 类名包含字节码的哈希，缓存目录中已有相同字节码生成的dex时直接加载
+     * @param chunk 字节码，从当前位置读取
+     * @param dexCache dex缓存目录，为null时使用dexmaker.dexcache属性或应用私有目录
+     * @return 可直接执行的函数
+     */
+    public CompiledFunction compileToFunction(ByteBuffer chunk, File dexCache) throws LuaException {
+        String name = dexClassName(chunk);
+        DexMaker dexMaker = generateDex(chunk, name);
         try {
-            org.json.JSONObject root = new org.json.JSONObject(json);
-            ProtoInfo mainProto = parseProtoFromJson(root);
-            
-            ArrayList<ProtoInfo> protos = new ArrayList<>();
-            collectProtos(mainProto, protos);
-            
-            StringBuilder sb = new StringBuilder();
-            generateJavaCode(sb, protos);
-            return sb.toString();
+            ClassLoader loader = dexMaker.generateAndLoad(LuaToJava.class.getClassLoader(), dexCache);
+            return (CompiledFunction) loader.loadClass(name.replace('/', '.')).getDeclaredConstructor().newInstance();
         } catch (Exception e) {
-            throw new LuaException("解析Proto JSON失败: " + e.getMessage());
+            throw new LuaException("加载dex失败: " + e);
         }
     }
 
     /**
-     * 从JSON对象解析ProtoInfo
+     * 编译Lua代码为dex文件内容
+     * 不加载生成的类，可在主机上用dexdump等工具检查
+     * @param luaCode Lua代码
+     * @return dex文件内容
      */
-    private ProtoInfo parseProtoFromJson(org.json.JSONObject obj) throws org.json.JSONException {
-        ProtoInfo proto = new ProtoInfo();
-        
-        proto.numParams = obj.getInt("numparams");
-        proto.isVararg = obj.getInt("is_vararg") != 0;
-        proto.maxStackSize = obj.getInt("maxstacksize");
-        
-        org.json.JSONArray codeArr = obj.getJSONArray("code");
-        proto.code = new long[codeArr.length()];
-        proto.instrInfo = new InstructionInfo[codeArr.length()];
-        for (int i = 0; i < codeArr.length(); i++) {
-            org.json.JSONObject instr = codeArr.getJSONObject(i);
-            proto.code[i] = 0;
-            InstructionInfo info = new InstructionInfo();
-            info.opcode = instr.getInt("op");
-            info.opname = instr.getString("opname");
-            info.a = instr.getInt("a");
-            info.b = instr.optInt("b", 0);
-            info.c = instr.optInt("c", 0);
-            info.k = instr.optInt("k", 0);
-            info.bx = instr.optLong("bx", 0);
-            info.sbx = instr.optInt("sbx", 0);
-            info.ax = instr.optLong("ax", 0);
-            info.sj = instr.optLong("sj", 0);
-            info.vb = instr.optInt("vb", 0);
-            info.vc = instr.optInt("vc", 0);
-            info.sc = instr.optInt("sc", 0);
-            info.sb = instr.optInt("sb", 0);
-            proto.instrInfo[i] = info;
-        }
-        
-        org.json.JSONArray kArr = obj.getJSONArray("k");
-        proto.constants = new Object[kArr.length()];
-        proto.constantTypes = new int[kArr.length()];
-        for (int i = 0; i < kArr.length(); i++) {
-            Object val = kArr.get(i);
-            if (val == org.json.JSONObject.NULL) {
-                proto.constants[i] = null;
-                proto.constantTypes[i] = LUA_TNIL;
-            } else if (val instanceof Boolean) {
-                proto.constants[i] = val;
-                proto.constantTypes[i] = LUA_TBOOLEAN;
-            } else if (val instanceof Integer || val instanceof Long) {
-                proto.constants[i] = ((Number)val).doubleValue();
-                proto.constantTypes[i] = LUA_TNUMBER;
-            } else if (val instanceof Number) {
-                proto.constants[i] = ((Number)val).doubleValue();
-                proto.constantTypes[i] = LUA_TNUMBER;
-            } else if (val instanceof String) {
-                proto.constants[i] = val;
-                proto.constantTypes[i] = LUA_TSTRING;
-            } else {
-                proto.constants[i] = null;
-                proto.constantTypes[i] = LUA_TNIL;
-            }
-        }
-        
-        org.json.JSONArray pArr = obj.optJSONArray("p");
-        if (pArr != null && pArr.length() > 0) {
-            proto.subProtos = new ProtoInfo[pArr.length()];
-            for (int i = 0; i < pArr.length(); i++) {
-                proto.subProtos[i] = parseProtoFromJson(pArr.getJSONObject(i));
-            }
-        } else {
-            proto.subProtos = new ProtoInfo[0];
-        }
-        
-        return proto;
+    public byte[] compileToDex(String luaCode) throws LuaException {
+        return compileToDex(ByteBuffer.wrap(dump(luaCode)));
     }
 
     /**
-     * 指令信息类
+     * 编译lua_dump生成的字节码为dex文件内容
+     * @param chunk 字节码，从当前位置读取
+     * @return dex文件内容
      */
-    private static class InstructionInfo {
-        int opcode;
-        String opname;
-        int a, b, c, k;
-        int sbx;
-        long bx, ax, sj;
-        int vb, vc;
-        int sc, sb;
+    public byte[] compileToDex(ByteBuffer chunk) throws LuaException {
+        return generateDex(chunk, dexClassName(chunk)).generate();
     }
 
-    // ==================== 字节码解析 ====================
+    private DexMaker generateDex(ByteBuffer chunk, String name) throws LuaException {
+        ProtoInfo mainProto = reader.read(chunk);
+        ArrayList<ProtoInfo> protos = new ArrayList<>();
+        collectProtos(mainProto, protos);
+        return DexGenerator.generate(this, protos, name);
+    }
 
     /**
-     * 解析字节码
+     * dex类名由类名与字节码决定，缓存中的同名文件总是对应相同的代码
      */
-    private ProtoInfo parseBytecode(byte[] data) {
-        try {
-            ByteBuffer buf = ByteBuffer.wrap(data);
-            buf.order(ByteOrder.LITTLE_ENDIAN);
-            
-            if (buf.remaining() < 4) {
-                android.util.Log.e(TAG, "字节码太短: " + buf.remaining());
-                return null;
-            }
-            
-            int signature = buf.getInt();
-            if (signature != 0x1B4C7561) {
-                android.util.Log.e(TAG, "签名错误: 0x" + Integer.toHexString(signature));
-                return null;
-            }
-            
-            byte version = buf.get();
-            byte format = buf.get();
-            android.util.Log.d(TAG, "Lua版本: " + (version >> 4) + "." + (version & 0x0F) + ", 格式: " + format);
-            
-            byte[] luacData = new byte[6];
-            buf.get(luacData);
-            
-            byte sizeofInt = buf.get();
-            byte sizeofSizeT = buf.get();
-            byte sizeofInstruction = buf.get();
-            byte sizeofInteger = buf.get();
-            byte sizeofNumber = buf.get();
-            
-            android.util.Log.d(TAG, "sizeofInt=" + sizeofInt + ", sizeofSizeT=" + sizeofSizeT + 
-                ", sizeofInstruction=" + sizeofInstruction + ", sizeofInteger=" + sizeofInteger + 
-                ", sizeofNumber=" + sizeofNumber);
-            
-            long luacInt = sizeofInteger == 8 ? buf.getLong() : buf.getInt();
-            double luacNum = buf.getDouble();
-            
-            int sizeUpvalues = buf.get() & 0xFF;
-            android.util.Log.d(TAG, "sizeUpvalues=" + sizeUpvalues + ", 剩余字节=" + buf.remaining());
-            
-            return parseProto(buf, sizeofInt, sizeofSizeT, sizeofInstruction, sizeofInteger, sizeofNumber);
-        } catch (Exception e) {
-            android.util.Log.e(TAG, "解析字节码异常: " + e.getMessage(), e);
-            return null;
+    private String dexClassName(ByteBuffer chunk) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = chunk.position(); i < chunk.limit(); i++) {
+            hash ^= chunk.get(i) & 0xFF;
+            hash *= 0x100000001b3L;
         }
+        return "com/luajava/compiled/" + className + "_" + Long.toHexString(hash);
     }
 
     /**
-     * 解析Proto
+     * 编译Lua代码为lua_dump格式的字节码
      */
-    private ProtoInfo parseProto(ByteBuffer buf, int sizeofInt, int sizeofSizeT, 
-                                  int sizeofInstruction, int sizeofInteger, int sizeofNumber) {
-        ProtoInfo proto = new ProtoInfo();
-        
+    private static byte[] dump(String luaCode) throws LuaException {
+        LuaState L = LuaStateFactory.newLuaState();
+        byte[] chunk;
         try {
-            proto.name = parseString(buf, sizeofSizeT);
-            int firstLine = (int) (sizeofInteger == 8 ? buf.getLong() : buf.getInt());
-            int lastLine = (int) (sizeofInteger == 8 ? buf.getLong() : buf.getInt());
-            byte numParams = buf.get();
-            byte isVararg = buf.get();
-            byte maxStackSize = buf.get();
-            
-            proto.numParams = numParams;
-            proto.isVararg = isVararg != 0;
-            proto.maxStackSize = maxStackSize & 0xFF;
-            
-            int codeSize = (int) readSizeT(buf, sizeofSizeT);
-            proto.code = new long[codeSize];
-            for (int i = 0; i < codeSize; i++) {
-                proto.code[i] = buf.getLong();
-            }
-            
-            int constSize = (int) readSizeT(buf, sizeofSizeT);
-            proto.constants = new Object[constSize];
-            proto.constantTypes = new int[constSize];
-            
-            for (int i = 0; i < constSize; i++) {
-                byte type = buf.get();
-                proto.constantTypes[i] = type;
-                switch (type) {
-                    case LUA_TNIL:
-                        proto.constants[i] = null;
-                        break;
-                    case LUA_TBOOLEAN:
-                        proto.constants[i] = buf.get() != 0;
-                        break;
-                    case LUA_TNUMBER:
-                        if (sizeofNumber == 8) {
-                            proto.constants[i] = buf.getDouble();
-                        } else {
-                            proto.constants[i] = (double) buf.getFloat();
-                        }
-                        break;
-                    case LUA_TSTRING:
-                        proto.constants[i] = parseString(buf, sizeofSizeT);
-                        break;
-                    default:
-                        proto.constants[i] = null;
-                        break;
-                }
-            }
-            
-            int protoSize = (int) readSizeT(buf, sizeofSizeT);
-            proto.subProtos = new ProtoInfo[protoSize];
-            for (int i = 0; i < protoSize; i++) {
-                proto.subProtos[i] = parseProto(buf, sizeofInt, sizeofSizeT, 
-                                                sizeofInstruction, sizeofInteger, sizeofNumber);
-            }
-            
-            int upvalSize = (int) readSizeT(buf, sizeofSizeT);
-            proto.upvalues = new UpvalDesc[upvalSize];
-            proto.sizeUpvalues = upvalSize;
-            for (int i = 0; i < upvalSize; i++) {
-                UpvalDesc desc = new UpvalDesc();
-                desc.instack = buf.get() != 0;
-                desc.idx = buf.get() & 0xFF;
-                desc.name = parseString(buf, sizeofSizeT);
-                proto.upvalues[i] = desc;
+            if (L.LloadString(luaCode) != 0) {
+                throw new LuaException("Lua语法错误: " + L.toString(-1));
             }
-            
-            return proto;
-        } catch (Exception e) {
-            return null;
+            chunk = L.dump(-1);
+        } finally {
+            L.close();
         }
-    }
-
-    /**
-     * 解析字符串
-     */
-    private String parseString(ByteBuffer buf, int sizeofSizeT) {
-        try {
-            long size = readSizeT(buf, sizeofSizeT);
-            if (size == 0) return null;
-            size--;
-            if (size > Integer.MAX_VALUE) return null;
-            byte[] bytes = new byte[(int) size];
-            buf.get(bytes);
-            return new String(bytes, "UTF-8");
-        } catch (Exception e) {
-            return null;
+        if (chunk == null) {
+            throw new LuaException("无法解析Lua代码");
         }
+        return chunk;
     }
 
     /**
-     * 读取size_t
+     * 指令信息类
      */
-    private long readSizeT(ByteBuffer buf, int sizeofSizeT) {
-        switch (sizeofSizeT) {
-            case 4: return buf.getInt() & 0xFFFFFFFFL;
-            case 8: return buf.getLong();
-            default: return buf.getInt() & 0xFFFFFFFFL;
-        }
+    static class InstructionInfo {
+        int opcode;
+        String opname;
+        int a, b, c, k;
+        int sbx;
+        long bx, ax, sj;
+        int vb, vc;
+        int sc, sb;
     }
 
     // ==================== Proto收集 ====================
@@ -668,7 +512,13 @@ public class LuaToJava {
         sb.append("    private int vtabIdx;\n\n");
         
         for (int i = 0; i < protos.size(); i++) {
-            generateFunction(sb, protos.get(i), protos);
+            ProtoInfo proto = protos.get(i);
+            // 指令按函数解码，生成后即释放
+            proto.instrInfo = ProtoReader.decode(proto.code);
+            if (!useRegisters || !RegisterGenerator.generate(this, proto, sb)) {
+                generateFunction(sb, proto, protos);
+            }
+            proto.instrInfo = null;
             if (i < protos.size() - 1) {
                 sb.append("\n");
             }
@@ -767,7 +617,7 @@ public class LuaToJava {
                 opcode != OP_EQK && opcode != OP_EQI && opcode != OP_LTI && opcode != OP_LEI &&
                 opcode != OP_GTI && opcode != OP_GEI && opcode != OP_TEST && opcode != OP_TESTSET &&
                 opcode != OP_FORPREP && opcode != OP_FORLOOP && opcode != OP_TFORLOOP &&
-                opcode != OP_TFORPREP &&
+                opcode != OP_TFORPREP && opcode != OP_TAILCALL &&
                 opcode != OP_RETURN && opcode != OP_RETURN0 && opcode != OP_RETURN1) {
                 sb.append("                    _pc = ").append(caseNum + 1).append("; break;\n");
             }
@@ -926,10 +776,9 @@ public class LuaToJava {
             
             case OP_LOADKX: {
                 if (pc + 1 < proto.code.length) {
-                    long nextInst = proto.code[pc + 1];
-                    if ((nextInst & 0x1FF) == OP_EXTRAARG) {
-                        long localAx = nextInst >>> 16;
-                        generateLoadK(sb, proto, (int)localAx, a);
+                    InstructionInfo next = proto.instrInfo[pc + 1];
+                    if (next.opcode == OP_EXTRAARG) {
+                        generateLoadK(sb, proto, (int) next.ax, a);
                     }
                 }
                 break;
@@ -968,23 +817,27 @@ public class LuaToJava {
             }
             
             case OP_GETUPVAL: {
-                sb.append("                    L.pushValue(LuaJava.upvalueIndex(").append(b + 1).append("));\n");
+                if (isEnv(proto, b)) {
+                    sb.append("                    L.rawGetI(LuaJava.LUA_REGISTRYINDEX, 2);\n");
+                } else {
+                    sb.append("                    L.pushValue(LuaJava.upvalueIndex(").append(b + 2).append("));\n");
+                }
                 sb.append("                    L.replace(").append(a + 1).append(");\n");
                 break;
             }
             
             case OP_SETUPVAL: {
                 sb.append("                    L.pushValue(").append(a + 1).append(");\n");
-                sb.append("                    L.replace(LuaJava.upvalueIndex(").append(b + 1).append("));\n");
+                sb.append("                    L.replace(LuaJava.upvalueIndex(").append(b + 2).append("));\n");
                 break;
             }
             
             case OP_GETTABUP: {
                 int k = c;
-                if (b == 0) {
+                if (isEnv(proto, b)) {
                     sb.append("                    L.rawGetI(LuaJava.LUA_REGISTRYINDEX, 2);\n");
                 } else {
-                    sb.append("                    L.pushValue(LuaJava.upvalueIndex(").append(b + 1).append("));\n");
+                    sb.append("                    L.pushValue(LuaJava.upvalueIndex(").append(b + 2).append("));\n");
                 }
                 if (k < proto.constants.length && proto.constantTypes[k] == LUA_TSTRING) {
                     String key = escapeString((String) proto.constants[k]);
@@ -1005,10 +858,11 @@ public class LuaToJava {
                 int valIdx = c;
                 boolean isK = kflag != 0;
                 
-                if (b == 0) {
+                // UpValue[A][K[B]] := RK(C)，表所在的上值由A给出
+                if (isEnv(proto, a)) {
                     sb.append("                    L.rawGetI(LuaJava.LUA_REGISTRYINDEX, 2);\n");
                 } else {
-                    sb.append("                    L.pushValue(LuaJava.upvalueIndex(").append(b + 1).append("));\n");
+                    sb.append("                    L.pushValue(LuaJava.upvalueIndex(").append(a + 2).append("));\n");
                 }
                 
                 if (keyIdx < proto.constants.length && proto.constantTypes[keyIdx] == LUA_TSTRING) {
@@ -1457,15 +1311,20 @@ public class LuaToJava {
                     if (c > 0) {
                         sb.append("            L.tccStoreResults(").append(a + 1).append(", ").append(nResults).append(");\n");
                     } else {
-                        sb.append("            int nres = L.getTop() - startTop + 1;\n");
+                        // 返回值位于调用前栈顶之上
+                        sb.append("            int nres = L.getTop() - startTop;\n");
                         sb.append("            for (int k = 0; k < nres; k++) {\n");
-                        sb.append("                L.pushValue(startTop + k);\n");
+                        sb.append("                L.pushValue(startTop + 1 + k);\n");
                         sb.append("                L.replace(").append(a + 1).append(" + k);\n");
                         sb.append("            }\n");
                         sb.append("            L.setTop(").append(a).append(" + nres);\n");
                     }
                 } else {
                     sb.append("            L.call(L.getTop() - ").append(a + 1).append(", ").append(nResults).append(");\n");
+                    if (c > 0) {
+                        // 参数个数由栈顶决定，调用后恢复帧的栈顶
+                        sb.append("            L.setTop(").append(proto.maxStackSize).append(");\n");
+                    }
                 }
                 sb.append("        }\n");
                 break;
@@ -1473,9 +1332,16 @@ public class LuaToJava {
             
             case OP_TAILCALL: {
                 int nArgs = b > 0 ? b - 1 : -1;
-                sb.append("                    L.tccPushArgs(").append(a + 1).append(", ").append(nArgs + 1).append(");\n");
-                sb.append("                    L.call(").append(nArgs).append(", LuaJava.LUA_MULTRET);\n");
-                sb.append("        return L.toJavaObject(-1);\n");
+                // 返回值数量为调用后栈顶到调用前栈顶的距离
+                if (b > 0) {
+                    sb.append("                    int _base = L.getTop();\n");
+                    sb.append("                    L.tccPushArgs(").append(a + 1).append(", ").append(nArgs + 1).append(");\n");
+                    sb.append("                    L.call(").append(nArgs).append(", LuaJava.LUA_MULTRET);\n");
+                    sb.append("                    return L.getTop() - _base;\n");
+                } else {
+                    sb.append("                    L.call(L.getTop() - ").append(a + 1).append(", LuaJava.LUA_MULTRET);\n");
+                    sb.append("                    return L.getTop() - ").append(a).append(";\n");
+                }
                 break;
             }
             
@@ -1509,15 +1375,31 @@ public class LuaToJava {
                 sb.append("                    if (L.isInteger(").append(a + 1).append(") && L.isInteger(").append(a + 3).append(")) {\n");
                 sb.append("                        long step = L.toInteger(").append(a + 3).append(");\n");
                 sb.append("                        long init = L.toInteger(").append(a + 1).append(");\n");
-                sb.append("                        L.pushInteger(init);\n");
-                sb.append("                        L.replace(").append(a + 1).append(");\n");
+                sb.append("                        // 与Lua一致，整数循环预先算出迭代次数存入终止值的位置\n");
+                sb.append("                        long count = L.forCountAt(init, ").append(a + 2).append(", step);\n");
+                sb.append("                        if (count == 0) {\n");
+                sb.append("                            _pc = ").append(skipCase).append("; break;\n");
+                sb.append("                        }\n");
+                sb.append("                        L.pushInteger(count - 1);\n");
+                sb.append("                        L.replace(").append(a + 2).append(");\n");
                 sb.append("                        L.pushInteger(init);\n");
                 sb.append("                        L.replace(").append(a + 4).append(");\n");
                 sb.append("                    } else {\n");
-                sb.append("                        double step = L.toNumber(").append(a + 3).append(");\n");
-                sb.append("                        double init = L.toNumber(").append(a + 1).append(");\n");
+                sb.append("                        double limit = L.forNumber(").append(a + 2).append(", \"limit\");\n");
+                sb.append("                        double step = L.forNumber(").append(a + 3).append(", \"step\");\n");
+                sb.append("                        double init = L.forNumber(").append(a + 1).append(", \"initial value\");\n");
+                sb.append("                        if (step == 0) {\n");
+                sb.append("                            L.throwError(\"'for' step is zero\");\n");
+                sb.append("                        }\n");
+                sb.append("                        if (step > 0 ? limit < init : init < limit) {\n");
+                sb.append("                            _pc = ").append(skipCase).append("; break;\n");
+                sb.append("                        }\n");
                 sb.append("                        L.pushNumber(init);\n");
                 sb.append("                        L.replace(").append(a + 1).append(");\n");
+                sb.append("                        L.pushNumber(limit);\n");
+                sb.append("                        L.replace(").append(a + 2).append(");\n");
+                sb.append("                        L.pushNumber(step);\n");
+                sb.append("                        L.replace(").append(a + 3).append(");\n");
                 sb.append("                        L.pushNumber(init);\n");
                 sb.append("                        L.replace(").append(a + 4).append(");\n");
                 sb.append("                    }\n");
@@ -1532,12 +1414,14 @@ public class LuaToJava {
                 sb.append("                    // FORLOOP: pc=").append(pc).append(", bx=").append(bx).append(", targetPc=").append(targetPc).append(", loopTarget=").append(loopTarget).append("\n");
                 sb.append("                    // FORLOOP: 检查循环条件，更新索引并可能跳回循环开始\n");
                 sb.append("                    if (L.isInteger(").append(a + 3).append(")) {\n");
-                sb.append("                        long step = L.toInteger(").append(a + 3).append(");\n");
-                sb.append("                        long limit = L.toInteger(").append(a + 2).append(");\n");
-                sb.append("                        long idx = L.toInteger(").append(a + 1).append(") + step;\n");
-                sb.append("                        L.pushInteger(idx);\n");
-                sb.append("                        L.replace(").append(a + 1).append(");\n");
-                sb.append("                        if ((step > 0) ? (idx <= limit) : (idx >= limit)) {\n");
+                sb.append("                        // 整数循环的终止值位置保存剩余迭代次数(无符号)\n");
+                sb.append("                        long count = L.toInteger(").append(a + 2).append(");\n");
+                sb.append("                        if (count != 0) {\n");
+                sb.append("                            long idx = L.toInteger(").append(a + 1).append(") + L.toInteger(").append(a + 3).append(");\n");
+                sb.append("                            L.pushInteger(count - 1);\n");
+                sb.append("                            L.replace(").append(a + 2).append(");\n");
+                sb.append("                            L.pushInteger(idx);\n");
+                sb.append("                            L.replace(").append(a + 1).append(");\n");
                 sb.append("                            // 更新R(A+4)为当前索引值\n");
                 sb.append("                            L.pushInteger(idx);\n");
                 sb.append("                            L.replace(").append(a + 4).append(");\n");
@@ -1621,6 +1505,10 @@ public class LuaToJava {
                 sb.append("                            L.setI(").append(a + 1).append(", startIdx);\n");
                 sb.append("                            startIdx--;\n");
                 sb.append("                        }\n");
+                if (n == 0) {
+                    // 元素数量由栈顶决定时，写入后恢复帧的栈顶
+                    sb.append("                        L.setTop(").append(proto.maxStackSize).append(");\n");
+                }
                 sb.append("                    }\n");
                 break;
             }
@@ -1636,7 +1524,7 @@ public class LuaToJava {
                         if (uv.instack) {
                             sb.append("                    L.pushValue(").append(uv.idx + 1).append("); // upval ").append(j).append(" (local)\n");
                         } else {
-                            sb.append("                    L.pushValue(LuaJava.upvalueIndex(").append(uv.idx + 1).append(")); // upval ").append(j).append(" (upval)\n");
+                            sb.append("                    L.pushValue(LuaJava.upvalueIndex(").append(uv.idx + 2).append(")); // upval ").append(j).append(" (upval)\n");
                         }
                     }
                     sb.append("                    L.pushJavaFunction(this, \"").append(child.name).append("\", ").append(child.sizeUpvalues).append(");\n");
@@ -1846,10 +1734,20 @@ public class LuaToJava {
         }
     }
 
+    /**
+     * 上值是否为_ENV，_ENV直接取注册表中的全局表
+     */
+    static boolean isEnv(ProtoInfo proto, int upval) {
+        if (proto.upvalues != null && upval < proto.upvalues.length && proto.upvalues[upval].name != null) {
+            return "_ENV".equals(proto.upvalues[upval].name);
+        }
+        return upval == 0;
+    }
+
     /**
      * 转义字符串
      */
-    private String escapeString(String s) {
+    String escapeString(String s) {
         if (s == null) return "";
         StringBuilder sb = new StringBuilder();
         for (char c : s.toCharArray()) {
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 按Class划分的方法分派表
+ * 缓存方法重载列表以及已解析的调用点，调用点以(方法名, 参数个数, Lua参数类型签名)为键，
+ * 读路径无锁，可被任意LuaState线程并发访问
+ *
+ * @author DifierLine
+ */
+final class MethodDispatchTable {
+
+    /** 签名中每个参数占用的位数 */
+    private static final int SIG_BITS = 4;
+
+    /** 可参与签名编码的最大参数个数 */
+    static final int MAX_SIG_ARGS = 64 / SIG_BITS - 1;
+
+    /** 无法编码的签名 */
+    static final long NO_SIGNATURE = -1L;
+
+    /** 单个方法组最多保留的调用点数量，超出后淘汰最早的调用点 */
+    private static final int MAX_SITES = 16;
+
+    private static final ConcurrentHashMap<Class<?>, MethodDispatchTable> tables = new ConcurrentHashMap<>();
+
+    private final Class<?> clazz;
+    private volatile Method[] methods;
+    private final ConcurrentHashMap<String, MethodGroup> instanceGroups = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MethodGroup> staticGroups = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> instanceGetters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> staticGetters = new ConcurrentHashMap<>();
+
+    /** getter缓存中表示“不存在”的占位对象 */
+    private static final Object NO_GETTER = new Object();
+
+    private MethodDispatchTable(Class<?> clazz) {
+        this.clazz = clazz;
+    }
+
+    /**
+     * 获取指定Class的分派表，不存在时创建
+     * @param clazz 目标类
+     * @return 分派表
+     */
+    static MethodDispatchTable of(Class<?> clazz) {
+        MethodDispatchTable table = tables.get(clazz);
+        if (table == null) {
+            MethodDispatchTable created = new MethodDispatchTable(clazz);
+            table = tables.putIfAbsent(clazz, created);
+            if (table == null)
+                table = created;
+        }
+        return table;
+    }
+
+    /**
+     * 清空所有分派表
+     */
+    static void clearAll() {
+        tables.clear();
+    }
+
+    /**
+     * 获取方法组
+     * @param name 方法名
+     * @param isClass 是否为静态调用(对象本身是Class)
+     * @return 方法组，不会为null
+     */
+    MethodGroup group(String name, boolean isClass) {
+        ConcurrentHashMap<String, MethodGroup> groups = isClass ? staticGroups : instanceGroups;
+        MethodGroup group = groups.get(name);
+        if (group == null) {
+            MethodGroup created = new MethodGroup(resolve(name, isClass));
+            group = groups.putIfAbsent(name, created);
+            if (group == null)
+                group = created;
+        }
+        return group;
+    }
+
+    /**
+     * 查找无参getter(getXxx/isXxx)
+     * @param property 首字母已大写的属性名
+     * @param isClass 是否只接受静态方法
+     * @return getter方法，不存在时返回null
+     */
+    Method getter(String property, boolean isClass) {
+        ConcurrentHashMap<String, Object> getters = isClass ? staticGetters : instanceGetters;
+        Object cached = getters.get(property);
+        if (cached == null) {
+            Method method = null;
+            try {
+                method = clazz.getMethod("get" + property);
+            } catch (NoSuchMethodException e) {
+                try {
+                    method = clazz.getMethod("is" + property);
+                } catch (NoSuchMethodException ignored) {
+                }
+            }
+            if (method != null && isClass && !Modifier.isStatic(method.getModifiers()))
+                method = null;
+            if (method != null)
+                makeAccessible(method);
+            cached = method == null ? NO_GETTER : method;
+            getters.putIfAbsent(property, cached);
+        }
+        return cached == NO_GETTER ? null : (Method) cached;
+    }
+
+    private Method[] resolve(String name, boolean isClass) {
+        Method[] all = methods;
+        if (all == null) {
+            all = clazz.getMethods();
+            methods = all;
+        }
+        ArrayList<Method> list = new ArrayList<>();
+        for (Method m : all) {
+            if (!m.getName().equals(name))
+                continue;
+            if (isClass && !Modifier.isStatic(m.getModifiers()))
+                continue;
+            list.add(m);
+        }
+        if (isClass && list.isEmpty() && clazz != Class.class)
+            return of(Class.class).group(name, false).methods;
+        return list.toArray(new Method[list.size()]);
+    }
+
+    /**
+     * 计算栈上参数的Lua类型签名，整数与浮点数区分为不同类型
+     * @param S LuaState的会话，调用方已持有LuaState的监视器
+     * @param types 已读取的每个参数的lua_type
+     * @param first 第一个参数所在的栈索引
+     * @return 签名，参数过多时返回{@link #NO_SIGNATURE}
+     */
+    static long signature(LuaState.Session S, int[] types, int first) {
+        int n = types.length;
+        if (n > MAX_SIG_ARGS)
+            return NO_SIGNATURE;
+        long sig = n;
+        for (int i = 0; i < n; i++) {
+            int t = types[i];
+            if (t == LuaState.LUA_TNUMBER && S.isInteger(first + i))
+                t = LuaState.LUA_TINTEGER;
+            sig |= ((long) (t + 1)) << (SIG_BITS * (i + 1));
+        }
+        return sig;
+    }
+
+    /**
+     * 从签名中取出第i个参数的Lua类型
+     * @param signature {@link #signature}的返回值
+     * @param i 参数位置
+     * @return Lua类型，整数为{@link LuaState#LUA_TINTEGER}
+     */
+    static int argType(long signature, int i) {
+        return (int) ((signature >>> (SIG_BITS * (i + 1))) & 0xF) - 1;
+    }
+
+    /**
+     * 设置方法可访问，避免每次调用时的访问检查
+     */
+    static void makeAccessible(Method m) {
+        try {
+            m.setAccessible(true);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * 同名方法的全部重载及其已解析的调用点
+     */
+    static final class MethodGroup {
+
+        private static final CallSite[] NO_SITES = new CallSite[0];
+        private static final AtomicReferenceFieldUpdater<MethodGroup, CallSite[]> SITES =
+                AtomicReferenceFieldUpdater.newUpdater(MethodGroup.class, CallSite[].class, "sites");
+
+        final Method[] methods;
+        private volatile CallSite[] sites = NO_SITES;
+
+        MethodGroup(Method[] methods) {
+            this.methods = methods;
+        }
+
+        /**
+         * 获取当前调用点快照，调用方按签名逐个匹配
+         * @return 调用点数组，不可修改
+         */
+        CallSite[] sites() {
+            return sites;
+        }
+
+        /**
+         * 记录新的调用点
+         * @param site 调用点
+         */
+        void add(CallSite site) {
+            for (; ; ) {
+                CallSite[] current = sites;
+                int n = current.length;
+                CallSite[] next;
+                if (n < MAX_SITES) {
+                    next = new CallSite[n + 1];
+                    System.arraycopy(current, 0, next, 0, n);
+                    next[n] = site;
+                } else {
+                    next = new CallSite[n];
+                    System.arraycopy(current, 1, next, 0, n - 1);
+                    next[n - 1] = site;
+                }
+                if (SITES.compareAndSet(this, current, next))
+                    return;
+            }
+        }
+    }
+
+    /**
+     * 已解析的调用点
+     */
+    static final class CallSite {
+        final long signature;
+        final Method method;
+        final Class<?>[] parameterTypes;
+        final boolean isVoid;
+        /** userdata参数绑定时的实际类型，非userdata参数对应位置为null */
+        private final Class<?>[] userdataClasses;
+        /** 命中次数，只用于判断是否升级，不要求精确 */
+        private int hits;
+        private volatile boolean promoted;
+        private volatile JavaInvoker invoker;
+
+        CallSite(long signature, Method method, int[] types, Object[] args) {
+            this.signature = signature;
+            this.method = method;
+            this.parameterTypes = method.getParameterTypes();
+            this.isVoid = method.getReturnType() == Void.TYPE;
+            Class<?>[] classes = null;
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == LuaState.LUA_TUSERDATA && args[i] != null) {
+                    if (classes == null)
+                        classes = new Class<?>[types.length];
+                    classes[i] = args[i].getClass();
+                }
+            }
+            this.userdataClasses = classes;
+            makeAccessible(method);
+        }
+
+        /**
+         * 记录一次命中并返回已生成的调用器
+         * @return 调用器，尚未生成时返回null，此时应使用反射调用
+         */
+        JavaInvoker invoker() {
+            JavaInvoker current = invoker;
+            if (current == null && !promoted) {
+                int n = InvokerGenerator.getThreshold();
+                if (n > 0 && ++hits >= n) {
+                    promoted = true;
+                    InvokerGenerator.promote(this);
+                }
+            }
+            return current;
+        }
+
+        void install(JavaInvoker invoker) {
+            this.invoker = invoker;
+        }
+
+        /**
+         * userdata参数的Java类型与绑定时一致才认为命中，
+         * 否则不同子类可能对应不同的重载
+         */
+        boolean accepts(Object[] args) {
+            Class<?>[] classes = userdataClasses;
+            if (classes == null)
+                return true;
+            for (int i = 0; i < classes.length; i++) {
+                if (classes[i] != null && (args[i] == null || args[i].getClass() != classes[i]))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
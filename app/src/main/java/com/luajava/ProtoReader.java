@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static com.luajava.LuaToJava.*;
+
+/**
+ * lua_dump字节码读取器
+ * 按ldump.c的分段格式直接从ByteBuffer读取函数原型，各段通过偏移量定位，
+ * 不复制字节码也不为指令创建对象；指令以恢复操作码后的64位指令字保存在{@link ProtoInfo#code}中，
+ * 生成代码时再由{@link #decode}按函数解码。
+ * 读取器可重复使用，操作码映射表与字符串缓冲区在多次读取之间复用，但不是线程安全的
+ *
+ * @author DifierLine
+ */
+final class ProtoReader {
+
+    /** 签名"\x1bXCF"按小端读取的值 */
+    private static final int SIGNATURE = 0x4643581B;
+    /** 签名、版本、格式、LUAC_DATA、三个类型大小、校验整数与校验浮点数 */
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 6 + 3 + 8 + 8;
+    private static final int SEGMENT_COUNT = 6;
+    private static final int HASH_SIZE = 32;
+    private static final int NUM_OPCODES = OP_EXTRAARG + 1;
+    /** 超过此长度的字符串额外带有内容哈希与长度 */
+    private static final int LONG_STRING = 0xFF;
+
+    // ==================== 常量类型标签 ====================
+
+    private static final int VNIL = 0x00;
+    private static final int VFALSE = 0x01;
+    private static final int VTRUE = 0x11;
+    private static final int VNUMINT = 0x03;
+    private static final int VNUMFLT = 0x13;
+    private static final int VSHRSTR = 0x04;
+    private static final int VLNGSTR = 0x14;
+
+    // ==================== 指令字段，与lopcodes.h一致 ====================
+
+    private static final int POS_A = 0;
+    private static final int SIZE_A = 15;
+    private static final int POS_B = 15;
+    private static final int SIZE_B = 15;
+    private static final int POS_K = 30;
+    private static final int POS_C = 31;
+    private static final int SIZE_C = 15;
+    private static final int SIZE_VB = 14;
+    private static final int SIZE_VC = 16;
+    private static final int SIZE_BX = 31;
+    private static final int SIZE_AX = 46;
+    private static final int POS_OP = 54;
+    private static final long MASK_OP = 0x3FFL << POS_OP;
+    private static final int OFFSET_SBX = 0x3FFFFFFF;
+    private static final int OFFSET_SJ = 0x3FFFFFFF;
+    private static final int OFFSET_SC = ((1 << SIZE_C) - 1) >> 1;
+
+    private ByteBuffer buf;
+    private int pos;
+    /** 最近读取的时间戳，用作代码段与字符串的异或密钥 */
+    private long timestamp;
+    private final int[] opcodeMap = new int[NUM_OPCODES];
+    private final int[] thirdReverse = new int[NUM_OPCODES];
+    private final int[] stringReverse = new int[256];
+    private byte[] bytes = new byte[64];
+
+    /**
+     * 读取lua_dump的输出
+     * @param chunk 字节码，从当前位置开始读取，位置与字节序不会被修改
+     * @return 主函数原型，子函数位于subProtos中
+     * @throws LuaException 格式错误或数据不完整
+     */
+    ProtoInfo read(ByteBuffer chunk) throws LuaException {
+        buf = chunk.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        pos = buf.position();
+        try {
+            if (buf.remaining() < HEADER_SIZE + 1 || buf.getInt(pos) != SIGNATURE) {
+                throw new LuaException("不是有效的Lua字节码");
+            }
+            pos += HEADER_SIZE + 1;
+            if (readInt() != SEGMENT_COUNT) {
+                throw new LuaException("字节码段数量错误");
+            }
+            int lenMeta = readInt();
+            int lenCode = readInt();
+            int lenConst = readInt();
+            int lenUpval = readInt();
+            int lenRef = readInt();
+            int lenDebug = readInt();
+            int baseMeta = pos;
+            int baseCode = baseMeta + lenMeta;
+            int baseConst = baseCode + lenCode;
+            int baseUpval = baseConst + lenConst;
+            int baseRef = baseUpval + lenUpval;
+            int baseDebug = baseRef + lenRef;
+            long end = (long) baseDebug + lenDebug;
+            if (baseDebug < 0 || end > buf.limit()) {
+                throw new LuaException("字节码不完整");
+            }
+
+            pos = baseMeta;
+            int count = readInt();
+            ProtoInfo[] protos = new ProtoInfo[count];
+            for (int i = 0; i < count; i++) {
+                protos[i] = new ProtoInfo();
+            }
+            for (int i = 0; i < count; i++) {
+                ProtoInfo p = protos[i];
+                int offCode = readInt();
+                int offConst = readInt();
+                int offUpval = readInt();
+                int offRef = readInt();
+                int offDebug = readInt();
+                readMeta(p);
+                int meta = pos;
+
+                pos = baseCode + offCode;
+                readCode(p);
+                pos = baseConst + offConst;
+                readConstants(p);
+                pos = baseUpval + offUpval;
+                readUpvalues(p);
+                pos = baseRef + offRef;
+                int n = readInt();
+                p.subProtos = new ProtoInfo[n];
+                for (int j = 0; j < n; j++) {
+                    int id = readInt();
+                    if (id <= i || id >= count) {
+                        throw new LuaException("子函数索引错误: " + id);
+                    }
+                    p.subProtos[j] = protos[id];
+                }
+                pos = baseDebug + offDebug;
+                readUpvalueNames(p);
+                pos = meta;
+            }
+            if (count == 0) {
+                throw new LuaException("字节码中没有函数");
+            }
+            return protos[0];
+        } catch (IndexOutOfBoundsException e) {
+            throw new LuaException("字节码不完整");
+        } finally {
+            buf = null;
+        }
+    }
+
+    private void readMeta(ProtoInfo p) throws LuaException {
+        timestamp = buf.getLong(pos);
+        pos += 8;
+        p.numParams = buf.get(pos++) & 0xFF;
+        p.isVararg = buf.get(pos++) != 0;
+        p.maxStackSize = buf.get(pos++) & 0xFF;
+        skipSize(); // difierline_mode
+        skipSize(); // 填充
+        skipSize(); // linedefined
+        skipSize(); // lastlinedefined
+        readString(false); // source，会更新代码段使用的时间戳
+        skipSize(); // difierline_magicnum
+        pos += 8; // difierline_data
+        if (readInt() != 0) {
+            // VM保护代码表：大小、密钥、种子、指令与映射表
+            int size = readInt();
+            pos += 8 + 4 + size * 8;
+            int mapSize = readInt();
+            for (int j = 0; j < mapSize; j++) {
+                skipSize();
+            }
+        }
+    }
+
+    private void readCode(ProtoInfo p) throws LuaException {
+        int n = readInt();
+        for (int i = 0; i < NUM_OPCODES; i++) {
+            opcodeMap[i] = buf.get(pos++) & 0xFF;
+        }
+        for (int i = 0; i < NUM_OPCODES; i++) {
+            int op = buf.get(pos++) & 0xFF;
+            if (op >= NUM_OPCODES) {
+                throw new LuaException("操作码映射表错误");
+            }
+            thirdReverse[op] = i;
+        }
+        pos += HASH_SIZE;
+        if (readSize() != n * 8L) {
+            throw new LuaException("代码段长度错误");
+        }
+        // 每条指令8字节且对齐，逐字节的时间戳异或等价于整字异或
+        long[] code = new long[n];
+        for (int i = 0; i < n; i++) {
+            long word = buf.getLong(pos) ^ timestamp;
+            pos += 8;
+            int op = (int) (word >>> POS_OP);
+            if (op >= NUM_OPCODES) {
+                throw new LuaException("操作码错误: " + op);
+            }
+            op = opcodeMap[thirdReverse[op]];
+            code[i] = (word & ~MASK_OP) | ((long) op << POS_OP);
+        }
+        p.code = code;
+    }
+
+    private void readConstants(ProtoInfo p) throws LuaException {
+        int n = readInt();
+        p.constants = new Object[n];
+        p.constantTypes = new int[n];
+        for (int i = 0; i < n; i++) {
+            int tag = buf.get(pos++) & 0xFF;
+            switch (tag) {
+                case VNIL:
+                    p.constantTypes[i] = LUA_TNIL;
+                    break;
+                case VFALSE:
+                case VTRUE:
+                    p.constants[i] = tag == VTRUE;
+                    p.constantTypes[i] = LUA_TBOOLEAN;
+                    break;
+                case VNUMINT:
+                    p.constants[i] = buf.getLong(pos);
+                    p.constantTypes[i] = LUA_TNUMBER;
+                    pos += 8;
+                    break;
+                case VNUMFLT:
+                    p.constants[i] = buf.getDouble(pos);
+                    p.constantTypes[i] = LUA_TNUMBER;
+                    pos += 8;
+                    break;
+                case VSHRSTR:
+                case VLNGSTR:
+                    p.constants[i] = readString(true);
+                    if (p.constants[i] == null) {
+                        throw new LuaException("字符串常量错误");
+                    }
+                    p.constantTypes[i] = LUA_TSTRING;
+                    break;
+                default:
+                    throw new LuaException("未知常量类型: " + tag);
+            }
+        }
+    }
+
+    private void readUpvalues(ProtoInfo p) throws LuaException {
+        int n = readInt();
+        p.sizeUpvalues = n;
+        p.upvalues = new UpvalDesc[n];
+        for (int i = 0; i < n; i++) {
+            UpvalDesc desc = new UpvalDesc();
+            desc.instack = buf.get(pos++) != 0;
+            desc.idx = buf.get(pos++) & 0xFF;
+            pos++; // kind
+            p.upvalues[i] = desc;
+        }
+        // 其后的防导入数据不影响转换，各段按偏移定位，无需跳过
+    }
+
+    /**
+     * 从调试段读取upvalue名称，其余调试信息只跳过不解码
+     */
+    private void readUpvalueNames(ProtoInfo p) throws LuaException {
+        int lineinfo = readInt();
+        pos += lineinfo;
+        int n = readInt();
+        for (int i = 0; i < 2 * n; i++) {
+            skipSize(); // abslineinfo
+        }
+        n = readInt();
+        for (int i = 0; i < n; i++) {
+            readString(false); // locvars
+            skipSize();
+            skipSize();
+        }
+        if (readInt() != 0) {
+            for (int i = 0; i < p.sizeUpvalues; i++) {
+                p.upvalues[i].name = readString(true);
+            }
+        }
+    }
+
+    /**
+     * 读取字符串
+     * @param decode 为false时只跳过内容
+     * @return 字符串，不存在时返回null
+     */
+    private String readString(boolean decode) throws LuaException {
+        long size = readSize();
+        if (size == 0) {
+            return null;
+        }
+        if (size - 1 > Integer.MAX_VALUE) {
+            throw new LuaException("字符串过长");
+        }
+        int len = (int) (size - 1);
+        timestamp = buf.getLong(pos);
+        pos += 8;
+        int map = pos;
+        pos += 256 + HASH_SIZE;
+        if (len >= LONG_STRING) {
+            pos += HASH_SIZE;
+            if (readSize() != len) {
+                throw new LuaException("字符串长度错误");
+            }
+        }
+        int start = pos;
+        pos += len;
+        if (!decode) {
+            return null;
+        }
+        for (int i = 0; i < 256; i++) {
+            stringReverse[buf.get(map + i) & 0xFF] = i;
+        }
+        if (bytes.length < len) {
+            bytes = new byte[Math.max(len, bytes.length * 2)];
+        }
+        byte[] b = bytes;
+        long key = timestamp;
+        for (int i = 0; i < len; i++) {
+            int c = (buf.get(start + i) ^ (int) (key >>> ((i & 7) << 3))) & 0xFF;
+            b[i] = (byte) stringReverse[c];
+        }
+        return new String(b, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 读取变长整数，每字节7位，高位在前，最后一字节最高位为1
+     */
+    private long readSize() throws LuaException {
+        long x = 0;
+        int b;
+        do {
+            if (x > (Long.MAX_VALUE >>> 7)) {
+                throw new LuaException("整数溢出");
+            }
+            b = buf.get(pos++) & 0xFF;
+            x = (x << 7) | (b & 0x7F);
+        } while ((b & 0x80) == 0);
+        return x;
+    }
+
+    private void skipSize() {
+        while ((buf.get(pos++) & 0x80) == 0) {
+            // 最后一字节的最高位为1
+        }
+    }
+
+    private int readInt() throws LuaException {
+        long x = readSize();
+        if (x > Integer.MAX_VALUE) {
+            throw new LuaException("整数溢出");
+        }
+        return (int) x;
+    }
+
+    // ==================== 指令解码 ====================
+
+    private static int arg(long i, int pos, int size) {
+        return (int) ((i >>> pos) & ((1L << size) - 1));
+    }
+
+    /**
+     * 解码一个函数的全部指令，按lopcodes.h的GETARG规则填充所有字段，
+     * 与指令格式无关的字段由调用方忽略
+     * @param code 恢复操作码后的指令字
+     * @return 指令信息
+     */
+    static InstructionInfo[] decode(long[] code) {
+        InstructionInfo[] out = new InstructionInfo[code.length];
+        for (int pc = 0; pc < code.length; pc++) {
+            long i = code[pc];
+            InstructionInfo info = new InstructionInfo();
+            info.opcode = (int) (i >>> POS_OP);
+            info.opname = info.opcode < OP_NAMES.length ? OP_NAMES[info.opcode] : "OP_" + info.opcode;
+            info.a = arg(i, POS_A, SIZE_A);
+            info.b = arg(i, POS_B, SIZE_B);
+            info.k = arg(i, POS_K, 1);
+            info.c = arg(i, POS_C, SIZE_C);
+            info.vb = arg(i, POS_B, SIZE_VB);
+            info.vc = arg(i, POS_C, SIZE_VC);
+            info.bx = arg(i, POS_B, SIZE_BX);
+            info.sbx = arg(i, POS_B, SIZE_BX) - OFFSET_SBX;
+            info.ax = arg(i, POS_A, SIZE_AX);
+            info.sj = arg(i, POS_A, SIZE_AX) - OFFSET_SJ;
+            info.sc = info.c - OFFSET_SC;
+            info.sb = info.b - OFFSET_SC;
+            out[pc] = info;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,1935 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import static com.luajava.LuaToJava.*;
+
+/**
+ * LuaToJava的寄存器分配后端
+ * 按基本块做到达定值分析，把同一寄存器上会到达同一使用点的定值合并为一个变量，
+ * 再推断每个变量是整数、浮点数、布尔值还是任意Lua值。
+ * 前三类保存在long/double/boolean局部变量中，其余保存在Object局部变量中：
+ * nil、布尔值、数值与字符串直接表示，表、函数等引用类型记为{@link LuaJava#SLOT}并留在寄存器对应的栈槽。
+ * 只有调用、表访问和返回等需要Lua值的位置才访问Lua栈。
+ * 回边生成带标签的Java循环，前向跳转生成退出带标签块的break，不存在按基本块的分派。
+ * 可变参数、连续开放调用、跳入循环内部以及扩展操作码等由{@link #generate}拒绝，调用方回退到逐指令生成。
+ * 每次栈访问都是一次JNI调用，该后端仍慢于解释器，暂不作为选项提供，只由测试与基准程序启用
+ *
+ * @author DifierLine
+ */
+final class RegisterGenerator {
+
+    // ==================== 变量类型 ====================
+
+    static final int NONE = 0;
+    static final int INT = 1;
+    static final int FLOAT = 2;
+    static final int BOOL = 3;
+    static final int ANY = 4;
+
+    private static final int[] NO_REGS = new int[0];
+
+    private final LuaToJava owner;
+    private final ProtoInfo proto;
+    final InstructionInfo[] code;
+    final int n;
+    final int nregs;
+    private final StringBuilder sb = new StringBuilder();
+    private String indent = "        ";
+
+    // ==================== 控制流 ====================
+
+    private boolean[] leader;
+    int[][] succ;
+    /** FORPREP位置对应的FORLOOP位置 */
+    int[] forLoopOf;
+    /** FORLOOP位置对应的FORPREP位置 */
+    int[] forPrepOf;
+    /** 开放调用(C为0)的消费指令位置 */
+    private boolean[] openConsumer;
+    boolean hasTbc;
+
+    // ==================== 定值与变量 ====================
+
+    private int[][] defRegs;
+    private int[][] defIds;
+    private boolean[] defKills;
+    private int[][] useRegs;
+    private int[][] useIds;
+    int ndefs;
+    private int[] parent;
+    int[] kind;
+    private String[] names;
+
+    private RegisterGenerator(LuaToJava owner, ProtoInfo proto) {
+        this.owner = owner;
+        this.proto = proto;
+        this.code = proto.instrInfo;
+        this.n = code.length;
+        this.nregs = proto.maxStackSize;
+    }
+
+    /**
+     * 生成函数
+     * @param owner 转换器，用于转义字符串
+     * @param proto 函数原型，子函数名称已分配
+     * @param out 输出
+     * @return 原型包含不支持的指令时返回false且不输出任何内容
+     */
+    static boolean generate(LuaToJava owner, ProtoInfo proto, StringBuilder out) {
+        RegisterGenerator g = analyze(owner, proto);
+        if (g == null) {
+            return false;
+        }
+        if (!g.buildStructure()) {
+            return false;
+        }
+        g.emitFunction();
+        out.append(g.sb);
+        return true;
+    }
+
+    /**
+     * 只做变量合并与类型推断，供{@link DexGenerator}复用
+     * @param owner 转换器
+     * @param proto 函数原型，指令已解码
+     * @return 原型包含不支持的指令时返回null
+     */
+    static RegisterGenerator analyze(LuaToJava owner, ProtoInfo proto) {
+        if (!supports(proto)) {
+            return null;
+        }
+        RegisterGenerator g = new RegisterGenerator(owner, proto);
+        if (!g.buildBlocks()) {
+            return null;
+        }
+        g.buildVariables();
+        g.inferKinds();
+        return g;
+    }
+
+    // ==================== 支持检查 ====================
+
+    static boolean supports(ProtoInfo p) {
+        InstructionInfo[] code = p.instrInfo;
+        int n = code.length;
+        if (n == 0 || p.maxStackSize <= 0) {
+            return false;
+        }
+        for (int pc = 0; pc < n; pc++) {
+            InstructionInfo in = code[pc];
+            switch (in.opcode) {
+                case OP_MOVE: case OP_LOADI: case OP_LOADF: case OP_LOADK:
+                case OP_LOADFALSE: case OP_LFALSESKIP: case OP_LOADTRUE: case OP_LOADNIL:
+                case OP_GETUPVAL: case OP_SETUPVAL: case OP_GETTABUP: case OP_SETTABUP:
+                case OP_GETTABLE: case OP_GETI: case OP_GETFIELD:
+                case OP_SETTABLE: case OP_SETI: case OP_SETFIELD:
+                case OP_NEWTABLE: case OP_SELF:
+                case OP_ADDI: case OP_ADDK: case OP_SUBK: case OP_MULK: case OP_MODK:
+                case OP_POWK: case OP_DIVK: case OP_IDIVK: case OP_BANDK: case OP_BORK: case OP_BXORK:
+                case OP_SHRI: case OP_SHLI:
+                case OP_ADD: case OP_SUB: case OP_MUL: case OP_MOD: case OP_POW: case OP_DIV:
+                case OP_IDIV: case OP_BAND: case OP_BOR: case OP_BXOR: case OP_SHL: case OP_SHR:
+                case OP_MMBIN: case OP_MMBINI: case OP_MMBINK:
+                case OP_UNM: case OP_BNOT: case OP_NOT: case OP_LEN: case OP_CONCAT:
+                case OP_CLOSE: case OP_TBC: case OP_JMP:
+                case OP_EQ: case OP_LT: case OP_LE: case OP_EQK: case OP_EQI:
+                case OP_LTI: case OP_LEI: case OP_GTI: case OP_GEI:
+                case OP_TEST: case OP_TESTSET:
+                case OP_RETURN0: case OP_RETURN1:
+                case OP_FORLOOP: case OP_FORPREP:
+                case OP_TFORPREP: case OP_TFORCALL: case OP_TFORLOOP:
+                case OP_VARARGPREP: case OP_NOP: case OP_EXTRAARG:
+                    break;
+                case OP_LOADKX:
+                    if (pc + 1 >= n || code[pc + 1].opcode != OP_EXTRAARG) {
+                        return false;
+                    }
+                    break;
+                case OP_CLOSURE:
+                    if (p.subProtos == null || in.bx >= p.subProtos.length) {
+                        return false;
+                    }
+                    break;
+                case OP_CALL:
+                    if (in.b == 0) {
+                        // 只接受紧跟在开放调用之后的消费指令
+                        if (!isOpenProducer(code, pc - 1) || in.c == 0) {
+                            return false;
+                        }
+                    } else if (in.c == 0) {
+                        if (!isOpenConsumer(code, pc + 1)) {
+                            return false;
+                        }
+                    }
+                    break;
+                case OP_TAILCALL:
+                    if (in.b == 0) {
+                        return false;
+                    }
+                    break;
+                case OP_RETURN:
+                    // 尾调用之后的RETURN不可达
+                    if (in.b == 0 && !isOpenProducer(code, pc - 1)
+                            && (pc == 0 || code[pc - 1].opcode != OP_TAILCALL)) {
+                        return false;
+                    }
+                    break;
+                case OP_SETLIST:
+                    if (in.k != 0 || (in.vb == 0 && !isOpenProducer(code, pc - 1))) {
+                        return false;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isOpenProducer(InstructionInfo[] code, int pc) {
+        return pc >= 0 && code[pc].opcode == OP_CALL && code[pc].c == 0 && code[pc].b != 0;
+    }
+
+    private static boolean isOpenConsumer(InstructionInfo[] code, int pc) {
+        if (pc >= code.length) {
+            return false;
+        }
+        InstructionInfo in = code[pc];
+        switch (in.opcode) {
+            case OP_CALL:
+                return in.b == 0 && in.c != 0;
+            case OP_RETURN:
+                return in.b == 0;
+            case OP_SETLIST:
+                return in.vb == 0 && in.k == 0;
+            default:
+                return false;
+        }
+    }
+
+    // ==================== 基本块 ====================
+
+    private static boolean isTerminator(int op) {
+        switch (op) {
+            case OP_JMP: case OP_EQ: case OP_LT: case OP_LE: case OP_EQK: case OP_EQI:
+            case OP_LTI: case OP_LEI: case OP_GTI: case OP_GEI: case OP_TEST: case OP_TESTSET:
+            case OP_LFALSESKIP: case OP_FORPREP: case OP_FORLOOP: case OP_TFORPREP: case OP_TFORLOOP:
+            case OP_RETURN: case OP_RETURN0: case OP_RETURN1: case OP_TAILCALL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean buildBlocks() {
+        leader = new boolean[n + 1];
+        succ = new int[n][];
+        forLoopOf = new int[n];
+        forPrepOf = new int[n];
+        openConsumer = new boolean[n];
+        leader[0] = true;
+        for (int pc = 0; pc < n; pc++) {
+            InstructionInfo in = code[pc];
+            forLoopOf[pc] = -1;
+            forPrepOf[pc] = -1;
+            int[] s;
+            switch (in.opcode) {
+                case OP_JMP:
+                    s = new int[]{pc + 1 + (int) in.sj};
+                    break;
+                case OP_EQ: case OP_LT: case OP_LE: case OP_EQK: case OP_EQI:
+                case OP_LTI: case OP_LEI: case OP_GTI: case OP_GEI: case OP_TEST: case OP_TESTSET:
+                    s = new int[]{pc + 1, pc + 2};
+                    break;
+                case OP_LFALSESKIP:
+                    s = new int[]{pc + 2};
+                    break;
+                case OP_FORPREP:
+                    s = new int[]{pc + 1, pc + (int) in.bx + 2};
+                    break;
+                case OP_FORLOOP:
+                    s = new int[]{pc + 1 - (int) in.bx, pc + 1};
+                    break;
+                case OP_TFORPREP:
+                    s = new int[]{pc + 1 + (int) in.bx};
+                    break;
+                case OP_TFORLOOP:
+                    s = new int[]{pc + 1 - (int) in.bx, pc + 1};
+                    break;
+                case OP_RETURN: case OP_RETURN0: case OP_RETURN1: case OP_TAILCALL:
+                    s = NO_REGS;
+                    break;
+                default:
+                    s = new int[]{pc + 1};
+                    break;
+            }
+            for (int t : s) {
+                if (t < 0 || t > n) {
+                    return false;
+                }
+            }
+            succ[pc] = s;
+            if (isTerminator(in.opcode)) {
+                leader[pc + 1] = true;
+                for (int t : s) {
+                    leader[t] = true;
+                }
+            }
+            if (in.opcode == OP_TBC || in.opcode == OP_TFORPREP) {
+                hasTbc = true;
+            }
+        }
+        for (int pc = 0; pc < n; pc++) {
+            InstructionInfo in = code[pc];
+            if (in.opcode == OP_FORPREP) {
+                int q = pc + (int) in.bx + 1;
+                if (q >= n || code[q].opcode != OP_FORLOOP || q + 1 - (int) code[q].bx != pc + 1) {
+                    return false;
+                }
+                forLoopOf[pc] = q;
+                forPrepOf[q] = pc;
+            } else if (in.opcode == OP_FORLOOP && forPrepOf[pc] < 0) {
+                int p = pc - (int) in.bx;
+                if (p < 0 || code[p].opcode != OP_FORPREP) {
+                    return false;
+                }
+            } else if (in.opcode == OP_CALL && in.c == 0) {
+                // 开放调用的结果保留在栈顶，消费指令不能是跳转目标
+                if (leader[pc + 1]) {
+                    return false;
+                }
+                openConsumer[pc + 1] = true;
+            }
+        }
+        return true;
+    }
+
+    private int blockEnd(int pc) {
+        int e = pc + 1;
+        while (e < n && !leader[e]) {
+            e++;
+        }
+        return e;
+    }
+
+    // ==================== 定值与使用 ====================
+
+    private int[] range(int first, int count) {
+        if (count <= 0) {
+            return NO_REGS;
+        }
+        int[] r = new int[count];
+        for (int i = 0; i < count; i++) {
+            r[i] = first + i;
+        }
+        return r;
+    }
+
+    private int[] defsOf(int pc) {
+        InstructionInfo in = code[pc];
+        int a = in.a;
+        switch (in.opcode) {
+            case OP_MOVE: case OP_LOADI: case OP_LOADF: case OP_LOADK: case OP_LOADKX:
+            case OP_LOADFALSE: case OP_LFALSESKIP: case OP_LOADTRUE:
+            case OP_GETUPVAL: case OP_GETTABUP: case OP_GETTABLE: case OP_GETI: case OP_GETFIELD:
+            case OP_NEWTABLE:
+            case OP_ADDI: case OP_ADDK: case OP_SUBK: case OP_MULK: case OP_MODK:
+            case OP_POWK: case OP_DIVK: case OP_IDIVK: case OP_BANDK: case OP_BORK: case OP_BXORK:
+            case OP_SHRI: case OP_SHLI:
+            case OP_ADD: case OP_SUB: case OP_MUL: case OP_MOD: case OP_POW: case OP_DIV:
+            case OP_IDIV: case OP_BAND: case OP_BOR: case OP_BXOR: case OP_SHL: case OP_SHR:
+            case OP_UNM: case OP_BNOT: case OP_NOT: case OP_LEN: case OP_CONCAT:
+            case OP_TESTSET: case OP_CLOSURE:
+                return new int[]{a};
+            case OP_LOADNIL:
+                return range(a, in.b + 1);
+            case OP_SELF:
+                return new int[]{a, a + 1};
+            case OP_CALL:
+                return in.c == 0 ? NO_REGS : range(a, in.c - 1);
+            case OP_FORPREP: case OP_FORLOOP:
+                return new int[]{a + 3};
+            case OP_TFORPREP:
+                return new int[]{a, a + 1};
+            case OP_TFORCALL:
+                return range(a + 4, in.c);
+            case OP_TFORLOOP:
+                return new int[]{a + 2};
+            default:
+                return NO_REGS;
+        }
+    }
+
+    private int[] usesOf(int pc) {
+        InstructionInfo in = code[pc];
+        int a = in.a, b = in.b, c = in.c;
+        boolean k = in.k != 0;
+        switch (in.opcode) {
+            case OP_MOVE: case OP_GETI: case OP_GETFIELD:
+            case OP_ADDI: case OP_ADDK: case OP_SUBK: case OP_MULK: case OP_MODK:
+            case OP_POWK: case OP_DIVK: case OP_IDIVK: case OP_BANDK: case OP_BORK: case OP_BXORK:
+            case OP_SHRI: case OP_SHLI:
+            case OP_UNM: case OP_BNOT: case OP_NOT: case OP_LEN: case OP_TESTSET:
+                return new int[]{b};
+            case OP_GETTABLE:
+            case OP_ADD: case OP_SUB: case OP_MUL: case OP_MOD: case OP_POW: case OP_DIV:
+            case OP_IDIV: case OP_BAND: case OP_BOR: case OP_BXOR: case OP_SHL: case OP_SHR:
+                return new int[]{b, c};
+            case OP_SELF:
+                return k ? new int[]{b} : new int[]{b, c};
+            case OP_SETUPVAL: case OP_TBC:
+            case OP_EQK: case OP_EQI: case OP_LTI: case OP_LEI: case OP_GTI: case OP_GEI: case OP_TEST:
+            case OP_RETURN1:
+                return new int[]{a};
+            case OP_EQ: case OP_LT: case OP_LE:
+                return new int[]{a, b};
+            case OP_SETTABUP:
+                return k ? NO_REGS : new int[]{c};
+            case OP_SETTABLE:
+                return k ? new int[]{a, b} : new int[]{a, b, c};
+            case OP_SETI: case OP_SETFIELD:
+                return k ? new int[]{a} : new int[]{a, c};
+            case OP_CONCAT:
+                return range(a, b);
+            case OP_CALL:
+                return b == 0 ? range(a, code[pc - 1].a - a) : range(a, b);
+            case OP_TAILCALL:
+                return range(a, b);
+            case OP_RETURN:
+                return b == 0 ? range(a, code[pc - 1].a - a) : range(a, b - 1);
+            case OP_SETLIST:
+                return in.vb == 0 ? range(a, code[pc - 1].a - a) : range(a, in.vb + 1);
+            case OP_FORPREP:
+                return new int[]{a, a + 1, a + 2};
+            case OP_TFORPREP:
+                return new int[]{a, a + 1, a + 3};
+            case OP_TFORCALL:
+                return new int[]{a, a + 1, a + 2};
+            case OP_TFORLOOP:
+                return new int[]{a + 4};
+            case OP_CLOSURE: {
+                ProtoInfo child = proto.subProtos[(int) in.bx];
+                ArrayList<Integer> regs = new ArrayList<>();
+                for (int j = 0; j < child.sizeUpvalues; j++) {
+                    if (child.upvalues[j].instack) {
+                        regs.add(child.upvalues[j].idx);
+                    }
+                }
+                int[] r = new int[regs.size()];
+                for (int j = 0; j < r.length; j++) {
+                    r[j] = regs.get(j);
+                }
+                return r;
+            }
+            default:
+                return NO_REGS;
+        }
+    }
+
+    /**
+     * 只能位于Lua栈上的使用：表访问的表、待关闭变量以及泛型for的迭代器
+     */
+    private int[] stackUsesOf(int pc) {
+        InstructionInfo in = code[pc];
+        int a = in.a;
+        switch (in.opcode) {
+            case OP_GETTABLE: case OP_GETI: case OP_GETFIELD: case OP_SELF:
+                return new int[]{in.b};
+            case OP_SETTABLE: case OP_SETI: case OP_SETFIELD: case OP_SETLIST: case OP_TBC:
+                return new int[]{a};
+            case OP_TFORPREP:
+                return new int[]{a, a + 1, a + 3};
+            default:
+                return NO_REGS;
+        }
+    }
+
+    int find(int d) {
+        while (parent[d] != d) {
+            parent[d] = parent[parent[d]];
+            d = parent[d];
+        }
+        return d;
+    }
+
+    private void union(int x, int y) {
+        x = find(x);
+        y = find(y);
+        if (x != y) {
+            parent[Math.max(x, y)] = Math.min(x, y);
+        }
+    }
+
+    /**
+     * 到达定值分析，合并到达同一使用点的定值
+     */
+    private void buildVariables() {
+        // 定值0..nregs-1为函数入口处的参数与未初始化寄存器
+        ndefs = nregs;
+        defRegs = new int[n][];
+        defIds = new int[n][];
+        defKills = new boolean[n];
+        useRegs = new int[n][];
+        useIds = new int[n][];
+        for (int pc = 0; pc < n; pc++) {
+            int[] regs = defsOf(pc);
+            int[] ids = new int[regs.length];
+            for (int i = 0; i < regs.length; i++) {
+                ids[i] = ndefs++;
+            }
+            defRegs[pc] = regs;
+            defIds[pc] = ids;
+            int op = code[pc].opcode;
+            defKills[pc] = op != OP_TESTSET && op != OP_TFORLOOP;
+            useRegs[pc] = usesOf(pc);
+            useIds[pc] = new int[useRegs[pc].length];
+        }
+        BitSet[] regDefs = new BitSet[nregs];
+        for (int r = 0; r < nregs; r++) {
+            regDefs[r] = new BitSet(ndefs);
+            regDefs[r].set(r);
+        }
+        for (int pc = 0; pc < n; pc++) {
+            for (int i = 0; i < defRegs[pc].length; i++) {
+                regDefs[defRegs[pc][i]].set(defIds[pc][i]);
+            }
+        }
+        parent = new int[ndefs];
+        for (int d = 0; d < ndefs; d++) {
+            parent[d] = d;
+        }
+
+        // 基本块
+        ArrayList<Integer> starts = new ArrayList<>();
+        int[] blockOf = new int[n];
+        for (int pc = 0; pc < n; pc++) {
+            if (leader[pc]) {
+                starts.add(pc);
+            }
+            blockOf[pc] = starts.size() - 1;
+        }
+        int nb = starts.size();
+        BitSet[] gen = new BitSet[nb];
+        BitSet[] kill = new BitSet[nb];
+        BitSet[] in = new BitSet[nb];
+        BitSet[] out = new BitSet[nb];
+        ArrayList<ArrayList<Integer>> preds = new ArrayList<>();
+        for (int b = 0; b < nb; b++) {
+            preds.add(new ArrayList<>());
+        }
+        for (int b = 0; b < nb; b++) {
+            int start = starts.get(b);
+            int end = blockEnd(start);
+            BitSet g = new BitSet(ndefs);
+            BitSet k = new BitSet(ndefs);
+            for (int pc = start; pc < end; pc++) {
+                for (int i = 0; i < defRegs[pc].length; i++) {
+                    int r = defRegs[pc][i];
+                    if (defKills[pc]) {
+                        g.andNot(regDefs[r]);
+                        k.or(regDefs[r]);
+                    }
+                    g.set(defIds[pc][i]);
+                }
+            }
+            gen[b] = g;
+            kill[b] = k;
+            in[b] = new BitSet(ndefs);
+            out[b] = (BitSet) g.clone();
+            for (int t : succ[end - 1]) {
+                if (t < n) {
+                    preds.get(blockOf[t]).add(b);
+                }
+            }
+        }
+        in[0].set(0, nregs);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = 0; b < nb; b++) {
+                BitSet i = b == 0 ? (BitSet) in[0].clone() : new BitSet(ndefs);
+                for (int p : preds.get(b)) {
+                    i.or(out[p]);
+                }
+                BitSet o = (BitSet) i.clone();
+                o.andNot(kill[b]);
+                o.or(gen[b]);
+                in[b] = i;
+                if (!o.equals(out[b])) {
+                    out[b] = o;
+                    changed = true;
+                }
+            }
+        }
+
+        for (int b = 0; b < nb; b++) {
+            int start = starts.get(b);
+            int end = blockEnd(start);
+            BitSet cur = (BitSet) in[b].clone();
+            for (int pc = start; pc < end; pc++) {
+                int[] regs = useRegs[pc];
+                for (int i = 0; i < regs.length; i++) {
+                    int r = regs[i];
+                    BitSet reach = (BitSet) regDefs[r].clone();
+                    reach.and(cur);
+                    int first = reach.nextSetBit(0);
+                    if (first < 0) {
+                        first = r;
+                    }
+                    for (int d = reach.nextSetBit(first + 1); d >= 0; d = reach.nextSetBit(d + 1)) {
+                        union(first, d);
+                    }
+                    useIds[pc][i] = first;
+                }
+                for (int i = 0; i < defRegs[pc].length; i++) {
+                    if (defKills[pc]) {
+                        cur.andNot(regDefs[defRegs[pc][i]]);
+                    }
+                    cur.set(defIds[pc][i]);
+                }
+            }
+        }
+    }
+
+    int useVar(int pc, int r) {
+        int[] regs = useRegs[pc];
+        for (int i = 0; i < regs.length; i++) {
+            if (regs[i] == r) {
+                return find(useIds[pc][i]);
+            }
+        }
+        throw new IllegalStateException("pc " + pc + " does not use register " + r);
+    }
+
+    int defVar(int pc, int r) {
+        int[] regs = defRegs[pc];
+        for (int i = 0; i < regs.length; i++) {
+            if (regs[i] == r) {
+                return find(defIds[pc][i]);
+            }
+        }
+        throw new IllegalStateException("pc " + pc + " does not define register " + r);
+    }
+
+    // ==================== 类型推断 ====================
+
+    private static int join(int x, int y) {
+        if (x == NONE) return y;
+        if (y == NONE || x == y) return x;
+        return ANY;
+    }
+
+    static boolean isNumeric(int k) {
+        return k == INT || k == FLOAT;
+    }
+
+    int useKind(int pc, int r) {
+        return kind[useVar(pc, r)];
+    }
+
+    int constKind(int idx) {
+        if (idx < 0 || idx >= proto.constants.length) {
+            return ANY;
+        }
+        Object v = proto.constants[idx];
+        switch (proto.constantTypes[idx]) {
+            case LUA_TBOOLEAN:
+                return BOOL;
+            case LUA_TNUMBER:
+                return v instanceof Long || v instanceof Integer ? INT : FLOAT;
+            default:
+                return ANY;
+        }
+    }
+
+    private static int arithKind(int op, int x, int y) {
+        if (x == NONE || y == NONE) {
+            return NONE;
+        }
+        switch (op) {
+            case OP_ADD: case OP_SUB: case OP_MUL: case OP_MOD: case OP_IDIV:
+                if (x == INT && y == INT) return INT;
+                return isNumeric(x) && isNumeric(y) ? FLOAT : ANY;
+            case OP_POW: case OP_DIV:
+                return isNumeric(x) && isNumeric(y) ? FLOAT : ANY;
+            default:
+                return x == INT && y == INT ? INT : ANY;
+        }
+    }
+
+    /** 把K/I形式的算术指令映射到对应的寄存器形式 */
+    static int baseArith(int op) {
+        switch (op) {
+            case OP_ADDI: case OP_ADDK: return OP_ADD;
+            case OP_SUBK: return OP_SUB;
+            case OP_MULK: return OP_MUL;
+            case OP_MODK: return OP_MOD;
+            case OP_POWK: return OP_POW;
+            case OP_DIVK: return OP_DIV;
+            case OP_IDIVK: return OP_IDIV;
+            case OP_BANDK: return OP_BAND;
+            case OP_BORK: return OP_BOR;
+            case OP_BXORK: return OP_BXOR;
+            case OP_SHRI: return OP_SHR;
+            case OP_SHLI: return OP_SHL;
+            default: return op;
+        }
+    }
+
+    /** for循环的类型：整数、浮点数，或运行时判断(ANY) */
+    int forKind(int p) {
+        int a = code[p].a;
+        int ki = useKind(p, a);
+        int ks = useKind(p, a + 2);
+        if (ki == NONE || ks == NONE) return NONE;
+        if (ki == INT && ks == INT) return INT;
+        return isNumeric(ki) && isNumeric(ks) ? FLOAT : ANY;
+    }
+
+    /** 指令写入寄存器r的值的类型 */
+    int naturalKind(int pc, int r) {
+        InstructionInfo in = code[pc];
+        int op = in.opcode;
+        switch (op) {
+            case OP_MOVE: case OP_TESTSET:
+                return useKind(pc, in.b);
+            case OP_LOADI:
+                return INT;
+            case OP_LOADF:
+                return FLOAT;
+            case OP_LOADK:
+                return constKind((int) in.bx);
+            case OP_LOADKX:
+                return constKind((int) code[pc + 1].ax);
+            case OP_LOADFALSE: case OP_LFALSESKIP: case OP_LOADTRUE: case OP_NOT:
+                return BOOL;
+            case OP_ADDI: case OP_SHRI: case OP_SHLI:
+                return arithKind(baseArith(op), useKind(pc, in.b), INT);
+            case OP_ADDK: case OP_SUBK: case OP_MULK: case OP_MODK:
+            case OP_POWK: case OP_DIVK: case OP_IDIVK: case OP_BANDK: case OP_BORK: case OP_BXORK:
+                return arithKind(baseArith(op), useKind(pc, in.b), constKind(in.c));
+            case OP_ADD: case OP_SUB: case OP_MUL: case OP_MOD: case OP_POW: case OP_DIV:
+            case OP_IDIV: case OP_BAND: case OP_BOR: case OP_BXOR: case OP_SHL: case OP_SHR:
+                return arithKind(op, useKind(pc, in.b), useKind(pc, in.c));
+            case OP_UNM: {
+                int k = useKind(pc, in.b);
+                return k == NONE || isNumeric(k) ? k : ANY;
+            }
+            case OP_BNOT: {
+                int k = useKind(pc, in.b);
+                return k == NONE || k == INT ? k : ANY;
+            }
+            case OP_FORPREP:
+                return forKind(pc);
+            case OP_FORLOOP:
+                return forKind(forPrepOf[pc]);
+            default:
+                return ANY;
+        }
+    }
+
+    private void inferKinds() {
+        kind = new int[ndefs];
+        for (int r = 0; r < nregs; r++) {
+            kind[find(r)] = ANY;
+        }
+        for (int pc = 0; pc < n; pc++) {
+            for (int r : stackUsesOf(pc)) {
+                kind[useVar(pc, r)] = ANY;
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int pc = 0; pc < n; pc++) {
+                for (int i = 0; i < defRegs[pc].length; i++) {
+                    int k = naturalKind(pc, defRegs[pc][i]);
+                    if (k == NONE) {
+                        continue;
+                    }
+                    int v = find(defIds[pc][i]);
+                    int j = join(kind[v], k);
+                    if (j != kind[v]) {
+                        kind[v] = j;
+                        changed = true;
+                    }
+                }
+            }
+            if (!changed) {
+                // 只依赖自身的变量无法确定类型
+                for (int d = 0; d < ndefs; d++) {
+                    if (find(d) == d && kind[d] == NONE) {
+                        kind[d] = ANY;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        names = new String[ndefs];
+        int[] counter = new int[nregs];
+        for (int d = 0; d < ndefs; d++) {
+            if (find(d) == d) {
+                int r = regOf(d);
+                names[d] = "r" + r + "_" + counter[r]++;
+            }
+        }
+    }
+
+    private int regOf(int d) {
+        if (d < nregs) {
+            return d;
+        }
+        for (int pc = 0; pc < n; pc++) {
+            for (int i = 0; i < defIds[pc].length; i++) {
+                if (defIds[pc][i] == d) {
+                    return defRegs[pc][i];
+                }
+            }
+        }
+        throw new IllegalStateException("unknown definition " + d);
+    }
+
+    // ==================== 结构化控制流 ====================
+
+    /** 结构化控制流中的后继，泛型for的入口改为复制其TFORCALL与TFORLOOP */
+    private int[][] flow;
+    private boolean[] reach;
+    /** 循环头对应的最后一条回边指令，不是循环头时为-1 */
+    private int[] loopEnd;
+    /** 包含该位置的最内层循环头，-1表示函数体 */
+    private int[] scope;
+    /** 循环头的外层循环头 */
+    private int[] parentLoop;
+    /** 前向跳转目标对应的带标签块的起点，-1表示不需要 */
+    private int[] blockStart;
+    private boolean[] loopBroken;
+    private boolean[] blockBroken;
+    /** 当前位置按Java的可达性规则是否可达 */
+    private boolean reachable;
+
+    /**
+     * 把控制流组织为带标签的块与循环：回边跳转到循环头，前向跳转退出以目标为终点的块
+     * @return 存在交叉的循环或跳入循环内部的跳转时返回false
+     */
+    private boolean buildStructure() {
+        flow = new int[n][];
+        for (int pc = 0; pc < n; pc++) {
+            InstructionInfo in = code[pc];
+            if (in.opcode == OP_TFORPREP) {
+                int c = pc + 1 + (int) in.bx;
+                if (c + 1 >= n || code[c].opcode != OP_TFORCALL || code[c + 1].opcode != OP_TFORLOOP
+                        || c + 2 - (int) code[c + 1].bx != pc + 1) {
+                    return false;
+                }
+                flow[pc] = new int[]{pc + 1, c + 2};
+            } else {
+                flow[pc] = succ[pc];
+            }
+        }
+        reach = new boolean[n];
+        int[] work = new int[n];
+        int top = 0;
+        reach[0] = true;
+        work[top++] = 0;
+        while (top > 0) {
+            int pc = work[--top];
+            for (int t : flow[pc]) {
+                if (t < n && !reach[t]) {
+                    reach[t] = true;
+                    work[top++] = t;
+                }
+            }
+        }
+
+        loopEnd = new int[n];
+        java.util.Arrays.fill(loopEnd, -1);
+        for (int pc = 0; pc < n; pc++) {
+            if (!reach[pc]) {
+                continue;
+            }
+            for (int t : flow[pc]) {
+                if (t <= pc) {
+                    loopEnd[t] = Math.max(loopEnd[t], pc);
+                }
+            }
+        }
+        scope = new int[n];
+        parentLoop = new int[n];
+        java.util.Arrays.fill(scope, -1);
+        for (int h = 0; h < n; h++) {
+            if (loopEnd[h] < 0) {
+                continue;
+            }
+            parentLoop[h] = scope[h];
+            if (parentLoop[h] >= 0 && loopEnd[h] > loopEnd[parentLoop[h]]) {
+                return false;
+            }
+            for (int pc = h; pc <= loopEnd[h]; pc++) {
+                scope[pc] = h;
+            }
+        }
+
+        blockStart = new int[n];
+        java.util.Arrays.fill(blockStart, -1);
+        for (int pc = 0; pc < n; pc++) {
+            if (!reach[pc]) {
+                continue;
+            }
+            for (int t : flow[pc]) {
+                if (t <= pc || t >= n) {
+                    continue;
+                }
+                // 只能从循环头进入循环
+                for (int h = scope[t]; h >= 0; h = parentLoop[h]) {
+                    if (t != h && (pc < h || pc > loopEnd[h])) {
+                        return false;
+                    }
+                }
+                if (t == pc + 1) {
+                    continue;
+                }
+                // 块位于目标所在的循环中，从跳转所在的该循环的直接子循环或跳转本身开始
+                int outer = loopEnd[t] >= 0 ? parentLoop[t] : scope[t];
+                int start = pc;
+                int h = scope[pc];
+                while (h != outer) {
+                    if (h < 0) {
+                        return false;
+                    }
+                    start = h;
+                    h = parentLoop[h];
+                }
+                blockStart[t] = blockStart[t] < 0 ? start : Math.min(blockStart[t], start);
+            }
+        }
+        // 交叉的块延伸到外侧块的起点
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int t1 = 0; t1 < n; t1++) {
+                if (blockStart[t1] < 0) {
+                    continue;
+                }
+                for (int t2 = t1 + 1; t2 < n; t2++) {
+                    if (blockStart[t2] > blockStart[t1] && blockStart[t2] < t1) {
+                        blockStart[t2] = blockStart[t1];
+                        changed = true;
+                    }
+                }
+            }
+        }
+        loopBroken = new boolean[n];
+        blockBroken = new boolean[n];
+        return true;
+    }
+
+    /** 区间的终点(不含)：块为跳转目标，循环为最后一条回边之后 */
+    private int endOf(int interval) {
+        return interval >= 0 ? interval : loopEnd[~interval] + 1;
+    }
+
+    /**
+     * 从指定位置跳转到目标的语句
+     * @return 目标是下一条指令时为空
+     */
+    private String jump(int from, int target) {
+        if (target >= n) {
+            return "return 0;";
+        }
+        if (target <= from) {
+            return "continue _loop" + target + ";";
+        }
+        if (target == from + 1) {
+            return "";
+        }
+        blockBroken[target] = true;
+        return "break _to" + target + ";";
+    }
+
+    private void goTo(int from, int target) {
+        String s = jump(from, target);
+        if (!s.isEmpty()) {
+            line(s);
+            reachable = false;
+        }
+    }
+
+    // ==================== 代码生成 ====================
+
+    private void line(String s) {
+        if (!s.isEmpty()) {
+            sb.append(indent).append(s).append('\n');
+        }
+    }
+
+    private void in() {
+        indent += "    ";
+    }
+
+    private void out() {
+        indent = indent.substring(4);
+    }
+
+    private void emitFunction() {
+        sb.append("    private int ").append(proto.name).append("(LuaJava L) throws LuaException {\n");
+        line("L.checkStack(" + (2 * nregs + 8) + ");");
+        line("L.setTop(" + nregs + ");");
+        for (int d = 0; d < ndefs; d++) {
+            if (names[d] == null) {
+                continue;
+            }
+            switch (kind[d]) {
+                case INT: line("long " + names[d] + " = 0;"); break;
+                case FLOAT: line("double " + names[d] + " = 0;"); break;
+                case BOOL: line("boolean " + names[d] + " = false;"); break;
+                default:
+                    // 参数从栈上读取，其余寄存器在入口处为nil
+                    line("Object " + names[d] + " = " + (d < proto.numParams ? "L.value(" + (d + 1) + ", " + (d + 1) + ")" : "null") + ";");
+                    break;
+            }
+        }
+        for (int p = 0; p < n; p++) {
+            if (forLoopOf[p] < 0) {
+                continue;
+            }
+            int k = forKind(p);
+            if (k != FLOAT) {
+                line("long _i" + p + " = 0, _s" + p + " = 0, _n" + p + " = 0;");
+            }
+            if (k != INT) {
+                line("double _d" + p + " = 0, _l" + p + " = 0, _ds" + p + " = 0;");
+            }
+            if (k != INT && k != FLOAT) {
+                line("boolean _fi" + p + " = false;");
+            }
+        }
+        emitBody();
+        sb.append("    }\n");
+    }
+
+    private void emitBody() {
+        ArrayList<ArrayList<Integer>> opens = new ArrayList<>();
+        for (int pc = 0; pc < n; pc++) {
+            opens.add(new ArrayList<>());
+        }
+        for (int pc = 0; pc < n; pc++) {
+            if (blockStart[pc] >= 0) {
+                opens.get(blockStart[pc]).add(pc);
+            }
+            if (loopEnd[pc] >= 0) {
+                opens.get(pc).add(~pc);
+            }
+        }
+        int[] stack = new int[2 * n];
+        int depth = 0;
+        reachable = true;
+        for (int pc = 0; pc <= n; pc++) {
+            while (depth > 0 && endOf(stack[depth - 1]) == pc) {
+                close(stack[--depth]);
+            }
+            if (pc == n) {
+                break;
+            }
+            ArrayList<Integer> list = opens.get(pc);
+            // 外层先打开：终点靠后的在外，终点相同时块在循环外
+            list.sort((x, y) -> endOf(x) != endOf(y) ? endOf(y) - endOf(x) : y - x);
+            for (int interval : list) {
+                if (depth > 0 && endOf(interval) > endOf(stack[depth - 1])) {
+                    throw new IllegalStateException("crossing intervals at " + pc);
+                }
+                stack[depth++] = interval;
+                line(interval >= 0 ? "_to" + interval + ": {" : "_loop" + ~interval + ": for (;;) {");
+                in();
+            }
+            InstructionInfo in = code[pc];
+            if (!reach[pc] || in.opcode == OP_EXTRAARG) {
+                continue;
+            }
+            if (!reachable) {
+                throw new IllegalStateException("pc " + pc + " is not reachable in the generated code");
+            }
+            line("// " + pc + ": " + in.opname);
+            emitInstruction(pc);
+        }
+        if (reachable) {
+            line("return 0;");
+        }
+    }
+
+    private void close(int interval) {
+        if (interval >= 0) {
+            out();
+            line("}");
+            reachable |= blockBroken[interval];
+            return;
+        }
+        int h = ~interval;
+        if (reachable) {
+            // 循环体末尾顺序执行到循环之后
+            line("break _loop" + h + ";");
+            loopBroken[h] = true;
+        }
+        out();
+        line("}");
+        reachable = loopBroken[h];
+    }
+
+    // ==================== 值访问 ====================
+
+    private String name(int v) {
+        return names[v];
+    }
+
+    /** 类型化使用的Java表达式 */
+    private String expr(int pc, int r) {
+        return name(useVar(pc, r));
+    }
+
+    /** 写入寄存器的变量，只用于结果总是任意Lua值的指令 */
+    private String target(int pc, int r) {
+        return name(defVar(pc, r));
+    }
+
+    /** 类型化的值转为Object */
+    private static String box(String e, int k) {
+        switch (k) {
+            case INT: return "Long.valueOf(" + e + ")";
+            case FLOAT: return "Double.valueOf(" + e + ")";
+            case BOOL: return "Boolean.valueOf(" + e + ")";
+            default: return e;
+        }
+    }
+
+    private void push(int pc, int r) {
+        int v = useVar(pc, r);
+        switch (kind[v]) {
+            case INT: line("L.pushInteger(" + name(v) + ");"); break;
+            case FLOAT: line("L.pushNumber(" + name(v) + ");"); break;
+            case BOOL: line("L.pushBoolean(" + name(v) + ");"); break;
+            default: line("L.push(" + name(v) + ", " + (r + 1) + ");"); break;
+        }
+    }
+
+    /** 把只能在栈上访问的寄存器放入其栈槽，这些寄存器总是任意Lua值 */
+    private void toSlot(int pc, int r) {
+        line("L.at(" + expr(pc, r) + ", " + (r + 1) + ");");
+    }
+
+    private void pushK(int idx) {
+        if (idx < 0 || idx >= proto.constants.length) {
+            line("L.pushNil();");
+            return;
+        }
+        Object v = proto.constants[idx];
+        switch (proto.constantTypes[idx]) {
+            case LUA_TBOOLEAN:
+                line("L.pushBoolean(" + v + ");");
+                break;
+            case LUA_TNUMBER:
+                if (constKind(idx) == INT) {
+                    line("L.pushInteger(" + literal(((Number) v).longValue()) + ");");
+                } else {
+                    line("L.pushNumber(" + literal(((Number) v).doubleValue()) + ");");
+                }
+                break;
+            case LUA_TSTRING:
+                line("L.pushString(\"" + owner.escapeString((String) v) + "\");");
+                break;
+            default:
+                line("L.pushNil();");
+                break;
+        }
+    }
+
+    private void pushRK(int pc, int c, boolean k) {
+        if (k) {
+            pushK(c);
+        } else {
+            push(pc, c);
+        }
+    }
+
+    private String constExpr(int idx) {
+        Object v = proto.constants[idx];
+        switch (constKind(idx)) {
+            case INT: return literal(((Number) v).longValue());
+            case FLOAT: return literal(((Number) v).doubleValue());
+            default: return String.valueOf(v);
+        }
+    }
+
+    /** 常量的Object表达式，字符串以Java字符串给出 */
+    private String constObject(int idx) {
+        int k = constKind(idx);
+        if (k != ANY) {
+            return box(constExpr(idx), k);
+        }
+        if (idx >= 0 && idx < proto.constants.length && proto.constantTypes[idx] == LUA_TSTRING) {
+            return "\"" + owner.escapeString((String) proto.constants[idx]) + "\"";
+        }
+        return "null";
+    }
+
+    private static String literal(long v) {
+        return v < 0 ? "(" + v + "L)" : v + "L";
+    }
+
+    private static String literal(double v) {
+        if (Double.isNaN(v)) return "Double.NaN";
+        if (v == Double.POSITIVE_INFINITY) return "Double.POSITIVE_INFINITY";
+        if (v == Double.NEGATIVE_INFINITY) return "Double.NEGATIVE_INFINITY";
+        String s = Double.toString(v);
+        return s.startsWith("-") ? "(" + s + ")" : s;
+    }
+
+    /** 写入类型化的值 */
+    private void assign(int pc, int r, String e, int k) {
+        int v = defVar(pc, r);
+        line(name(v) + " = " + (kind[v] == ANY ? box(e, k) : e) + ";");
+    }
+
+    /** 把栈顶的值写入寄存器并出栈 */
+    private void assignTop(int pc, int r) {
+        line(target(pc, r) + " = L.popValue(" + (r + 1) + ");");
+    }
+
+    /** 把栈顶的表或函数放入寄存器的栈槽 */
+    private void assignRef(int pc, int r) {
+        line("L.replace(" + (r + 1) + ");");
+        line(target(pc, r) + " = LuaJava.SLOT;");
+    }
+
+    private void move(int pc, int a, int b) {
+        int dv = defVar(pc, a);
+        int sv = useVar(pc, b);
+        if (kind[dv] != ANY) {
+            line(name(dv) + " = " + name(sv) + ";");
+        } else if (kind[sv] == ANY) {
+            if (a != b || dv != sv) {
+                line(name(dv) + " = L.move(" + name(sv) + ", " + (b + 1) + ", " + (a + 1) + ");");
+            }
+        } else {
+            line(name(dv) + " = " + box(name(sv), kind[sv]) + ";");
+        }
+    }
+
+    private String truthy(int pc, int r) {
+        int v = useVar(pc, r);
+        switch (kind[v]) {
+            case BOOL: return name(v);
+            case INT: case FLOAT: return "true";
+            default: return "LuaJava.truthy(" + name(v) + ")";
+        }
+    }
+
+    private static String not(String e) {
+        if (e.equals("true")) return "false";
+        if (e.equals("false")) return "true";
+        return e.matches("[\\w.]+(\\([\\w, .-]*\\))?") ? "!" + e : "!(" + e + ")";
+    }
+
+    boolean isEnv(int upval) {
+        return LuaToJava.isEnv(proto, upval);
+    }
+
+    private String keyName(int idx) {
+        return owner.escapeString((String) proto.constants[idx]);
+    }
+
+    // ==================== 指令 ====================
+
+    private static final String[] ARITH_OPS = new String[OP_SHR + 1];
+
+    static {
+        ARITH_OPS[OP_ADD] = "LuaJava.LUA_OPADD";
+        ARITH_OPS[OP_SUB] = "LuaJava.LUA_OPSUB";
+        ARITH_OPS[OP_MUL] = "LuaJava.LUA_OPMUL";
+        ARITH_OPS[OP_MOD] = "LuaJava.LUA_OPMOD";
+        ARITH_OPS[OP_POW] = "LuaJava.LUA_OPPOW";
+        ARITH_OPS[OP_DIV] = "LuaJava.LUA_OPDIV";
+        ARITH_OPS[OP_IDIV] = "LuaJava.LUA_OPIDIV";
+        ARITH_OPS[OP_BAND] = "LuaJava.LUA_OPBAND";
+        ARITH_OPS[OP_BOR] = "LuaJava.LUA_OPBOR";
+        ARITH_OPS[OP_BXOR] = "LuaJava.LUA_OPBXOR";
+        ARITH_OPS[OP_SHL] = "LuaJava.LUA_OPSHL";
+        ARITH_OPS[OP_SHR] = "LuaJava.LUA_OPSHR";
+    }
+
+    /** 类型化算术表达式，结果类型由{@link #arithKind}给出 */
+    private static String arithExpr(int op, String x, int kx, String y, int ky, int k) {
+        if (k == INT) {
+            switch (op) {
+                case OP_ADD: return x + " + " + y;
+                case OP_SUB: return x + " - " + y;
+                case OP_MUL: return x + " * " + y;
+                case OP_MOD: return "LuaJava.imod(" + x + ", " + y + ")";
+                case OP_IDIV: return "LuaJava.idiv(" + x + ", " + y + ")";
+                case OP_BAND: return x + " & " + y;
+                case OP_BOR: return x + " | " + y;
+                case OP_BXOR: return x + " ^ " + y;
+                case OP_SHL: return "LuaJava.shiftLeft(" + x + ", " + y + ")";
+                default: return "LuaJava.shiftLeft(" + x + ", -" + y + ")";
+            }
+        }
+        x = kx == INT ? "(double) " + x : x;
+        y = ky == INT ? "(double) " + y : y;
+        switch (op) {
+            case OP_ADD: return x + " + " + y;
+            case OP_SUB: return x + " - " + y;
+            case OP_MUL: return x + " * " + y;
+            case OP_DIV: return x + " / " + y;
+            case OP_MOD: return "LuaJava.fmod(" + x + ", " + y + ")";
+            case OP_IDIV: return "Math.floor(" + x + " / " + y + ")";
+            default: return "Math.pow(" + x + ", " + y + ")";
+        }
+    }
+
+    private void emitArith(int pc) {
+        InstructionInfo in = code[pc];
+        int op = in.opcode;
+        int base = baseArith(op);
+        int k = naturalKind(pc, in.a);
+        Operand x = regOperand(pc, in.b);
+        Operand y;
+        switch (op) {
+            case OP_ADDI: case OP_SHRI: case OP_SHLI:
+                y = immOperand(in.sc);
+                break;
+            case OP_ADD: case OP_SUB: case OP_MUL: case OP_MOD: case OP_POW: case OP_DIV:
+            case OP_IDIV: case OP_BAND: case OP_BOR: case OP_BXOR: case OP_SHL: case OP_SHR:
+                y = regOperand(pc, in.c);
+                break;
+            default:
+                y = constOperand(in.c);
+                break;
+        }
+        if (op == OP_SHLI) {
+            // R[A] := sC << R[B]
+            Operand t = x;
+            x = y;
+            y = t;
+        }
+        if (k != ANY) {
+            assign(pc, in.a, arithExpr(base, x.expr, x.kind, y.expr, y.kind, k), k);
+            return;
+        }
+        line(target(pc, in.a) + " = L.arith(" + ARITH_OPS[base] + ", " + x.object() + ", " + x.slot + ", "
+                + y.object() + ", " + y.slot + ", " + (in.a + 1) + ");");
+    }
+
+    /** 算术与比较的操作数：寄存器、常量或立即数 */
+    private static final class Operand {
+        int kind;
+        String expr;
+        /** 值为LuaJava.SLOT时所在的栈槽，不是寄存器时为0 */
+        int slot;
+
+        String object() {
+            return box(expr, kind);
+        }
+    }
+
+    private Operand regOperand(int pc, int r) {
+        Operand o = new Operand();
+        o.kind = useKind(pc, r);
+        o.expr = expr(pc, r);
+        o.slot = o.kind == ANY ? r + 1 : 0;
+        return o;
+    }
+
+    private Operand constOperand(int idx) {
+        Operand o = new Operand();
+        o.kind = constKind(idx);
+        o.expr = o.kind != ANY ? constExpr(idx) : constObject(idx);
+        return o;
+    }
+
+    private Operand immOperand(long v) {
+        Operand o = new Operand();
+        o.kind = INT;
+        o.expr = literal(v);
+        return o;
+    }
+
+    /**
+     * 比较表达式
+     * @param cmp LUA_OPEQ/LUA_OPLT/LUA_OPLE
+     */
+    private static String compare(int cmp, Operand x, Operand y) {
+        if (isNumeric(x.kind) && isNumeric(y.kind)) {
+            if (x.kind != y.kind) {
+                // 整数超过2^53时转为double会丢失精度，交给精确比较的辅助方法
+                String name = cmp == LUA_OPEQ ? "eq" : cmp == LUA_OPLT ? "lt" : "le";
+                if (cmp == LUA_OPEQ && x.kind == FLOAT) {
+                    return "LuaJava.eqIntFloat(" + y.expr + ", " + x.expr + ")";
+                }
+                return "LuaJava." + name + (x.kind == INT ? "IntFloat(" : "FloatInt(") + x.expr + ", " + y.expr + ")";
+            }
+            String op = cmp == LUA_OPEQ ? " == " : cmp == LUA_OPLT ? " < " : " <= ";
+            return x.expr + op + y.expr;
+        }
+        if (cmp == LUA_OPEQ && x.kind != ANY && y.kind != ANY) {
+            return x.kind == BOOL && y.kind == BOOL ? x.expr + " == " + y.expr : "false";
+        }
+        String name = cmp == LUA_OPEQ ? "eq" : cmp == LUA_OPLT ? "lt" : "le";
+        return "L." + name + "(" + x.object() + ", " + x.slot + ", " + y.object() + ", " + y.slot + ")";
+    }
+
+    private void branch(int pc, String cond) {
+        String test = code[pc].k != 0 ? not(cond) : cond;
+        line("if (" + test + ") {");
+        in();
+        line(jump(pc, pc + 2));
+        out();
+        line("}");
+        goTo(pc, pc + 1);
+    }
+
+    private void emitInstruction(int pc) {
+        InstructionInfo in = code[pc];
+        int a = in.a, b = in.b, c = in.c;
+        boolean k = in.k != 0;
+        switch (in.opcode) {
+            case OP_MOVE:
+                move(pc, a, b);
+                break;
+            case OP_LOADI:
+                assign(pc, a, literal((long) in.sbx), INT);
+                break;
+            case OP_LOADF:
+                assign(pc, a, literal((double) in.sbx), FLOAT);
+                break;
+            case OP_LOADK:
+            case OP_LOADKX: {
+                int idx = in.opcode == OP_LOADK ? (int) in.bx : (int) code[pc + 1].ax;
+                int kk = constKind(idx);
+                if (kk != ANY) {
+                    assign(pc, a, constExpr(idx), kk);
+                } else if (proto.constantTypes[idx] == LUA_TSTRING) {
+                    line(target(pc, a) + " = L.string(" + constObject(idx) + ", " + (a + 1) + ");");
+                } else {
+                    line(target(pc, a) + " = null;");
+                }
+                break;
+            }
+            case OP_LOADFALSE:
+                assign(pc, a, "false", BOOL);
+                break;
+            case OP_LOADTRUE:
+                assign(pc, a, "true", BOOL);
+                break;
+            case OP_LFALSESKIP:
+                assign(pc, a, "false", BOOL);
+                goTo(pc, pc + 2);
+                break;
+            case OP_LOADNIL:
+                for (int r = a; r <= a + b; r++) {
+                    line(target(pc, r) + " = null;");
+                }
+                break;
+            case OP_GETUPVAL:
+                if (isEnv(b)) {
+                    line("L.rawGetI(LuaJava.LUA_REGISTRYINDEX, 2);");
+                    assignTop(pc, a);
+                } else {
+                    line(target(pc, a) + " = L.value(LuaJava.upvalueIndex(" + (b + 2) + "), " + (a + 1) + ");");
+                }
+                break;
+            case OP_SETUPVAL:
+                push(pc, a);
+                line("L.replace(LuaJava.upvalueIndex(" + (b + 2) + "));");
+                break;
+            case OP_GETTABUP:
+                if (isEnv(b)) {
+                    line("L.getGlobal(\"" + keyName(c) + "\");");
+                } else {
+                    line("L.getField(LuaJava.upvalueIndex(" + (b + 2) + "), \"" + keyName(c) + "\");");
+                }
+                assignTop(pc, a);
+                break;
+            case OP_SETTABUP:
+                pushRK(pc, c, k);
+                if (isEnv(a)) {
+                    line("L.setGlobal(\"" + keyName(b) + "\");");
+                } else {
+                    line("L.setField(LuaJava.upvalueIndex(" + (a + 2) + "), \"" + keyName(b) + "\");");
+                }
+                break;
+            case OP_GETTABLE:
+                toSlot(pc, b);
+                if (useKind(pc, c) == INT) {
+                    line("L.getI(" + (b + 1) + ", " + expr(pc, c) + ");");
+                } else {
+                    push(pc, c);
+                    line("L.getTable(" + (b + 1) + ");");
+                }
+                assignTop(pc, a);
+                break;
+            case OP_GETI:
+                toSlot(pc, b);
+                line("L.getI(" + (b + 1) + ", " + c + ");");
+                assignTop(pc, a);
+                break;
+            case OP_GETFIELD:
+                toSlot(pc, b);
+                line("L.getField(" + (b + 1) + ", \"" + keyName(c) + "\");");
+                assignTop(pc, a);
+                break;
+            case OP_SETTABLE:
+                toSlot(pc, a);
+                if (useKind(pc, b) == INT) {
+                    pushRK(pc, c, k);
+                    line("L.setI(" + (a + 1) + ", " + expr(pc, b) + ");");
+                } else {
+                    push(pc, b);
+                    pushRK(pc, c, k);
+                    line("L.setTable(" + (a + 1) + ");");
+                }
+                break;
+            case OP_SETI:
+                toSlot(pc, a);
+                pushRK(pc, c, k);
+                line("L.setI(" + (a + 1) + ", " + b + ");");
+                break;
+            case OP_SETFIELD:
+                toSlot(pc, a);
+                pushRK(pc, c, k);
+                line("L.setField(" + (a + 1) + ", \"" + keyName(b) + "\");");
+                break;
+            case OP_NEWTABLE: {
+                int hash = in.vb > 0 ? 1 << (in.vb - 1) : 0;
+                line("L.createTable(" + in.vc + ", " + hash + ");");
+                assignRef(pc, a);
+                break;
+            }
+            case OP_SELF:
+                toSlot(pc, b);
+                if (k) {
+                    line("L.getField(" + (b + 1) + ", \"" + keyName(c) + "\");");
+                } else {
+                    push(pc, c);
+                    line("L.getTable(" + (b + 1) + ");");
+                }
+                move(pc, a + 1, b);
+                assignTop(pc, a);
+                break;
+            case OP_ADDI: case OP_ADDK: case OP_SUBK: case OP_MULK: case OP_MODK:
+            case OP_POWK: case OP_DIVK: case OP_IDIVK: case OP_BANDK: case OP_BORK: case OP_BXORK:
+            case OP_SHRI: case OP_SHLI:
+            case OP_ADD: case OP_SUB: case OP_MUL: case OP_MOD: case OP_POW: case OP_DIV:
+            case OP_IDIV: case OP_BAND: case OP_BOR: case OP_BXOR: case OP_SHL: case OP_SHR:
+                emitArith(pc);
+                break;
+            case OP_UNM:
+            case OP_BNOT: {
+                int kk = naturalKind(pc, a);
+                if (kk != ANY) {
+                    assign(pc, a, (in.opcode == OP_UNM ? "-" : "~") + expr(pc, b), kk);
+                } else {
+                    Operand x = regOperand(pc, b);
+                    String op = in.opcode == OP_UNM ? "LuaJava.LUA_OPUNM" : "LuaJava.LUA_OPBNOT";
+                    line(target(pc, a) + " = L.arith(" + op + ", " + x.object() + ", " + x.slot + ", " + (a + 1) + ");");
+                }
+                break;
+            }
+            case OP_NOT:
+                assign(pc, a, not(truthy(pc, b)), BOOL);
+                break;
+            case OP_LEN:
+                if (useKind(pc, b) == ANY) {
+                    toSlot(pc, b);
+                    line("L.len(" + (b + 1) + ");");
+                } else {
+                    push(pc, b);
+                    line("L.len(-1);");
+                    line("L.remove(-2);");
+                }
+                assignTop(pc, a);
+                break;
+            case OP_CONCAT:
+                for (int r = a; r < a + b; r++) {
+                    push(pc, r);
+                }
+                line("L.concat(" + b + ");");
+                assignTop(pc, a);
+                break;
+            case OP_CLOSE:
+                // 函数中没有待关闭变量时只需关闭upvalue，而upvalue按值复制
+                if (hasTbc) {
+                    line("L.closeSlot(" + (a + 1) + ");");
+                }
+                break;
+            case OP_TBC:
+                toSlot(pc, a);
+                line("L.toClose(" + (a + 1) + ");");
+                break;
+            case OP_JMP:
+                goTo(pc, pc + 1 + (int) in.sj);
+                break;
+            case OP_EQ:
+                branch(pc, compare(LUA_OPEQ, regOperand(pc, a), regOperand(pc, b)));
+                break;
+            case OP_LT:
+                branch(pc, compare(LUA_OPLT, regOperand(pc, a), regOperand(pc, b)));
+                break;
+            case OP_LE:
+                branch(pc, compare(LUA_OPLE, regOperand(pc, a), regOperand(pc, b)));
+                break;
+            case OP_EQK:
+                branch(pc, compare(LUA_OPEQ, regOperand(pc, a), constOperand(b)));
+                break;
+            case OP_EQI:
+                branch(pc, compare(LUA_OPEQ, regOperand(pc, a), immOperand(in.sb)));
+                break;
+            case OP_LTI:
+                branch(pc, compare(LUA_OPLT, regOperand(pc, a), immOperand(in.sb)));
+                break;
+            case OP_LEI:
+                branch(pc, compare(LUA_OPLE, regOperand(pc, a), immOperand(in.sb)));
+                break;
+            case OP_GTI:
+                branch(pc, compare(LUA_OPLT, immOperand(in.sb), regOperand(pc, a)));
+                break;
+            case OP_GEI:
+                branch(pc, compare(LUA_OPLE, immOperand(in.sb), regOperand(pc, a)));
+                break;
+            case OP_TEST:
+                branch(pc, truthy(pc, a));
+                break;
+            case OP_TESTSET: {
+                String cond = truthy(pc, b);
+                line("if (" + (k ? not(cond) : cond) + ") {");
+                in();
+                line(jump(pc, pc + 2));
+                out();
+                line("}");
+                move(pc, a, b);
+                goTo(pc, pc + 1);
+                break;
+            }
+            case OP_CALL:
+                emitCall(pc);
+                break;
+            case OP_TAILCALL:
+                for (int r = a; r < a + b; r++) {
+                    push(pc, r);
+                }
+                line("L.call(" + (b - 1) + ", LuaJava.LUA_MULTRET);");
+                line("return L.getTop() - " + nregs + ";");
+                reachable = false;
+                break;
+            case OP_RETURN:
+                if (b == 0) {
+                    line("return L.getTop() - " + nregs + ";");
+                } else {
+                    for (int r = a; r < a + b - 1; r++) {
+                        push(pc, r);
+                    }
+                    line("return " + (b - 1) + ";");
+                }
+                reachable = false;
+                break;
+            case OP_RETURN0:
+                line("return 0;");
+                reachable = false;
+                break;
+            case OP_RETURN1:
+                push(pc, a);
+                line("return 1;");
+                reachable = false;
+                break;
+            case OP_FORPREP:
+                emitForPrep(pc);
+                break;
+            case OP_FORLOOP:
+                emitForLoop(pc);
+                break;
+            case OP_TFORPREP:
+                emitTforPrep(pc);
+                break;
+            case OP_TFORCALL:
+                emitTforCall(pc);
+                break;
+            case OP_TFORLOOP: {
+                line("if (" + notNil(pc, a + 4) + ") {");
+                in();
+                move(pc, a + 2, a + 4);
+                line(jump(pc, pc + 1 - (int) in.bx));
+                out();
+                line("}");
+                goTo(pc, pc + 1);
+                break;
+            }
+            case OP_SETLIST:
+                emitSetList(pc);
+                break;
+            case OP_CLOSURE: {
+                ProtoInfo child = proto.subProtos[(int) in.bx];
+                for (int j = 0; j < child.sizeUpvalues; j++) {
+                    UpvalDesc uv = child.upvalues[j];
+                    if (uv.instack) {
+                        push(pc, uv.idx);
+                    } else {
+                        line("L.pushValue(LuaJava.upvalueIndex(" + (uv.idx + 2) + "));");
+                    }
+                }
+                line("L.pushJavaFunction(this, \"" + child.name + "\", " + child.sizeUpvalues + ");");
+                assignRef(pc, a);
+                break;
+            }
+            default:
+                // MMBIN由算术运算处理，VARARGPREP/NOP无操作
+                break;
+        }
+    }
+
+    private void emitCall(int pc) {
+        InstructionInfo in = code[pc];
+        int a = in.a, b = in.b, c = in.c;
+        if (c == 0) {
+            // 消费指令的固定部分先入栈，开放调用的结果紧随其后
+            InstructionInfo consumer = code[pc + 1];
+            if (consumer.opcode != OP_SETLIST) {
+                for (int r = consumer.a; r < a; r++) {
+                    push(pc + 1, r);
+                }
+            }
+            for (int r = a; r < a + b; r++) {
+                push(pc, r);
+            }
+            line("L.call(" + (b - 1) + ", LuaJava.LUA_MULTRET);");
+            return;
+        }
+        if (b == 0) {
+            line("L.call(L.getTop() - " + (nregs + 1) + ", " + (c - 1) + ");");
+        } else {
+            for (int r = a; r < a + b; r++) {
+                push(pc, r);
+            }
+            line("L.call(" + (b - 1) + ", " + (c - 1) + ");");
+        }
+        for (int r = a + c - 2; r >= a; r--) {
+            assignTop(pc, r);
+        }
+    }
+
+    private void emitSetList(int pc) {
+        InstructionInfo in = code[pc];
+        int a = in.a;
+        int last = in.vc;
+        toSlot(pc, a);
+        if (in.vb == 0) {
+            int fixed = code[pc - 1].a - a - 1;
+            for (int i = 1; i <= fixed; i++) {
+                push(pc, a + i);
+                line("L.rawSetI(" + (a + 1) + ", " + (last + i) + ");");
+            }
+            String cnt = "_n" + pc;
+            line("for (int " + cnt + " = L.getTop() - " + nregs + "; " + cnt + " > 0; " + cnt + "--) {");
+            line("    L.rawSetI(" + (a + 1) + ", " + (last + fixed) + " + " + cnt + ");");
+            line("}");
+            return;
+        }
+        for (int i = 1; i <= in.vb; i++) {
+            push(pc, a + i);
+            line("L.rawSetI(" + (a + 1) + ", " + (last + i) + ");");
+        }
+    }
+
+    // ==================== 泛型for循环 ====================
+
+    private String notNil(int pc, int r) {
+        int v = useVar(pc, r);
+        return kind[v] == ANY ? name(v) + " != null" : "true";
+    }
+
+    /**
+     * 准备迭代器后执行第一次迭代：循环入口跳转到循环末尾的TFORCALL，
+     * 这里复制TFORCALL与TFORLOOP，使循环只从循环头进入
+     */
+    private void emitTforPrep(int p) {
+        int a = code[p].a;
+        int c = p + 1 + (int) code[p].bx;
+        toSlot(p, a);
+        toSlot(p, a + 1);
+        toSlot(p, a + 3);
+        line("L.tforPrep(" + (a + 1) + ");");
+        line("L.toClose(" + (a + 4) + ");");
+        line(target(p, a) + " = L.value(" + (a + 1) + ", " + (a + 1) + ");");
+        line(target(p, a + 1) + " = L.value(" + (a + 2) + ", " + (a + 2) + ");");
+        emitTforCall(c);
+        line("if (!(" + notNil(c + 1, a + 4) + ")) {");
+        in();
+        line(jump(p, c + 2));
+        out();
+        line("}");
+        move(c + 1, a + 2, a + 4);
+    }
+
+    private void emitTforCall(int pc) {
+        int a = code[pc].a;
+        int c = code[pc].c;
+        for (int r = a; r < a + 3; r++) {
+            push(pc, r);
+        }
+        line("L.call(2, " + c + ");");
+        for (int r = a + 3 + c; r >= a + 4; r--) {
+            assignTop(pc, r);
+        }
+    }
+
+    // ==================== 数值for循环 ====================
+
+    private String intOperand(int p, int r) {
+        int v = useVar(p, r);
+        switch (kind[v]) {
+            case INT: return name(v);
+            case ANY: return "((Long) " + name(v) + ")";
+            default: return "0L";
+        }
+    }
+
+    private String numOperand(int p, int r, String what) {
+        int v = useVar(p, r);
+        switch (kind[v]) {
+            case INT: return "(double) " + name(v);
+            case FLOAT: return name(v);
+            case BOOL:
+                line("L.throwError(\"'for' " + what + " must be a number\");");
+                return "0";
+            default:
+                return "L.forNumber(" + name(v) + ", " + (r + 1) + ", \"" + what + "\")";
+        }
+    }
+
+    private String countExpr(int p, String init, String step) {
+        int r = code[p].a + 1;
+        int v = useVar(p, r);
+        switch (kind[v]) {
+            case INT: case FLOAT:
+                return "LuaJava.forCount(" + init + ", " + name(v) + ", " + step + ")";
+            case BOOL:
+                line("L.throwError(\"'for' limit must be a number\");");
+                return "0";
+            default:
+                return "L.forCount(" + init + ", " + name(v) + ", " + (r + 1) + ", " + step + ")";
+        }
+    }
+
+    private String isIntOperand(int p, int r) {
+        int v = useVar(p, r);
+        switch (kind[v]) {
+            case INT: return "true";
+            case ANY: return "LuaJava.isInteger(" + name(v) + ")";
+            default: return "false";
+        }
+    }
+
+    private void emitForPrep(int p) {
+        int a = code[p].a;
+        int q = forLoopOf[p];
+        int k = forKind(p);
+        String skip = jump(p, q + 1);
+        String i = "_i" + p, s = "_s" + p, c = "_n" + p;
+        String d = "_d" + p, l = "_l" + p, ds = "_ds" + p;
+        if (k != FLOAT) {
+            if (k != INT) {
+                line("if (" + isIntOperand(p, a) + " && " + isIntOperand(p, a + 2) + ") {");
+                in();
+                line("_fi" + p + " = true;");
+            }
+            line(s + " = " + intOperand(p, a + 2) + ";");
+            line(i + " = " + intOperand(p, a) + ";");
+            line(c + " = " + countExpr(p, i, s) + ";");
+            line("if (" + c + " == 0) {");
+            line("    " + skip);
+            line("}");
+            assign(p, a + 3, i, INT);
+            if (k != INT) {
+                out();
+                line("} else {");
+                in();
+                line("_fi" + p + " = false;");
+            }
+        }
+        if (k != INT) {
+            line(l + " = " + numOperand(p, a + 1, "limit") + ";");
+            line(ds + " = " + numOperand(p, a + 2, "step") + ";");
+            line(d + " = " + numOperand(p, a, "initial value") + ";");
+            line("if (" + ds + " == 0) L.throwError(\"'for' step is zero\");");
+            line("if (" + ds + " > 0 ? " + l + " < " + d + " : " + d + " < " + l + ") {");
+            line("    " + skip);
+            line("}");
+            assign(p, a + 3, d, FLOAT);
+            if (k != FLOAT) {
+                out();
+                line("}");
+            }
+        }
+    }
+
+    private void emitForLoop(int q) {
+        int p = forPrepOf[q];
+        int a = code[q].a;
+        int k = forKind(p);
+        String back = jump(q, p + 1);
+        String i = "_i" + p, s = "_s" + p, c = "_n" + p;
+        String d = "_d" + p, l = "_l" + p, ds = "_ds" + p;
+        if (k != INT && k != FLOAT) {
+            line("if (_fi" + p + ") {");
+            in();
+        }
+        if (k != FLOAT) {
+            line("if (--" + c + " != 0) {");
+            in();
+            line(i + " += " + s + ";");
+            assign(q, a + 3, i, INT);
+            line(back);
+            out();
+            line("}");
+        }
+        if (k != INT && k != FLOAT) {
+            out();
+            line("} else {");
+            in();
+        }
+        if (k != INT) {
+            line(d + " += " + ds + ";");
+            line("if (" + ds + " > 0 ? " + d + " <= " + l + " : " + l + " <= " + d + ") {");
+            in();
+            assign(q, a + 3, d, FLOAT);
+            line(back);
+            out();
+            line("}");
+        }
+        if (k != INT && k != FLOAT) {
+            out();
+            line("}");
+        }
+    }
+}
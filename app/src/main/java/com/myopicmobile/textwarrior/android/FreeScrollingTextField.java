@@ -86,11 +86,12 @@ import com.myopicmobile.textwarrior.common.DocumentProvider;
 import com.myopicmobile.textwarrior.common.Language;
 import com.myopicmobile.textwarrior.common.LanguageLua;
 import com.myopicmobile.textwarrior.common.Lexer;
+import com.myopicmobile.textwarrior.common.LuaParser;
 import com.myopicmobile.textwarrior.common.Pair;
 import com.myopicmobile.textwarrior.common.RowListener;
 import com.myopicmobile.textwarrior.common.TextWarriorException;
 
-import org.luaj.vm2.compiler.LexState;
+import org.luaj.vm2.compiler.AnalysisResult;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -969,24 +970,25 @@ private float getStringWidth(String str) {
         realDraw(canvas);
 
         canvas.restore();
-        if ( ((LuaEditor) this).enableErrMsg==true && LexState.errormsg != null) {
-            int paintX = drawString(canvas, LexState.errormsg, 0, LexState.errormsg.length(), getPaddingLeft(), getScrollY() + getHeight() - getPaddingBottom() - rowHeight());
+        AnalysisResult result = LuaParser.getResult();
+        if ( ((LuaEditor) this).enableErrMsg==true && result.errormsg != null) {
+            int paintX = drawString(canvas, result.errormsg, 0, result.errormsg.length(), getPaddingLeft(), getScrollY() + getHeight() - getPaddingBottom() - rowHeight());
             if (paintX > _xExtent) {
                 // record widest line seen so far
                 _xExtent = paintX;
             }
         }
         // 黑色警告：来自luaD_protectedparser的代码分析结果
-        if ( ((LuaEditor) this).enableErrMsg==true && LexState.hintmsg != null) {
+        if ( ((LuaEditor) this).enableErrMsg==true && result.hintmsg != null) {
             // 如果同时有红色警告，黑色警告显示在红色警告上方一行
             int hintY = getScrollY() + getHeight() - getPaddingBottom() - rowHeight();
-            if (LexState.errormsg != null) {
+            if (result.errormsg != null) {
                 hintY -= rowHeight(); // 上移一行，避免被红色警告遮挡
             }
             // 保存原颜色
             int oldColor = _brush.getColor();
             _brush.setColor(0xff000000); // 黑色
-            int paintX = drawString(canvas, LexState.hintmsg, 0, LexState.hintmsg.length(), getPaddingLeft(), hintY);
+            int paintX = drawString(canvas, result.hintmsg, 0, result.hintmsg.length(), getPaddingLeft(), hintY);
             _brush.setColor(oldColor);
             if (paintX > _xExtent) {
                 _xExtent = paintX;
@@ -1410,8 +1412,9 @@ private float getStringWidth(String str) {
                 paintX + advance,
                 paintY + metrics.descent,
                 _brush);
-        if (LexState.errorline > -1) {
-            int y = getPaintBaseline(LexState.errorline - 1);
+        AnalysisResult result = LuaParser.getResult();
+        if (result.errorline > -1) {
+            int y = getPaintBaseline(result.errorline - 1);
             _brush.setColor(0xffff0000);
             int lineLength = Math.max(_xExtent, getContentWidth());
             canvas.drawRect(0,
@@ -1423,13 +1426,13 @@ private float getStringWidth(String str) {
         
         // 绘制黑色警告条（潜在运行时问题）
         // 如果有红色警告，黑色警告绘制在红色警告上方一行；否则绘制在hintline位置
-        if (LexState.hintline > -1) {
+        if (result.hintline > -1) {
             int hintY;
-            if (LexState.errorline > -1 && LexState.hintline == LexState.errorline) {
+            if (result.errorline > -1 && result.hintline == result.errorline) {
                 // 红色和黑色在同一行，黑色绘制在上方（减一行高度）
-                hintY = getPaintBaseline(LexState.hintline - 1) - rowHeight();
+                hintY = getPaintBaseline(result.hintline - 1) - rowHeight();
             } else {
-                hintY = getPaintBaseline(LexState.hintline - 1);
+                hintY = getPaintBaseline(result.hintline - 1);
             }
             _brush.setColor(0xff000000); // 黑色
             int lineLength = Math.max(_xExtent, getContentWidth());
@@ -2855,7 +2858,7 @@ private float getStringWidth(String str) {
         public void determineSpans() {
             //start=System.currentTimeMillis();
             //Log.i("lua", "onLex: start");
-            LexState.erroridx = -1;
+            LuaParser.getResult().erroridx = -1;
             _lexer.tokenize(_hDoc);
         }
 
@@ -2870,10 +2873,11 @@ private float getStringWidth(String str) {
                 @Override
                 public void run() {
                     _hDoc.setSpans(results);
-                    if (LexState.lines.isEmpty() || !TextUtils.isEmpty(LexState.errormsg))
+                    AnalysisResult result = LuaParser.getResult();
+                    if (result.lines.isEmpty() || !TextUtils.isEmpty(result.errormsg))
                         _hDoc.setLines(new ArrayList<>(Lexer.getLines()));
                     else
-                        _hDoc.setLines(new ArrayList<>(LexState.lines));
+                        _hDoc.setLines(new ArrayList<>(result.lines));
                     invalidate();
                     System.gc();
                 }
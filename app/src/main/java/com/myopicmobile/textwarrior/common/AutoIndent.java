@@ -8,7 +8,7 @@ import android.util.SparseIntArray;
 import com.difierline.lua.tokenizer.LuaLexer;
 import com.difierline.lua.tokenizer.LuaTokenTypes;
 
-import org.luaj.vm2.compiler.LexState;
+import org.luaj.vm2.compiler.AnalysisResult;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -66,8 +66,9 @@ public class AutoIndent {
         boolean isNewLine = true;
         boolean isNewLine2 = true;
         LuaLexer lexer = new LuaLexer(text);
-        ArrayList<Rect> lines = new ArrayList<>(LexState.lines);
-        if(lines.isEmpty()||!TextUtils.isEmpty(LexState.errormsg)) {
+        AnalysisResult result = LuaParser.getResult();
+        ArrayList<Rect> lines = new ArrayList<>(result.lines);
+        if(lines.isEmpty()||!TextUtils.isEmpty(result.errormsg)) {
             lines.clear();
             lines.addAll(Lexer.getLines());
         }
@@ -8,8 +8,6 @@
  */
 package com.myopicmobile.textwarrior.common;
 
-import java.util.ArrayList;
-
 /**
  * A decorator of TextBuffer that adds word-wrap capabilities.
  * <p>
@@ -29,12 +27,32 @@ public class Document extends TextBuffer {
      * A table containing the character offset of every row in the document.
      * Values are valid only in word-wrap mode
      */
-    private ArrayList<Integer> _rowTable;
+    private final RowTable _rowTable = new RowTable();
+
+    /**
+     * Row offsets found by the last analyzeWordWrap pass, before they are
+     * merged into _rowTable
+     */
+    private int[] _newRows = new int[64];
+    private int _newRowCount;
+
+    /**
+     * Number of chars read at a time when scanning the text
+     */
+    private final static int SCAN_CHUNK = 1024;
 
     public Document(TextFieldMetrics metrics) {
         super();
         _metrics = metrics;
-        resetRowTable();
+    }
+
+    /**
+     * @param usePieceTable Store the text in a piece table instead of a gap
+     *                      buffer, see {@link TextBuffer#TextBuffer(boolean)}
+     */
+    public Document(TextFieldMetrics metrics, boolean usePieceTable) {
+        super(usePieceTable);
+        _metrics = metrics;
     }
 
     public void setText(CharSequence text) {
@@ -50,9 +68,7 @@ public class Document extends TextBuffer {
     }
 
     private void resetRowTable() {
-        ArrayList<Integer> rowTable = new ArrayList<Integer>();
-        rowTable.add(0); //every document contains at least 1 row
-        _rowTable = rowTable;
+        _rowTable.reset(); //every document contains at least 1 row
     }
 
     public void setMetrics(TextFieldMetrics metrics) {
@@ -108,34 +124,35 @@ public class Document extends TextBuffer {
         super.shiftGapStart(displacement);
 
         if (displacement != 0) {
+            int gapStart = gapStart();
             int startOffset = (displacement > 0)
-                    ? _gapStartIndex - displacement
-                    : _gapStartIndex;
+                    ? gapStart - displacement
+                    : gapStart;
             int startRow = findRowNumber(startOffset);
-            int analyzeEnd = findNextLineFrom(_gapStartIndex);
+            int analyzeEnd = findNextLineFrom(gapStart);
             updateWordWrapAfterEdit(startRow, analyzeEnd, displacement);
         }
     }
 
     //No error checking is done on parameters.
     private int findNextLineFrom(int charOffset) {
-        int lineEnd = logicalToRealIndex(charOffset);
-
-        while (lineEnd < _contents.length) {
-            // skip the gap
-            if (lineEnd == _gapStartIndex) {
-                lineEnd = _gapEndIndex;
-            }
-
-            if (_contents[lineEnd] == Language.NEWLINE ||
-                    _contents[lineEnd] == Language.EOF) {
-                break;
+        int length = getTextLength();
+        char[] chunk = new char[SCAN_CHUNK];
+        int lineEnd = charOffset;
+
+        while (lineEnd < length) {
+            int n = Math.min(SCAN_CHUNK, length - lineEnd);
+            getChars(lineEnd, lineEnd + n, chunk, 0);
+            for (int i = 0; i < n; ++i) {
+                if (chunk[i] == Language.NEWLINE ||
+                        chunk[i] == Language.EOF) {
+                    return lineEnd + i + 1;
+                }
             }
-
-            ++lineEnd;
+            lineEnd += n;
         }
 
-        return realToLogicalIndex(lineEnd) + 1;
+        return lineEnd + 1;
     }
 
     private void updateWordWrapAfterEdit(int startRow, int analyzeEnd, int delta) {
@@ -149,27 +166,27 @@ public class Document extends TextBuffer {
         int analyzeStart = _rowTable.get(startRow);
 
         //changes only affect the rows after startRow
-        removeRowMetadata(startRow + 1, analyzeEnd - delta);
-        adjustOffsetOfRowsFrom(startRow + 1, delta);
+        _rowTable.removeUpTo(startRow + 1, analyzeEnd - delta);
+        _rowTable.shift(startRow + 1, delta);
         analyzeWordWrap(startRow + 1, analyzeStart, analyzeEnd);
     }
 
-    /**
-     * Removes row offset info from fromRow to the row that endOffset is on,
-     * inclusive.
-     * <p>
-     * No error checking is done on parameters.
-     */
-    private void removeRowMetadata(int fromRow, int endOffset) {
-        while (fromRow < _rowTable.size() &&
-                _rowTable.get(fromRow) <= endOffset) {
-            _rowTable.remove(fromRow);
+    private void addRow(int offset) {
+        if (_newRowCount == _newRows.length) {
+            int[] rows = new int[_newRowCount * 2];
+            System.arraycopy(_newRows, 0, rows, 0, _newRowCount);
+            _newRows = rows;
         }
+        _newRows[_newRowCount++] = offset;
     }
 
-    private void adjustOffsetOfRowsFrom(int fromRow, int offset) {
-        for (int i = fromRow; i < _rowTable.size(); ++i) {
-            _rowTable.set(i, _rowTable.get(i) + offset);
+    //merge the rows found by analyzeWordWrap with the existing row table
+    private void mergeNewRows(int rowIndex) {
+        _rowTable.insert(rowIndex, _newRows, _newRowCount);
+        _newRowCount = 0;
+        if (_newRows.length > 4096) {
+            // do not hold on to the buffer of a full analysis
+            _newRows = new int[64];
         }
     }
 
@@ -198,25 +215,21 @@ public class Document extends TextBuffer {
     //A word consists of a sequence of 0 or more non-whitespace characters followed by
     //exactly one whitespace character. Note that EOF is considered whitespace.
     private void analyzeWordWrap(int rowIndex, int startOffset, int endOffset) {
+        char[] chunk = new char[SCAN_CHUNK];
         if (!_isWordWrap) {
-            int offset = logicalToRealIndex(startOffset);
-            int end = logicalToRealIndex(endOffset);
-            ArrayList<Integer> rowTable = new ArrayList<Integer>();
-
-            while (offset < end) {
-                // skip the gap
-                if (offset == _gapStartIndex) {
-                    offset = _gapEndIndex;
-                }
-                char c = _contents[offset];
-                if (c == Language.NEWLINE) {
-                    //start a new row
-                    rowTable.add(realToLogicalIndex(offset) + 1);
+            _newRowCount = 0;
+
+            for (int offset = startOffset; offset < endOffset; offset += SCAN_CHUNK) {
+                int n = Math.min(SCAN_CHUNK, endOffset - offset);
+                getChars(offset, offset + n, chunk, 0);
+                for (int i = 0; i < n; ++i) {
+                    if (chunk[i] == Language.NEWLINE) {
+                        //start a new row
+                        addRow(offset + i + 1);
+                    }
                 }
-                ++offset;
-
             }
-            _rowTable.addAll(rowIndex, rowTable);
+            mergeNewRows(rowIndex);
             return;
         }
         if (!hasMinimumWidthForWordWrap()) {
@@ -224,21 +237,23 @@ public class Document extends TextBuffer {
             return;
         }
 
-        ArrayList<Integer> rowTable = new ArrayList<Integer>();
-        int offset = logicalToRealIndex(startOffset);
-        int end = logicalToRealIndex(endOffset);
+        _newRowCount = 0;
+        int offset = startOffset;
+        int chunkStart = startOffset;
+        int chunkEnd = startOffset;
         int potentialBreakPoint = startOffset;
         int wordExtent = 0;
         final int maxWidth = _metrics.getRowWidth();
         int remainingWidth = maxWidth;
 
-        while (offset < end) {
-            // skip the gap
-            if (offset == _gapStartIndex) {
-                offset = _gapEndIndex;
+        while (offset < endOffset) {
+            if (offset == chunkEnd) {
+                chunkStart = offset;
+                chunkEnd = Math.min(endOffset, offset + SCAN_CHUNK);
+                getChars(chunkStart, chunkEnd, chunk, 0);
             }
 
-            char c = _contents[offset];
+            char c = chunk[offset - chunkStart];
             wordExtent += _metrics.getAdvance(c);
 
             boolean isWhitespace = (c == ' ' || c == Language.TAB
@@ -250,24 +265,19 @@ public class Document extends TextBuffer {
                     remainingWidth -= wordExtent;
                 } else if (wordExtent > maxWidth) {
                     //handle a word too long to fit on one row
-                    int current = logicalToRealIndex(potentialBreakPoint);
+                    int current = potentialBreakPoint;
                     remainingWidth = maxWidth;
 
                     //start the word on a new row, if it isn't already
-                    if (potentialBreakPoint != startOffset && (rowTable.isEmpty() ||
-                            potentialBreakPoint != rowTable.get(rowTable.size() - 1))) {
-                        rowTable.add(potentialBreakPoint);
+                    if (potentialBreakPoint != startOffset && (_newRowCount == 0 ||
+                            potentialBreakPoint != _newRows[_newRowCount - 1])) {
+                        addRow(potentialBreakPoint);
                     }
 
                     while (current <= offset) {
-                        // skip the gap
-                        if (current == _gapStartIndex) {
-                            current = _gapEndIndex;
-                        }
-
-                        int advance = _metrics.getAdvance(_contents[current]);
+                        int advance = _metrics.getAdvance(charAt(current));
                         if (advance > remainingWidth) {
-                            rowTable.add(realToLogicalIndex(current));
+                            addRow(current);
                             remainingWidth = maxWidth - advance;
                         } else {
                             remainingWidth -= advance;
@@ -278,17 +288,17 @@ public class Document extends TextBuffer {
                 } else {
                     //invariant: potentialBreakPoint != startOffset
                     //put the word on a new row
-                    rowTable.add(potentialBreakPoint);
+                    addRow(potentialBreakPoint);
                     remainingWidth = maxWidth - wordExtent;
                 }
 
                 wordExtent = 0;
-                potentialBreakPoint = realToLogicalIndex(offset) + 1;
+                potentialBreakPoint = offset + 1;
             }
 
             if (c == Language.NEWLINE) {
                 //start a new row
-                rowTable.add(potentialBreakPoint);
+                addRow(potentialBreakPoint);
                 remainingWidth = maxWidth;
             }
 
@@ -296,7 +306,7 @@ public class Document extends TextBuffer {
         }
 
         //merge with existing row table
-        _rowTable.addAll(rowIndex, rowTable);
+        mergeNewRows(rowIndex);
     }
 
     public String getRow(int rowNumber) {
@@ -351,24 +361,7 @@ public class Document extends TextBuffer {
         }
 
         //binary search of _rowTable
-        int right = _rowTable.size() - 1;
-        int left = 0;
-        while (right >= left) {
-            int mid = (left + right) / 2;
-            int nextLineOffset = ((mid + 1) < _rowTable.size()) ? _rowTable.get(mid + 1) : getTextLength();
-            if (charOffset >= _rowTable.get(mid) && charOffset < nextLineOffset) {
-                return mid;
-            }
-
-            if (charOffset >= nextLineOffset) {
-                left = mid + 1;
-            } else {
-                right = mid - 1;
-            }
-        }
-
-        //should not be here
-        return -1;
+        return _rowTable.findRow(charOffset);
     }
 
 
@@ -9,7 +9,11 @@
 package com.myopicmobile.textwarrior.common;
 
 import android.graphics.Rect;
+import android.text.GetChars;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,7 +29,7 @@ import java.util.List;
  * changes made by one DocumentProvider will not cause other DocumentProviders
  * to be notified. Implement a publish/subscribe interface if required.
  */
-public class DocumentProvider implements java.lang.CharSequence
+public class DocumentProvider implements java.lang.CharSequence, GetChars
 {
 
 	@Override
@@ -44,6 +48,15 @@ public class DocumentProvider implements java.lang.CharSequence
 		_theText = new Document(metrics);
 	}
 
+	/**
+	 * @param usePieceTable Back the document with a piece table instead of a
+	 *		gap buffer, see {@link TextBuffer#TextBuffer(boolean)}
+	 */
+	public DocumentProvider(Document.TextFieldMetrics metrics, boolean usePieceTable){
+		_currIndex = 0;
+		_theText = new Document(metrics, usePieceTable);
+	}
+
 	public DocumentProvider(Document doc){
 		_currIndex = 0;
 		_theText = doc;
@@ -61,6 +74,23 @@ public class DocumentProvider implements java.lang.CharSequence
 		return _theText.subSequence(charOffset, maxChars);
 	}
 
+	/**
+	 * Copies the chars in [start, end) into dest, starting at destoff.
+	 * Like charAt(), positions past the end of the text (e.g. when the text
+	 * shrank after length() was read) are filled with NULL_CHAR.
+	 */
+	public void getChars(int start, int end, char[] dest, int destoff){
+		synchronized(_theText){
+			int valid = Math.min(end, _theText.length());
+			if(start < valid){
+				_theText.getChars(start, valid, dest, destoff);
+			}
+			for(int i = Math.max(start, valid); i < end; ++i){
+				dest[destoff + i - start] = Language.NULL_CHAR;
+			}
+		}
+	}
+
 	public char charAt(int charOffset){
 		if(_theText.isValid(charOffset)){
 			return _theText.charAt(charOffset);
@@ -315,6 +345,18 @@ public class DocumentProvider implements java.lang.CharSequence
 		return _theText.redo();
 	}
 
+	public void setUndoMemoryLimit(int bytes) {
+		_theText.setUndoMemoryLimit(bytes);
+	}
+
+	public void writeUndoHistory(DataOutputStream out) throws IOException {
+		_theText.writeUndoHistory(out);
+	}
+
+	public boolean readUndoHistory(DataInputStream in) throws IOException {
+		return _theText.readUndoHistory(in);
+	}
+
 	@Override
 	public String toString()
 	{
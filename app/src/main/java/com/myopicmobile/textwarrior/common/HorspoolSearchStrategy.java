@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.myopicmobile.textwarrior.common;
+
+/**
+ * A SearchStrategy that matches literals with Boyer-Moore-Horspool.
+ * <p>
+ * The shift tables are indexed by the low byte of the (case-folded) char, so
+ * a mismatch usually skips up to target.length() chars at once instead of
+ * one. The document is read in chunks through
+ * {@link DocumentProvider#getChars(int, int, char[], int)} rather than char
+ * by char, so a find that stops early never copies the whole text.
+ * <p>
+ * In whole-word mode a match must not be preceded or followed by a letter,
+ * digit or underscore, so "end" is found in "end)" but not in "send".
+ * <p>
+ * replaceAll() scans a single snapshot of the text, builds the replaced
+ * region in one pass and applies it as one delete and one insert inside a
+ * batch edit, so it is undone as a single step.
+ *
+ * @author DifierLine
+ */
+public class HorspoolSearchStrategy implements SearchStrategy{
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final int TABLE_SIZE = 256;
+
+	private int _unitsDone = 0;
+
+	@Override
+	public int getProgress(){
+		return _unitsDone;
+	}
+
+	@Override
+	public int wrappedFind(DocumentProvider src, String target, int start,
+			boolean isCaseSensitive, boolean isWholeWord){
+
+		// search towards end of doc first...
+		int foundOffset = find(src, target, start, src.docLength(),
+				isCaseSensitive, isWholeWord);
+		// ...then from beginning of doc
+		if(foundOffset < 0){
+			foundOffset = find(src, target, 0, start,
+					isCaseSensitive, isWholeWord);
+		}
+
+		return foundOffset;
+	}
+
+	@Override
+	public int find(DocumentProvider src, String target, int start, int end,
+			boolean isCaseSensitive, boolean isWholeWord){
+		if(target.length() == 0){
+			return -1;
+		}
+		if(start < 0){
+			TextWarriorException.fail("TextBuffer.find: Invalid start position");
+			start = 0;
+		}
+		if(end > src.docLength()){
+			TextWarriorException.fail("TextBuffer.find: Invalid end position");
+			end = src.docLength();
+		}
+
+		Pattern p = new Pattern(target, isCaseSensitive);
+		int m = p.length();
+		end = Math.min(end, src.docLength() - m + 1);
+		char[] chunk = new char[Math.min(CHUNK_SIZE, Math.max(end - start, 0)) + m - 1];
+		_unitsDone = 0;
+
+		int base = start;
+		while(base < end){
+			int limit = Math.min(end - base, CHUNK_SIZE);
+			src.getChars(base, base + limit + m - 1, chunk, 0);
+			int i = 0;
+			while((i = p.forward(chunk, i, limit)) < limit){
+				if(!isWholeWord || isWholeWord(src, base + i, m)){
+					_unitsDone += i;
+					return base + i;
+				}
+				++i;
+			}
+			// i is where the next window starts, possibly past this chunk
+			base += i;
+			_unitsDone += i;
+		}
+		return -1;
+	}
+
+	@Override
+	public int wrappedFindBackwards(DocumentProvider src, String target, int start,
+			boolean isCaseSensitive, boolean isWholeWord){
+
+		// search towards beginning of doc first...
+		int foundOffset = findBackwards(src, target, start, -1,
+				isCaseSensitive, isWholeWord);
+		// ...then from end of doc
+		if(foundOffset < 0){
+			foundOffset = findBackwards(src, target, src.docLength()-1, start,
+					isCaseSensitive, isWholeWord);
+		}
+
+		return foundOffset;
+	}
+
+	@Override
+	public int findBackwards(DocumentProvider src, String target, int start, int end,
+			boolean isCaseSensitive, boolean isWholeWord){
+		if(target.length() == 0){
+			return -1;
+		}
+		if(start >= src.docLength()){
+			TextWarriorException.fail("Invalid start position given to TextBuffer.find");
+			start = src.docLength() - 1;
+		}
+		if(end < -1){
+			TextWarriorException.fail("Invalid end position given to TextBuffer.find");
+			end = -1;
+		}
+
+		Pattern p = new Pattern(target, isCaseSensitive);
+		int m = p.length();
+		int top = Math.min(start, src.docLength() - m);
+		char[] chunk = new char[Math.min(CHUNK_SIZE, Math.max(top - end, 0)) + m - 1];
+		_unitsDone = 0;
+
+		while(top > end){
+			// candidates in this chunk are [top - count + 1, top]
+			int count = Math.min(top - end, CHUNK_SIZE);
+			int base = top - count + 1;
+			src.getChars(base, top + m, chunk, 0);
+			int i = count - 1;
+			while((i = p.backward(chunk, i, -1)) > -1){
+				if(!isWholeWord || isWholeWord(src, base + i, m)){
+					_unitsDone += count - 1 - i;
+					return base + i;
+				}
+				--i;
+			}
+			// i is where the next window starts, relative to this chunk
+			top = base + i;
+			_unitsDone += count - 1 - i;
+		}
+		return -1;
+	}
+
+	@Override
+	public Pair replaceAll(DocumentProvider src, String searchText,
+			String replacementText, int mark,
+			boolean isCaseSensitive, boolean isWholeWord){
+		_unitsDone = 0;
+		if(searchText.length() == 0){
+			return new Pair(0, Math.max(mark, 0));
+		}
+
+		Pattern p = new Pattern(searchText, isCaseSensitive);
+		int m = p.length();
+		int docLength = src.docLength();
+		char[] text = new char[docLength];
+		src.getChars(0, docLength, text, 0);
+
+		// pass 1: collect the non-overlapping matches, left to right
+		int[] matches = new int[16];
+		int replacementCount = 0;
+		int limit = docLength - m + 1;
+		int i = 0;
+		while((i = p.forward(text, i, limit)) < limit){
+			if(!isWholeWord || isWholeWord(text, i, m)){
+				if(replacementCount == matches.length){
+					int[] grown = new int[matches.length * 2];
+					System.arraycopy(matches, 0, grown, 0, replacementCount);
+					matches = grown;
+				}
+				matches[replacementCount++] = i;
+				i += m;
+			}
+			else{
+				++i;
+			}
+		}
+		_unitsDone = docLength;
+		if(replacementCount == 0){
+			return new Pair(0, Math.max(mark, 0));
+		}
+
+		// pass 2: build the text between the first and the last match
+		char[] replacement = replacementText.toCharArray();
+		int r = replacement.length;
+		int first = matches[0];
+		int last = matches[replacementCount - 1] + m;
+		char[] result = new char[last - first + replacementCount * (r - m)];
+		int anchor = mark;
+		int from = first;
+		int to = 0;
+		for(int k = 0; k < replacementCount; ++k){
+			int found = matches[k];
+			System.arraycopy(text, from, result, to, found - from);
+			to += found - from;
+			System.arraycopy(replacement, 0, result, to, r);
+			to += r;
+			from = found + m;
+			if(found < mark){
+				// adjust anchor because of differences in doc length
+				// after word replacement
+				anchor += r - m;
+			}
+		}
+
+		long timestamp = System.nanoTime();
+		src.beginBatchEdit();
+		src.deleteAt(first, last - first, timestamp);
+		src.insertBefore(result, first, timestamp);
+		src.endBatchEdit();
+
+		return new Pair(replacementCount, Math.max(anchor, 0));
+	}
+
+	private static boolean isWholeWord(DocumentProvider src, int start, int length){
+		return (start == 0 || !isWordChar(src.charAt(start - 1)))
+				&& !isWordChar(src.charAt(start + length));
+	}
+
+	private static boolean isWholeWord(char[] text, int start, int length){
+		int end = start + length;
+		return (start == 0 || !isWordChar(text[start - 1]))
+				&& (end == text.length || !isWordChar(text[end]));
+	}
+
+	private static boolean isWordChar(char c){
+		return c == '_' || Character.isLetterOrDigit(c);
+	}
+
+	/**
+	 * A search target with its Horspool shift tables. For case-insensitive
+	 * searches the target and every text char are folded to lower case first,
+	 * as LinearSearchStrategy does.
+	 */
+	private static final class Pattern {
+		private final char[] _chars;
+		private final boolean _isCaseSensitive;
+		// shift after a window whose last char maps to the index
+		private final int[] _forward = new int[TABLE_SIZE];
+		// shift after a window whose first char maps to the index
+		private final int[] _backward = new int[TABLE_SIZE];
+
+		Pattern(String target, boolean isCaseSensitive){
+			_isCaseSensitive = isCaseSensitive;
+			int m = target.length();
+			_chars = new char[m];
+			for(int i = 0; i < m; ++i){
+				_chars[i] = fold(target.charAt(i));
+			}
+
+			// chars sharing a low byte share a slot; the smallest shift
+			// wins, which is always safe
+			for(int i = 0; i < TABLE_SIZE; ++i){
+				_forward[i] = m;
+				_backward[i] = m;
+			}
+			for(int i = 0; i < m - 1; ++i){
+				_forward[_chars[i] & 0xff] = m - 1 - i;
+			}
+			for(int i = m - 1; i > 0; --i){
+				_backward[_chars[i] & 0xff] = i;
+			}
+		}
+
+		int length(){
+			return _chars.length;
+		}
+
+		private char fold(char c){
+			if(_isCaseSensitive){
+				return c;
+			}
+			if(c < 128){
+				return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+			}
+			return Character.toLowerCase(c);
+		}
+
+		private boolean matches(char[] text, int offset){
+			for(int j = _chars.length - 1; j >= 0; --j){
+				if(fold(text[offset + j]) != _chars[j]){
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the first window start in [from, limit) where text matches.
+		 * If there is none, returns the position (>= limit) where scanning
+		 * should resume. text must hold limit + length() - 1 chars.
+		 */
+		int forward(char[] text, int from, int limit){
+			int lastIndex = _chars.length - 1;
+			int i = from;
+			while(i < limit){
+				if(matches(text, i)){
+					return i;
+				}
+				i += _forward[fold(text[i + lastIndex]) & 0xff];
+			}
+			return i;
+		}
+
+		/**
+		 * Returns the last window start in (limit, from] where text matches.
+		 * If there is none, returns the position (<= limit) where scanning
+		 * should resume.
+		 */
+		int backward(char[] text, int from, int limit){
+			int i = from;
+			while(i > limit){
+				if(matches(text, i)){
+					return i;
+				}
+				i -= _backward[fold(text[i]) & 0xff];
+			}
+			return i;
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.myopicmobile.textwarrior.common;
+
+import com.difierline.lua.tokenizer.LuaLexer;
+import com.difierline.lua.tokenizer.LuaTokenTypes;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 按行边界增量重新词法分析的 Lua token 缓存
+ * <p>
+ * 每次更新时与上次的文本快照比较，找到第一个被修改的行，
+ * 从该行行首（换行符之后，词法状态为 YYINITIAL）重新启动 {@link LuaLexer}，
+ * 越过修改区域后，一旦某个行首与旧结果的行首对齐，后面的 token 必然与旧结果相同，
+ * 直接平移复用，不再继续分析。
+ * <p>
+ * token 以基本类型数组保存，相邻 token 首尾相接覆盖整个文本，
+ * 块字符串、块注释等由多次匹配组成的 token 从上一个 token 的结尾算起。
+ * <p>
+ * LuaLexer 的引号字符串可以跨行，未闭合的引号会一直向后找到文本末尾才退回为 BAD_CHARACTER，
+ * 所以它后面任何位置的修改都可能改变它，存在这样的 token 时从它所在的行开始重新分析。
+ *
+ * @author DifierLine
+ */
+final class IncrementalTokenizer {
+    private static final LuaTokenTypes[] TYPES = LuaTokenTypes.values();
+    private static final int ABORT_CHECK = 1024;
+
+    private char[] text;
+    private int count;
+    private byte[] types = new byte[0];
+    private int[] starts = new int[0];
+    private int[] lines = new int[0];
+
+    // 最近一次更新重新分析的字符数
+    private int lexedChars;
+    // 第一个未闭合引号的位置，没有时为 -1
+    private int openQuote = -1;
+
+    /**
+     * 更新到新的文本快照
+     *
+     * @param src   新文本，调用后由本对象持有，调用方不得再修改
+     * @param abort 中止标志
+     * @return false 表示被中止，缓存保持不变
+     */
+    boolean update(char[] src, Flag abort) throws IOException {
+        char[] old = text;
+        if (old == null)
+            return relex(src, 0, 0, 0, src.length, 0, 0, abort);
+
+        int oldLen = old.length;
+        int newLen = src.length;
+        int min = Math.min(oldLen, newLen);
+        int start = 0;
+        while (start < min && old[start] == src[start])
+            start++;
+        if (start == oldLen && start == newLen) {
+            text = src;
+            lexedChars = 0;
+            return true;
+        }
+        int suffix = 0;
+        while (suffix < min - start && old[oldLen - 1 - suffix] == src[newLen - 1 - suffix])
+            suffix++;
+
+        // 从修改位置之前最近的行首重新开始，"\r" 与新插入的 "\n" 可能合并，所以严格小于
+        int from = openQuote >= 0 && openQuote < start ? openQuote + 1 : start;
+        int r = tokenAt(from - 1);
+        while (r > 0 && TYPES[types[r - 1] & 0xff] != LuaTokenTypes.NEW_LINE)
+            r--;
+        int restartPos = r < count ? starts[r] : 0;
+        int restartLine = r > 0 ? lines[r - 1] + 1 : 0;
+        return relex(src, r, restartPos, restartLine, newLen - suffix, newLen - oldLen, r, abort);
+    }
+
+    /**
+     * 从第 r 个 token（位于 pos 处，行号 line）开始重新分析，越过 editEnd 后在行首尝试与旧 token 对齐
+     */
+    private boolean relex(char[] src, int r, int pos, int line, int editEnd, int delta, int oldFrom, Flag abort) throws IOException {
+        LuaLexer lexer = new LuaLexer(new CharArrayReader(src, pos, src.length - pos));
+        int cap = 256;
+        byte[] nt = new byte[cap];
+        int[] ns = new int[cap];
+        int[] nl = new int[cap];
+        int n = 0;
+        int end = pos;
+        int j = oldFrom;
+        int resync = count;
+        int lineDelta = 0;
+        while (true) {
+            if ((n & (ABORT_CHECK - 1)) == 0 && abort.isSet())
+                return false;
+            LuaTokenTypes type = lexer.advance();
+            if (type == null)
+                break;
+            if (n == cap) {
+                cap <<= 1;
+                nt = Arrays.copyOf(nt, cap);
+                ns = Arrays.copyOf(ns, cap);
+                nl = Arrays.copyOf(nl, cap);
+            }
+            int tokenLine = line + lexer.yyline();
+            nt[n] = (byte) type.ordinal();
+            ns[n] = end;
+            nl[n] = tokenLine;
+            n++;
+            end = pos + lexer.yychar() + lexer.yylength();
+            if (type != LuaTokenTypes.NEW_LINE || end < editEnd)
+                continue;
+            // 新旧结果在同一行首（平移 delta 后）相遇，之后的 token 完全相同
+            int oldPos = end - delta;
+            while (j < count && starts[j] < oldPos)
+                j++;
+            if (j < count && starts[j] == oldPos && j > 0 && TYPES[types[j - 1] & 0xff] == LuaTokenTypes.NEW_LINE) {
+                resync = j;
+                lineDelta = tokenLine - lines[j - 1];
+                break;
+            }
+        }
+
+        int tail = count - resync;
+        int total = r + n + tail;
+        int quote = -1;
+        for (int i = 0; i < n && quote < 0; i++) {
+            if (isOpenQuote(src, nt[i], ns[i]))
+                quote = ns[i];
+        }
+        // 旧的第一个未闭合引号不在被替换的区域里时，平移后仍是复用部分的第一个
+        boolean scanTail = false;
+        if (quote < 0 && tail > 0 && openQuote >= 0) {
+            if (openQuote >= starts[resync])
+                quote = openQuote + delta;
+            else
+                scanTail = true;
+        }
+        byte[] t = types;
+        int[] s = starts;
+        int[] l = lines;
+        if (total > t.length || total < t.length >> 2) {
+            int size = Math.max(total + (total >> 3), 16);
+            t = Arrays.copyOf(types, size);
+            s = Arrays.copyOf(starts, size);
+            l = Arrays.copyOf(lines, size);
+        }
+        System.arraycopy(types, resync, t, r + n, tail);
+        System.arraycopy(starts, resync, s, r + n, tail);
+        System.arraycopy(lines, resync, l, r + n, tail);
+        for (int i = r + n; i < total; i++) {
+            s[i] += delta;
+            l[i] += lineDelta;
+        }
+        System.arraycopy(nt, 0, t, r, n);
+        System.arraycopy(ns, 0, s, r, n);
+        System.arraycopy(nl, 0, l, r, n);
+        for (int i = r + n; scanTail && i < total; i++) {
+            if (isOpenQuote(src, t[i], s[i])) {
+                quote = s[i];
+                scanTail = false;
+            }
+        }
+        types = t;
+        starts = s;
+        lines = l;
+        count = total;
+        text = src;
+        lexedChars = end - pos;
+        openQuote = quote;
+        return true;
+    }
+
+    private static boolean isOpenQuote(char[] src, byte type, int start) {
+        return TYPES[type & 0xff] == LuaTokenTypes.BAD_CHARACTER && (src[start] == '"' || src[start] == '\'');
+    }
+
+    /**
+     * 包含位置 pos 的 token 下标，pos 小于 0 时返回 0
+     */
+    private int tokenAt(int pos) {
+        int lo = 0;
+        int hi = count - 1;
+        if (pos < 0 || hi < 0)
+            return 0;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= pos)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    int size() {
+        return count;
+    }
+
+    LuaTokenTypes type(int i) {
+        return TYPES[types[i] & 0xff];
+    }
+
+    int start(int i) {
+        return starts[i];
+    }
+
+    int length(int i) {
+        return (i + 1 < count ? starts[i + 1] : text.length) - starts[i];
+    }
+
+    /**
+     * token 所在行，多行 token 为其最后一次匹配所在的行
+     */
+    int line(int i) {
+        return lines[i];
+    }
+
+    String text(int i) {
+        return new String(text, starts[i], length(i));
+    }
+
+    int textLength() {
+        return text == null ? 0 : text.length;
+    }
+
+    int lexedChars() {
+        return lexedChars;
+    }
+}
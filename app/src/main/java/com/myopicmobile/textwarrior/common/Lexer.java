@@ -10,11 +10,12 @@ package com.myopicmobile.textwarrior.common;
 
 import android.graphics.Rect;
 import android.util.Log;
+import android.util.SparseIntArray;
 
-import com.difierline.lua.tokenizer.LuaLexer;
 import com.difierline.lua.tokenizer.LuaTokenTypes;
 
 import org.luaj.vm2.compiler.LexState;
+import org.luaj.vm2.compiler.LuaC;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -87,6 +88,8 @@ public class Lexer {
     LexCallback _callback = null;
     private DocumentProvider _hDoc;
     private LexThread _workerThread = null;
+    // Lua 的 token 在多次分析间保留，编辑后只重新分析受影响的行
+    private final IncrementalTokenizer _luaTokens = new IncrementalTokenizer();
 
     public Lexer(LexCallback callback) {
         _callback = callback;
@@ -138,7 +141,7 @@ public class Lexer {
     }
 
     public void tokenize(DocumentProvider hDoc) {
-        LexState.errormsg=null;
+        LuaParser.getResult().errormsg=null;
         if (!Lexer.getLanguage().isProgLang()) {
             return;
         }
@@ -213,9 +216,12 @@ public class Lexer {
                 rescan = false;
                 _abort.clear();
                 try {
-                    if (Lexer.getLanguage() instanceof LanguageLua)
-                        tokenize();
-                    else
+                    if (Lexer.getLanguage() instanceof LanguageLua) {
+                        // 被中止的旧线程可能仍在使用缓存的 token
+                        synchronized (_luaTokens) {
+                            tokenize();
+                        }
+                    } else
                         tokenize2();
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -243,29 +249,29 @@ public class Lexer {
 
         private void tokenize() {
             DocumentProvider hDoc = getDocument();
-            int rowCount = hDoc.getRowCount();
-            int maxRow = 9999;
             ArrayList<Pair> tokens = new ArrayList<Pair>(8196);
             ArrayList<Rect> lines = new ArrayList<>(8196);
             ArrayList<Rect> lineStacks = new ArrayList<>(8196);
             ArrayList<Rect> lineStacks2 = new ArrayList<>(8196);
-            if (rowCount*5 < maxRow){
-                if(!LuaParser.lexer(new DocumentProvider(hDoc),_abort)&&_tokens!=null&&_tokens.size()>4) {
-                    //Log.i("luaj", "tokenize: "+_tokens.size());
-                    _abort.set();
-                    return;
-                }
-            }else {
-                LuaParser.reset();
+            // 词法与语法分析共用一份快照
+            char[] chars = LuaC.toChars(hDoc);
+            // 大文件只在首次打开和跨函数编辑时完整分析，函数内的编辑增量分析
+            if(!LuaParser.lexer(chars,_abort)&&_tokens!=null&&_tokens.size()>4) {
+                //Log.i("luaj", "tokenize: "+_tokens.size());
+                _abort.set();
+                return;
             }
             HashMap<String, ArrayList<Pair>> locals = LuaParser.getLocalMap();
-            HashMap<String, ArrayList<Pair>> values = LuaParser.getValueMap();
+            SparseIntArray values = LuaParser.getValueTypes();
 
-            LuaLexer lexer = new LuaLexer(hDoc);
             Language language = Lexer.getLanguage();
             language.clearUserWord();
             LuaParser.clearUserWord();
             try {
+                // 只重新分析修改过的行，分类仍遍历全部 token
+                if (!_luaTokens.update(chars, _abort))
+                    return;
+                int count = _luaTokens.size();
                 int idx = 0;
 
                 LuaTokenTypes lastType = null;
@@ -279,12 +285,10 @@ public class Lexer {
                 boolean isModule = false;
                 boolean hasDo = true;
                 int lastNameIdx = -1;
-                while (!_abort.isSet()) {
+                for (int i = 0; i < count && !_abort.isSet(); i++) {
                     Pair pair = null;
-                    LuaTokenTypes type = lexer.advance();
-                    if (type == null)
-                        break;
-                    int len = lexer.yylength();
+                    LuaTokenTypes type = _luaTokens.type(i);
+                    int len = _luaTokens.length(i);
                     idx += len;
                     if (isModule && lastType == LuaTokenTypes.STRING && type != LuaTokenTypes.STRING) {
                         String mod = bul.toString();
@@ -311,7 +315,7 @@ public class Lexer {
                                 break;
                             }
                             if (hasDo) {
-                                lineStacks.add(new Rect(lexer.yychar(), lexer.yyline(), 0, lexer.yyline()));
+                                lineStacks.add(new Rect(_luaTokens.start(i), _luaTokens.line(i), 0, _luaTokens.line(i)));
                             }
                             hasDo = true;
                             //关键字
@@ -324,7 +328,7 @@ public class Lexer {
                                 break;
                             }
                             hasDo = false;
-                            lineStacks.add(new Rect(lexer.yychar(), lexer.yyline(), 0, lexer.yyline()));
+                            lineStacks.add(new Rect(_luaTokens.start(i), _luaTokens.line(i), 0, _luaTokens.line(i)));
                             //关键字
                             tokens.add(new Pair(len, KEYWORD));
                             break;
@@ -337,7 +341,7 @@ public class Lexer {
                                 tokens.add(new Pair(len, NORMAL));
                                 break;
                             }
-                            lineStacks.add(new Rect(lexer.yychar(), lexer.yyline(), 0, lexer.yyline()));
+                            lineStacks.add(new Rect(_luaTokens.start(i), _luaTokens.line(i), 0, _luaTokens.line(i)));
                             //关键字
                             tokens.add(new Pair(len, KEYWORD));
                             break;
@@ -349,8 +353,8 @@ public class Lexer {
                             int size = lineStacks.size();
                             if (size > 0) {
                                 Rect rect = lineStacks.remove(size - 1);
-                                rect.bottom = lexer.yyline();
-                                rect.right = lexer.yychar();
+                                rect.bottom = _luaTokens.line(i);
+                                rect.right = _luaTokens.start(i);
                                 if (rect.bottom - rect.top > 1)
                                     lines.add(rect);
                             }
@@ -390,7 +394,7 @@ public class Lexer {
                             tokens.add(new Pair(len, KEYWORD));
                             break;
                         case LCURLY:
-                            lineStacks2.add(new Rect(lexer.yychar(), lexer.yyline(), 0, lexer.yyline()));
+                            lineStacks2.add(new Rect(_luaTokens.start(i), _luaTokens.line(i), 0, _luaTokens.line(i)));
                             //符号
                             tokens.add(pair = new Pair(len, OPERATOR));
                             break;
@@ -398,8 +402,8 @@ public class Lexer {
                             int size2 = lineStacks2.size();
                             if (size2 > 0) {
                                 Rect rect = lineStacks2.remove(size2 - 1);
-                                rect.bottom = lexer.yyline();
-                                rect.right = lexer.yychar();
+                                rect.bottom = _luaTokens.line(i);
+                                rect.right = _luaTokens.start(i);
                                 if (rect.bottom - rect.top > 1)
                                     lines.add(rect);
                             }
@@ -419,29 +423,20 @@ public class Lexer {
                         case LONG_STRING:
                             //字符串
                             tokens.add(pair = new Pair(len, SINGLE_SYMBOL_DELIMITED_A));
-                            if (rowCount > maxRow)
-                                break;
-
                             if (lastName.equals("require") || lastName.equals("import"))
                                 isModule = true;
 
                             if (isModule)
-                                bul.append(lexer.yytext());
+                                bul.append(_luaTokens.text(i));
                             break;
                         case NAME:
-                            if (rowCount > maxRow) {
-                                tokens.add(new Pair(len, NORMAL));
-                                break;
-                            }
-
-
                             if (lastType2 == LuaTokenTypes.NUMBER) {
                                 Pair p = tokens.get(tokens.size() - 1);
                                 p.setSecond(NORMAL);
                                 p.setFirst(p.getFirst() + len);
                                 break;
                             }
-                            String name = lexer.yytext();
+                            String name = _luaTokens.text(i);
                             if (lastType == LuaTokenTypes.FUNCTION) {
                                 //函数名
                                 tokens.add(new Pair(len, LITERAL));
@@ -477,24 +472,16 @@ public class Lexer {
                                         }
                                     }
                                 }*/
-                                if (!loc && values.containsKey(name)) {
-                                    ArrayList<Pair> ls = values.get(name);
-                                    for (Pair l : ls) {
-                                        if (l.getFirst() == idx) {
-                                            Pair p = tokens.get(tokens.size() - 1);
-                                            int tp = l.getSecond();
-                                            if (tp == LexState.VVOID) {
-                                                if (p.getSecond() == NORMAL)
-                                                    p.setSecond(GLOBAL);
-                                                break;
-                                            } else if (tp == LexState.VUPVAL) {
-                                                p.setSecond(UPVAL);
-                                                break;
-                                            } else if (tp == LexState.VLOCAL) {
-                                                p.setSecond(LOCAL);
-                                                break;
-                                            }
-                                        }
+                                if (!loc) {
+                                    int tp = values.get(idx, -1);
+                                    Pair p = tokens.get(tokens.size() - 1);
+                                    if (tp == LexState.VVOID) {
+                                        if (p.getSecond() == NORMAL)
+                                            p.setSecond(GLOBAL);
+                                    } else if (tp == LexState.VUPVAL) {
+                                        p.setSecond(UPVAL);
+                                    } else if (tp == LexState.VLOCAL) {
+                                        p.setSecond(LOCAL);
                                     }
                                 }
                             }
@@ -546,7 +533,7 @@ public class Lexer {
             }
             if (tokens.isEmpty()) {
                 // return value cannot be empty
-                tokens.add(new Pair(hDoc.length(), NORMAL));
+                tokens.add(new Pair(chars.length, NORMAL));
             }
             language.updateUserWord();
             mLines = lines;
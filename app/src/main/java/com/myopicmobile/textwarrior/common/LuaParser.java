@@ -4,6 +4,7 @@ import android.text.SpannableString;
 import android.text.TextUtils;
 import android.text.style.ForegroundColorSpan;
 import android.util.Log;
+import android.util.SparseIntArray;
 
 import org.luaj.vm2.LocVars;
 import org.luaj.vm2.LuaString;
@@ -11,18 +12,17 @@ import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Prototype;
 import org.luaj.vm2.Upvaldesc;
 import org.luaj.vm2.VarType;
-import org.luaj.vm2.compiler.LexState;
+import org.luaj.vm2.compiler.AnalysisResult;
+import org.luaj.vm2.compiler.ClassIndex;
+import org.luaj.vm2.compiler.IncrementalLexer;
 import org.luaj.vm2.compiler.LuaC;
 
 import com.luajava.LuaState;
 import com.luajava.LuaStateFactory;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -32,13 +32,19 @@ import java.util.regex.Pattern;
  */
 
 public class LuaParser {
+    // 以下结果只属于最近一次分析的文档，lexer不能同时分析两个文档；
+    // 并发分析多个文档时直接使用LuaC.lexer，每次返回独立的AnalysisResult
     private static HashMap<String, ArrayList<Pair>> localMap = new HashMap<>();
-    public static HashMap<String, ArrayList<String>> javaMethodMap = new HashMap<>();
-    public static HashMap<String, ArrayList<String>> javaFieldMap = new HashMap<>();
     public static HashMap<String, ArrayList<JavaVar>> javaVar = new HashMap<>();
     private static ArrayList<Var> varList = new ArrayList<>();
     private static ArrayList<LuaString> globalist = new ArrayList<>();
     private static HashMap<String, ArrayList<Pair>> valueMap =new HashMap<>();
+    // 位置到变量类型的索引，大文件逐个名称查找valueMap太慢
+    private static SparseIntArray valueTypes = new SparseIntArray();
+    // 最近一次分析的结果，供编辑器绘制错误和缩进线
+    private static volatile AnalysisResult result = new AnalysisResult();
+    // 编辑只在某个函数体内时只重新分析该函数
+    private static final IncrementalLexer incremental = new IncrementalLexer("luaj");
     
     // 用于JNI代码分析的LuaState实例
     private static LuaState analysisLuaState = null;
@@ -64,15 +70,24 @@ public class LuaParser {
         return analysisLuaState;
     }
     
+    /**
+     * 获取最近一次分析的结果
+     * @return 分析结果，不会为null
+     */
+    public static AnalysisResult getResult() {
+        return result;
+    }
+
     /**
      * 使用JNI层的luaD_protectedparser分析代码
-     * 设置LexState.hintmsg和LexState.hintline
+     * 设置out.hintmsg和out.hintline
      * @param code 要分析的代码
+     * @param out 保存结果的分析结果
      */
-    public static void analyzeWithJNI(String code) {
+    public static void analyzeWithJNI(String code, AnalysisResult out) {
         // 先清空黑色警告
-        LexState.hintmsg = null;
-        LexState.hintline = -1;
+        out.hintmsg = null;
+        out.hintline = -1;
         
         if (code == null || code.isEmpty()) {
             return;
@@ -93,12 +108,12 @@ public class LuaParser {
                     int errorLine = Integer.parseInt(matcher.group(1));
                     String errorDetail = matcher.group(2);
                     
-                    LexState.hintmsg = "[代码分析] 第" + errorLine + "行: " + errorDetail;
-                    LexState.hintline = errorLine;
+                    out.hintmsg = "[代码分析] 第" + errorLine + "行: " + errorDetail;
+                    out.hintline = errorLine;
                 } else {
                     // 无法解析行号，直接显示错误信息
-                    LexState.hintmsg = "[代码分析] " + errorMsg;
-                    LexState.hintline = 1;
+                    out.hintmsg = "[代码分析] " + errorMsg;
+                    out.hintline = 1;
                 }
             }
         } catch (Exception e) {
@@ -116,19 +131,17 @@ public class LuaParser {
             JavaVar j=js.get(i1);
             //Log.i("luaj", "filterJava: " + pkg + ";" + keyword + ";" + j.name);
             if (j.startidx <= i && j.endidx >= i) {
+                // 索引已由分析线程建立，这里不反射
+                ClassIndex c = ClassIndex.peek(j.name);
+                if (c == null)
+                    continue;
                 if (j.name.toLowerCase().endsWith("." + pkg)) {
-                    ArrayList<String> mm = javaFieldMap.get(j.name);
-                    if (mm != null){
-                        for (String s : mm) {
-                            if (s.toLowerCase().startsWith(keyword))
-                                ms.add(s);
-                        }
+                    for (String s : c.getFields()) {
+                        if (s.toLowerCase().startsWith(keyword))
+                            ms.add(s);
                     }
                 }
-                ArrayList<String> mm = javaMethodMap.get(j.name);
-                if (mm == null)
-                    continue;
-                for (String s : mm) {
+                for (String s : c.getMethods()) {
                     if (s.toLowerCase().startsWith(keyword))
                         ms.add(s);
                 }
@@ -150,14 +163,12 @@ public class LuaParser {
             JavaVar j=js.get(i1);
             //Log.i("luaj", "filterJava: " + pkg + ";" + j.name);
             if (j.startidx <= i && j.endidx >= i) {
-                if (j.name.toLowerCase().endsWith("." + pkg)) {
-                    ArrayList<String> mm = javaFieldMap.get(j.name);
-                    if (mm != null)
-                        ms.addAll(mm);
-                }
-                ArrayList<String> mm = javaMethodMap.get(j.name);
-                if (mm != null)
-                    ms.addAll(mm);
+                ClassIndex c = ClassIndex.peek(j.name);
+                if (c == null)
+                    continue;
+                if (j.name.toLowerCase().endsWith("." + pkg))
+                    ms.addAll(c.getFields());
+                ms.addAll(c.getMethods());
                 break;
             }
         }
@@ -168,7 +179,38 @@ public class LuaParser {
         return valueMap;
     }
 
+    /**
+     * 获取变量位置到类型的索引
+     * @return 键为valueMap中的位置，值为LexState.VLOCAL、VUPVAL或VVOID
+     */
+    public static SparseIntArray getValueTypes() {
+        return valueTypes;
+    }
+
+    private static SparseIntArray indexValues(HashMap<String, ArrayList<Pair>> map) {
+        int n = 0;
+        for (ArrayList<Pair> list : map.values())
+            n += list.size();
+        long[] keys = new long[n];
+        int i = 0;
+        for (ArrayList<Pair> list : map.values()) {
+            for (Pair p : list)
+                keys[i++] = ((long) p.getFirst() << 32) | (p.getSecond() & 0xffffffffL);
+        }
+        Arrays.sort(keys);
+        SparseIntArray index = new SparseIntArray(n);
+        int last = Integer.MIN_VALUE;
+        for (long k : keys) {
+            int idx = (int) (k >> 32);
+            if (idx != last)
+                index.append(idx, (int) k);
+            last = idx;
+        }
+        return index;
+    }
+
     public static void reset() {
+        incremental.reset();
         if(varList.isEmpty())
             return;
         localMap.clear();
@@ -176,12 +218,8 @@ public class LuaParser {
         javaVar.clear();
         globalist = new ArrayList<>();
         valueMap =new HashMap<>();
-        LexState.errormsg=null;
-        LexState.hintmsg=null;
-        LexState.hintline=-1;
-        LexState.globals.clear();
-        LexState.lines.clear();
-        LexState.valueMap.clear();
+        valueTypes = new SparseIntArray();
+        result = new AnalysisResult();
     }
 
     public static class Var {
@@ -216,42 +254,29 @@ public class LuaParser {
         }
     }
 
-    public static class CharInputSteam extends InputStream {
-
-        private final CharSequence mSrc;
-        private final int mLen;
-        private int idx = 0;
-
-        public CharInputSteam(CharSequence src) {
-            mSrc = src;
-            mLen = src.length();
-        }
-
-        @Override
-        public int read() throws IOException {
-            idx++;
-            if (idx > mLen)
-                return -1;
-            return mSrc.charAt(idx - 1);
-        }
+    public static boolean lexer(CharSequence src, Flag _abort) {
+        // 只取一次快照，luaj与JNI分析共用
+        return lexer(LuaC.toChars(src), _abort);
     }
 
-    public static boolean lexer(CharSequence src, Flag _abort) {
+    public static boolean lexer(char[] chars, Flag _abort) {
         //Log.i("luaj", "lexer: start");
-        
-        // 使用JNI层的luaD_protectedparser进行代码分析（黑色警告）
-        analyzeWithJNI(src.toString());
-        
         try {
-            //Prototype lex = LuaC.lexer(new CharInputSteam(src), "luaj");
-            Prototype lex = LuaC.lexer(src, "luaj",_abort);
+            AnalysisResult res = incremental.lexer(chars, _abort);
+            // 使用JNI层的luaD_protectedparser进行代码分析（黑色警告）
+            analyzeWithJNI(new String(chars), res);
+            result = res;
+            if (res.proto == null)
+                return false;
             localMap.clear();
             varList.clear();
             javaVar.clear();
-            lexer(lex);
-            if (LexState.erroridx < 0)
-                globalist = new ArrayList<>(LexState.globals);
-            valueMap =new HashMap<>(LexState.valueMap);
+            lexer(res.proto);
+            // 结果只属于本次分析，无需复制
+            if (res.erroridx < 0)
+                globalist = res.globals;
+            valueMap = res.valueMap;
+            valueTypes = indexValues(valueMap);
             //Log.i("luaj", "lexer: "+valueMap);
             return true;
         } catch (Exception e) {
@@ -274,8 +299,9 @@ public class LuaParser {
             return type.typename;
         String p = type.typename.substring(0, idx);
         String c = type.typename.substring(idx + 1);
-        getJavaMethods(c, type.typename);
-        ArrayList<JavaVar> jv = javaVar.get(n);
+        // 在分析线程上建立索引，补全时直接读取
+        ClassIndex.get(type.typename);
+        ArrayList<JavaVar> jv = javaVar.get(n.toLowerCase());
         if (jv == null) {
             jv = new ArrayList<>();
             javaVar.put(n.toLowerCase(), jv);
@@ -301,46 +327,6 @@ public class LuaParser {
         return c;
     }
 
-    private static void getJavaMethods(String c, String typename) {
-        ArrayList<String> ms = javaMethodMap.get(typename);
-        if (ms != null)
-            return;
-        ms = new ArrayList<>();
-        try {
-            Class<?> clazz = Class.forName(typename);
-            Method[] mm = clazz.getMethods();
-            for (Method method : mm) {
-                String name = method.getName();
-                if (ms.contains(name))
-                    continue;
-                ms.add(name);
-            }
-            javaMethodMap.put(typename, ms);
-        } catch (Exception e) {
-            //e.printStackTrace();
-        }
-
-        ArrayList<String> fs = javaFieldMap.get(typename);
-        if (fs != null)
-            return;
-        fs = new ArrayList<>();
-        try {
-            Class<?> clazz = Class.forName(typename);
-            Field[] mm = clazz.getFields();
-            for (Field method : mm) {
-                String name = method.getName();
-                if (fs.contains(name))
-                    continue;
-                fs.add(name);
-            }
-            javaFieldMap.put(typename, fs);
-        } catch (Exception e) {
-           // e.printStackTrace();
-        }
-
-
-    }
-
     private static void lexer(Prototype p) {
         if (p == null)
             return;
@@ -0,0 +1,490 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.myopicmobile.textwarrior.common;
+
+import java.util.Random;
+
+/**
+ * Text storage for {@link TextBuffer} as a piece table.
+ * <p>
+ * The text is a sequence of pieces, each a range of either the loaded buffer,
+ * which is adopted without copying, or an append-only buffer holding every
+ * inserted char. Pieces are kept in an immutable treap ordered by position.
+ * Every node is augmented with the char and newline counts of its subtree, so
+ * offset and line lookups are O(log n). Edits copy only the path they touch,
+ * so an older root stays a valid snapshot of the text at no cost.
+ * <p>
+ * Like the gap buffer, the text always ends with a Language.EOF char, and the
+ * text removed by the last run of contiguous deletions is kept (as a shared
+ * subtree) for UndoStack. See {@link TextBuffer#gapSubSequence(int)}.
+ *
+ * @author DifierLine
+ */
+final class PieceTable {
+	private static final int MIN_ADD_CAPACITY = 64;
+
+	/** An append-only char buffer with the offsets of its newlines */
+	private static final class Buffer {
+		char[] chars;
+		int length;
+		int[] newlines;
+		int newlineCount;
+
+		Buffer(char[] chars, int length) {
+			this.chars = chars;
+			this.length = length;
+			int count = 0;
+			for (int i = 0; i < length; ++i) {
+				if (chars[i] == Language.NEWLINE) {
+					++count;
+				}
+			}
+			newlines = new int[Math.max(count, 1)];
+			for (int i = 0; i < length; ++i) {
+				if (chars[i] == Language.NEWLINE) {
+					newlines[newlineCount++] = i;
+				}
+			}
+		}
+
+		void append(char[] c) {
+			if (length + c.length > chars.length) {
+				char[] grown = new char[Math.max(length + c.length, chars.length * 2)];
+				System.arraycopy(chars, 0, grown, 0, length);
+				chars = grown;
+			}
+			for (char ch : c) {
+				if (ch == Language.NEWLINE) {
+					if (newlineCount == newlines.length) {
+						int[] grown = new int[newlineCount * 2];
+						System.arraycopy(newlines, 0, grown, 0, newlineCount);
+						newlines = grown;
+					}
+					newlines[newlineCount++] = length;
+				}
+				chars[length++] = ch;
+			}
+		}
+
+		/** Index of the first newline at or after offset */
+		int newlineIndex(int offset) {
+			int lo = 0;
+			int hi = newlineCount;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (newlines[mid] < offset) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+	}
+
+	private static final class Node {
+		final Buffer buf;
+		final int start;
+		final int length;
+		/** Index in buf.newlines of the first newline in this piece */
+		final int firstNewline;
+		final int newlineCount;
+		final int priority;
+		final Node left;
+		final Node right;
+		/** Chars and newlines in this subtree */
+		final int size;
+		final int lines;
+
+		Node(Buffer buf, int start, int length, int firstNewline, int newlineCount,
+				int priority, Node left, Node right) {
+			this.buf = buf;
+			this.start = start;
+			this.length = length;
+			this.firstNewline = firstNewline;
+			this.newlineCount = newlineCount;
+			this.priority = priority;
+			this.left = left;
+			this.right = right;
+			size = size(left) + length + size(right);
+			lines = lines(left) + newlineCount + lines(right);
+		}
+
+		Node with(Node newLeft, Node newRight) {
+			return new Node(buf, start, length, firstNewline, newlineCount,
+					priority, newLeft, newRight);
+		}
+	}
+
+	private final Random _random = new Random();
+	private Buffer _original;
+	private Buffer _added;
+	private Node _root;
+
+	/** Logical offset just past the last edit, the counterpart of the gap start */
+	private int _editPoint;
+	/** Text removed by the last run of contiguous deletions, starting at _editPoint */
+	private Node _deleted;
+
+	// the piece found by the last charAt(), for sequential reads
+	private Node _lastPiece;
+	private int _lastPieceOffset = -1;
+
+	PieceTable() {
+		setBuffer(new char[0], 0);
+	}
+
+	/**
+	 * Adopts the first textSize chars of buffer as the whole text, without copying
+	 */
+	void setBuffer(char[] buffer, int textSize) {
+		_original = new Buffer(buffer, textSize);
+		_added = new Buffer(new char[MIN_ADD_CAPACITY], 0);
+		_added.append(new char[]{Language.EOF});
+		_root = join(piece(_original, 0, textSize), piece(_added, 0, 1));
+		_editPoint = 0;
+		_deleted = null;
+		_lastPiece = null;
+	}
+
+	/** Number of chars, including the EOF sentinel */
+	int length() {
+		return size(_root);
+	}
+
+	int lineCount() {
+		return lines(_root) + 1;
+	}
+
+	int editPoint() {
+		return _editPoint;
+	}
+
+	char charAt(int offset) {
+		Node piece = _lastPiece;
+		int pieceOffset = _lastPieceOffset;
+		if (piece == null || offset < pieceOffset || offset >= pieceOffset + piece.length) {
+			pieceOffset = 0;
+			piece = _root;
+			while (true) {
+				int leftSize = size(piece.left);
+				if (offset < pieceOffset + leftSize) {
+					piece = piece.left;
+				} else if (offset < pieceOffset + leftSize + piece.length) {
+					pieceOffset += leftSize;
+					break;
+				} else {
+					pieceOffset += leftSize + piece.length;
+					piece = piece.right;
+				}
+			}
+			_lastPiece = piece;
+			_lastPieceOffset = pieceOffset;
+		}
+		return piece.buf.chars[piece.start + offset - pieceOffset];
+	}
+
+	void getChars(int start, int end, char[] dest, int destoff) {
+		copy(_root, start, end, dest, destoff - start);
+	}
+
+	// copies the part of the subtree at node within [start, end); node begins at offset 0,
+	// and its char at offset i goes to dest[shift + i]
+	private static void copy(Node node, int start, int end, char[] dest, int shift) {
+		while (node != null && start < end) {
+			int leftSize = size(node.left);
+			if (start < leftSize) {
+				copy(node.left, start, Math.min(end, leftSize), dest, shift);
+			}
+			int from = Math.max(start, leftSize);
+			int to = Math.min(end, leftSize + node.length);
+			if (from < to) {
+				System.arraycopy(node.buf.chars, node.start + from - leftSize,
+						dest, shift + from, to - from);
+			}
+			int rightStart = leftSize + node.length;
+			if (end <= rightStart) {
+				return;
+			}
+			// continue in the right subtree without recursing
+			start = Math.max(start, rightStart) - rightStart;
+			end -= rightStart;
+			shift += rightStart;
+			node = node.right;
+		}
+	}
+
+	void insert(char[] c, int offset) {
+		if (c.length == 0) {
+			return;
+		}
+		int addStart = _added.length;
+		_added.append(c);
+		Node[] parts = split(_root, offset);
+		Node left = parts[0];
+		Node last = rightmost(left);
+		if (offset == _editPoint && last != null && last.buf == _added
+				&& last.start + last.length == addStart) {
+			// typing continues the previous insertion; grow its piece
+			left = extendRightmost(left, c.length);
+		} else {
+			left = join(left, piece(_added, addStart, c.length));
+		}
+		_root = join(left, parts[1]);
+		_editPoint = offset + c.length;
+		_deleted = null;
+		_lastPiece = null;
+	}
+
+	void delete(int offset, int totalChars) {
+		Node[] head = split(_root, offset);
+		Node[] tail = split(head[1], totalChars);
+		_root = join(head[0], tail[1]);
+		// deleting just before the previous deletion extends the removed run,
+		// mirroring what the gap of TextBuffer keeps
+		_deleted = (offset + totalChars == _editPoint) ? join(tail[0], _deleted) : tail[0];
+		_editPoint = offset;
+		_lastPiece = null;
+	}
+
+	/** Copies the first charCount chars of the text removed by the last deletions */
+	char[] deletedChars(int charCount) {
+		char[] chars = new char[charCount];
+		copy(_deleted, 0, Math.min(charCount, size(_deleted)), chars, 0);
+		return chars;
+	}
+
+	/**
+	 * The piece table counterpart of moving the gap start: a negative
+	 * displacement removes the chars just before the edit point, a positive one
+	 * puts back the chars removed there.
+	 */
+	void shiftEditPoint(int displacement) {
+		if (displacement < 0) {
+			delete(_editPoint + displacement, -displacement);
+		} else if (displacement > 0) {
+			Node[] parts = split(_deleted, displacement);
+			Node[] head = split(_root, _editPoint);
+			_root = join(join(head[0], parts[0]), head[1]);
+			_editPoint += displacement;
+			_deleted = parts[1];
+			_lastPiece = null;
+		}
+	}
+
+	/**
+	 * Offset of the first char of line lineNumber, or -1 if there is no such line
+	 */
+	int getLineOffset(int lineNumber) {
+		if (lineNumber == 0) {
+			return 0;
+		}
+		if (lineNumber < 0 || lineNumber > lines(_root)) {
+			return -1;
+		}
+		// find the lineNumber-th newline
+		int k = lineNumber;
+		int offset = 0;
+		Node node = _root;
+		while (true) {
+			int leftLines = lines(node.left);
+			if (k <= leftLines) {
+				node = node.left;
+			} else if (k <= leftLines + node.newlineCount) {
+				int newline = node.buf.newlines[node.firstNewline + k - leftLines - 1];
+				return offset + size(node.left) + newline - node.start + 1;
+			} else {
+				k -= leftLines + node.newlineCount;
+				offset += size(node.left) + node.length;
+				node = node.right;
+			}
+		}
+	}
+
+	/**
+	 * Line number of a valid charOffset
+	 */
+	int findLineNumber(int charOffset) {
+		int line = 0;
+		int k = charOffset;
+		Node node = _root;
+		while (node != null) {
+			int leftSize = size(node.left);
+			if (k < leftSize) {
+				node = node.left;
+			} else if (k < leftSize + node.length) {
+				int before = node.buf.newlineIndex(node.start + k - leftSize) - node.firstNewline;
+				return line + lines(node.left) + before;
+			} else {
+				line += lines(node.left) + node.newlineCount;
+				k -= leftSize + node.length;
+				node = node.right;
+			}
+		}
+		return line;
+	}
+
+	private Node piece(Buffer buf, int start, int length) {
+		if (length <= 0) {
+			return null;
+		}
+		int first = buf.newlineIndex(start);
+		int count = buf.newlineIndex(start + length) - first;
+		return new Node(buf, start, length, first, count, _random.nextInt(), null, null);
+	}
+
+	/** Splits node into the first k chars and the rest */
+	private Node[] split(Node node, int k) {
+		// find the piece that k falls strictly inside, if any
+		Node piece = node;
+		int offset = 0;
+		while (piece != null) {
+			int leftSize = size(piece.left);
+			if (k <= offset + leftSize) {
+				piece = piece.left;
+			} else if (k < offset + leftSize + piece.length) {
+				offset += leftSize;
+				break;
+			} else {
+				offset += leftSize + piece.length;
+				piece = piece.right;
+			}
+		}
+		if (piece == null) {
+			return splitBetweenPieces(node, k);
+		}
+		// take the piece out whole, then put back its two halves as new pieces
+		// with their own random priorities, which keeps the treap balanced
+		Node[] head = splitBetweenPieces(node, offset);
+		Node[] tail = splitBetweenPieces(head[1], piece.length);
+		int cut = k - offset;
+		return new Node[]{
+				join(head[0], piece(piece.buf, piece.start, cut)),
+				join(piece(piece.buf, piece.start + cut, piece.length - cut), tail[1])};
+	}
+
+	/** Splits node at k, which must not fall inside a piece */
+	private static Node[] splitBetweenPieces(Node node, int k) {
+		Path path = new Path();
+		while (node != null) {
+			int leftSize = size(node.left);
+			if (k <= leftSize) {
+				path.push(node, true);
+				node = node.left;
+			} else {
+				path.push(node, false);
+				k -= leftSize + node.length;
+				node = node.right;
+			}
+		}
+		Node left = null;
+		Node right = null;
+		for (int i = path.depth - 1; i >= 0; --i) {
+			Node n = path.nodes[i];
+			if (path.wentLeft[i]) {
+				right = n.with(right, n.right);
+			} else {
+				left = n.with(n.left, left);
+			}
+		}
+		return new Node[]{left, right};
+	}
+
+	private static Node join(Node a, Node b) {
+		// walk down the right spine of a and the left spine of b, taking the
+		// node with the higher priority each time
+		Path path = new Path();
+		while (a != null && b != null) {
+			if (a.priority > b.priority) {
+				path.push(a, false);
+				a = a.right;
+			} else {
+				path.push(b, true);
+				b = b.left;
+			}
+		}
+		Node result = (a == null) ? b : a;
+		for (int i = path.depth - 1; i >= 0; --i) {
+			Node n = path.nodes[i];
+			result = path.wentLeft[i] ? n.with(result, n.right) : n.with(n.left, result);
+		}
+		return result;
+	}
+
+	private static Node rightmost(Node node) {
+		if (node == null) {
+			return null;
+		}
+		while (node.right != null) {
+			node = node.right;
+		}
+		return node;
+	}
+
+	private static Node extendRightmost(Node node, int extra) {
+		Path path = new Path();
+		while (node.right != null) {
+			path.push(node, false);
+			node = node.right;
+		}
+		Buffer buf = node.buf;
+		int length = node.length + extra;
+		int count = buf.newlineIndex(node.start + length) - node.firstNewline;
+		Node result = new Node(buf, node.start, length, node.firstNewline, count,
+				node.priority, node.left, null);
+		for (int i = path.depth - 1; i >= 0; --i) {
+			Node n = path.nodes[i];
+			result = n.with(n.left, result);
+		}
+		return result;
+	}
+
+	/** The nodes visited walking down the tree, so that it can be rebuilt without recursion */
+	private static final class Path {
+		Node[] nodes = new Node[32];
+		boolean[] wentLeft = new boolean[32];
+		int depth;
+
+		void push(Node node, boolean left) {
+			if (depth == nodes.length) {
+				Node[] grownNodes = new Node[depth * 2];
+				System.arraycopy(nodes, 0, grownNodes, 0, depth);
+				nodes = grownNodes;
+				boolean[] grownLeft = new boolean[depth * 2];
+				System.arraycopy(wentLeft, 0, grownLeft, 0, depth);
+				wentLeft = grownLeft;
+			}
+			nodes[depth] = node;
+			wentLeft[depth] = left;
+			++depth;
+		}
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static int lines(Node node) {
+		return node == null ? 0 : node.lines;
+	}
+}
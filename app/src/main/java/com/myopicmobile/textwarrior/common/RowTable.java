@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.myopicmobile.textwarrior.common;
+
+/**
+ * Row start offsets of a {@link Document}, stored as primitive int blocks.
+ * <p>
+ * Each block keeps offsets relative to a block base. Block bases are kept as a
+ * difference array in a Fenwick tree, so shifting every row after an edit only
+ * touches the rest of one block plus O(log blocks) tree nodes. Row counts per
+ * block are kept in a second Fenwick tree to map a row number to its block.
+ * Blocks are only split, merged or dropped when rows are inserted or removed,
+ * and the trees are rebuilt then.
+ *
+ * @author DifierLine
+ */
+final class RowTable {
+    private static final int BLOCK = 512;
+
+    private int[][] _blocks;
+    private int[] _sizes;
+    private int _blockCount;
+    private int _size;
+
+    // 1-based Fenwick trees over blocks
+    private int[] _baseTree;
+    private int[] _sizeTree;
+
+    RowTable() {
+        reset();
+    }
+
+    /**
+     * Clears the table to a single row starting at offset 0
+     */
+    void reset() {
+        _blocks = new int[][]{new int[BLOCK]};
+        _sizes = new int[]{1};
+        _blockCount = 1;
+        _size = 1;
+        rebuildTrees(new int[1]);
+    }
+
+    int size() {
+        return _size;
+    }
+
+    int get(int row) {
+        int b = blockOf(row);
+        return base(b) + _blocks[b][row - rowsBefore(b)];
+    }
+
+    /**
+     * Returns the last row that starts at or before charOffset, or 0 if none does
+     */
+    int findRow(int charOffset) {
+        int lo = 0;
+        int hi = _blockCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (base(mid) + _blocks[mid][0] <= charOffset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        int b = lo;
+        int local = charOffset - base(b);
+        int[] block = _blocks[b];
+        int left = 0;
+        int right = _sizes[b] - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (block[mid] <= local) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return rowsBefore(b) + left;
+    }
+
+    /**
+     * Adds delta to the offset of every row from fromRow onwards
+     */
+    void shift(int fromRow, int delta) {
+        if (fromRow >= _size || delta == 0) {
+            return;
+        }
+        int b = blockOf(fromRow);
+        int[] block = _blocks[b];
+        int end = _sizes[b];
+        for (int i = fromRow - rowsBefore(b); i < end; ++i) {
+            block[i] += delta;
+        }
+        for (int i = b + 2; i <= _blockCount; i += i & -i) {
+            _baseTree[i] += delta;
+        }
+    }
+
+    /**
+     * Removes the rows from fromRow onwards whose offsets are not greater than endOffset
+     */
+    void removeUpTo(int fromRow, int endOffset) {
+        if (fromRow >= _size || get(fromRow) > endOffset) {
+            return;
+        }
+        remove(fromRow, findRow(endOffset) - fromRow + 1);
+    }
+
+    void remove(int fromRow, int count) {
+        boolean emptied = false;
+        while (count > 0) {
+            int b = blockOf(fromRow);
+            int i = fromRow - rowsBefore(b);
+            int n = Math.min(count, _sizes[b] - i);
+            int[] block = _blocks[b];
+            System.arraycopy(block, i + n, block, i, _sizes[b] - i - n);
+            _sizes[b] -= n;
+            _size -= n;
+            count -= n;
+            emptied |= _sizes[b] == 0;
+            for (int k = b + 1; k <= _blockCount; k += k & -k) {
+                _sizeTree[k] -= n;
+            }
+        }
+        if (!emptied) {
+            return;
+        }
+        if (_size == 0) {
+            reset();
+            return;
+        }
+        // drop emptied blocks in one pass, they have no first offset to search by
+        int[] bases = bases();
+        int kept = 0;
+        for (int b = 0; b < _blockCount; ++b) {
+            if (_sizes[b] > 0) {
+                _blocks[kept] = _blocks[b];
+                _sizes[kept] = _sizes[b];
+                bases[kept] = bases[b];
+                ++kept;
+            }
+        }
+        _blockCount = kept;
+        rebuildTrees(bases);
+    }
+
+    /**
+     * Inserts count row offsets, sorted ascending, before row
+     */
+    void insert(int row, int[] offsets, int count) {
+        if (count == 0) {
+            return;
+        }
+        int b;
+        int i;
+        if (row >= _size) {
+            b = _blockCount - 1;
+            i = _sizes[b];
+        } else {
+            b = blockOf(row);
+            i = row - rowsBefore(b);
+        }
+        int base = base(b);
+        int size = _sizes[b];
+        int[] block = _blocks[b];
+        if (size + count <= BLOCK) {
+            System.arraycopy(block, i, block, i + count, size - i);
+            for (int k = 0; k < count; ++k) {
+                block[i + k] = offsets[k] - base;
+            }
+            _sizes[b] += count;
+            _size += count;
+            for (int k = b + 1; k <= _blockCount; k += k & -k) {
+                _sizeTree[k] += count;
+            }
+            return;
+        }
+
+        // split the merged rows into half-full blocks sharing the same base
+        int total = size + count;
+        int[] merged = new int[total];
+        System.arraycopy(block, 0, merged, 0, i);
+        for (int k = 0; k < count; ++k) {
+            merged[i + k] = offsets[k] - base;
+        }
+        System.arraycopy(block, i, merged, i + count, size - i);
+        int half = BLOCK / 2;
+        int pieces = (total + half - 1) / half;
+
+        int[] bases = bases();
+        int newCount = _blockCount + pieces - 1;
+        int[][] blocks = new int[newCount][];
+        int[] sizes = new int[newCount];
+        int[] newBases = new int[newCount];
+        System.arraycopy(_blocks, 0, blocks, 0, b);
+        System.arraycopy(_sizes, 0, sizes, 0, b);
+        System.arraycopy(bases, 0, newBases, 0, b);
+        for (int p = 0; p < pieces; ++p) {
+            int from = p * half;
+            int n = Math.min(half, total - from);
+            int[] piece = new int[BLOCK];
+            System.arraycopy(merged, from, piece, 0, n);
+            blocks[b + p] = piece;
+            sizes[b + p] = n;
+            newBases[b + p] = base;
+        }
+        int rest = _blockCount - b - 1;
+        System.arraycopy(_blocks, b + 1, blocks, b + pieces, rest);
+        System.arraycopy(_sizes, b + 1, sizes, b + pieces, rest);
+        System.arraycopy(bases, b + 1, newBases, b + pieces, rest);
+        _blocks = blocks;
+        _sizes = sizes;
+        _blockCount = newCount;
+        _size += count;
+        rebuildTrees(newBases);
+    }
+
+    private int base(int b) {
+        int sum = 0;
+        for (int i = b + 1; i > 0; i -= i & -i) {
+            sum += _baseTree[i];
+        }
+        return sum;
+    }
+
+    private int rowsBefore(int b) {
+        int sum = 0;
+        for (int i = b; i > 0; i -= i & -i) {
+            sum += _sizeTree[i];
+        }
+        return sum;
+    }
+
+    // the block containing row, found by descending the size tree
+    private int blockOf(int row) {
+        int pos = 0;
+        int mask = Integer.highestOneBit(Math.max(_blockCount, 1));
+        for (; mask != 0; mask >>= 1) {
+            int next = pos + mask;
+            if (next <= _blockCount && _sizeTree[next] <= row) {
+                pos = next;
+                row -= _sizeTree[next];
+            }
+        }
+        return Math.min(pos, _blockCount - 1);
+    }
+
+    private int[] bases() {
+        int[] bases = new int[_blockCount];
+        for (int b = 0; b < _blockCount; ++b) {
+            bases[b] = base(b);
+        }
+        return bases;
+    }
+
+    private void rebuildTrees(int[] bases) {
+        int n = _blockCount;
+        int[] baseTree = new int[n + 1];
+        int[] sizeTree = new int[n + 1];
+        for (int b = 0; b < n; ++b) {
+            baseTree[b + 1] = bases[b] - (b > 0 ? bases[b - 1] : 0);
+            sizeTree[b + 1] = _sizes[b];
+        }
+        // linear-time Fenwick construction
+        for (int i = 1; i <= n; ++i) {
+            int parent = i + (i & -i);
+            if (parent <= n) {
+                baseTree[parent] += baseTree[i];
+                sizeTree[parent] += sizeTree[i];
+            }
+        }
+        _baseTree = baseTree;
+        _sizeTree = sizeTree;
+    }
+}
@@ -9,14 +9,18 @@
 package com.myopicmobile.textwarrior.common;
 
 import android.graphics.Rect;
+import android.text.GetChars;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
 
 
 //TODO Have all methods work with charOffsets and move all gap handling to logicalToRealIndex()
-public class TextBuffer implements java.lang.CharSequence
+public class TextBuffer implements java.lang.CharSequence, GetChars
 {
 
 	private ArrayList<Rect> _lines;
@@ -39,6 +43,8 @@ public class TextBuffer implements java.lang.CharSequence
 	private int _allocMultiplier;
 	private TextBufferCache _cache;
 	private UndoStack _undoStack;
+	/** When set, the text lives in this piece table instead of the gap buffer */
+	private PieceTable _pieces;
 
 	/** Continuous seq of chars that have the same format (color, font, etc.) */
 	protected List<Pair> _spans;
@@ -55,6 +61,19 @@ public class TextBuffer implements java.lang.CharSequence
 		_undoStack = new UndoStack(this);
 	}
 
+	/**
+	 * @param usePieceTable Store the text in a {@link PieceTable} instead of a
+	 * 		gap buffer. Line lookups and far cursor jumps are O(log n), and
+	 * 		setBuffer() adopts the given array without copying, which suits
+	 * 		large files.
+	 */
+	public TextBuffer(boolean usePieceTable){
+		this();
+		if(usePieceTable){
+			_pieces = new PieceTable();
+		}
+	}
+
 	/**
 	 * Calculate the implementation size of the char array needed to store
 	 * textSize number of characters.
@@ -75,6 +94,10 @@ public class TextBuffer implements java.lang.CharSequence
 	}
 
 	synchronized public void setBuffer(char[] newBuffer, int textSize, int lineCount){
+		if(_pieces != null){
+			_pieces.setBuffer(newBuffer, textSize);
+			return;
+		}
 		_contents = newBuffer;
 		initGap(textSize);
 		_lineCount = lineCount;
@@ -120,6 +143,9 @@ public class TextBuffer implements java.lang.CharSequence
 		if(lineNumber < 0){
 			return -1;
 		}
+		if(_pieces != null){
+			return _pieces.getLineOffset(lineNumber);
+		}
 		
 		// start search from nearest known lineIndex~charOffset pair
 		Pair cachedEntry = _cache.getNearestLine(lineNumber);
@@ -223,6 +249,9 @@ public class TextBuffer implements java.lang.CharSequence
 		if(!isValid(charOffset)){
 			return -1;
 		}
+		if(_pieces != null){
+			return _pieces.findLineNumber(charOffset);
+		}
 		
 		Pair cachedEntry = _cache.getNearestCharOffset(charOffset);
 		int line = cachedEntry.getFirst();
@@ -289,6 +318,13 @@ public class TextBuffer implements java.lang.CharSequence
 		int lineLength = 0;
 		int pos = getLineOffset(lineNumber);
 		
+		if(_pieces != null){
+			if(pos == -1){
+				return 0;
+			}
+			int next = getLineOffset(lineNumber + 1);
+			return (next == -1 ? _pieces.length() : next) - pos;
+		}
 		if (pos != -1){
 			pos = logicalToRealIndex(pos);
 			//TODO consider adding check for (pos < _contents.length) in case EOF is not properly set
@@ -316,6 +352,9 @@ public class TextBuffer implements java.lang.CharSequence
 	 * 		is undefined.
 	 */
 	synchronized public char charAt(int charOffset){
+		if(_pieces != null){
+			return _pieces.charAt(charOffset);
+		}
 		return _contents[logicalToRealIndex(charOffset)];
 	}
 
@@ -334,8 +373,12 @@ public class TextBuffer implements java.lang.CharSequence
 		if((charOffset + totalChars) > getTextLength()){
 			totalChars = getTextLength() - charOffset;
 		}
-		int realIndex = logicalToRealIndex(charOffset);
 		char[] chars = new char[totalChars];
+		if(_pieces != null){
+			_pieces.getChars(charOffset, charOffset + totalChars, chars, 0);
+			return new String(chars);
+		}
+		int realIndex = logicalToRealIndex(charOffset);
 		
 		for (int i = 0; i < totalChars; ++i){
 			chars[i] = _contents[realIndex];
@@ -349,12 +392,40 @@ public class TextBuffer implements java.lang.CharSequence
 		return new String(chars);
 	}
 	
+	/**
+	 * Copies the chars in [start, end) into dest, starting at destoff.
+	 * The gap is skipped with at most two bulk copies.
+	 * Does not do bounds-checking; end must not exceed length().
+	 */
+	synchronized public void getChars(int start, int end, char[] dest, int destoff){
+		if(start >= end){
+			return;
+		}
+		if(_pieces != null){
+			_pieces.getChars(start, end, dest, destoff);
+		}
+		else if(end <= _gapStartIndex){
+			System.arraycopy(_contents, start, dest, destoff, end - start);
+		}
+		else if(start >= _gapStartIndex){
+			System.arraycopy(_contents, start + gapSize(), dest, destoff, end - start);
+		}
+		else{
+			int head = _gapStartIndex - start;
+			System.arraycopy(_contents, start, dest, destoff, head);
+			System.arraycopy(_contents, _gapEndIndex, dest, destoff + head, end - _gapStartIndex);
+		}
+	}
+
 	/**
 	 * Gets charCount number of consecutive characters starting from _gapStartIndex.
 	 * 
 	 * Only UndoStack should use this method. No error checking is done.
 	 */
 	char[] gapSubSequence(int charCount){
+		if(_pieces != null){
+			return _pieces.deletedChars(charCount);
+		}
 		char[] chars = new char[charCount];
 		
 		for (int i = 0; i < charCount; ++i){
@@ -374,6 +445,11 @@ public class TextBuffer implements java.lang.CharSequence
 		if(undoable){
 			_undoStack.captureInsert(charOffset, c.length, timestamp);
 		}
+		if(_pieces != null){
+			_pieces.insert(c, charOffset);
+			onAdd(charOffset,c.length);
+			return;
+		}
 
 		int insertIndex = logicalToRealIndex(charOffset);
 		
@@ -415,6 +491,11 @@ public class TextBuffer implements java.lang.CharSequence
 		if(undoable){
 			_undoStack.captureDelete(charOffset, totalChars, timestamp);
 		}
+		if(_pieces != null){
+			_pieces.delete(charOffset, totalChars);
+			onDel(charOffset,totalChars);
+			return;
+		}
 		
 		int newGapStart = charOffset + totalChars;
 		
@@ -549,6 +630,16 @@ public class TextBuffer implements java.lang.CharSequence
 	 * of insertions/deletions. No error checking is done.
 	 */
 	synchronized void shiftGapStart(int displacement){
+		if(_pieces != null){
+			if(displacement >= 0){
+				onAdd(_pieces.editPoint(), displacement);
+			}
+			else{
+				onDel(_pieces.editPoint(), 0-displacement);
+			}
+			_pieces.shiftEditPoint(displacement);
+			return;
+		}
 		if(displacement >= 0){
 			onAdd(_gapStartIndex, displacement);
 			_lineCount += countNewlines(_gapStartIndex, displacement);
@@ -644,12 +735,30 @@ public class TextBuffer implements java.lang.CharSequence
 	 * EOF sentinel char
 	 */
 	final synchronized public int getTextLength(){
+		if(_pieces != null){
+			return _pieces.length();
+		}
 		return _contents.length - gapSize();
 	}
 
 	synchronized public int getLineCount(){
+		if(_pieces != null){
+			return _pieces.lineCount();
+		}
 		return _lineCount;
 	}
+
+	/**
+	 * Logical offset of the gap start, which is just past the last insertion
+	 * or at the last deletion. Undoing the last edit through shiftGapStart()
+	 * works from here.
+	 */
+	final synchronized int gapStart(){
+		if(_pieces != null){
+			return _pieces.editPoint();
+		}
+		return _gapStartIndex;
+	}
 	
 	final synchronized public boolean isValid(int charOffset){
 		return (charOffset >= 0 && charOffset < getTextLength());
@@ -741,6 +850,31 @@ public class TextBuffer implements java.lang.CharSequence
 		return _undoStack.redo();
 	}
 
+	/**
+	 * Sets the upper bound of the undo history size, in bytes.
+	 * See {@link UndoStack#setMemoryLimit(int)}
+	 */
+	synchronized public void setUndoMemoryLimit(int bytes){
+		_undoStack.setMemoryLimit(bytes);
+	}
+
+	/**
+	 * Writes the undo history to out. See {@link UndoStack#writeTo(DataOutputStream)}
+	 */
+	synchronized public void writeUndoHistory(DataOutputStream out) throws IOException{
+		_undoStack.writeTo(out);
+	}
+
+	/**
+	 * Restores an undo history written by writeUndoHistory(). Nothing is
+	 * restored if the text has changed since.
+	 *
+	 * @return Whether the history was restored
+	 */
+	synchronized public boolean readUndoHistory(DataInputStream in) throws IOException{
+		return _undoStack.readFrom(in);
+	}
+
 	@Override
 	public String toString()
 	{
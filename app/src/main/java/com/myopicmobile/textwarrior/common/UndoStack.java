@@ -8,7 +8,10 @@
  */
 package com.myopicmobile.textwarrior.common;
 
-import java.util.LinkedList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Implements undo/redo for insertion and deletion events of TextBuffer
@@ -46,11 +49,52 @@ import java.util.LinkedList;
  * non-destructive nature of continuous edits in TextBuffer -- deleted characters
  * can be retrieved from the gap and inserted characters are trivially available.
  * For undo/redo of the topmost entry, only the gap boundaries of TextBuffer
- * need to be moved.
+ * need to be moved. Only the newest entry can be waiting for its characters,
+ * and only that entry can absorb a continuous edit.
+ * 
+ * Storage:
+ * Entries are kept in parallel primitive arrays, and their characters are
+ * appended to a single char arena in entry order. When the estimated size of
+ * the history exceeds the memory limit (see setMemoryLimit()), the oldest
+ * groups are dropped until it is back to 3/4 of the limit, then the arrays
+ * and the arena are compacted in one pass. The newest undoable group and the
+ * redoable entries are never dropped.
+ * 
+ * The history can be written to a stream with writeTo() and read back with
+ * readFrom(), e.g. to keep undo across activity recreation. It is only
+ * accepted back if the text it was saved with is unchanged.
  */
 public class UndoStack {
+	/** Default upper bound of the undo history, in bytes */
+	public final static int DEFAULT_MEMORY_LIMIT = 16 * 1024 * 1024;
+	private final static long MERGE_TIME = 1000000000; //1s in nanoseconds
+	/** Estimated bytes taken by an entry, excluding its characters */
+	private final static int ENTRY_SIZE = 4 * 4 + 1;
+	/** Value of _dataOffsets for an entry whose characters are not copied yet */
+	private final static int NO_DATA = -1;
+	private final static int MIN_CAPACITY = 16;
+	private final static int MIN_ARENA_CAPACITY = 256;
+	private final static int HASH_CHUNK_SIZE = 4096;
+	/** "TWUS" */
+	private final static int STREAM_MAGIC = 0x54575553;
+	private final static int STREAM_VERSION = 1;
+
 	private TextBuffer _buf;
-	private LinkedList<Command> _stack = new LinkedList<Command>();
+	private boolean[] _isInsert = new boolean[MIN_CAPACITY];
+	/** Start position of each edit */
+	private int[] _starts = new int[MIN_CAPACITY];
+	/** Length of each affected segment */
+	private int[] _lengths = new int[MIN_CAPACITY];
+	/** Entries of the same group are undone/redone as a unit */
+	private int[] _groups = new int[MIN_CAPACITY];
+	/** Offset of the affected segment in _arena, or NO_DATA */
+	private int[] _dataOffsets = new int[MIN_CAPACITY];
+	/** number of entries */
+	private int _size = 0;
+	/** Contents of the affected segments, in entry order */
+	private char[] _arena = new char[MIN_ARENA_CAPACITY];
+	private int _arenaSize = 0;
+	private int _memoryLimit = DEFAULT_MEMORY_LIMIT;
 	private boolean _isBatchEdit = false;
 	/** for grouping batch operations */
 	private int _groupId = 0;
@@ -71,21 +115,23 @@ public class UndoStack {
 	 */
 	public int undo(){
 		if(canUndo()){
-			Command lastUndone = _stack.get(_top-1);
-			int group = lastUndone._group;
+			int lastUndone = _top-1;
+			int group = _groups[lastUndone];
 			do{
-				Command c = _stack.get(_top-1);
-				if(c._group != group){
+				int i = _top-1;
+				if(_groups[i] != group){
 					break;
 				}
 				
-				lastUndone = c;
-				c.undo();
+				lastUndone = i;
+				undo(i);
 				--_top;
 			}
 			while(canUndo());
 
-			return lastUndone.findUndoPosition();
+			return _isInsert[lastUndone]
+					? _starts[lastUndone]
+					: _starts[lastUndone] + _lengths[lastUndone];
 		}
 		
 		return -1;
@@ -99,48 +145,63 @@ public class UndoStack {
 	 */
 	public int redo(){
 		if(canRedo()){
-			Command lastRedone = _stack.get(_top);
-			int group = lastRedone._group;
+			int lastRedone = _top;
+			int group = _groups[lastRedone];
 			do{
-				Command c = _stack.get(_top);
-				if(c._group != group){
+				int i = _top;
+				if(_groups[i] != group){
 					break;
 				}
 
-				lastRedone = c;
-				c.redo();
+				lastRedone = i;
+				redo(i);
 				++_top;
 			}
 			while(canRedo());
 			
-			return lastRedone.findRedoPosition();
+			return _isInsert[lastRedone]
+					? _starts[lastRedone] + _lengths[lastRedone]
+					: _starts[lastRedone];
 		}
 
 		return -1;
 	}
 
-	//TODO extract common parts of captureInsert and captureDelete
 	/**
 	 * Records an insert operation. Should be called before the insertion is
 	 * actually done.
 	 */
 	public void captureInsert(int start, int length, long time){
+		capture(true, start, length, time);
+	}
+
+	/**
+	 * Records a delete operation. Should be called before the deletion is
+	 * actually done.
+	 */
+	public void captureDelete(int start, int length, long time){
+		capture(false, start, length, time);
+	}
+
+	private void capture(boolean isInsert, int start, int length, long time){
 		boolean mergeSuccess = false;
 		
 		if(canUndo()){
-			Command c = _stack.get(_top - 1);
+			int i = _top - 1;
 			
-			if(c instanceof InsertCommand
-					&& c.merge(start, length, time)){
-				mergeSuccess = true;
-			}
-			else{
-				c.recordData();
+			if(_dataOffsets[i] == NO_DATA){
+				if(_isInsert[i] == isInsert
+						&& merge(i, start, length, time)){
+					mergeSuccess = true;
+				}
+				else{
+					recordData(i);
+				}
 			}
 		}
 		
 		if(!mergeSuccess){
-			push(new InsertCommand(start, length, _groupId));
+			push(isInsert, start, length);
 			
 			if(!_isBatchEdit){
 				_groupId++;
@@ -148,47 +209,200 @@ public class UndoStack {
 		}
 		
 		_lastEditTime = time;
+		trimMemory();
 	}
 
 	/**
-	 * Records a delete operation. Should be called before the deletion is
-	 * actually done.
+	 * Attempts to merge in an edit. This will only be successful if the new
+	 * edit is continuous. See {@link UndoStack} for the requirements
+	 * of a continuous edit.
+	 * 
+	 * @param i Index of the entry to merge into
+	 * @param start Start position of the new edit
+	 * @param length Length of the newly edited segment
+	 * @param time Timestamp when the new edit was made. There are no 
+	 * restrictions  on the units used, as long as it is consistently used 
+	 * in the whole program
+	 * 
+	 * @return Whether the merge was successful
 	 */
-	public void captureDelete(int start, int length, long time){
-		boolean mergeSuccess = false;
-		
-		if(canUndo()){
-			Command c = _stack.get(_top - 1);
-			
-			if(c instanceof DeleteCommand
-					&& c.merge(start, length, time)){
-				mergeSuccess = true;
+	private boolean merge(int i, int start, int length, long time){
+		if(_lastEditTime < 0 || (time - _lastEditTime) >= MERGE_TIME){
+			return false;
+		}
+
+		if(_isInsert[i]){
+			if(start == _starts[i] + _lengths[i]){
+				_lengths[i] += length;
+				return true;
+			}
+		}
+		else if(start == _starts[i] - _lengths[i] - length + 1){
+			_starts[i] = start;
+			_lengths[i] += length;
+			return true;
+		}
+
+		return false;
+	}
+
+	/** Copies the affected text of entry i to the end of the arena */
+	private void recordData(int i){
+		int length = _lengths[i];
+		ensureArenaCapacity(_arenaSize + length);
+		if(_isInsert[i]){
+			_buf.getChars(_starts[i], _starts[i] + length, _arena, _arenaSize);
+		}
+		else{
+			System.arraycopy(_buf.gapSubSequence(length), 0, _arena, _arenaSize, length);
+		}
+		_dataOffsets[i] = _arenaSize;
+		_arenaSize += length;
+	}
+
+	private char[] data(int i){
+		int offset = _dataOffsets[i];
+		return Arrays.copyOfRange(_arena, offset, offset + _lengths[i]);
+	}
+
+	private void undo(int i){
+		if(_isInsert[i]){
+			if(_dataOffsets[i] == NO_DATA){
+				recordData(i);
+				_buf.shiftGapStart(-_lengths[i]);
 			}
 			else{
-				c.recordData();
+				//dummy timestamp of 0
+				_buf.delete(_starts[i], _lengths[i], 0 ,false);
 			}
 		}
-		
-		if(!mergeSuccess){
-			push(new DeleteCommand(start, length, _groupId));
-
-			if(!_isBatchEdit){
-				_groupId++;
+		else{
+			if(_dataOffsets[i] == NO_DATA){
+				recordData(i);
+				_buf.shiftGapStart(_lengths[i]);
+			}
+			else{
+				//dummy timestamp of 0
+				_buf.insert(data(i), _starts[i], 0, false);
 			}
 		}
-		
-		_lastEditTime = time;
+	}
+
+	private void redo(int i){
+		//dummy timestamp of 0
+		if(_isInsert[i]){
+			_buf.insert(data(i), _starts[i], 0, false);
+		}
+		else{
+			_buf.delete(_starts[i], _lengths[i], 0, false);
+		}
 	}
 	
-	private void push(Command c){
+	private void push(boolean isInsert, int start, int length){
 		trimStack();
+		if(_size == _starts.length){
+			int capacity = _size * 2;
+			_isInsert = Arrays.copyOf(_isInsert, capacity);
+			_starts = Arrays.copyOf(_starts, capacity);
+			_lengths = Arrays.copyOf(_lengths, capacity);
+			_groups = Arrays.copyOf(_groups, capacity);
+			_dataOffsets = Arrays.copyOf(_dataOffsets, capacity);
+		}
+		_isInsert[_size] = isInsert;
+		_starts[_size] = start;
+		_lengths[_size] = length;
+		_groups[_size] = _groupId;
+		_dataOffsets[_size] = NO_DATA;
+		++_size;
 		++_top;
-		_stack.add(c);
 	}
 	
 	private void trimStack(){
-		while(_stack.size() > _top){
-			_stack.removeLast();
+		_size = _top;
+		// only the newest entry can be without data
+		int i = _size - 1;
+		if(i >= 0 && _dataOffsets[i] == NO_DATA){
+			--i;
+		}
+		_arenaSize = (i >= 0) ? _dataOffsets[i] + _lengths[i] : 0;
+	}
+
+	private void ensureArenaCapacity(int capacity){
+		if(capacity > _arena.length){
+			_arena = Arrays.copyOf(_arena,
+					Math.max(capacity, _arena.length + (_arena.length >> 1)));
+		}
+	}
+
+	/**
+	 * Returns the estimated number of bytes taken by the history
+	 */
+	public long getMemoryUsage(){
+		return (long) _arenaSize * 2 + (long) _size * ENTRY_SIZE;
+	}
+
+	/**
+	 * Sets the upper bound of the history size, in bytes. When it is
+	 * exceeded, the oldest groups are dropped.
+	 */
+	public void setMemoryLimit(int bytes){
+		_memoryLimit = Math.max(bytes, 0);
+		trimMemory();
+	}
+
+	public int getMemoryLimit(){
+		return _memoryLimit;
+	}
+
+	/**
+	 * Drops the oldest groups until the history is back to 3/4 of the memory
+	 * limit, then compacts the entries and the arena.
+	 */
+	private void trimMemory(){
+		if(getMemoryUsage() <= _memoryLimit || _top == 0){
+			return;
+		}
+
+		long target = _memoryLimit - (_memoryLimit >> 2);
+		int newestGroup = _groups[_top - 1];
+		int dropped = 0;
+		long usage = getMemoryUsage();
+		while(usage > target && dropped < _top && _groups[dropped] != newestGroup){
+			int group = _groups[dropped];
+			while(dropped < _top && _groups[dropped] == group){
+				usage -= (long) _lengths[dropped] * 2 + ENTRY_SIZE;
+				++dropped;
+			}
+		}
+		if(dropped == 0){
+			return;
+		}
+
+		// entries below _top - 1 always have their data
+		int arenaDropped = _dataOffsets[dropped - 1] + _lengths[dropped - 1];
+		int size = _size - dropped;
+		System.arraycopy(_isInsert, dropped, _isInsert, 0, size);
+		System.arraycopy(_starts, dropped, _starts, 0, size);
+		System.arraycopy(_lengths, dropped, _lengths, 0, size);
+		System.arraycopy(_groups, dropped, _groups, 0, size);
+		System.arraycopy(_dataOffsets, dropped, _dataOffsets, 0, size);
+		for(int i = 0; i < size; ++i){
+			if(_dataOffsets[i] != NO_DATA){
+				_dataOffsets[i] -= arenaDropped;
+			}
+		}
+		_size = size;
+		_top -= dropped;
+
+		_arenaSize -= arenaDropped;
+		int capacity = Math.max(_arenaSize * 2, MIN_ARENA_CAPACITY);
+		if(_arena.length > capacity){
+			char[] arena = new char[capacity];
+			System.arraycopy(_arena, arenaDropped, arena, 0, _arenaSize);
+			_arena = arena;
+		}
+		else{
+			System.arraycopy(_arena, arenaDropped, _arena, 0, _arenaSize);
 		}
 	}
 	
@@ -197,7 +411,7 @@ public class UndoStack {
 	}
 
 	public final boolean canRedo(){
-		return _top < _stack.size();
+		return _top < _size;
 	}
 
 	public boolean isBatchEdit(){
@@ -212,166 +426,105 @@ public class UndoStack {
 		_isBatchEdit = false;
 		_groupId++;
 	}
-	
-	
-	
-	private abstract class Command{
-		public final static long MERGE_TIME = 1000000000; //750ms in nanoseconds
-		/** Start position of the edit */
-		public int _start;
-		/** Length of the affected segment */
-		public int _length;
-		/** Contents of the affected segment */
-		public String _data;
-		/** Group ID. Commands of the same group are undone/redone as a unit */
-		public int _group;
-		
-		public abstract void undo();
-		public abstract void redo();
-		/** Populates _data with the affected text */
-		public abstract void recordData();
-		public abstract int findUndoPosition();
-		public abstract int findRedoPosition();
-
-		/**
-		 * Attempts to merge in an edit. This will only be successful if the new
-		 * edit is continuous. See {@link UndoStack} for the requirements
-		 * of a continuous edit.
-		 * 
-		 * @param start Start position of the new edit
-		 * @param length Length of the newly edited segment
-		 * @param time Timestamp when the new edit was made. There are no 
-		 * restrictions  on the units used, as long as it is consistently used 
-		 * in the whole program
-		 * 
-		 * @return Whether the merge was successful
-		 */
-		public abstract boolean merge(int start, int length, long time);
-	}
-	
-	private class InsertCommand extends Command{
-		/**
-		 * Corresponds to an insertion of text of size length just before
-		 * start position.
-		 */
-		public InsertCommand(int start, int length, int groupNumber){
-			_start = start;
-			_length = length;
-			_group = groupNumber;
-		}
-
-		@Override
-		public boolean merge(int newStart, int length, long time) {
-			if(_lastEditTime < 0){
-				return false;
-			}
-			
-			if((time - _lastEditTime) < MERGE_TIME
-					&& newStart == _start + _length){
-				_length += length;
-				trimStack();
-				return true;
-			}
-			
-			return false;
-		}
-
-		@Override
-		public void recordData() {
-			//TODO handle memory allocation failure
-			_data = _buf.subSequence(_start, _length).toString();
-		}
 
-		@Override
-		public void undo() {
-			if(_data == null){
-				recordData();
-				_buf.shiftGapStart(-_length);
-			}
-			else{
-				//dummy timestamp of 0
-				_buf.delete(_start, _length, 0 ,false);
-			}
+	/**
+	 * Writes the history to out, together with a fingerprint of the
+	 * current text. The newest entry stops merging with later edits.
+	 */
+	public void writeTo(DataOutputStream out) throws IOException{
+		if(_size > 0 && _dataOffsets[_size - 1] == NO_DATA){
+			recordData(_size - 1);
 		}
 
-		@Override
-		public void redo() {
-			//dummy timestamp of 0
-			_buf.insert(_data.toCharArray(), _start, 0, false);
+		out.writeInt(STREAM_MAGIC);
+		out.writeInt(STREAM_VERSION);
+		out.writeInt(_buf.getTextLength());
+		out.writeInt(textHash());
+		out.writeInt(_groupId);
+		out.writeInt(_top);
+		out.writeInt(_size);
+		for(int i = 0; i < _size; ++i){
+			out.writeBoolean(_isInsert[i]);
+			out.writeInt(_starts[i]);
+			out.writeInt(_lengths[i]);
+			out.writeInt(_groups[i]);
 		}
-
-		@Override
-		public int findRedoPosition() {
-			return _start + _length;
+		out.writeInt(_arenaSize);
+		for(int i = 0; i < _arenaSize; ++i){
+			out.writeChar(_arena[i]);
 		}
+	}
 
-		@Override
-		public int findUndoPosition() {
-			return _start;
+	/**
+	 * Replaces the history with one written by writeTo(). The history is
+	 * only accepted if the text is the same as when it was written.
+	 * 
+	 * @return Whether the history was restored
+	 */
+	public boolean readFrom(DataInputStream in) throws IOException{
+		if(in.readInt() != STREAM_MAGIC || in.readInt() != STREAM_VERSION){
+			return false;
 		}
-	}
-	
-	
-	private class DeleteCommand extends Command{
-		/**
-		 * Corresponds to an deletion of text of size length starting from
-		 * start position, inclusive.
-		 */
-		public DeleteCommand(int start, int length, int seqNumber){
-			_start = start;
-			_length = length;
-			_group = seqNumber;
-		}
-
-		@Override
-		public boolean merge(int newStart, int length, long time) {
-			if(_lastEditTime < 0){
-				return false;
-			}
-			
-			if((time - _lastEditTime) < MERGE_TIME
-					&& newStart == _start - _length - length + 1){
-				_start = newStart;
-				_length += length;
-				trimStack();
-				return true;
-			}
-			
+		if(in.readInt() != _buf.getTextLength() || in.readInt() != textHash()){
 			return false;
 		}
 
-		@Override
-		public void recordData() {
-			//TODO handle memory allocation failure
-			_data = new String(_buf.gapSubSequence(_length));
+		int groupId = in.readInt();
+		int top = in.readInt();
+		int size = in.readInt();
+		if(size < 0 || top < 0 || top > size){
+			throw new IOException("Corrupted undo history");
 		}
-
-		@Override
-		public void undo() {
-			if(_data == null){
-				recordData();
-				_buf.shiftGapStart(_length);
-			}
-			else{
-				//dummy timestamp of 0
-				_buf.insert(_data.toCharArray(), _start, 0, false);
-			}
+		int capacity = Math.max(size, MIN_CAPACITY);
+		boolean[] isInsert = new boolean[capacity];
+		int[] starts = new int[capacity];
+		int[] lengths = new int[capacity];
+		int[] groups = new int[capacity];
+		int[] dataOffsets = new int[capacity];
+		int arenaSize = 0;
+		for(int i = 0; i < size; ++i){
+			isInsert[i] = in.readBoolean();
+			starts[i] = in.readInt();
+			lengths[i] = in.readInt();
+			groups[i] = in.readInt();
+			dataOffsets[i] = arenaSize;
+			arenaSize += lengths[i];
 		}
-
-		@Override
-		public void redo() {
-			//dummy timestamp of 0
-			_buf.delete(_start, _length, 0, false);
+		if(in.readInt() != arenaSize){
+			throw new IOException("Corrupted undo history");
 		}
-
-		@Override
-		public int findRedoPosition() {
-			return _start;
+		char[] arena = new char[Math.max(arenaSize, MIN_ARENA_CAPACITY)];
+		for(int i = 0; i < arenaSize; ++i){
+			arena[i] = in.readChar();
 		}
 
-		@Override
-		public int findUndoPosition() {
-			return _start + _length;
+		_isInsert = isInsert;
+		_starts = starts;
+		_lengths = lengths;
+		_groups = groups;
+		_dataOffsets = dataOffsets;
+		_size = size;
+		_top = top;
+		_arena = arena;
+		_arenaSize = arenaSize;
+		_groupId = groupId;
+		_isBatchEdit = false;
+		_lastEditTime = -1;
+		trimMemory();
+		return true;
+	}
+
+	private int textHash(){
+		int length = _buf.getTextLength();
+		char[] chunk = new char[Math.min(length, HASH_CHUNK_SIZE)];
+		int hash = 0;
+		for(int start = 0; start < length; start += chunk.length){
+			int end = Math.min(start + chunk.length, length);
+			_buf.getChars(start, end, chunk, 0);
+			for(int i = 0; i < end - start; ++i){
+				hash = 31 * hash + chunk[i];
+			}
 		}
-	}// end inner class
+		return hash;
+	}
 }
@@ -5,6 +5,7 @@ import androidx.annotation.NonNull;
 import com.nirithy.luaeditor.MyIdentifierAutoComplete;
 
 import io.github.rosemoe.sora.lang.analysis.AsyncIncrementalAnalyzeManager;
+import io.github.rosemoe.sora.lang.analysis.BlockSummary;
 import io.github.rosemoe.sora.lang.analysis.IncrementalAnalyzeManager;
 import io.github.rosemoe.sora.lang.brackets.SimpleBracketsCollector;
 import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer;
@@ -28,6 +29,8 @@ import java.util.HashMap;
 import java.util.Set;
 import java.util.Arrays;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -62,15 +65,12 @@ public class LuaIncrementalAnalyzeManager
     private static final Pattern LUA_ERROR_PATTERN = 
             Pattern.compile("\\[string \"[^\"]*\"\\]:(\\d+):\\s*(.*)");
 
-    // 添加单例访问
-    private static volatile LuaIncrementalAnalyzeManager instance;
-
-    public static LuaIncrementalAnalyzeManager getInstance() {
-        return instance;
-    }
+    // 并行分词的最小行数，行数较少时直接顺序分词
+    private static final int PARALLEL_MIN_LINES = 1024;
+    // 每个并行分片的最小行数
+    private static final int PIECE_MIN_LINES = 256;
 
     public LuaIncrementalAnalyzeManager() {
-        instance = this;
         // 初始化诊断容器
         this.diagnosticsContainer = new DiagnosticsContainer();
     }
@@ -309,15 +309,186 @@ public class LuaIncrementalAnalyzeManager
         }
     }
 
-    private synchronized LuaTextTokenizer obtainTokenizer() {
+    private LuaTextTokenizer obtainTokenizer() {
         LuaTextTokenizer res = this.tokenizerProvider.get();
         if (res == null) {
             res = new LuaTextTokenizer("", new State());
             this.tokenizerProvider.set(res);
         }
+        // 确保当前线程的分词器使用本文档的类名集合与颜色设置
+        if (res.getClassNamesVersion() != this.classNamesVersion) {
+            res.setClassNames(androidClasses);
+            res.setClassNamesVersion(this.classNamesVersion);
+        }
+        res.setHexColorHighlightEnabled(hexColorHighlightEnabled);
         return res;
     }
 
+    /**
+     * 首次分析时并行分词：先预扫描长字符串与长注释，在词法状态为普通状态的行处把文本分片，
+     * 各分片从初始状态开始在 ForkJoinPool 中分词，最后按真实状态顺序校正各分片的开头
+     */
+    @NonNull
+    @Override
+    protected List<IncrementalAnalyzeManager.LineTokenizeResult<State, HighlightToken>>
+            tokenizeInitialLines(@NonNull Content text, int startLine, int endLine, State state) {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        if (endLine - startLine < PARALLEL_MIN_LINES || parallelism < 2) {
+            return super.tokenizeInitialLines(text, startLine, endLine, state);
+        }
+        int pieceLines = Math.max(PIECE_MIN_LINES, (endLine - startLine) / (parallelism * 4));
+        int[] splits = findSplitLines(text, startLine, endLine, state, pieceLines);
+        List<ForkJoinTask<List<IncrementalAnalyzeManager.LineTokenizeResult<State, HighlightToken>>>>
+                tasks = new ArrayList<>(splits.length - 1);
+        for (int i = 0; i + 1 < splits.length; i++) {
+            int from = splits[i];
+            int to = splits[i + 1];
+            State pieceState = i == 0 ? state : getInitialState();
+            tasks.add(
+                    ForkJoinTask.adapt(
+                            () ->
+                                    LuaIncrementalAnalyzeManager.super.tokenizeInitialLines(
+                                            text, from, to, pieceState)));
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        List<IncrementalAnalyzeManager.LineTokenizeResult<State, HighlightToken>> results =
+                new ArrayList<>(endLine - startLine);
+        for (int i = 0; i < tasks.size(); i++) {
+            List<IncrementalAnalyzeManager.LineTokenizeResult<State, HighlightToken>> piece =
+                    tasks.get(i).join();
+            if (i > 0) {
+                // 预扫描可能与分词器不一致，从真实状态重新分词，直到结果状态与分片中的一致
+                State real = results.get(results.size() - 1).state;
+                for (int j = 0; j < piece.size(); j++) {
+                    int line = splits[i] + j;
+                    var res = tokenizeLine(text.getLine(line), real, line);
+                    if (res.spans == null) {
+                        res.spans = generateSpansForLine(res);
+                    }
+                    boolean converged = stateEquals(res.state, piece.get(j).state);
+                    piece.set(j, res);
+                    if (converged) {
+                        break;
+                    }
+                    real = res.state;
+                }
+            }
+            results.addAll(piece);
+        }
+        return results;
+    }
+
+    /**
+     * 找出分片位置，返回值以 startLine 开头、以 endLine 结尾
+     */
+    private static int[] findSplitLines(
+            Content text, int startLine, int endLine, State state, int pieceLines) {
+        List<Integer> splits = new ArrayList<>();
+        splits.add(startLine);
+        int mode = state.state;
+        int eqCount =
+                mode == STATE_INCOMPLETE_COMMENT
+                        ? state.longCommentEqualCount
+                        : state.longStringEqualCount;
+        int last = startLine;
+        for (int i = startLine; i < endLine; i++) {
+            if (mode == 0 && i - last >= pieceLines && endLine - i >= pieceLines / 2) {
+                splits.add(i);
+                last = i;
+            }
+            long res = prescanLine(text.getLine(i), mode, eqCount);
+            mode = IntPair.getFirst(res);
+            eqCount = IntPair.getSecond(res);
+        }
+        splits.add(endLine);
+        int[] result = new int[splits.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = splits.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * 只识别注释、字符串与长括号，返回行末的 (状态, 等号数)
+     */
+    private static long prescanLine(CharSequence line, int mode, int eqCount) {
+        int len = line.length();
+        int i = 0;
+        while (i < len) {
+            if (mode != 0) {
+                int close = findLongBracketClose(line, i, eqCount);
+                if (close < 0) {
+                    break;
+                }
+                mode = 0;
+                i = close;
+                continue;
+            }
+            char ch = line.charAt(i);
+            if (ch == '-' && i + 1 < len && line.charAt(i + 1) == '-') {
+                int level = longBracketLevel(line, i + 2);
+                if (level < 0) {
+                    // 单行注释
+                    break;
+                }
+                mode = STATE_INCOMPLETE_COMMENT;
+                eqCount = level;
+                i += level + 4;
+            } else if (ch == '[') {
+                int level = longBracketLevel(line, i);
+                if (level < 0) {
+                    i++;
+                } else {
+                    mode = STATE_INCOMPLETE_LONG_STRING;
+                    eqCount = level;
+                    i += level + 2;
+                }
+            } else if (ch == '"' || ch == '\'') {
+                i++;
+                while (i < len && line.charAt(i) != ch) {
+                    if (line.charAt(i) == '\\') {
+                        i++;
+                    }
+                    i++;
+                }
+                i++;
+            } else {
+                i++;
+            }
+        }
+        return IntPair.pack(mode, eqCount);
+    }
+
+    // 返回 [=*[ 中的等号数，不是长括号时返回 -1
+    private static int longBracketLevel(CharSequence line, int offset) {
+        if (offset >= line.length() || line.charAt(offset) != '[') {
+            return -1;
+        }
+        int end = offset + 1;
+        while (end < line.length() && line.charAt(end) == '=') {
+            end++;
+        }
+        return end < line.length() && line.charAt(end) == '[' ? end - offset - 1 : -1;
+    }
+
+    // 返回等号数匹配的 ]=*] 之后的位置，找不到时返回 -1
+    private static int findLongBracketClose(CharSequence line, int from, int eqCount) {
+        for (int i = from; i < line.length(); i++) {
+            if (line.charAt(i) != ']') {
+                continue;
+            }
+            int end = i + 1;
+            while (end < line.length() && line.charAt(end) == '=') {
+                end++;
+            }
+            if (end - i - 1 == eqCount && end < line.length() && line.charAt(end) == ']') {
+                return end + 1;
+            }
+        }
+        return -1;
+    }
+
     public List<CodeBlock> computeBlocks(
             Content text,
             AsyncIncrementalAnalyzeManager<State, HighlightToken>.CodeBlockAnalyzeDelegate
@@ -401,6 +572,59 @@ public class LuaIncrementalAnalyzeManager
         return blocks;
     }
 
+    @Override
+    protected boolean isLineSummarySupported() {
+        return true;
+    }
+
+    /**
+     * 汇总一行中的代码块与括号边界，规则与 {@link #computeBlocks} 相同，
+     * 编辑后只需重新扫描受影响的行
+     */
+    @NonNull
+    @Override
+    protected int[] summarizeLine(
+            @NonNull IncrementalAnalyzeManager.LineTokenizeResult<State, HighlightToken> state) {
+        boolean checkForIdentifiers =
+                (state.state).state == 0
+                        || ((state.state).state == STATE_INCOMPLETE_COMMENT
+                                && state.tokens.size() > STATE_INCOMPLETE_COMMENT);
+        if (!(state.state).hasBraces && !checkForIdentifiers) {
+            return BlockSummary.EMPTY;
+        }
+        int[] events = new int[8];
+        int count = 0;
+        for (int i = 0; i < state.tokens.size(); i++) {
+            HighlightToken tokenRecord = state.tokens.get(i);
+            Tokens token = tokenRecord.token;
+            int offset = tokenRecord.offset;
+            // 每个 token 最多产生两个事件
+            if (count + 2 > events.length) {
+                events = Arrays.copyOf(events, events.length * 2);
+            }
+            if (token == Tokens.LBRACE
+                    || token == Tokens.FUNCTION
+                    || token == Tokens.FOR
+                    || token == Tokens.WHILE
+                    || token == Tokens.IF
+                    || token == Tokens.CONTINUE
+                    || token == Tokens.REPEAT
+                    || token == Tokens.SWITCH) {
+                events[count++] = BlockSummary.blockStart(offset);
+            } else if (token == Tokens.RBRACE || token == Tokens.END) {
+                events[count++] = BlockSummary.blockEnd(offset);
+            }
+            int type = getType(token);
+            if (type > 0) {
+                events[count++] =
+                        isStart(token)
+                                ? BlockSummary.bracketStart(type, offset)
+                                : BlockSummary.bracketEnd(type, offset);
+            }
+        }
+        return count == 0 ? BlockSummary.EMPTY : Arrays.copyOf(events, count);
+    }
+
     private static int getType(Tokens token) {
         if (token == Tokens.LBRACE || token == Tokens.RBRACE) {
             return 3;
@@ -467,6 +691,8 @@ public class LuaIncrementalAnalyzeManager
         } else if (state.state == STATE_INCOMPLETE_COMMENT) {
             // 处理不完整的长注释
             tokenizer.offset = 0;
+            // 从stateObj恢复等号计数，分词器可能刚处理过其他行
+            tokenizer.setLongCommentEqualCount(stateObj.longCommentEqualCount);
             Tokens token = tokenizer.scanLongComment(true);
             int tokenLength = tokenizer.getTokenLength(); // 获取token的长度
             tokens.add(new HighlightToken(token, 0));
@@ -514,12 +740,6 @@ public class LuaIncrementalAnalyzeManager
             }
         }
 
-        // 确保当前分词器使用最新类名集合
-        if (tokenizer.getClassNamesVersion() != this.classNamesVersion) {
-            tokenizer.setClassNames(androidClasses);
-            tokenizer.setClassNamesVersion(this.classNamesVersion);
-        }
-
         if (tokens.isEmpty()) {
             tokens.add(new HighlightToken(Tokens.UNKNOWN, 0));
         }
@@ -570,6 +790,7 @@ public class LuaIncrementalAnalyzeManager
                             || token == Tokens.LINE_COMMENT)) {
                 detectHighlightColors(tokenizer.getTokenText(), tokenizer.offset, token, tokens);
                 if (token == Tokens.LONG_COMMENT_INCOMPLETE) {
+                    st.longCommentEqualCount = tokenizer.getLongCommentEqualCount();
                     state = STATE_INCOMPLETE_COMMENT;
                     break;
                 }
@@ -589,6 +810,7 @@ public class LuaIncrementalAnalyzeManager
                     st.addIdentifier(tokenizer.getTokenText());
                 }
                 if (token == Tokens.LONG_COMMENT_INCOMPLETE) {
+                    st.longCommentEqualCount = tokenizer.getLongCommentEqualCount();
                     state = STATE_INCOMPLETE_COMMENT;
                     break;
                 }
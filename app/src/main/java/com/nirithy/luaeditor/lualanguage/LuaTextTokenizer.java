@@ -43,6 +43,9 @@ public class LuaTextTokenizer {
 
     private int classNamesVersion = -1; // 初始化为-1，表示未设置
 
+    // 是否记录颜色值文本，由所属的分析管理器设置
+    private boolean hexColorHighlightEnabled = false;
+
     private List<HighlightToken> tokens = new ArrayList<>();
 
     static {
@@ -95,6 +98,10 @@ public class LuaTextTokenizer {
         }
     }
 
+    public void setLongCommentEqualCount(int count) {
+        this.longCommentEqualCount = count;
+    }
+
     public void setLongStringEqualCount(int count) {
         this.longStringEqualCount = count;
     }
@@ -127,6 +134,14 @@ public class LuaTextTokenizer {
         return this.classNamesVersion;
     }
 
+    public void setHexColorHighlightEnabled(boolean enabled) {
+        this.hexColorHighlightEnabled = enabled;
+    }
+
+    public boolean isHexColorHighlightEnabled() {
+        return this.hexColorHighlightEnabled;
+    }
+
     public void setCalculateLineColumn(boolean cal) {
         this.lcCal = cal;
     }
@@ -437,10 +452,7 @@ public class LuaTextTokenizer {
                 if (hexLength == 6 || hexLength == 8) {
                     this.length = len;
                     HighlightToken token = new HighlightToken(Tokens.HEX_COLOR, this.offset);
-                    if (LuaIncrementalAnalyzeManager.getInstance() != null
-                            && LuaIncrementalAnalyzeManager.getInstance()
-                                    .isHexColorHighlightEnabled()
-                            && len <= 10) {
+                    if (hexColorHighlightEnabled && len <= 10) {
                         token.text =
                                 this.source.subSequence(this.offset, this.offset + len).toString();
                     }
@@ -459,10 +471,7 @@ public class LuaTextTokenizer {
                 if (hexLength == 6 || hexLength == 8) {
                     this.length = len;
                     HighlightToken token = new HighlightToken(Tokens.HEX_COLOR, this.offset);
-                    if (LuaIncrementalAnalyzeManager.getInstance() != null
-                            && LuaIncrementalAnalyzeManager.getInstance()
-                                    .isHexColorHighlightEnabled()
-                            && len <= 10) {
+                    if (hexColorHighlightEnabled && len <= 10) {
                         token.text =
                                 this.source.subSequence(this.offset, this.offset + len).toString();
                     }
@@ -864,10 +873,7 @@ public class LuaTextTokenizer {
                 if (hexLength == 6 || hexLength == 8) { // 有效颜色长度
                     this.length += len;
                     HighlightToken colorToken = new HighlightToken(Tokens.HEX_COLOR, colorStart);
-                    if (LuaIncrementalAnalyzeManager.getInstance() != null
-                            && LuaIncrementalAnalyzeManager.getInstance()
-                                    .isHexColorHighlightEnabled()
-                            && len <= 10) {
+                    if (hexColorHighlightEnabled && len <= 10) {
                         colorToken.text =
                                 this.source.subSequence(colorStart, colorStart + len).toString();
                     }
@@ -27,6 +27,10 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Subclass of {@link LuaValue} for representing lua strings.
@@ -110,6 +114,68 @@ public class LuaString extends LuaValue {
 				new LuaString[RECENT_STRINGS_CACHE_SIZE];
 	}
 
+	/** Global table of interned strings, shared by all threads.
+	 * Entries are weakly referenced, so a string stays interned only while something
+	 * else (a constant pool, a local variable name, an analysis result) still uses it.
+	 * Both keys and values of the map are the same {@link Ref} instance. */
+	private static final class InternedStrings {
+		private static final ConcurrentHashMap<Ref, Ref> table = new ConcurrentHashMap<Ref, Ref>();
+		private static final ReferenceQueue<LuaString> queue = new ReferenceQueue<LuaString>();
+
+		/** Weak reference that hashes and compares by the bytes of its referent.
+		 * Once cleared it is only equal to itself, so it can still be removed. */
+		private static final class Ref extends WeakReference<LuaString> {
+			private final int hash;
+
+			Ref(LuaString s, ReferenceQueue<LuaString> q) {
+				super(s, q);
+				hash = s.m_hashcode;
+			}
+
+			public int hashCode() {
+				return hash;
+			}
+
+			public boolean equals(Object o) {
+				if (o == this)
+					return true;
+				if (!(o instanceof Ref) || ((Ref) o).hash != hash)
+					return false;
+				LuaString a = get();
+				LuaString b = ((Ref) o).get();
+				return a != null && b != null && a.raweq(b);
+			}
+		}
+
+		static LuaString intern(LuaString s) {
+			Ref r;
+			while ((r = (Ref) queue.poll()) != null)
+				table.remove(r);
+			Ref k = new Ref(s, queue);
+			for (;;) {
+				Ref old = table.putIfAbsent(k, k);
+				if (old == null)
+					return s;
+				LuaString v = old.get();
+				if (v != null)
+					return v;
+				// old was cleared after the lookup and no longer equals k, so retrying inserts k
+			}
+		}
+	}
+
+	/** Get the canonical instance of a string from the global intern table.
+	 * <p>
+	 * Returns a previously interned string with the same bytes if one is still
+	 * reachable, otherwise interns and returns s itself.  Used by the compiler
+	 * for identifiers and constants, so repeated parses share one instance per name.
+	 * @param s the string to intern
+	 * @return a {@link LuaString} equal to s
+	 */
+	public static LuaString intern(LuaString s) {
+		return InternedStrings.intern(s);
+	}
+
 	/**
 	 * Get a {@link LuaString} instance whose bytes match
 	 * the supplied Java String using the UTF8 encoding.
@@ -117,6 +183,19 @@ public class LuaString extends LuaValue {
 	 * @return {@link LuaString} with UTF8 bytes corresponding to the supplied String
 	 */
 	public static LuaString valueOf(String string) {
+		int n = string.length();
+		byte[] b = new byte[n];
+		for (int i = 0; i < n; i++) {
+			char c = string.charAt(i);
+			if (c >= 0x80)
+				return valueOfUtf8(string);
+			b[i] = (byte) c;
+		}
+		return valueUsing(b, 0, n);
+	}
+
+	/** Slow path of {@link #valueOf(String)} for strings with non-ASCII characters */
+	private static LuaString valueOfUtf8(String string) {
 		char[] c = string.toCharArray();
 		byte[] b = new byte[lengthAsUtf8(c)];
 		encodeToUtf8(c, c.length, b, 0);
@@ -658,6 +737,10 @@ public class LuaString extends LuaValue {
 	 */
 	public static String decodeAsUtf8(byte[] bytes, int offset, int length) {
 		int i,j,n,b;
+		for ( i=offset,j=offset+length; i<j && bytes[i]>=0; ++i )
+			;
+		if ( i == j )
+			return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
 		for ( i=offset,j=offset+length,n=0; i<j; ++n ) {
 			switch ( 0xE0 & bytes[i++] ) {
 			case 0xE0: ++i;
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.luaj.vm2.compiler;
+
+import android.graphics.Rect;
+
+import com.myopicmobile.textwarrior.common.Pair;
+
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.Prototype;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * 单次代码分析的结果
+ * 由{@link LuaC#lexer}为每次分析新建，分析过程中只被对应的LexState写入，
+ * 因此多个文档可以在不同线程上同时分析
+ *
+ * @author DifierLine
+ */
+public final class AnalysisResult {
+
+    /** 分析得到的函数原型，语法错误时为null */
+    public Prototype proto;
+
+    /** 红色错误信息 */
+    public String errormsg;
+    /** 错误所在行，-1表示无 */
+    public int errorline = -1;
+    /** 错误所在字符位置，-1表示无 */
+    public int erroridx = -1;
+    /** 类型警告所在字符位置，-1表示无；类型警告同样保存在errormsg中 */
+    public int warnidx = -1;
+
+    /** 黑色警告（潜在运行时问题，不是语法错误） */
+    public String hintmsg;
+    /** 警告所在行，-1表示无 */
+    public int hintline = -1;
+
+    /** 未声明的全局变量 */
+    public final ArrayList<LuaString> globals = new ArrayList<>();
+    /** 变量名到出现位置及变量类型的映射 */
+    public final HashMap<String, ArrayList<Pair>> valueMap = new HashMap<>();
+    public final ArrayList<Pair> tokens = new ArrayList<>();
+    /** 代码块的起止范围，用于缩进线和折叠 */
+    public final ArrayList<Rect> lines = new ArrayList<>();
+    /** 普通函数体，按源码顺序排列 */
+    public final ArrayList<FuncRange> functions = new ArrayList<>();
+
+    /**
+     * 普通函数体的位置信息，增量分析以它为单位重新解析
+     */
+    public static final class FuncRange {
+        /** 函数原型，startidx为'('之后的位置，endidx为结束符之后的位置 */
+        public final Prototype proto;
+        /** 函数体开始处的行号 */
+        public int startline;
+        /** 是否为冒号定义的方法，方法带有隐式的self参数 */
+        public final boolean needself;
+        /** 函数体内引用的全局变量在globals中的范围 */
+        public int globalsStart;
+        public int globalsEnd;
+
+        public FuncRange(Prototype proto, int startline, boolean needself, int globalsStart) {
+            this.proto = proto;
+            this.startline = startline;
+            this.needself = needself;
+            this.globalsStart = globalsStart;
+            this.globalsEnd = globalsStart;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.luaj.vm2.compiler;
+
+import org.luaj.vm2.VarType;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Java类的成员索引，供代码分析推断类型
+ * 每个类只反射一次，加载失败的类也会记录，之后的查询都不再反射；
+ * 由后台的分析线程建立，补全等界面代码只用{@link #peek(String)}读取已有的索引
+ *
+ * @author DifierLine
+ */
+public final class ClassIndex {
+
+    private static final ConcurrentHashMap<String, ClassIndex> index = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, VarType> types = new ConcurrentHashMap<>();
+    private static final ClassIndex MISSING = new ClassIndex(null);
+    /** 重载的返回类型不一致时记为此值，表示无法推断 */
+    private static final String AMBIGUOUS = "";
+
+    public final String name;
+    private final HashMap<String, String> methods = new HashMap<>();
+    private final HashMap<String, String> fields = new HashMap<>();
+    private final ArrayList<String> methodNames = new ArrayList<>();
+    private final ArrayList<String> fieldNames = new ArrayList<>();
+
+    private ClassIndex(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 取得类的索引，第一次查询时反射建立
+     * @param className 类的完整名称，内部类可以用'.'分隔
+     * @return 类不存在时返回null
+     */
+    public static ClassIndex get(String className) {
+        ClassIndex c = index.get(className);
+        if (c == null) {
+            c = build(className);
+            ClassIndex old = index.putIfAbsent(className, c);
+            if (old != null)
+                c = old;
+        }
+        return c == MISSING ? null : c;
+    }
+
+    /**
+     * 取得已经建立的索引，不会反射
+     * @return 尚未建立或类不存在时返回null
+     */
+    public static ClassIndex peek(String className) {
+        ClassIndex c = index.get(className);
+        return c == MISSING ? null : c;
+    }
+
+    /**
+     * 类型名对应的VarType，同名共享一个实例
+     * @param typename Java类名，或string、number、boolean
+     */
+    public static VarType type(String typename) {
+        VarType t = types.get(typename);
+        if (t == null) {
+            t = new VarType(typename);
+            VarType old = types.putIfAbsent(typename, t);
+            if (old != null)
+                t = old;
+        }
+        return t;
+    }
+
+    private static ClassIndex build(String className) {
+        Class<?> clazz = load(className);
+        if (clazz == null)
+            return MISSING;
+        ClassIndex c = new ClassIndex(className);
+        try {
+            Method[] ms = clazz.getMethods();
+            for (Method m : ms) {
+                if (!m.isBridge())
+                    c.addMethod(m);
+            }
+            // 桥接方法的返回类型是父类型，只在没有同名方法时记录
+            for (Method m : ms) {
+                if (m.isBridge() && !c.methods.containsKey(m.getName()))
+                    c.addMethod(m);
+            }
+            // 接口的getMethods()不含Object的方法，但实例上总能调用
+            if (clazz.isInterface()) {
+                for (Method m : Object.class.getMethods())
+                    c.addMethod(m);
+            }
+            for (Field f : clazz.getFields()) {
+                String n = f.getName();
+                if (!c.fields.containsKey(n)) {
+                    c.fields.put(n, typename(f.getType()));
+                    c.fieldNames.add(n);
+                }
+            }
+        } catch (Throwable e) {
+            // 缺少依赖的类无法反射成员，按不存在处理
+            return MISSING;
+        }
+        return c;
+    }
+
+    private static Class<?> load(String className) {
+        ClassLoader loader = ClassIndex.class.getClassLoader();
+        String n = className;
+        for (;;) {
+            try {
+                return Class.forName(n, false, loader);
+            } catch (Throwable e) {
+                // 内部类：把最后一个'.'换成'$'再试
+                int idx = n.lastIndexOf('.');
+                if (idx <= 0)
+                    return null;
+                n = n.substring(0, idx) + '$' + n.substring(idx + 1);
+            }
+        }
+    }
+
+    private void addMethod(Method m) {
+        String n = m.getName();
+        String r = typename(m.getReturnType());
+        String old = methods.get(n);
+        if (old == null) {
+            methods.put(n, r);
+            methodNames.add(n);
+        } else if (!old.equals(r)) {
+            methods.put(n, AMBIGUOUS);
+        }
+    }
+
+    /** Java类型在Lua中的类型名，无法推断时为AMBIGUOUS */
+    private static String typename(Class<?> c) {
+        if (c == void.class || c.isArray())
+            return AMBIGUOUS;
+        if (c == boolean.class || c == Boolean.class)
+            return "boolean";
+        if (c.isPrimitive() || Number.class.isAssignableFrom(c))
+            return "number";
+        if (c == String.class)
+            return "string";
+        return c.getName().replace('$', '.');
+    }
+
+    /** 是否有此名称的公开方法 */
+    public boolean hasMethod(String n) {
+        return methods.containsKey(n);
+    }
+
+    /** 是否有此名称的公开方法或字段 */
+    public boolean hasMember(String n) {
+        return methods.containsKey(n) || fields.containsKey(n);
+    }
+
+    /**
+     * 方法的返回类型
+     * @return 方法不存在、返回void或重载的返回类型不一致时返回null
+     */
+    public VarType returnType(String method) {
+        String r = methods.get(method);
+        return r == null || r.isEmpty() ? null : type(r);
+    }
+
+    /**
+     * 字段的类型，没有同名字段时按luajava的属性访问查找getter
+     * @return 无法推断时返回null
+     */
+    public VarType fieldType(String field) {
+        String r = fields.get(field);
+        if (r == null && field.length() > 0) {
+            String p = Character.toUpperCase(field.charAt(0)) + field.substring(1);
+            r = methods.get("get" + p);
+            if (r == null)
+                r = methods.get("is" + p);
+        }
+        return r == null || r.isEmpty() ? null : type(r);
+    }
+
+    /** 方法名，同名重载只出现一次 */
+    public List<String> getMethods() {
+        return Collections.unmodifiableList(methodNames);
+    }
+
+    /** 公开字段名 */
+    public List<String> getFields() {
+        return Collections.unmodifiableList(fieldNames);
+    }
+}
@@ -65,7 +65,8 @@ public class FuncState extends Constants {
     static int singlevaraux(FuncState fs, LuaString n, expdesc var, int base) {
         VarType type = new VarType(-1);
         int ret = singlevaraux(fs, n, var, base, type);
-        if (type.type != -1)
+        // Java类的类型为TNONE，只有类名
+        if (type.type != -1 || type.typename.length() > 0)
             var.type = type;
         return ret;
     }
@@ -761,8 +762,10 @@ public class FuncState extends Constants {
                 this.exp2reg(ex, var.u.info);
                 if (getlocvar(var.u.info).type == null)
                     getlocvar(var.u.info).type = ex.type;
-                if (!ret)
-                    LexState.errormsg = String.format("%d: local %s type error %s %s", ls.lastline, getlocvar(var.u.info).varname, typename(var.type), typename(ex.type));
+                if (!ret) {
+                    ls.result.errormsg = String.format("%d: local %s type error %s %s", ls.lastline, getlocvar(var.u.info).varname, typename(var.type), typename(ex.type));
+                    ls.result.warnidx = ls.lastidx;
+                }
                 return ret;
             }
             case LexState.VUPVAL: {
@@ -770,8 +773,10 @@ public class FuncState extends Constants {
                 this.codeABC(OP_SETUPVAL, e, var.u.info, 0);
                 if (getupvar(var.u.info).type == null)
                     getupvar(var.u.info).type = ex.type;
-                if (!ret)
-                    LexState.errormsg = String.format("%d: upvalue %s type error %s %s", ls.lastline, getupvar(var.u.info).name, typename(var.type), typename(ex.type));
+                if (!ret) {
+                    ls.result.errormsg = String.format("%d: upvalue %s type error %s %s", ls.lastline, getupvar(var.u.info).name, typename(var.type), typename(ex.type));
+                    ls.result.warnidx = ls.lastidx;
+                }
                 break;
             }
             case LexState.VGLOBAL: {
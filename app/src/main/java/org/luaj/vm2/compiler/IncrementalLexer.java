@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.luaj.vm2.compiler;
+
+import android.graphics.Rect;
+
+import com.myopicmobile.textwarrior.common.Flag;
+import com.myopicmobile.textwarrior.common.Pair;
+
+import org.luaj.vm2.LocVars;
+import org.luaj.vm2.Lua;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.Prototype;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 以函数为单位的增量代码分析
+ * 保存上一次成功分析的源码与结果，编辑只落在某个普通函数体内部时，
+ * 只重新解析包含编辑的最内层函数体，再把结果拼接回原来的函数原型树；
+ * 其它情况退回完整分析
+ *
+ * @author DifierLine
+ */
+public final class IncrementalLexer {
+
+    private final String chunkname;
+    private char[] source;
+    private AnalysisResult base;
+
+    public IncrementalLexer(String chunkname) {
+        this.chunkname = chunkname;
+    }
+
+    /**
+     * 分析源码
+     * @param src 源码
+     * @param _abort 置位后提前结束分析
+     * @return 分析结果，有语法错误时proto为null
+     * @throws IOException
+     */
+    public AnalysisResult lexer(CharSequence src, Flag _abort) throws IOException {
+        return lexer(LuaC.toChars(src), _abort);
+    }
+
+    /**
+     * 分析源码快照，成功时chars被保留作下次比较，调用者之后不能修改它
+     */
+    public synchronized AnalysisResult lexer(char[] chars, Flag _abort) throws IOException {
+        AnalysisResult res = base != null ? reparse(chars, _abort) : null;
+        if (res == null)
+            res = LuaC.lexer(chars, chars.length, chunkname, _abort);
+        // 出错时保留上次成功的结果，下次编辑仍与它比较
+        if (res.proto != null && res.erroridx < 0 && !_abort.isSet()) {
+            source = chars;
+            base = res;
+        }
+        return res;
+    }
+
+    /**
+     * 丢弃缓存的结果，下次分析为完整分析
+     */
+    public synchronized void reset() {
+        source = null;
+        base = null;
+    }
+
+    private AnalysisResult reparse(char[] src, Flag _abort) throws IOException {
+        char[] old = source;
+        int min = Math.min(old.length, src.length);
+        int start = 0;
+        while (start < min && old[start] == src[start])
+            start++;
+        if (start == old.length && start == src.length)
+            return base;
+        int suffix = 0;
+        while (suffix < min - start && old[old.length - 1 - suffix] == src[src.length - 1 - suffix])
+            suffix++;
+        int oldEnd = old.length - suffix;
+        int delta = src.length - old.length;
+
+        // 找到完整包含编辑且不触及结束符的最内层函数体
+        Map<Prototype, AnalysisResult.FuncRange> ranges = new IdentityHashMap<>();
+        for (AnalysisResult.FuncRange r : base.functions)
+            ranges.put(r.proto, r);
+        ArrayList<Prototype> path = new ArrayList<>();
+        ArrayList<Prototype> scopePath = null;
+        AnalysisResult.FuncRange range = null;
+        Prototype cur = base.proto;
+        for (;;) {
+            path.add(cur);
+            Prototype next = null;
+            if (cur.p != null) {
+                for (Prototype c : cur.p) {
+                    if (c.startidx <= start && oldEnd <= c.endidx - 3) {
+                        next = c;
+                        break;
+                    }
+                }
+            }
+            if (next == null)
+                break;
+            AnalysisResult.FuncRange r = ranges.get(next);
+            if (r != null) {
+                range = r;
+                scopePath = new ArrayList<>(path);
+            }
+            cur = next;
+        }
+        if (range == null)
+            return null;
+        Prototype target = range.proto;
+        int s = target.startidx;
+        int e = target.endidx;
+        if (s < 1 || old[s - 1] != '(')
+            return null;
+
+        AnalysisResult part = LuaC.relexer(src, src.length, range, scope(old, scopePath, target), chunkname, _abort);
+        if (part.proto == null)
+            return part;
+        Prototype fresh = part.proto.p[0];
+        // 结束符位置变化说明编辑改变了函数边界
+        if (fresh.endidx != e + delta || _abort.isSet())
+            return null;
+        int lineDelta = countLines(src, start, src.length - suffix) - countLines(old, start, oldEnd);
+        return splice(scopePath, target, fresh, range, part, delta, lineDelta);
+    }
+
+    /**
+     * 收集外层函数在定义target的位置可见的局部变量
+     * 以CLOSURE指令所在pc判断，局部变量的有效范围是[startpc, endpc)；
+     * local function定义的变量在CLOSURE之后才开始，但在自身函数体内可见
+     */
+    private static LocVars[] scope(char[] src, ArrayList<Prototype> path, Prototype target) {
+        ArrayList<LocVars> vars = new ArrayList<>();
+        String self = localFunctionName(src, target.startidx - 1);
+        for (int i = 0; i < path.size(); i++) {
+            Prototype f = path.get(i);
+            Prototype child = i + 1 < path.size() ? path.get(i + 1) : target;
+            int pc = closurePc(f, child);
+            if (f.locvars == null)
+                continue;
+            for (LocVars v : f.locvars) {
+                if (v == null)
+                    continue;
+                if (v.startpc <= pc && pc < v.endpc)
+                    vars.add(v);
+                else if (child == target && v.startpc == pc + 1 && self != null && self.equals(v.varname.tojstring()))
+                    vars.add(v);
+            }
+        }
+        return vars.toArray(new LocVars[0]);
+    }
+
+    /**
+     * 参数表'('之前是local function NAME时返回NAME，否则返回null
+     */
+    private static String localFunctionName(char[] b, int paren) {
+        int i = skipSpace(b, paren - 1);
+        int end = i + 1;
+        while (i >= 0 && (Character.isLetterOrDigit(b[i]) || b[i] == '_'))
+            i--;
+        if (i + 1 == end)
+            return null;
+        String name = new String(b, i + 1, end - i - 1);
+        i = skipSpace(b, i);
+        if (!endsWithWord(b, i, "function"))
+            return null;
+        i = skipSpace(b, i - "function".length());
+        return endsWithWord(b, i, "local") ? name : null;
+    }
+
+    private static int skipSpace(char[] b, int i) {
+        while (i >= 0 && Character.isWhitespace(b[i]))
+            i--;
+        return i;
+    }
+
+    private static boolean endsWithWord(char[] b, int i, String word) {
+        int start = i - word.length() + 1;
+        if (start < 0)
+            return false;
+        for (int k = 0; k < word.length(); k++) {
+            if (b[start + k] != word.charAt(k))
+                return false;
+        }
+        return start == 0 || !(Character.isLetterOrDigit(b[start - 1]) || b[start - 1] == '_');
+    }
+
+    private static int closurePc(Prototype f, Prototype child) {
+        int idx = 0;
+        while (f.p[idx] != child)
+            idx++;
+        int[] code = f.code;
+        for (int pc = 0; pc < code.length; pc++) {
+            if (Lua.GET_OPCODE(code[pc]) == Lua.OP_CLOSURE && Lua.GETARG_Bx(code[pc]) == idx)
+                return pc;
+        }
+        return code.length;
+    }
+
+    private static int countLines(char[] b, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (b[i] == '\n')
+                n++;
+        }
+        return n;
+    }
+
+    private AnalysisResult splice(ArrayList<Prototype> path, Prototype target, Prototype fresh,
+                                  AnalysisResult.FuncRange range, AnalysisResult part,
+                                  int delta, int lineDelta) {
+        AnalysisResult old = base;
+        AnalysisResult res = new AnalysisResult();
+        int s = target.startidx;
+        int e = target.endidx;
+
+        // 全局变量按源码顺序记录，替换原函数体对应的一段
+        int gs = range.globalsStart;
+        int ge = range.globalsEnd;
+        int globalsDelta = part.globals.size() - (ge - gs);
+        res.globals.addAll(old.globals.subList(0, gs));
+        res.globals.addAll(part.globals);
+        res.globals.addAll(old.globals.subList(ge, old.globals.size()));
+
+        // 复制根到旧函数体之后的原型，缓存的base和已交给编辑器的结果都不被修改
+        IdentityHashMap<Prototype, Prototype> copies = new IdentityHashMap<>();
+        res.proto = shift(old.proto, path, target, fresh, e, delta, lineDelta, copies);
+
+        for (AnalysisResult.FuncRange r : old.functions) {
+            Prototype f = r.proto;
+            if (f.startidx < s) {
+                res.functions.add(f.endidx >= e ? moved(r, copies, 0, 0, globalsDelta) : r);
+            } else if (f == target) {
+                for (AnalysisResult.FuncRange n : part.functions) {
+                    n.globalsStart += gs;
+                    n.globalsEnd += gs;
+                    res.functions.add(n);
+                }
+            } else if (f.startidx >= e) {
+                res.functions.add(moved(r, copies, lineDelta, globalsDelta, globalsDelta));
+            }
+        }
+
+        for (Rect r : old.lines) {
+            if (r == null || (r.left >= s && r.right < e))
+                continue;
+            Rect n = new Rect(r);
+            if (n.left >= e) {
+                n.left += delta;
+                n.top += lineDelta;
+            }
+            if (n.right >= e) {
+                n.right += delta;
+                n.bottom += lineDelta;
+            }
+            res.lines.add(n);
+        }
+        res.lines.addAll(part.lines);
+
+        for (Map.Entry<String, ArrayList<Pair>> entry : old.valueMap.entrySet()) {
+            ArrayList<Pair> list = new ArrayList<>(entry.getValue().size());
+            for (Pair p : entry.getValue()) {
+                int idx = p.getFirst();
+                if (idx >= e)
+                    list.add(new Pair(idx + delta, p.getSecond()));
+                else if (idx < s)
+                    list.add(p);
+            }
+            if (!list.isEmpty())
+                res.valueMap.put(entry.getKey(), list);
+        }
+        for (Map.Entry<String, ArrayList<Pair>> entry : part.valueMap.entrySet()) {
+            ArrayList<Pair> list = res.valueMap.get(entry.getKey());
+            if (list == null) {
+                list = new ArrayList<>();
+                res.valueMap.put(entry.getKey(), list);
+            }
+            list.addAll(entry.getValue());
+        }
+
+        if (part.errormsg != null) {
+            res.errormsg = part.errormsg;
+            res.errorline = part.errorline;
+            res.erroridx = part.erroridx;
+            res.warnidx = part.warnidx;
+        } else if (old.errormsg != null && (old.warnidx < s || old.warnidx >= e)) {
+            res.errormsg = old.errormsg;
+            res.warnidx = old.warnidx >= e ? old.warnidx + delta : old.warnidx;
+        }
+        return res;
+    }
+
+    private static AnalysisResult.FuncRange moved(AnalysisResult.FuncRange r, Map<Prototype, Prototype> copies,
+                                                  int lineDelta, int startDelta, int endDelta) {
+        Prototype p = copies.get(r.proto);
+        AnalysisResult.FuncRange n = new AnalysisResult.FuncRange(p != null ? p : r.proto,
+                r.startline + lineDelta, r.needself, r.globalsStart + startDelta);
+        n.globalsEnd = r.globalsEnd + endDelta;
+        return n;
+    }
+
+    /**
+     * 返回移动了旧函数体之后位置的原型树，target替换为fresh
+     * path为target的外层函数，总是复制；其它结束于旧函数体之前的子树原样共享，
+     * 其余原型复制后再修改，新旧副本记录在copies中
+     */
+    private static Prototype shift(Prototype f, ArrayList<Prototype> path, Prototype target, Prototype fresh,
+                                   int e, int delta, int lineDelta, Map<Prototype, Prototype> copies) {
+        if (f == target)
+            return fresh;
+        if (f.endidx < e && !path.contains(f))
+            return f;
+        Prototype n = copy(f);
+        if (f.startidx >= e) {
+            n.startidx += delta;
+            n.linedefined += lineDelta;
+        }
+        if (f.endidx >= e) {
+            n.endidx += delta;
+            n.lastlinedefined += lineDelta;
+        }
+        if (f.locvars != null) {
+            n.locvars = f.locvars.clone();
+            for (int i = 0; i < n.locvars.length; i++) {
+                LocVars v = n.locvars[i];
+                if (v == null || (v.startidx < e && v.endidx < e))
+                    continue;
+                LocVars c = new LocVars(v.varname, v.startpc, v.endpc);
+                c.type = v.type;
+                c.startidx = v.startidx >= e ? v.startidx + delta : v.startidx;
+                c.endidx = v.endidx >= e ? v.endidx + delta : v.endidx;
+                n.locvars[i] = c;
+            }
+        }
+        if (f.p != null) {
+            n.p = f.p.clone();
+            for (int i = 0; i < n.p.length; i++)
+                n.p[i] = shift(f.p[i], path, target, fresh, e, delta, lineDelta, copies);
+        }
+        copies.put(f, n);
+        return n;
+    }
+
+    private static Prototype copy(Prototype f) {
+        Prototype n = new Prototype();
+        n.k = f.k;
+        n.code = f.code;
+        n.p = f.p;
+        n.lineinfo = f.lineinfo;
+        n.locvars = f.locvars;
+        n.upvalues = f.upvalues;
+        n.source = f.source;
+        n.linedefined = f.linedefined;
+        n.lastlinedefined = f.lastlinedefined;
+        n.numparams = f.numparams;
+        n.is_vararg = f.is_vararg;
+        n.maxstacksize = f.maxstacksize;
+        n.endidx = f.endidx;
+        n.startidx = f.startidx;
+        n.name = f.name;
+        return n;
+    }
+}
@@ -170,6 +170,9 @@ public class LexState extends Constants {
     FuncState fs;  /* `FuncState' is private to the parser */
     LuaC.CompileState L;
     InputStream z;  /* input stream */
+    char[] chars;  /* 字符源，不为null时代替z读取，位置均为字符位置 */
+    int charpos;  /* chars中下一个要读取的位置 */
+    int charend;  /* chars中有效字符的结束位置 */
     char[] buff;  /* buffer for tokens */
     int nbuff; /* length of buffer */
     Dyndata dyd = new Dyndata();  /* dynamic structures used by the parser */
@@ -349,9 +352,20 @@ public class LexState extends Constants {
     private final static int ALPHABIT = 0, DIGITBIT = 1, PRINTBIT = 2, SPACEBIT = 3, XDIGITBIT = 4;
 
     private boolean testprop(int c, int p) {
+        if (c >= 0x80 && chars != null)
+            c = utf8lead(c);
         return (luai_ctype_[(c) + 1] & (p)) != 0;
     }
 
+    /** 字符源中的非ASCII字符按其UTF-8首字节分类，与字节源的词法保持一致 */
+    private static int utf8lead(int c) {
+        if (c < 0x800)
+            return 0xc0 | (c >> 6);
+        if (c >= 0xd800 && c < 0xe000)
+            return 0xf0;
+        return 0xe0 | (c >> 12);
+    }
+
     private static int MASK(int B) {
         return (1 << (B));
     }
@@ -403,6 +417,11 @@ public class LexState extends Constants {
     }
 
     void nextChar() {
+        if (chars != null) {
+            current = charpos < charend ? chars[charpos++] : EOZ;
+            currentidx++;
+            return;
+        }
         try {
             current = z.read();
             currentidx++;
@@ -499,20 +518,17 @@ public class LexState extends Constants {
             case TK_NAME:
             case TK_STRING:
             case TK_NUMBER:
+                if (chars != null)
+                    return new String(buff, 0, nbuff);
                 return LuaString.valueOf(buff, 0, nbuff).tojstring();
             default:
                 return token2str(token);
         }
     }
 
-    public static String errormsg;
-    public static int errorline;
-    public static int erroridx;
-    
-    // 黑色警告（潜在运行时问题，不是语法错误）
-    public static String hintmsg;
-    public static int hintline = -1;
-    
+    /** 本次分析的结果，每个LexState独占一份 */
+    final AnalysisResult result = new AnalysisResult();
+
     // 已知的Lua标准库和常用全局变量
     private static final HashSet<String> KNOWN_GLOBALS = new HashSet<>(Arrays.asList(
         // 基本类型和函数
@@ -536,9 +552,9 @@ public class LexState extends Constants {
     void lexerror(String msg, int token) {
 
         if (inLexer) {
-            if (erroridx < 0) {
-                errormsg = getDetailedErrorMessage(msg, token);
-                erroridx = lastidx;
+            if (result.erroridx < 0) {
+                result.errormsg = getDetailedErrorMessage(msg, token);
+                result.erroridx = lastidx;
             }
         }
         String cid = Lua.chunkid(source.tojstring());
@@ -555,7 +571,20 @@ public class LexState extends Constants {
         return L.newTString(s);
     }
 
+    /** 字节源的分析模式下，注释也要经过newstring把字节位置修正为字符位置；字符源不需要 */
+    private boolean needsIdxFix() {
+        return inLexer && chars == null;
+    }
+
     LuaString newstring(char[] chars, int offset, int len) {
+        if (this.chars != null) {
+            // 字符源的位置已是字符位置，只需把非ASCII字符编码为UTF-8
+            for (int i = offset, n = offset + len; i < n; i++) {
+                if (chars[i] >= 0x80)
+                    return L.newTString(LuaString.valueOf(new String(chars, offset, len)));
+            }
+            return L.newTString(LuaString.valueOf(chars, offset, len));
+        }
         LuaString s = L.newTString(LuaString.valueOf(chars, offset, len));
         if (inLexer) {
             currentidx -= len;
@@ -574,6 +603,17 @@ public class LexState extends Constants {
             syntaxerror("chunk has too many lines");
     }
 
+    /** 以字符数组为源，读取src[start, end)
+     * 不复制src，调用者在分析结束前不能修改它
+     */
+    void setinput(LuaC.CompileState L, char[] src, int start, int end, LuaString source) {
+        this.chars = src;
+        this.charpos = start;
+        this.charend = end;
+        this.currentidx = start;
+        setinput(L, start < end ? src[this.charpos++] : EOZ, null, source);
+    }
+
     void setinput(LuaC.CompileState L, int firstByte, InputStream z, LuaString source) {
         this.decpoint = '.';
         this.L = L;
@@ -748,12 +788,12 @@ public class LexState extends Constants {
                 case '\r': {
                     save('\n');
                     inclinenumber();
-                    if (seminfo == null && !inLexer)
+                    if (seminfo == null && !needsIdxFix())
                         nbuff = 0; /* avoid wasting space */
                     break;
                 }
                 default: {
-                    if (seminfo != null || inLexer)
+                    if (seminfo != null || needsIdxFix())
                         save_and_next();
                     else
                         nextChar();
@@ -762,7 +802,7 @@ public class LexState extends Constants {
         }
         if (seminfo != null)
             seminfo.ts = newstring(buff, 2 + sep, nbuff - 2 * (2 + sep));
-        else if (inLexer)
+        else if (needsIdxFix())
             newstring(buff, 2 + sep, nbuff - 2 * (2 + sep));
     }
 
@@ -932,7 +972,7 @@ public class LexState extends Constants {
                         }
                     }
                     /* else short comment */
-                    if (inLexer) {
+                    if (needsIdxFix()) {
                         while (!currIsNewline() && current != EOZ)
                             save_and_next();
                         newstring(buff, 0, nbuff);
@@ -1446,7 +1486,7 @@ public class LexState extends Constants {
             if (where == linenumber)
                 error_expected(what);
             else {
-                errorline = where;
+                result.errorline = where;
                 syntaxerror(L.pushfstring(LUA_QS(token2str(what))
                         + " 预期 " + "(关闭 " + LUA_QS(token2str(who))
                         + " 在 " + where + " 行)"));
@@ -1548,10 +1588,8 @@ public class LexState extends Constants {
             fs.getlocvar(--fs.nactvar).endpc = fs.pc;
     }
 
-    public static ArrayList<LuaString> globals = new ArrayList<>();
-    public static HashMap<String, ArrayList<Pair>> valueMap = new HashMap<>();
-
     private void addLexer(String n, int vartype) {
+        HashMap<String, ArrayList<Pair>> valueMap = result.valueMap;
         ArrayList<Pair> a = valueMap.get(n);
         if (a == null) {
             a = new ArrayList<>();
@@ -1578,7 +1616,7 @@ public class LexState extends Constants {
 
         if (vartype == VVOID) { /* global name? */
             if (inLexer)
-                globals.add(varname);
+                result.globals.add(varname);
             expdesc key = new expdesc();
             vartype = FuncState.singlevaraux(fs, this.envn, var, 1);  /* get environment variable */
             if (Lua.LUA_FUNC_ENV && vartype != VLOCAL) {
@@ -1770,14 +1808,16 @@ public class LexState extends Constants {
     /* GRAMMAR RULES */
     /*=================================================*/
 
-    void fieldsel(expdesc v) {
+    LuaString fieldsel(expdesc v) {
         /* fieldsel -> ['.' | ':'] NAME */
         FuncState fs = this.fs;
         expdesc key = new expdesc();
         fs.exp2anyregup(v);
         this.next(); /* skip the dot or colon */
-        this.checkname(key);
+        LuaString name = this.str_checkname();
+        this.codestring(key, name);
         fs.indexed(v, key);
+        return name;
     }
 
     void yindex(expdesc v) {
@@ -1912,7 +1952,7 @@ public class LexState extends Constants {
             }
         } while (this.testnext(',') || this.testnext(';'));
         if (inLexer) {
-            lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
+            result.lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
         }
         this.check_match('}', '{', line);
         fs.lastlistfield(cc);
@@ -2003,6 +2043,11 @@ public class LexState extends Constants {
         new_fs.f = addprototype();
         new_fs.f.linedefined = line;
         new_fs.f.startidx = currentidx;
+        AnalysisResult.FuncRange range = null;
+        if (inLexer) {
+            range = new AnalysisResult.FuncRange(new_fs.f, startline, needself, result.globals.size());
+            result.functions.add(range);
+        }
         open_func(new_fs, bl);
         this.checknext('(');
         if (needself) {
@@ -2025,10 +2070,11 @@ public class LexState extends Constants {
         this.codeclosure(e);
         this.close_func();
         if (inLexer) {
+            range.globalsEnd = result.globals.size();
             if (left)
-                lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
             else
-                lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
         }
         if (left)
             this.check_match('}', TK_FUNCTION, line);
@@ -2120,9 +2166,9 @@ public class LexState extends Constants {
         this.close_func();
         if (inLexer) {
             if (left)
-                lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
             else
-                lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
         }
         if (left)
             this.check_match('}', TK_WHEN, line);
@@ -2169,13 +2215,19 @@ public class LexState extends Constants {
     }
 
 
+    /** 最近一次调用的第一个参数，是字符串常量时供类型推断使用，否则为null */
+    private LuaString callstr;
+
     void funcargs(expdesc f, int line) {
         FuncState fs = this.fs;
         expdesc args = new expdesc();
         int base, nparams;
+        LuaString str = null;
         switch (this.t.token) {
             case '(': { /* funcargs -> `(' [ explist1 ] `)' */
                 this.next();
+                if (this.t.token == TK_STRING)
+                    str = this.t.seminfo.ts;
                 if (this.t.token == ')') /* arg list is empty? */
                     args.k = VVOID;
                 else {
@@ -2190,6 +2242,7 @@ public class LexState extends Constants {
                 break;
             }
             case TK_STRING: { /* funcargs -> STRING */
+                str = this.t.seminfo.ts;
                 this.codestring(args, this.t.seminfo.ts);
                 this.next(); /* must use `seminfo' before `next' */
                 break;
@@ -2199,6 +2252,7 @@ public class LexState extends Constants {
                 return;
             }
         }
+        callstr = str;
         _assert(f.k == VNONRELOC);
         base = f.u.info; /* base register for call */
         if (hasmultret(args.k))
@@ -2248,11 +2302,22 @@ public class LexState extends Constants {
 		/* suffixedexp ->
        	primaryexp { '.' NAME | '[' exp ']' | ':' NAME funcargs | funcargs } */
         int line = linenumber;
+        LuaString base = t.token == TK_NAME ? t.seminfo.ts : null;
         primaryexp(v);
+        /* 成员访问所在的类型和成员名，紧随其后的调用按方法调用推断 */
+        VarType owner = null;
+        LuaString member = null;
+        int memberidx = 0;
         for (; ; ) {
             switch (t.token) {
                 case '.': { /* fieldsel */
-                    this.fieldsel(v);
+                    if (member != null)
+                        base = null; /* 只有base.NAME(...)按库函数推断 */
+                    owner = v.type;
+                    member = this.fieldsel(v);
+                    memberidx = lastidx;
+                    if (inLexer)
+                        v.type = fieldtype(owner, member);
                     break;
                 }
                 case '[': { /* `[' exp1 `]' */
@@ -2260,21 +2325,47 @@ public class LexState extends Constants {
                     fs.exp2anyregup(v);
                     this.yindex(key);
                     fs.indexed(v, key);
+                    v.type = null;
+                    base = null;
+                    owner = null;
+                    member = null;
                     break;
                 }
                 case ':': { /* `:' NAME funcargs */
                     expdesc key = new expdesc();
                     this.next();
-                    this.checkname(key);
+                    owner = v.type;
+                    member = this.str_checkname();
+                    memberidx = lastidx;
+                    this.codestring(key, member);
                     fs.self(v, key);
                     this.funcargs(v, line);
+                    if (inLexer)
+                        v.type = calltype(owner, member, memberidx);
+                    base = null;
+                    owner = null;
+                    member = null;
                     break;
                 }
                 case '(':
                 case TK_STRING:
                 case '{': { /* funcargs */
+                    VarType callee = v.type;
                     fs.exp2nextreg(v);
                     this.funcargs(v, line);
+                    if (inLexer) {
+                        if (javaclass(callee) != null && member == null)
+                            v.type = callee; /* 构造实例 */
+                        else if (member == null)
+                            v.type = base != null && base.tojstring().equals("import") ? importtype() : null;
+                        else if (base != null && base.tojstring().equals("luajava"))
+                            v.type = luajavatype(member);
+                        else
+                            v.type = calltype(owner, member, memberidx);
+                    }
+                    base = null;
+                    owner = null;
+                    member = null;
                     break;
                 }
                 default:
@@ -2283,6 +2374,50 @@ public class LexState extends Constants {
         }
     }
 
+    /** 可以推断成员的Java类型，Lua类型和无法加载的类返回null */
+    private static ClassIndex javaclass(VarType type) {
+        if (type == null || type.type != LuaValue.TNONE || type.typename.indexOf('.') < 1)
+            return null;
+        return ClassIndex.get(type.typename);
+    }
+
+    private static VarType fieldtype(VarType owner, LuaString name) {
+        ClassIndex c = javaclass(owner);
+        return c == null ? null : c.fieldType(name.tojstring());
+    }
+
+    /** 方法调用的返回类型，类中没有这个方法时给出警告 */
+    @SuppressLint("DefaultLocale")
+    private VarType calltype(VarType owner, LuaString name, int idx) {
+        ClassIndex c = javaclass(owner);
+        if (c == null)
+            return null;
+        String n = name.tojstring();
+        if (!c.hasMember(n)) {
+            result.errormsg = String.format("%d: %s 没有方法 %s", lastline, fs.typename(owner), n);
+            result.warnidx = idx;
+            return null;
+        }
+        return c.returnType(n);
+    }
+
+    /** import "类名"返回类，导入整个包时无法推断 */
+    private VarType importtype() {
+        if (callstr == null || callstr.tojstring().endsWith("*"))
+            return null;
+        return ClassIndex.type(callstr.tojstring());
+    }
+
+    /** luajava.bindClass("类名")返回类，luajava.newInstance("类名", ...)返回实例 */
+    private VarType luajavatype(LuaString name) {
+        if (callstr == null)
+            return null;
+        String n = name.tojstring();
+        if (n.equals("bindClass") || n.equals("newInstance"))
+            return ClassIndex.type(callstr.tojstring());
+        return null;
+    }
+
 
     void simpleexp(expdesc v) {
         /*
@@ -2685,9 +2820,9 @@ public class LexState extends Constants {
         fs.patchlist(fs.jump(), whileinit);
         if (inLexer) {
             if (left)
-                lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
             else
-                lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
         }
         if (left)
             this.check_match('}', TK_WHILE, line);
@@ -2714,9 +2849,9 @@ public class LexState extends Constants {
         continuelabel();
         if (inLexer) {
             if (left)
-                lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
             else
-                lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
         }
         if (left) {
             this.check_match('}', TK_REPEAT, line);
@@ -2880,9 +3015,9 @@ public class LexState extends Constants {
         }
         if (inLexer) {
             if (left)
-                lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
             else
-                lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
         }
         if (left)
             this.check_match('}', TK_FOR, line);
@@ -2953,9 +3088,9 @@ public class LexState extends Constants {
         }
         if (inLexer) {
             if (left)
-                lines.add(new Rect(startidx, startline, lastidx - 1, lastline));
+                result.lines.add(new Rect(startidx, startline, lastidx - 1, lastline));
             else
-                lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
         }
         if (!left)
             check_match(TK_END, TK_IF, line);
@@ -3030,9 +3165,9 @@ public class LexState extends Constants {
             block();  /* `default' part */
         if (inLexer) {
             if (left)
-                lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 1, linenumber));
             else
-                lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
         }
         if (left)
             check_match('}', TK_SWITCH, line);
@@ -3095,6 +3230,7 @@ public class LexState extends Constants {
             }
         }
         e.init(VRELOCABLE, fs.codeABx(Lua.OP_IMPORT, e.u.info, fs.stringK(classname)));
+        e.type = ClassIndex.type(classname.tojstring());
     }
 
     void modulestat() {
@@ -3180,9 +3316,9 @@ public class LexState extends Constants {
 
         if (inLexer) {
             if (left)
-                lines.add(new Rect(startidx, startline, lastidx - 1, lastline));
+                result.lines.add(new Rect(startidx, startline, lastidx - 1, lastline));
             else
-                lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
+                result.lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
         }
 
         if (!left)
@@ -3329,7 +3465,8 @@ public class LexState extends Constants {
         if (t1 == null||t2 == null||t2.type==LuaValue.TNIL)
             return;
         if (!t1.typename.equals(fs.typename(t2))) {
-            LexState.errormsg = String.format("%d: local %s 类型错误 %s %s", lastline, varname, fs.typename(t1), fs.typename(t2));
+            result.errormsg = String.format("%d: local %s 类型错误 %s %s", lastline, varname, fs.typename(t1), fs.typename(t2));
+            result.warnidx = lastidx;
         }
     }
 
@@ -3432,7 +3569,7 @@ public class LexState extends Constants {
                 this.next(); /* skip DO */
                 this.block();
                 if (inLexer) {
-                    lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
+                    result.lines.add(new Rect(startidx, startline, currentidx - 3, linenumber));
                 }
                 this.check_match(TK_END, TK_DO, line);
 
@@ -3536,7 +3673,7 @@ public class LexState extends Constants {
         /* statlist -> { stat [`;'] } */
         while (!block_follow(true)) {
             if(abort.isSet()) {
-                errormsg=null;
+                result.errormsg = null;
                 return;
             }
             if (t.token == TK_RETURN) {
@@ -3552,20 +3689,8 @@ public class LexState extends Constants {
      ** compiles the main function, which is a regular vararg function with an
      ** upvalue named LUA_FUNC_ENV
      */
-    public static ArrayList<Pair> tokens = new ArrayList<>();
-    public static ArrayList<Rect> lines = new ArrayList<>();
-
     public void mainfunc(FuncState funcstate) {
         if (inLexer) {
-            globals.clear();
-            valueMap.clear();
-            tokens.clear();
-            lines.clear();
-            errormsg = null;
-            errorline = -1;
-            erroridx = -1;
-            hintmsg = null;
-            hintline = -1;
             errorCount = 0;
         }
         BlockCnt bl = new BlockCnt();
@@ -3589,13 +3714,44 @@ public class LexState extends Constants {
         check(TK_EOS);
         close_func();
         if (inLexer) {
-            for (Rect line : lines) {
+            for (Rect line : result.lines) {
                 line.top -= 1;
                 line.bottom -= 1;
             }
         }
     }
 
+    /**
+     * 增量分析时只解析一个普通函数体
+     * 外层函数在该处可见的局部变量先声明在虚拟的主函数中，
+     * 函数体内对它们的引用与完整分析时一样得到upvalue
+     * @param funcstate 虚拟主函数
+     * @param scope 外层可见的局部变量，按声明顺序排列
+     * @param range 原函数的位置信息
+     */
+    public void subfunc(FuncState funcstate, LocVars[] scope, AnalysisResult.FuncRange range) {
+        BlockCnt bl = new BlockCnt();
+        open_func(funcstate, bl);
+        fs.f.is_vararg = 1;
+        expdesc v = new expdesc();
+        v.init(VLOCAL, 0);
+        fs.newupvalue(envn, v);
+        // 外层变量的声明不在本次分析的范围内，不记录位置
+        inLexer = false;
+        for (LocVars var : scope)
+            this.new_localvar(var.varname, var.type);
+        this.adjustlocalvars(scope.length);
+        inLexer = true;
+        next();  /* read '(' */
+        expdesc e = new expdesc();
+        this.body(e, range.needself, range.proto.linedefined);
+        close_func();
+        for (Rect line : result.lines) {
+            line.top -= 1;
+            line.bottom -= 1;
+        }
+    }
+
     /* }=========================================================== */
 
 }
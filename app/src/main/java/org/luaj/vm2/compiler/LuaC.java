@@ -21,16 +21,18 @@
 ******************************************************************************/
 package org.luaj.vm2.compiler;
 
+import android.text.GetChars;
 import android.util.Log;
 
 import com.myopicmobile.textwarrior.common.Flag;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Hashtable;
 
 
+import org.luaj.vm2.LocVars;
+import org.luaj.vm2.LuaError;
 import org.luaj.vm2.LuaString;
 import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Prototype;
@@ -42,12 +44,60 @@ public class LuaC extends Constants {
 	public static final LuaC instance = new LuaC();
 
 
-    public static Prototype lexer(InputStream stream, String chunkname, Flag _abort) throws IOException {
+	/** 分析lua源码，供编辑器使用
+	 * 每次调用使用独立的状态，可在多个线程上同时分析不同的源码
+	 * @param stream 源码
+	 * @param chunkname 块名
+	 * @param _abort 置位后提前结束分析
+	 * @return 分析结果，有语法错误时proto为null，错误信息在errormsg中
+	 * @throws IOException
+	 */
+	public static AnalysisResult lexer(InputStream stream, String chunkname, Flag _abort) throws IOException {
 		return (new CompileState()).luaY_parser2(stream, chunkname,_abort);
 	}
 
-	public static Prototype lexer(CharSequence stream, String chunkname, Flag _abort) throws IOException {
-		return (new CompileState()).luaY_parser2(new ByteArrayInputStream(stream.toString().getBytes()), chunkname, _abort);
+	/** 分析编辑器中的文本，位置均为字符位置
+	 * @see #toChars(CharSequence)
+	 */
+	public static AnalysisResult lexer(CharSequence stream, String chunkname, Flag _abort) throws IOException {
+		char[] src = toChars(stream);
+		return lexer(src, src.length, chunkname, _abort);
+	}
+
+	/** 分析src[0, length)，分析期间不能修改src */
+	public static AnalysisResult lexer(char[] src, int length, String chunkname, Flag _abort) throws IOException {
+		return (new CompileState()).luaY_parser2(src, 0, length, chunkname, _abort);
+	}
+
+	/** 取得文本的字符快照
+	 * 实现了GetChars的文本(TextBuffer、sora的Content等)直接从内部数组批量复制，
+	 * 不再经过toString()和UTF-8编码
+	 */
+	public static char[] toChars(CharSequence text) {
+		int n = text.length();
+		char[] dst = new char[n];
+		if (text instanceof String)
+			((String) text).getChars(0, n, dst, 0);
+		else if (text instanceof GetChars)
+			((GetChars) text).getChars(0, n, dst, 0);
+		else if (text instanceof StringBuilder)
+			((StringBuilder) text).getChars(0, n, dst, 0);
+		else if (text instanceof StringBuffer)
+			((StringBuffer) text).getChars(0, n, dst, 0);
+		else
+			for (int i = 0; i < n; i++)
+				dst[i] = text.charAt(i);
+		return dst;
+	}
+
+	/** 只分析源码中的一个普通函数体，供{@link IncrementalLexer}使用
+	 * @param src 完整源码
+	 * @param range 函数体在上次分析中的位置，'('位于startidx-1
+	 * @param scope 外层可见的局部变量
+	 * @return 分析结果，位置均为完整源码中的位置，函数原型为proto.p[0]
+	 */
+	static AnalysisResult relexer(char[] src, int length, AnalysisResult.FuncRange range, LocVars[] scope, String chunkname, Flag _abort) throws IOException {
+		return (new CompileState()).luaY_reparser(src, range.proto.startidx - 1, length, range, scope, chunkname, _abort);
 	}
 
 	protected LuaC() {}
@@ -86,21 +136,53 @@ public class LuaC extends Constants {
 			return funcstate.f;
 		}
 
-		private Prototype luaY_parser2(InputStream z, String name, Flag _abort) throws IOException{
+		private AnalysisResult luaY_parser2(InputStream z, String name, Flag _abort) throws IOException{
 			LexState lexstate = new LexState(this, z,true, _abort);
-			FuncState funcstate = new FuncState();
-			// lexstate.buff = buff;
-			lexstate.fs = funcstate;
 			lexstate.setinput(this, z.read(), z, (LuaString) LuaValue.valueOf(name) );
+			return luaY_analyze(lexstate);
+		}
+
+		private AnalysisResult luaY_parser2(char[] src, int start, int end, String name, Flag _abort) {
+			LexState lexstate = new LexState(this, null,true, _abort);
+			lexstate.setinput(this, src, start, end, (LuaString) LuaValue.valueOf(name) );
+			return luaY_analyze(lexstate);
+		}
+
+		private AnalysisResult luaY_analyze(LexState lexstate) {
+			FuncState funcstate = new FuncState();
 			/* main func. is always vararg */
 			funcstate.f = new Prototype();
-			funcstate.f.source = (LuaString) LuaValue.valueOf(name);
-			lexstate.mainfunc(funcstate);
+			funcstate.f.source = lexstate.source;
+			try {
+				lexstate.mainfunc(funcstate);
+			} catch (LuaError e) {
+				// 错误位置已由lexerror记录在结果中
+				return lexstate.result;
+			}
 			LuaC._assert (funcstate.prev == null);
 			/* all scopes should be correctly finished */
 			LuaC._assert (lexstate.dyd == null
 					|| (lexstate.dyd.n_actvar == 0 && lexstate.dyd.n_gt == 0 && lexstate.dyd.n_label == 0));
-			return funcstate.f;
+			lexstate.result.proto = funcstate.f;
+			return lexstate.result;
+		}
+
+		private AnalysisResult luaY_reparser(char[] src, int start, int end, AnalysisResult.FuncRange range, LocVars[] scope, String name, Flag _abort) {
+			LexState lexstate = new LexState(this, null,true, _abort);
+			FuncState funcstate = new FuncState();
+			lexstate.fs = funcstate;
+			lexstate.setinput(this, src, start, end, (LuaString) LuaValue.valueOf(name) );
+			lexstate.linenumber = range.startline;
+			lexstate.lastline = range.startline;
+			funcstate.f = new Prototype();
+			funcstate.f.source = (LuaString) LuaValue.valueOf(name);
+			try {
+				lexstate.subfunc(funcstate, scope, range);
+			} catch (LuaError e) {
+				return lexstate.result;
+			}
+			lexstate.result.proto = funcstate.f;
+			return lexstate.result;
 		}
 
 		// look up and keep at most one copy of each string
@@ -113,12 +195,14 @@ public class LuaC extends Constants {
 			return cachedLuaString(s);
 		}
 	
+		// 本次编译的表在前，未命中时取全局驻留表中的实例，多次分析共享同一个名字
 		public LuaString cachedLuaString(LuaString s) {
 			LuaString c = (LuaString) strings.get(s);
 			if (c != null) 
 				return c;
-			strings.put(s, s);
-			return s;
+			c = LuaString.intern(s);
+			strings.put(c, c);
+			return c;
 		}
 	
 		public String pushfstring(String string) {
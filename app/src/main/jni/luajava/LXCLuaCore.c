@@ -3727,292 +3727,6 @@ Java_com_luajava_LuaState__1analyzeCode(JNIEnv *env, jobject instance, jlong cpt
     return NULL;
 }
 
-/************************************************************************
-*   JNI Called function
-*      解析Lua代码获取Proto信息，返回JSON格式的字节码结构
-*      用于LuaToJava转换器
-************************************************************************/
-
-#include "lobject.h"
-#include "lopcodes.h"
-#include "lopnames.h"
-
-/* 递归收集Proto信息并生成JSON */
-static void protoToJson(lua_State *L, luaL_Buffer *B, Proto *p, int indent);
-
-/* 添加缩进 */
-static void addIndent(luaL_Buffer *B, int indent) {
-    for (int i = 0; i < indent; i++) {
-        luaL_addstring(B, "  ");
-    }
-}
-
-/* 添加转义字符串 */
-static void addEscapedString(luaL_Buffer *B, const char *s) {
-    luaL_addchar(B, '"');
-    if (s) {
-        while (*s) {
-            switch (*s) {
-                case '"': luaL_addstring(B, "\\\""); break;
-                case '\\': luaL_addstring(B, "\\\\"); break;
-                case '\n': luaL_addstring(B, "\\n"); break;
-                case '\r': luaL_addstring(B, "\\r"); break;
-                case '\t': luaL_addstring(B, "\\t"); break;
-                default:
-                    if ((unsigned char)*s < 32) {
-                        char buf[8];
-                        snprintf(buf, sizeof(buf), "\\u%04x", (unsigned char)*s);
-                        luaL_addstring(B, buf);
-                    } else {
-                        luaL_addchar(B, *s);
-                    }
-            }
-            s++;
-        }
-    }
-    luaL_addchar(B, '"');
-}
-
-/* 添加TValue到JSON */
-static void addTValue(luaL_Buffer *B, TValue *v) {
-    if (ttisnil(v)) {
-        luaL_addstring(B, "null");
-    } else if (ttisboolean(v)) {
-        luaL_addstring(B, l_isfalse(v) ? "false" : "true");
-    } else if (ttisinteger(v)) {
-        char buf[32];
-        snprintf(buf, sizeof(buf), "%lld", (long long)ivalue(v));
-        luaL_addstring(B, buf);
-    } else if (ttisnumber(v)) {
-        char buf[64];
-        snprintf(buf, sizeof(buf), "%.17g", fltvalue(v));
-        luaL_addstring(B, buf);
-    } else if (ttisstring(v)) {
-        addEscapedString(B, getstr(tsvalue(v)));
-    } else {
-        luaL_addstring(B, "null");
-    }
-}
-
-/* 解析指令获取操作码信息 */
-static void addInstruction(luaL_Buffer *B, Instruction i, int pc) {
-    OpCode op = GET_OPCODE(i);
-    char buf[256];
-    
-    snprintf(buf, sizeof(buf), 
-        "{\"pc\":%d,\"op\":%d,\"opname\":\"%s\",\"a\":%d",
-        pc, (int)op, opnames[op], GETARG_A(i));
-    luaL_addstring(B, buf);
-    
-    switch (getOpMode(op)) {
-        case iABC: {
-            int b = GETARG_B(i);
-            int c = GETARG_C(i);
-            snprintf(buf, sizeof(buf), ",\"b\":%d,\"c\":%d,\"k\":%d", b, c, TESTARG_k(i) ? 1 : 0);
-            luaL_addstring(B, buf);
-            if (op == OP_ADDI || op == OP_SHRI || op == OP_SHLI) {
-                snprintf(buf, sizeof(buf), ",\"sc\":%d", GETARG_sC(i));
-                luaL_addstring(B, buf);
-            }
-            if (op == OP_EQI || op == OP_LTI || op == OP_LEI || op == OP_GTI || op == OP_GEI) {
-                snprintf(buf, sizeof(buf), ",\"sb\":%d", GETARG_sB(i));
-                luaL_addstring(B, buf);
-            }
-            break;
-        }
-        case ivABC: {
-            snprintf(buf, sizeof(buf), ",\"vb\":%d,\"vc\":%d,\"k\":%d", 
-                GETARG_vB(i), GETARG_vC(i), TESTARG_k(i) ? 1 : 0);
-            luaL_addstring(B, buf);
-            break;
-        }
-        case iABx: {
-            int bx = GETARG_Bx(i);
-            int sbx = bx - OFFSET_sBx;
-            snprintf(buf, sizeof(buf), ",\"bx\":%d,\"sbx\":%d", bx, sbx);
-            luaL_addstring(B, buf);
-            break;
-        }
-        case iAsBx: {
-            int sbx = GETARG_sBx(i);
-            int bx = sbx + OFFSET_sBx;
-            snprintf(buf, sizeof(buf), ",\"sbx\":%d,\"bx\":%d", sbx, bx);
-            luaL_addstring(B, buf);
-            break;
-        }
-        case iAx: {
-            snprintf(buf, sizeof(buf), ",\"ax\":%d", GETARG_Ax(i));
-            luaL_addstring(B, buf);
-            break;
-        }
-        case isJ: {
-            snprintf(buf, sizeof(buf), ",\"sj\":%d", GETARG_sJ(i));
-            luaL_addstring(B, buf);
-            break;
-        }
-    }
-    luaL_addchar(B, '}');
-}
-
-/* 递归收集Proto信息并生成JSON */
-static void protoToJson(lua_State *L, luaL_Buffer *B, Proto *p, int indent) {
-    char buf[256];
-    
-    addIndent(B, indent);
-    luaL_addstring(B, "{\n");
-    
-    /* 基本信息 */
-    addIndent(B, indent + 1);
-    snprintf(buf, sizeof(buf), "\"numparams\":%d,\n", p->numparams);
-    luaL_addstring(B, buf);
-    
-    addIndent(B, indent + 1);
-    snprintf(buf, sizeof(buf), "\"is_vararg\":%d,\n", p->is_vararg ? 1 : 0);
-    luaL_addstring(B, buf);
-    
-    addIndent(B, indent + 1);
-    snprintf(buf, sizeof(buf), "\"maxstacksize\":%d,\n", p->maxstacksize);
-    luaL_addstring(B, buf);
-    
-    addIndent(B, indent + 1);
-    snprintf(buf, sizeof(buf), "\"linedefined\":%d,\n", p->linedefined);
-    luaL_addstring(B, buf);
-    
-    addIndent(B, indent + 1);
-    snprintf(buf, sizeof(buf), "\"lastlinedefined\":%d,\n", p->lastlinedefined);
-    luaL_addstring(B, buf);
-    
-    /* 源文件名 */
-    addIndent(B, indent + 1);
-    luaL_addstring(B, "\"source\":");
-    if (p->source) {
-        addEscapedString(B, getstr(p->source));
-    } else {
-        luaL_addstring(B, "null");
-    }
-    luaL_addstring(B, ",\n");
-    
-    /* 代码指令 */
-    addIndent(B, indent + 1);
-    snprintf(buf, sizeof(buf), "\"sizecode\":%d,\n", p->sizecode);
-    luaL_addstring(B, buf);
-    
-    addIndent(B, indent + 1);
-    luaL_addstring(B, "\"code\":[\n");
-    for (int i = 0; i < p->sizecode; i++) {
-        addIndent(B, indent + 2);
-        addInstruction(B, p->code[i], i);
-        if (i < p->sizecode - 1) luaL_addchar(B, ',');
-        luaL_addchar(B, '\n');
-    }
-    addIndent(B, indent + 1);
-    luaL_addstring(B, "],\n");
-    
-    /* 常量 */
-    addIndent(B, indent + 1);
-    snprintf(buf, sizeof(buf), "\"sizek\":%d,\n", p->sizek);
-    luaL_addstring(B, buf);
-    
-    addIndent(B, indent + 1);
-    luaL_addstring(B, "\"k\":[\n");
-    for (int i = 0; i < p->sizek; i++) {
-        addIndent(B, indent + 2);
-        addTValue(B, &p->k[i]);
-        if (i < p->sizek - 1) luaL_addchar(B, ',');
-        luaL_addchar(B, '\n');
-    }
-    addIndent(B, indent + 1);
-    luaL_addstring(B, "],\n");
-    
-    /* Upvalues */
-    addIndent(B, indent + 1);
-    snprintf(buf, sizeof(buf), "\"sizeupvalues\":%d,\n", p->sizeupvalues);
-    luaL_addstring(B, buf);
-    
-    addIndent(B, indent + 1);
-    luaL_addstring(B, "\"upvalues\":[\n");
-    for (int i = 0; i < p->sizeupvalues; i++) {
-        addIndent(B, indent + 2);
-        snprintf(buf, sizeof(buf), "{\"instack\":%d,\"idx\":%d,\"name\":",
-            p->upvalues[i].instack ? 1 : 0, p->upvalues[i].idx);
-        luaL_addstring(B, buf);
-        if (p->upvalues[i].name) {
-            addEscapedString(B, getstr(p->upvalues[i].name));
-        } else {
-            luaL_addstring(B, "null");
-        }
-        luaL_addstring(B, "}");
-        if (i < p->sizeupvalues - 1) luaL_addchar(B, ',');
-        luaL_addchar(B, '\n');
-    }
-    addIndent(B, indent + 1);
-    luaL_addstring(B, "],\n");
-    
-    /* 子函数 */
-    addIndent(B, indent + 1);
-    snprintf(buf, sizeof(buf), "\"sizep\":%d,\n", p->sizep);
-    luaL_addstring(B, buf);
-    
-    addIndent(B, indent + 1);
-    luaL_addstring(B, "\"p\":[\n");
-    for (int i = 0; i < p->sizep; i++) {
-        protoToJson(L, B, p->p[i], indent + 2);
-        if (i < p->sizep - 1) luaL_addchar(B, ',');
-        luaL_addchar(B, '\n');
-    }
-    addIndent(B, indent + 1);
-    luaL_addstring(B, "]\n");
-    
-    addIndent(B, indent);
-    luaL_addchar(B, '}');
-}
-
-JNIEXPORT jstring JNICALL
-Java_com_luajava_LuaState__1parseProto(JNIEnv *env, jobject instance, jlong cptr, jstring code) {
-    lua_State *L = getStateFromCPtr(env, cptr);
-    
-    if (code == NULL) {
-        return NULL;
-    }
-    
-    const char *codeStr = (*env)->GetStringUTFChars(env, code, NULL);
-    if (codeStr == NULL) {
-        return NULL;
-    }
-    
-    /* 编译Lua代码 */
-    if (luaL_loadstring(L, codeStr) != LUA_OK) {
-        (*env)->ReleaseStringUTFChars(env, code, codeStr);
-        const char *err = lua_tostring(L, -1);
-        jstring errStr = err ? (*env)->NewStringUTF(env, err) : NULL;
-        lua_pop(L, 1);
-        return errStr;
-    }
-    
-    (*env)->ReleaseStringUTFChars(env, code, codeStr);
-    
-    /* 获取Proto */
-    const LClosure *cl = (const LClosure *)lua_topointer(L, -1);
-    if (!cl || !isLfunction(s2v(L->top.p-1))) {
-        lua_pop(L, 1);
-        return (*env)->NewStringUTF(env, "{\"error\":\"Not a Lua function\"}");
-    }
-    
-    Proto *p = cl->p;
-    
-    /* 生成JSON */
-    luaL_Buffer B;
-    luaL_buffinit(L, &B);
-    protoToJson(L, &B, p, 0);
-    luaL_pushresult(&B);
-    
-    const char *json = lua_tostring(L, -1);
-    jstring result = json ? (*env)->NewStringUTF(env, json) : NULL;
-    
-    lua_pop(L, 2); /* 弹出JSON字符串和函数 */
-    return result;
-}
-
 /************************************************************************
 *   JNI Called function
 *      注册编译后的函数
@@ -4162,19 +3876,29 @@ Java_com_luajava_LuaJava__1pushJavaFunction(JNIEnv *env, jobject instance, jlong
         return;
     }
     
-    /* 存储函数引用 */
-    int idx = javaFuncCount++;
-    if (idx >= MAX_JAVA_FUNCS) {
-        luaL_error(L, "Too many Java functions");
-        return;
+    /* 同一对象的同一方法复用已有的函数引用，循环中创建的闭包不会耗尽表项 */
+    int idx;
+    for (idx = 0; idx < javaFuncCount; idx++) {
+        if (javaFuncMethods[idx] == method
+            && (*env)->IsSameObject(env, javaFuncObjs[idx], obj)
+            && (*env)->IsSameObject(env, javaFuncLuaJava[idx], instance)) {
+            break;
+        }
+    }
+    if (idx == javaFuncCount) {
+        if (idx >= MAX_JAVA_FUNCS) {
+            luaL_error(L, "Too many Java functions");
+            return;
+        }
+        javaFuncCount++;
+        javaFuncObjs[idx] = (*env)->NewGlobalRef(env, obj);
+        javaFuncMethods[idx] = method;
+        javaFuncLuaJava[idx] = (*env)->NewGlobalRef(env, instance);
     }
     
-    javaFuncObjs[idx] = (*env)->NewGlobalRef(env, obj);
-    javaFuncMethods[idx] = method;
-    javaFuncLuaJava[idx] = (*env)->NewGlobalRef(env, instance);
-    
-    /* 创建闭包 */
+    /* 创建闭包，函数索引放在已压入的upvalue之下，成为第1个upvalue */
     lua_pushlightuserdata(L, (void*)(intptr_t)idx);
+    lua_insert(L, -1 - nUpvalues);
     lua_pushcclosure(L, javaFuncWrapper, 1 + nUpvalues);
 }
 
@@ -4196,6 +3920,62 @@ Java_com_luajava_LuaJava__1arith(JNIEnv *env, jobject jobj, jlong cptr, jint op)
     lua_arith(L, op);
 }
 
+/* 寄存器后端读取值的结果，与LuaJava.VALUE_*一致 */
+#define REG_VALUE_NIL 0
+#define REG_VALUE_FALSE 1
+#define REG_VALUE_TRUE 2
+#define REG_VALUE_INTEGER 3
+#define REG_VALUE_FLOAT 4
+#define REG_VALUE_SLOT 5
+
+static jfieldID valueBitsField = NULL;
+
+JNIEXPORT jint JNICALL
+Java_com_luajava_LuaJava__1toValue(JNIEnv *env, jobject jobj, jlong cptr, jint idx, jint slot, jboolean pop) {
+    lua_State *L = getStateFromCPtr(env, cptr);
+    jint kind;
+    jlong bits = 0;
+    switch (lua_type(L, idx)) {
+        case LUA_TNONE:
+        case LUA_TNIL:
+            kind = REG_VALUE_NIL;
+            break;
+        case LUA_TBOOLEAN:
+            kind = lua_toboolean(L, idx) ? REG_VALUE_TRUE : REG_VALUE_FALSE;
+            break;
+        case LUA_TNUMBER:
+            if (lua_isinteger(L, idx)) {
+                kind = REG_VALUE_INTEGER;
+                bits = (jlong) lua_tointeger(L, idx);
+            } else {
+                lua_Number n = lua_tonumber(L, idx);
+                kind = REG_VALUE_FLOAT;
+                memcpy(&bits, &n, sizeof(bits));
+            }
+            break;
+        default:
+            /* 字符串、表等留在栈槽中 */
+            if (pop) {
+                lua_replace(L, slot);
+            } else if (slot != idx) {
+                lua_copy(L, idx, slot);
+            }
+            return REG_VALUE_SLOT;
+    }
+    if (pop) {
+        lua_pop(L, 1);
+    }
+    if (kind >= REG_VALUE_INTEGER) {
+        if (valueBitsField == NULL) {
+            jclass cls = (*env)->GetObjectClass(env, jobj);
+            valueBitsField = (*env)->GetFieldID(env, cls, "valueBits", "J");
+            (*env)->DeleteLocalRef(env, cls);
+        }
+        (*env)->SetLongField(env, jobj, valueBitsField, bits);
+    }
+    return kind;
+}
+
 JNIEXPORT void JNICALL
 Java_com_luajava_LuaJava__1toClose(JNIEnv *env, jobject jobj, jlong cptr, jint idx) {
     lua_State *L = getStateFromCPtr(env, cptr);
@@ -179,6 +179,8 @@ local function env_import(env)
   append(loaders, import_1)
   append(loaders, import_2)
 
+  local oldMT = getmetatable(_env)
+  local oldIndex = type(oldMT) == "table" and oldMT.__index or nil
   local globalMT = {
     __index = function(T, classname)
       for i, p in ipairs(loaders) do
@@ -188,6 +190,11 @@ local function env_import(env)
           return class
         end
       end
+      if type(oldIndex) == "function" then
+        return oldIndex(T, classname)
+       elseif oldIndex then
+        return oldIndex[classname]
+      end
       return nil
     end
   }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 生成的调用器压入基本类型返回值时，用户为包装类注册的Pusher须同样生效
+ *
+ * @author DifierLine
+ */
+public class JavaInvokerTest {
+
+    private static final LuaConverters.Pusher AS_STRING = new LuaConverters.Pusher() {
+        @Override
+        public void push(LuaState.Session S, Object value) {
+            S.pushString("#" + value);
+        }
+    };
+
+    private LuaState L;
+
+    private LuaConverters.Pusher integerDefault;
+
+    @Before
+    public void setUp() {
+        L = NativeLua.newState();
+        integerDefault = LuaConverters.pusher(Integer.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (integerDefault != null) {
+            LuaConverters.register(Integer.class, integerDefault);
+        }
+        if (L != null) {
+            L.close();
+        }
+    }
+
+    @Test
+    public void primitiveReturnsUseDefaultPushers() throws LuaException {
+        assertTrue(LuaConverters.hasDefaultPrimitivePushers());
+        synchronized (L) {
+            LuaState.Session S = L.session();
+            JavaInvoker.pushReturn(S, 7);
+            JavaInvoker.pushReturn(S, 1.5);
+            JavaInvoker.pushReturn(S, true);
+            assertTrue(S.isInteger(-3));
+            assertEquals(7, S.toInteger(-3));
+            assertEquals(1.5, S.toNumber(-2), 0);
+            assertTrue(S.toBoolean(-1));
+            S.pop(3);
+        }
+    }
+
+    @Test
+    public void primitiveReturnsFollowRegisteredPusher() throws LuaException {
+        LuaConverters.register(Integer.class, AS_STRING);
+        assertFalse(LuaConverters.hasDefaultPrimitivePushers());
+        synchronized (L) {
+            LuaState.Session S = L.session();
+            JavaInvoker.pushReturn(S, 7);
+            JavaInvoker.pushReturn(S, 7L);
+            assertEquals("#7", S.toString(-2));
+            assertTrue(S.isInteger(-1));
+            S.pop(2);
+        }
+        LuaConverters.register(Integer.class, integerDefault);
+        assertTrue(LuaConverters.hasDefaultPrimitivePushers());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 接口代理在创建时解析表中的函数，之后重新赋值的字段须同样生效
+ *
+ * @author DifierLine
+ */
+public class LuaInvocationHandlerTest {
+
+    public interface Named {
+        String name(String prefix);
+    }
+
+    private LuaState L;
+
+    @Before
+    public void setUp() {
+        L = NativeLua.newState();
+    }
+
+    @After
+    public void tearDown() {
+        if (L != null) {
+            L.close();
+        }
+    }
+
+    private LuaObject global(String src, String name) {
+        assertEquals(0, L.LdoString(src));
+        L.getGlobal(name);
+        LuaObject obj = L.getLuaObject(-1);
+        L.pop(1);
+        return obj;
+    }
+
+    @Test
+    public void resolvedFunctionIsCalled() throws LuaException {
+        Named p = (Named) global("t = {name = function(p) return p .. 'a' end}", "t").createProxy(Named.class);
+        assertEquals("xa", p.name("x"));
+        assertEquals("ya", p.name("y"));
+    }
+
+    @Test
+    public void reassignedFieldIsPickedUp() throws LuaException {
+        Named p = (Named) global("t = {name = function(p) return p .. 'a' end}", "t").createProxy(Named.class);
+        assertEquals("xa", p.name("x"));
+        assertEquals(0, L.LdoString("t.name = function(p) return p .. 'b' end"));
+        assertEquals("xb", p.name("x"));
+        assertEquals(0, L.LdoString("t.name = nil"));
+        assertNull(p.name("x"));
+        assertEquals(0, L.LdoString("t.name = function(p) return p .. 'c' end"));
+        assertEquals("xc", p.name("x"));
+    }
+
+    @Test
+    public void fieldMissingAtCreationIsLookedUpByName() throws LuaException {
+        Named p = (Named) global("t = {other = 1}", "t").createProxy(Named.class);
+        assertNull(p.name("x"));
+        assertEquals(0, L.LdoString("t.name = function(p) return p .. 'd' end"));
+        assertEquals("xd", p.name("x"));
+    }
+
+    @Test
+    public void functionImplementsEveryMethod() throws LuaException {
+        Named p = (Named) global("f = function(p) return p .. 'e' end", "f").createProxy(Named.class);
+        assertEquals("xe", p.name("x"));
+    }
+}
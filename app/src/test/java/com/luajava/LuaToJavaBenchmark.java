@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * LuaToJava基准测试
+ * 对比解释器、逐指令后端与寄存器分配后端的执行耗时。
+ * 在桌面JVM上运行main方法，需要把为本机编译的LXCLuaCore所在目录传给-Djava.library.path；
+ * 两个后端生成的源码由javac编译到临时目录后加载，结果与解释器不一致的后端不计时。
+ * <p>
+ * 单核桌面JVM(OpenJDK 17)上的结果，LXCLuaCore由jni/lua源码为本机编译，每项取3次平均，
+ * 两个后端的结果均与解释器一致。寄存器分配后端把值保存在Java局部变量中，控制流生成为带标签的块与循环，
+ * 耗时为逐指令后端的25%到56%；但每次访问Lua栈、调用函数与访问表仍要经过JNI，
+ * 两个后端都明显慢于解释器，因此寄存器分配后端暂不作为编译选项提供：
+ * <pre>
+ * fib: interpreter 28877us, per-op 3400154us (0.01x), registers 1900604us (0.02x)
+ * nbody: interpreter 313620us, per-op 48105886us (0.01x), registers 11870809us (0.03x)
+ * spectral-norm: interpreter 163048us, per-op 26783989us (0.01x), registers 6661080us (0.02x)
+ * string-build: interpreter 216197us, per-op 1790454us (0.12x), registers 920329us (0.23x)
+ * </pre>
+ *
+ * @author DifierLine
+ */
+public final class LuaToJavaBenchmark {
+
+    private static final Map<String, String> SOURCES = new LinkedHashMap<>();
+
+    static {
+        SOURCES.put("fib",
+                "function fib(n)\n" +
+                "  if n < 2 then return n end\n" +
+                "  return fib(n - 1) + fib(n - 2)\n" +
+                "end\n" +
+                "return fib(27)\n");
+        SOURCES.put("nbody",
+                "function advance(bodies, nbody, dt)\n" +
+                "  for i = 1, nbody do\n" +
+                "    local bi = bodies[i]\n" +
+                "    local bix, biy, biz, bimass = bi.x, bi.y, bi.z, bi.mass\n" +
+                "    local bivx, bivy, bivz = bi.vx, bi.vy, bi.vz\n" +
+                "    for j = i + 1, nbody do\n" +
+                "      local bj = bodies[j]\n" +
+                "      local dx, dy, dz = bix - bj.x, biy - bj.y, biz - bj.z\n" +
+                "      local d2 = dx * dx + dy * dy + dz * dz\n" +
+                "      local mag = dt / (d2 * d2 ^ 0.5)\n" +
+                "      local bm = bj.mass * mag\n" +
+                "      bivx = bivx - dx * bm\n" +
+                "      bivy = bivy - dy * bm\n" +
+                "      bivz = bivz - dz * bm\n" +
+                "      bm = bimass * mag\n" +
+                "      bj.vx = bj.vx + dx * bm\n" +
+                "      bj.vy = bj.vy + dy * bm\n" +
+                "      bj.vz = bj.vz + dz * bm\n" +
+                "    end\n" +
+                "    bi.vx, bi.vy, bi.vz = bivx, bivy, bivz\n" +
+                "    bi.x = bix + dt * bivx\n" +
+                "    bi.y = biy + dt * bivy\n" +
+                "    bi.z = biz + dt * bivz\n" +
+                "  end\n" +
+                "end\n" +
+                "function body(x, y, z, vx, vy, vz, mass)\n" +
+                "  return { x = x, y = y, z = z, vx = vx, vy = vy, vz = vz, mass = mass }\n" +
+                "end\n" +
+                "local bodies = {\n" +
+                "  body(0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 39.47),\n" +
+                "  body(4.84, -1.16, -0.10, 0.60, 2.81, -0.02, 0.037),\n" +
+                "  body(8.34, 4.12, -0.40, -1.01, 1.82, 0.008, 0.011),\n" +
+                "  body(12.89, -15.11, -0.22, 1.08, 0.86, -0.01, 0.0017),\n" +
+                "  body(15.37, -25.91, 0.17, 0.97, 0.59, -0.03, 0.002)\n" +
+                "}\n" +
+                "for i = 1, 100000 do advance(bodies, 5, 0.01) end\n" +
+                "return bodies[1].x\n");
+        SOURCES.put("spectral-norm",
+                "function A(i, j)\n" +
+                "  local ij = i + j - 1\n" +
+                "  return 1.0 / (ij * (ij - 1) * 0.5 + i)\n" +
+                "end\n" +
+                "function Av(x, y, N)\n" +
+                "  for i = 1, N do\n" +
+                "    local a = 0\n" +
+                "    for j = 1, N do a = a + x[j] * A(i, j) end\n" +
+                "    y[i] = a\n" +
+                "  end\n" +
+                "end\n" +
+                "function Atv(x, y, N)\n" +
+                "  for i = 1, N do\n" +
+                "    local a = 0\n" +
+                "    for j = 1, N do a = a + x[j] * A(j, i) end\n" +
+                "    y[i] = a\n" +
+                "  end\n" +
+                "end\n" +
+                "function AtAv(x, y, t, N)\n" +
+                "  Av(x, t, N)\n" +
+                "  Atv(t, y, N)\n" +
+                "end\n" +
+                "local N = 200\n" +
+                "local u, v, t = {}, {}, {}\n" +
+                "for i = 1, N do u[i] = 1 end\n" +
+                "for i = 1, 10 do AtAv(u, v, t, N) AtAv(v, u, t, N) end\n" +
+                "local vBv, vv = 0, 0\n" +
+                "for i = 1, N do\n" +
+                "  local ui, vi = u[i], v[i]\n" +
+                "  vBv = vBv + ui * vi\n" +
+                "  vv = vv + vi * vi\n" +
+                "end\n" +
+                "return (vBv / vv) ^ 0.5\n");
+        SOURCES.put("string-build",
+                "function build(n)\n" +
+                "  local parts = {}\n" +
+                "  for i = 1, n do\n" +
+                "    parts[#parts + 1] = \"item\" .. i .. \";\"\n" +
+                "  end\n" +
+                "  local s = \"\"\n" +
+                "  for i = 1, #parts, 100 do\n" +
+                "    s = s .. parts[i]\n" +
+                "  end\n" +
+                "  return #s\n" +
+                "end\n" +
+                "return build(200000)\n");
+    }
+
+    private LuaToJavaBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LuaState L = LuaStateFactory.newLuaState();
+        L.openLibs();
+        File dir = Files.createTempDirectory("luatojava").toFile();
+        String[] names = args.length > 0 ? args : names();
+        Map<String, CompiledFunction[]> compiled = new LinkedHashMap<>();
+        for (String name : names) {
+            String expected = interpretResult(L, name);
+            CompiledFunction[] fs = new CompiledFunction[2];
+            for (int i = 0; i < 2; i++) {
+                boolean registers = i == 1;
+                CompiledFunction f = load(dir, name, registers);
+                String got = executeResult(L, f);
+                if (expected.equals(got)) {
+                    fs[i] = f;
+                } else {
+                    System.out.println(className(name, registers) + ": got " + got + ", expected " + expected);
+                }
+            }
+            compiled.put(name, fs);
+        }
+        // 第一轮只用于预热JIT
+        for (int round = 0; round < 2; ++round) {
+            for (String name : names) {
+                CompiledFunction[] fs = compiled.get(name);
+                long interpreted = interpret(L, name, 3);
+                long perOp = fs[0] != null ? execute(L, fs[0], 3) : 0;
+                long registers = fs[1] != null ? execute(L, fs[1], 3) : 0;
+                if (round == 1) {
+                    System.out.println(report(name, interpreted, perOp, registers));
+                }
+            }
+        }
+        L.close();
+    }
+
+    /**
+     * 获取测试名称
+     * @return fib、nbody、spectral-norm、string-build
+     */
+    public static String[] names() {
+        return SOURCES.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * 获取测试的Lua源码
+     * @param name 测试名称
+     * @return Lua源码
+     */
+    public static String source(String name) {
+        String src = SOURCES.get(name);
+        if (src == null) {
+            throw new IllegalArgumentException("unknown benchmark: " + name);
+        }
+        return src;
+    }
+
+    /**
+     * 生成测试的Java源码
+     * @param name 测试名称
+     * @param registers 为true时使用寄存器分配后端，否则使用逐指令后端
+     * @return Java源码，类名为测试名称去掉连字符后加上后端后缀
+     */
+    public static String generate(String name, boolean registers) throws LuaException {
+        LuaToJava compiler = new LuaToJava()
+                .setUseRegisters(registers)
+                .setClassName(className(name, registers))
+                .setModuleName(name);
+        return compiler.compile(source(name));
+    }
+
+    private static String className(String name, boolean registers) {
+        return "Bench_" + name.replace("-", "") + (registers ? "_Reg" : "_Op");
+    }
+
+    /**
+     * 生成测试的Java源码，编译到目录中并加载
+     * @param dir 源码与类文件所在目录
+     * @param name 测试名称
+     * @param registers 为true时使用寄存器分配后端，否则使用逐指令后端
+     * @return 编译得到的函数
+     */
+    private static CompiledFunction load(File dir, String name, boolean registers) throws Exception {
+        String cls = className(name, registers);
+        File src = new File(dir, cls + ".java");
+        Files.write(src.toPath(), generate(name, registers).getBytes(StandardCharsets.UTF_8));
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac.run(null, null, null, "-nowarn", "-encoding", "UTF-8",
+                "-cp", System.getProperty("java.class.path"), "-d", dir.getPath(), src.getPath()) != 0) {
+            throw new IllegalStateException("javac failed: " + cls);
+        }
+        URLClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()},
+                LuaToJavaBenchmark.class.getClassLoader());
+        return (CompiledFunction) loader.loadClass(cls).getDeclaredConstructor().newInstance();
+    }
+
+    private static String interpretResult(LuaState L, String name) throws LuaException {
+        int top = L.getTop();
+        if (L.LloadString(source(name)) != 0 || L.pcall(0, 1, 0) != 0) {
+            String msg = L.toString(-1);
+            L.setTop(top);
+            throw new LuaException(name + ": " + msg);
+        }
+        String result = describe(L, top);
+        L.setTop(top);
+        return result;
+    }
+
+    private static String executeResult(LuaState L, CompiledFunction f) {
+        int top = L.getTop();
+        String result;
+        try {
+            int n = f.execute(new LuaJava(L));
+            result = n > 0 ? describe(L, L.getTop() - n) : "(no result)";
+        } catch (Exception e) {
+            result = e.toString();
+        }
+        L.setTop(top);
+        return result;
+    }
+
+    /**
+     * 用tostring描述栈上的一个值
+     * @param L 状态
+     * @param base 该值之前的栈顶
+     */
+    private static String describe(LuaState L, int base) {
+        L.getGlobal("tostring");
+        L.pushValue(base + 1);
+        L.call(1, 1);
+        return L.toString(-1);
+    }
+
+    /**
+     * 测量解释器执行测试的平均耗时
+     * @param L 已openLibs的状态
+     * @param name 测试名称
+     * @param runs 次数
+     * @return 平均耗时，单位为纳秒
+     */
+    public static long interpret(LuaState L, String name, int runs) throws LuaException {
+        String src = source(name);
+        long total = 0;
+        for (int i = 0; i < runs; i++) {
+            int top = L.getTop();
+            long t0 = System.nanoTime();
+            if (L.LloadString(src) != 0 || L.pcall(0, 0, 0) != 0) {
+                String msg = L.toString(-1);
+                L.setTop(top);
+                throw new LuaException(name + ": " + msg);
+            }
+            total += System.nanoTime() - t0;
+            L.setTop(top);
+        }
+        return runs > 0 ? total / runs : 0;
+    }
+
+    /**
+     * 测量编译后的测试的平均耗时
+     * @param L 已openLibs的状态
+     * @param f 由{@link #generate}的输出编译得到的函数
+     * @param runs 次数
+     * @return 平均耗时，单位为纳秒
+     */
+    public static long execute(LuaState L, CompiledFunction f, int runs) throws LuaException {
+        LuaJava J = new LuaJava(L);
+        long total = 0;
+        for (int i = 0; i < runs; i++) {
+            int top = L.getTop();
+            long t0 = System.nanoTime();
+            f.execute(J);
+            total += System.nanoTime() - t0;
+            L.setTop(top);
+        }
+        return runs > 0 ? total / runs : 0;
+    }
+
+    /**
+     * 格式化一组测试结果
+     * @param name 测试名称
+     * @param interpreted 解释器耗时
+     * @param perOp 逐指令后端耗时，未测量时为0
+     * @param registers 寄存器分配后端耗时，未测量时为0
+     * @return 单行报告
+     */
+    public static String report(String name, long interpreted, long perOp, long registers) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append(": interpreter ").append(interpreted / 1000).append("us");
+        appendResult(sb, "per-op", interpreted, perOp);
+        appendResult(sb, "registers", interpreted, registers);
+        return sb.toString();
+    }
+
+    private static void appendResult(StringBuilder sb, String label, long base, long t) {
+        if (t <= 0) {
+            return;
+        }
+        sb.append(", ").append(label).append(' ').append(t / 1000).append("us");
+        if (base > 0) {
+            sb.append(String.format(" (%.2fx)", (double) base / t));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+import org.junit.Assume;
+
+/**
+ * 需要LXCLuaCore的测试使用的辅助方法
+ * 单元测试运行在桌面JVM上，需要把为本机编译的LXCLuaCore所在目录传给-Djava.library.path，
+ * 找不到该库时相关测试被跳过而不是失败
+ *
+ * @author DifierLine
+ */
+final class NativeLua {
+
+    private static final boolean LOADED = load();
+
+    private NativeLua() {
+    }
+
+    private static boolean load() {
+        try {
+            LuaStateFactory.newLuaState().close();
+            return true;
+        } catch (UnsatisfiedLinkError | NoClassDefFoundError e) {
+            return false;
+        }
+    }
+
+    /**
+     * 没有加载到LXCLuaCore时跳过当前测试
+     */
+    static void assume() {
+        Assume.assumeTrue("LXCLuaCore不在java.library.path中", LOADED);
+    }
+
+    /**
+     * 创建已openLibs的状态
+     */
+    static LuaState newState() {
+        assume();
+        LuaState L = LuaStateFactory.newLuaState();
+        L.openLibs();
+        return L;
+    }
+}
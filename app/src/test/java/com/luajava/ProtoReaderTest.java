@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.luajava.LuaToJava.ProtoInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 用lua_dump的输出检查{@link ProtoReader}
+ * 嵌套函数逐层调用得到闭包，读取器给出的参数个数与upvalue名称须与debug库看到的一致。
+ * 本Lua的debug.getinfo按flag而不是is_vararg报告isvararg，可变参数按源码检查
+ *
+ * @author DifierLine
+ */
+public class ProtoReaderTest {
+
+    /** 每层返回下一层的闭包，每层都有upvalue、常量与多行函数体 */
+    private static final String NESTED =
+            "local up = 10\n" +
+            "local function outer(a, b)\n" +
+            "  local s = \"outer\"\n" +
+            "  local function inner(...)\n" +
+            "    local n = select(\"#\", ...)\n" +
+            "    return function(x)\n" +
+            "      local t = {s, 1.5}\n" +
+            "      return up + a + b + n + x + #t\n" +
+            "    end\n" +
+            "  end\n" +
+            "  return inner\n" +
+            "end\n" +
+            "return outer\n";
+
+    /** 依次调用各层得到闭包，描述每个闭包的参数与upvalue */
+    private static final String DESCRIBE =
+            "local function describe(f)\n" +
+            "  local info = debug.getinfo(f, 'u')\n" +
+            "  local names = {}\n" +
+            "  for i = 1, info.nups do names[i] = (debug.getupvalue(f, i)) end\n" +
+            "  return info.nparams .. ',' .. info.nups .. ':' .. table.concat(names, ' ')\n" +
+            "end\n" +
+            "local f = assert(load(...))\n" +
+            "local out = {}\n" +
+            "for level = 1, 64 do\n" +
+            "  out[level] = describe(f)\n" +
+            "  local args = {}\n" +
+            "  for i = 1, debug.getinfo(f, 'u').nparams do args[i] = i end\n" +
+            "  f = f(table.unpack(args))\n" +
+            "  if type(f) ~= 'function' then break end\n" +
+            "end\n" +
+            "return table.concat(out, '|')\n";
+
+    private LuaState L;
+
+    @Before
+    public void setUp() {
+        L = NativeLua.newState();
+    }
+
+    @After
+    public void tearDown() {
+        if (L != null) {
+            L.close();
+        }
+    }
+
+    @Test
+    public void nestedFunctionsMatchTheVm() throws LuaException {
+        ProtoInfo main = new ProtoReader().read(ByteBuffer.wrap(dump(NESTED)));
+        assertEquals(vmDescription(NESTED), describe(main));
+
+        ProtoInfo outer = main.subProtos[0];
+        assertTrue(main.isVararg);
+        assertFalse(outer.isVararg);
+        assertTrue(outer.subProtos[0].isVararg);
+        assertEquals(1, outer.subProtos.length);
+        assertTrue(Arrays.asList(outer.constants).contains("outer"));
+        ProtoInfo innermost = outer.subProtos[0].subProtos[0];
+        assertFalse(innermost.isVararg);
+        assertEquals(0, innermost.subProtos.length);
+        assertTrue(Arrays.asList(innermost.constants).contains(1.5));
+    }
+
+    @Test
+    public void deepNestingMatchesTheVm() throws LuaException {
+        String src = deepSource(40);
+        ProtoInfo main = new ProtoReader().read(ByteBuffer.wrap(dump(src)));
+        assertEquals(vmDescription(src), describe(main));
+
+        ProtoInfo p = main;
+        for (int level = 1; level <= 40; level++) {
+            assertEquals(1, p.subProtos.length);
+            p = p.subProtos[0];
+            assertFalse(p.isVararg);
+            assertTrue(Arrays.asList(p.constants).contains("level" + level));
+        }
+        assertEquals(0, p.subProtos.length);
+    }
+
+    @Test
+    public void readerCanBeReused() throws LuaException {
+        ProtoReader reader = new ProtoReader();
+        byte[] deep = dump(deepSource(8));
+        byte[] nested = dump(NESTED);
+        String first = describe(reader.read(ByteBuffer.wrap(deep)));
+        assertEquals(vmDescription(NESTED), describe(reader.read(ByteBuffer.wrap(nested))));
+        assertEquals(first, describe(reader.read(ByteBuffer.wrap(deep))));
+    }
+
+    @Test
+    public void decodeKeepsEveryInstruction() throws LuaException {
+        ProtoInfo main = new ProtoReader().read(ByteBuffer.wrap(dump(NESTED)));
+        for (ProtoInfo p : flatten(main)) {
+            LuaToJava.InstructionInfo[] info = ProtoReader.decode(p.code);
+            assertEquals(p.code.length, info.length);
+            int[] ops = new int[info.length];
+            for (int i = 0; i < info.length; i++) {
+                ops[i] = info[i].opcode;
+                assertTrue(ops[i] >= 0 && ops[i] <= LuaToJava.OP_EXTRAARG);
+            }
+            int last = ops[ops.length - 1];
+            assertEquals(LuaToJava.OP_RETURN, returnKind(last));
+        }
+    }
+
+    @Test
+    public void truncatedChunkIsRejected() {
+        byte[] chunk = dump(NESTED);
+        for (int len : new int[]{0, 4, 40, chunk.length / 2, chunk.length - 1}) {
+            try {
+                new ProtoReader().read(ByteBuffer.wrap(Arrays.copyOf(chunk, len)));
+                fail("读取了长度为" + len + "的截断字节码");
+            } catch (LuaException expected) {
+                // 截断的字节码须报错而不是越界
+            }
+        }
+    }
+
+    private static int returnKind(int op) {
+        return op == LuaToJava.OP_RETURN0 || op == LuaToJava.OP_RETURN1 ? LuaToJava.OP_RETURN : op;
+    }
+
+    /**
+     * 生成逐层嵌套的函数，第i层有i % 4个参数，引用外层的局部变量与字符串常量"leveli"
+     */
+    private static String deepSource(int depth) {
+        StringBuilder sb = new StringBuilder("local v0 = 0\n");
+        for (int level = 1; level <= depth; level++) {
+            sb.append("return function(");
+            for (int i = 0; i < level % 4; i++) {
+                sb.append(i > 0 ? ", " : "").append("p").append(i);
+            }
+            sb.append(")\n");
+            sb.append("  local v").append(level).append(" = v").append(level - 1)
+                    .append(" + #\"level").append(level).append('"');
+            for (int i = 0; i < level % 4; i++) {
+                sb.append(" + p").append(i);
+            }
+            sb.append('\n');
+        }
+        sb.append("  return v").append(depth).append('\n');
+        for (int level = 1; level <= depth; level++) {
+            sb.append("end\n");
+        }
+        return sb.toString();
+    }
+
+    private byte[] dump(String src) {
+        int top = L.getTop();
+        assertEquals(0, L.LloadString(src));
+        byte[] chunk = L.dump(-1);
+        L.setTop(top);
+        return chunk;
+    }
+
+    private String vmDescription(String src) {
+        int top = L.getTop();
+        assertEquals(0, L.LloadString(DESCRIBE));
+        L.pushString(src);
+        if (L.pcall(1, 1, 0) != 0) {
+            fail(L.toString(-1));
+        }
+        String result = L.toString(-1);
+        L.setTop(top);
+        return result;
+    }
+
+    /**
+     * 按与{@link #DESCRIBE}相同的格式描述主函数及其第一个子函数链
+     */
+    private static String describe(ProtoInfo main) {
+        StringBuilder sb = new StringBuilder();
+        for (ProtoInfo p = main; ; p = p.subProtos[0]) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append(p.numParams).append(',').append(p.sizeUpvalues).append(':');
+            for (int i = 0; i < p.sizeUpvalues; i++) {
+                sb.append(i > 0 ? " " : "").append(p.upvalues[i].name);
+            }
+            if (p.subProtos.length == 0) {
+                return sb.toString();
+            }
+        }
+    }
+
+    private static List<ProtoInfo> flatten(ProtoInfo main) {
+        List<ProtoInfo> all = new ArrayList<>();
+        all.add(main);
+        for (int i = 0; i < all.size(); i++) {
+            all.addAll(Arrays.asList(all.get(i).subProtos));
+        }
+        return all;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * 按操作码对比{@link RegisterGenerator}生成的代码与解释器的结果
+ * 每个用例是局部函数f(a, b, c)的函数体与调用参数，主函数用tostring连接f的全部返回值，
+ * 主函数、f及其中的闭包都须由寄存器后端生成。
+ * 生成的源码由javac编译后加载。用例不能出错，也不能在闭包创建后修改被捕获的局部变量，
+ * 因为upvalue在创建闭包时按值复制
+ *
+ * @author DifierLine
+ */
+public class RegisterGeneratorTest {
+
+    /** 逐指令后端生成的函数中的分派变量 */
+    private static final String PER_OP_MARKER = "int _pc = 0;";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private LuaState L;
+
+    @Before
+    public void setUp() {
+        L = NativeLua.newState();
+    }
+
+    @After
+    public void tearDown() {
+        if (L != null) {
+            L.close();
+        }
+    }
+
+    @Test
+    public void arithmetic() throws Exception {
+        check(
+                // 类型化的整数与浮点数
+                "local i, j = 7, 3 local x, y = 7.5, 2.0\n" +
+                "return i + j, i - j, i * j, i / j, i % j, i // j, i ^ j, -i % j, i % -j,\n" +
+                "  x + y, x - y, x * y, x / y, x % y, x // y, x ^ y, i + x, i * y, i // y, y - i", "",
+                "return a + b, a - b, a * b, a / b, a % b, a // b, a ^ b", "13, 4",
+                "return a + b, a - b, a * b, a / b, a % b, a // b, a ^ b", "13.5, 4",
+                "return a + b, a - b, a * b, a / b, a % b, a // b, a ^ b", "-7, 2.5",
+                "return a % b, a // b, a % -b, -a // b", "-7, 3",
+                // K与I形式
+                "return a + 1, a - 1, a * 3, a / 2, a % 5, a // 2, a ^ 2, a + 1.5, a - 0.5, a * 0.25", "9",
+                "return a + 1, a - 1, a * 3, a / 2, a % 5, a // 2, a ^ 2, a + 1.5, a - 0.5, a * 0.25", "9.5",
+                // 字符串转换为数值
+                "return a + 1, a * b, a // 2, b - a, a + 0.5", "'10', '2.5'",
+                "local m = math.mininteger return m // -1, m % -1, a // 0.0, -a // 0.0, a % 0.0 ~= a % 0.0", "5",
+                "local x = 1e308 return x * 10, -x * 10, x / 0, 0 / 0 ~= 0 / 0", "");
+    }
+
+    @Test
+    public void bitwise() throws Exception {
+        check(
+                "return a & b, a | b, a ~ b, a << b, a >> b, ~a, a << -b, a >> 64, -1 >> 1", "13, 4",
+                "return a & 6, a | 1, a ~ 5, a >> 1, a << 2, 1 << a, 3 << a, ~a", "9",
+                "return a & b, a | 2, a ~ 1.0, ~a", "12.0, 10",
+                "local i = 1 return i << 63, i << 64, i >> -1, -1 >> 1, 3 << -1, ~i", "");
+    }
+
+    @Test
+    public void unaryLengthAndConcat() throws Exception {
+        check(
+                "return -a, ~b, not a, not nil, not false, #c, a .. b .. c", "3, 5, 'abc'",
+                "return -a, -b, not a, #c .. c", "2.5, '7', 'xyz'",
+                "local t = {1, 2, 3} local s = 'xy' return #t, #s, -2.5, not t, -(-a)", "4",
+                "local x = 1.5 local i = 2 return x .. i, i .. 'z', a .. 1 .. 2.0, 'a' .. 'b' .. 'c'", "'s'",
+                "local t = setmetatable({}, {__len = function() return 42 end, __unm = function() return 'neg' end})\n" +
+                "return #t, -t", "");
+    }
+
+    @Test
+    public void comparisons() throws Exception {
+        String all = "return a == b, a ~= b, a < b, a <= b, a > b, a >= b";
+        String eq = "return a == b, a ~= b, rawequal(a, b)";
+        check(
+                all, "1, 2",
+                all, "2, 2.0",
+                all, "3.5, 3",
+                all, "'a', 'b'",
+                all, "'b', 'a'",
+                all, "-0.0, 0",
+                eq, "1, '1'",
+                eq, "nil, false",
+                eq, "true, true",
+                eq, "false, nil",
+                "return a == 1, a == 'x', a == 2.5, a == nil, a == true, a < 10, a <= 10, a > 10, a >= 10", "10",
+                "return a == 1, a == 'x', a == 2.5, a == nil, a == true", "'x'",
+                "return a == 1, a == 'x', a == 2.5, a == nil, a == true, a < 10, a <= 2.5, a > 2, a >= 3", "2.5",
+                "return a == 1, a == 'x', a == nil, a == true", "true",
+                "local i, x = 3, 3.0 return i == x, i < x, i <= x, x < i, i == 3, x > 2, i ~= 4, x >= 3.5, i > 2.5",
+                "",
+                // 超过2^53的整数与浮点数比较
+                "local i = 9007199254740993 local x = 9007199254740992.0 return i == x, i < x, x < i, i <= x, x <= i", "",
+                "local t = {} local u = t return t == u, t == {}, t ~= u, t == 1, 'a' < 'ab', 'b' <= 'a'", "",
+                "local mt = {__eq = function() return true end, __lt = function() return true end}\n" +
+                "local p, q = setmetatable({}, mt), setmetatable({}, mt)\n" +
+                "return p == q, p < q, p ~= q", "");
+    }
+
+    @Test
+    public void testAndTestSet() throws Exception {
+        String logic = "return a and b, a or b, a and 1 or 2, b or a and 3, not (a or b)";
+        String branches = "if a then return 1 elseif b then return 2 else return 3 end";
+        check(
+                logic, "nil, 5",
+                logic, "false, 'x'",
+                logic, "0, false",
+                logic, "1, 2",
+                branches, "nil, nil",
+                branches, "false, 0",
+                branches, "'', false",
+                "local x = a > 1 local y = a == 2 or a == 3 local z = not (a < 5 and b) return x, y, z", "3, nil",
+                "local x = a > 1 local y = a == 2 or a == 3 local z = not (a < 5 and b) return x, y, z", "0, true",
+                "local i = 0 if i then i = i + 1 end local x = 1.5 if x and i then x = x + i end return i, x", "");
+    }
+
+    @Test
+    public void tables() throws Exception {
+        check(
+                "local t = {10, 20, x = 'a', [a] = b} t[1] = t[2] + 1 t.y = t.x .. 'b' t[b] = a t[a] = nil\n" +
+                "local k = 'x' return t[1], t[2], t.y, t[k], t[b], t[a]", "'key', 7",
+                "local t = {} for i = 1, 5 do t[i] = i * i end return t[3], #t, t[5], t[6]", "",
+                "local t = {} t[a] = 1 t[b] = 2 t[1.0] = 3 return t[a], t[b], t[1], t[2.0]", "2, 2.5",
+                "local t = {} t['a\\nb'] = 1 t[\"q\\\"\"] = 2 return t['a\\nb'], t['q\"']", "",
+                "local obj = {n = 3} obj.get = function(self, k) return self.n + k end return obj:get(4), obj.get(obj, 1)", "",
+                "local s = 'abc' return s:upper(), s:sub(a, a + 1), ('x'):rep(3)", "2",
+                "local function three() return 1, 2, 3 end\n" +
+                "local t = {0, three()} local u = {three(), three()} return #t, t[4], #u, u[2]", "",
+                bigConstructor(), "",
+                "local t = setmetatable({}, {__index = function(_, k) return k .. '!' end}) return t.x, t[1], t[a]", "'q'",
+                "local log = {} local t = setmetatable({}, {__newindex = function(_, k, v) log[#log + 1] = k .. '=' .. v end})\n" +
+                "t.x = 1 t[2] = 'two' return table.concat(log, ';'), rawget(t, 'x')", "");
+    }
+
+    @Test
+    public void globalsAndUpvalues() throws Exception {
+        check(
+                "g_value = a return g_value, type(print), g_missing", "5",
+                "g_k = 5 g_s = 'str' g_f = 1.5 return g_k, g_s, g_f", "",
+                "local function mk(x) return function(y) return x + y end end local add = mk(a) return add(1), mk(10)(b)",
+                "4, 6",
+                "local fs = {} for i = 1, 3 do fs[i] = function() return i * a end end return fs[1](), fs[3]()", "2",
+                "local s = 'up' local function f1() local function f2() return s .. a end return f2() end return f1()",
+                "'!'");
+    }
+
+    @Test
+    public void loads() throws Exception {
+        check(
+                "local x, y, z local w = 1.0 local v = 'str' local u = nil local t = true local f = false\n" +
+                "return x, y, z, w, v, u, t, f, 3 > a, 100000, -32768, 1e100, 2^63", "2",
+                "local x = a x = nil local y = 5 y = 'five' local z = 1 z = 1.5 return x, y, z", "1",
+                "local x, y = a, b x, y = y, x return x, y", "1, 'two'",
+                "local i = 1 i = i + 0.5 local j = i i = 'done' return i, j", "");
+    }
+
+    @Test
+    public void calls() throws Exception {
+        check(
+                "local function two(x) return x, x * 2 end\n" +
+                "local p, q = two(a) local r = two(a) local s, t, u = two(a) return p, q, r, s, t, u", "3",
+                "local function two(x) return x, x + 1 end local n = select('#', two(a)) local m = math.max(a, two(a)) return n, m",
+                "3",
+                "local function two(x) return x, -x end return 0, two(a)", "3",
+                "local function none() end local x, y = none() local n = select('#', none()) return x, y, n", "",
+                "return select(2, a, nil, b)", "1, 2",
+                "function g_sum(n, acc) if n == 0 then return acc end return g_sum(n - 1, acc + n) end return g_sum(a, 0)",
+                "50",
+                "return string.format('%d-%s', a, 'z'), tostring(nil), (math.max(a, 2, 3))", "7",
+                "local t = {} local function set(k, v) t[k] = v end set('a', 1) set(a, b) return t.a, t[a]", "'k', 'v'");
+    }
+
+    @Test
+    public void numericFor() throws Exception {
+        String loops = "local s = 0 for i = a, b, c do s = s + i end return s";
+        check(
+                "local s = 0 for i = 1, a do s = s + i end for i = a, 1, -2 do s = s + i end\n" +
+                "for i = 1, 0 do s = s + 100 end for x = 0.5, 2, 0.5 do s = s + x end for i = 1, 3, b do s = s + i end\n" +
+                "return s", "10, 1",
+                "local s = 0 for i = 1, a do s = s + i end for i = 1, 0 do s = s + 100 end return s", "0",
+                loops, "1, 10, 3",
+                loops, "1.5, 4, 1",
+                loops, "10, 1, -3",
+                loops, "1, 3, 0.5",
+                loops, "5, 1, 1",
+                loops, "1, 2.5, 1",
+                loops, "3, 1, -0.5",
+                "local n = 0 for i = math.maxinteger - 2, math.maxinteger do n = n + 1 end return n", "",
+                "local n = 0 for i = math.mininteger, math.mininteger + 2 do n = n + 1 end\n" +
+                "for i = 1, math.huge do n = n + 1 if i >= 5 then break end end return n", "",
+                "local c = 0 for i = 1, a do for j = 1, a do if j > i then break end c = c + j end end return c", "6",
+                "local last for i = 1, 10 do last = i if i * i > a then break end end return last", "20");
+    }
+
+    @Test
+    public void whileRepeatAndGoto() throws Exception {
+        check(
+                "local i, s = 0, 0 while true do i = i + 1 if i > a then break end\n" +
+                "if i % 2 == 0 then goto skip end do s = s + i end ::skip:: end\n" +
+                "repeat s = s - 1 until s < a return i, s", "9",
+                "local i = 0 while i < a and (i % 7 ~= 6 or i < 3) do i = i + 1 end return i", "20",
+                "local i = 0 repeat local j = i i = i + 1 until j >= a return i", "4",
+                "local n = 0 ::top:: n = n + 1 if n < a then goto top end return n", "5",
+                "local r = 0 for i = 1, 3 do local j = 0 while j < i do j = j + 1 if j == 2 then goto next end r = r + j end\n" +
+                "::next:: end return r", "");
+    }
+
+    @Test
+    public void genericFor() throws Exception {
+        check(
+                "local s, k = 0, '' for i, v in ipairs({5, 6, 7}) do s = s + i * v end\n" +
+                "for key in pairs({x = 1}) do k = k .. key end return s, k", "",
+                "local function iter(n, i) if i < n then return i + 1, (i + 1) * 2 end end\n" +
+                "local s = 0 for i, v in iter, a, 0 do s = s + v end return s", "5",
+                "local s = 0 for _, v in ipairs({1, 2, 3, 4, 5}) do if v == 4 then break end\n" +
+                "for _, w in ipairs({v, v}) do s = s + w end end return s", "",
+                "local n = 0 for _ in ipairs({}) do n = n + 1 end return n", "",
+                "local s = '' for w in string.gmatch(a, '%a+') do s = s .. w:upper() end return s", "'one two three'");
+    }
+
+    @Test
+    public void toBeClosed() throws Exception {
+        // defer语句把闭包放入待关闭变量，生成TBC与CLOSE
+        check(
+                "local log = {} do defer log[#log + 1] = 'closed' log[#log + 1] = 'body' end\n" +
+                "log[#log + 1] = 'after' return table.concat(log, ',')", "");
+    }
+
+    /** 超过一条SETLIST容量的表构造器 */
+    private static String bigConstructor() {
+        StringBuilder sb = new StringBuilder("local t = {");
+        for (int i = 1; i <= 120; i++) {
+            sb.append(i).append(i < 120 ? ", " : "");
+        }
+        return sb.append("} return #t, t[50], t[51], t[120]").toString();
+    }
+
+    /**
+     * 逐个用例对比解释器与寄存器后端的结果
+     * @param cases 依次为函数体与调用参数
+     */
+    private void check(String... cases) throws Exception {
+        int count = cases.length / 2;
+        File dir = tmp.newFolder();
+        String[] sources = new String[count];
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            sources[i] = "local function f(a, b, c)\n" + cases[2 * i] + "\nend\n" +
+                    "local r = table.pack(f(" + cases[2 * i + 1] + "))\n" +
+                    "for i = 1, r.n do r[i] = tostring(r[i]) end\n" +
+                    "return table.concat(r, ' ', 1, r.n)\n";
+            String java = new LuaToJava()
+                    .setUseRegisters(true)
+                    .setClassName("RegCase" + i)
+                    .compile(sources[i]);
+            // 所有函数都由寄存器后端生成
+            assertEquals(cases[2 * i], -1, java.indexOf(PER_OP_MARKER));
+            File src = new File(dir, "RegCase" + i + ".java");
+            Files.write(src.toPath(), java.getBytes(StandardCharsets.UTF_8));
+            files.add(src.getPath());
+        }
+        List<String> args = new ArrayList<>();
+        args.add("-nowarn");
+        args.add("-encoding");
+        args.add("UTF-8");
+        args.add("-cp");
+        args.add(System.getProperty("java.class.path"));
+        args.add("-d");
+        args.add(dir.getPath());
+        args.addAll(files);
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertEquals("javac", 0, javac.run(null, null, null, args.toArray(new String[0])));
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()},
+                RegisterGeneratorTest.class.getClassLoader())) {
+            for (int i = 0; i < count; i++) {
+                CompiledFunction f = (CompiledFunction) loader.loadClass("RegCase" + i)
+                        .getDeclaredConstructor().newInstance();
+                assertEquals(cases[2 * i] + "\n(" + cases[2 * i + 1] + ")", interpret(sources[i]), execute(f));
+            }
+        }
+    }
+
+    private String interpret(String src) {
+        int top = L.getTop();
+        if (L.LloadString(src) != 0 || L.pcall(0, 1, 0) != 0) {
+            fail(L.toString(-1));
+        }
+        String result = L.toString(-1);
+        L.setTop(top);
+        return result;
+    }
+
+    private String execute(CompiledFunction f) throws LuaException {
+        int top = L.getTop();
+        int n = f.execute(new LuaJava(L));
+        assertEquals(1, n);
+        String result = L.toString(-1);
+        L.setTop(top);
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.luajava;
+
+/**
+ * LuaState.Session基准测试
+ * 对同一张表写入并读回三个字段，对比每次栈操作单独加锁的LuaState方法、
+ * 在一次synchronized (L)中使用会话，以及基于会话实现的LuaTable的Map方法。
+ * 在桌面JVM上运行main方法，需要把为本机编译的LXCLuaCore所在目录传给-Djava.library.path。
+ * <p>
+ * 单核桌面JVM(OpenJDK 17)上的结果，每项1000000次读写，取3次平均。
+ * 单线程无竞争时HotSpot进入监视器的开销远小于一次JNI调用，会话没有可测的收益，
+ * 它的作用是让复合操作在一次加锁内完成而不被其他线程插入；
+ * LuaTable每次调用还要压入表引用并转换键值，耗时约为逐次加锁的2.5倍：
+ * <pre>
+ * per-call lock: 4760240us (1.00x)
+ * session: 5026827us (0.95x)
+ * LuaTable: 11904415us (0.40x)
+ * </pre>
+ *
+ * @author DifierLine
+ */
+public final class SessionBenchmark {
+
+    private static final int ITERATIONS = 1000000;
+
+    private static final String[] KEYS = {"x", "y", "z"};
+
+    private SessionBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LuaState L = LuaStateFactory.newLuaState();
+        L.openLibs();
+        L.newTable();
+        LuaTable<String, Object> table = new LuaTable<>(L, -1);
+        // 第一轮只用于预热JIT
+        for (int round = 0; round < 2; ++round) {
+            long locked = 0;
+            long session = 0;
+            long map = 0;
+            for (int i = 0; i < 3; i++) {
+                locked += lockedPerCall(L);
+                session += session(L);
+                map += luaTable(table);
+            }
+            if (round == 1) {
+                System.out.println(report("per-call lock", locked / 3, locked));
+                System.out.println(report("session", session / 3, locked));
+                System.out.println(report("LuaTable", map / 3, locked));
+            }
+        }
+        L.close();
+    }
+
+    /**
+     * 每个栈操作都调用LuaState上的synchronized方法
+     * @return 耗时，单位微秒
+     */
+    private static long lockedPerCall(LuaState L) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (String k : KEYS) {
+                L.pushInteger(i);
+                L.setField(-2, k);
+            }
+            for (String k : KEYS) {
+                L.getField(-1, k);
+                sum += L.toInteger(-1);
+                L.pop(1);
+            }
+        }
+        check(sum);
+        return (System.nanoTime() - start) / 1000;
+    }
+
+    /**
+     * 在一次synchronized (L)中通过会话完成全部栈操作
+     * @return 耗时，单位微秒
+     */
+    private static long session(LuaState L) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            synchronized (L) {
+                LuaState.Session S = L.session();
+                for (String k : KEYS) {
+                    S.pushInteger(i);
+                    S.setField(-2, k);
+                }
+                for (String k : KEYS) {
+                    S.getField(-1, k);
+                    sum += S.toInteger(-1);
+                    S.pop(1);
+                }
+            }
+        }
+        check(sum);
+        return (System.nanoTime() - start) / 1000;
+    }
+
+    /**
+     * 通过LuaTable的put与get读写，每次调用加锁一次
+     * @return 耗时，单位微秒
+     */
+    private static long luaTable(LuaTable<String, Object> table) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (String k : KEYS) {
+                table.put(k, (long) i);
+            }
+            for (String k : KEYS) {
+                sum += ((Number) table.get(k)).longValue();
+            }
+        }
+        check(sum);
+        return (System.nanoTime() - start) / 1000;
+    }
+
+    private static void check(long sum) {
+        long expected = 3L * ITERATIONS * (ITERATIONS - 1) / 2;
+        if (sum != expected) {
+            throw new IllegalStateException("read " + sum + ", expected " + expected);
+        }
+    }
+
+    private static String report(String name, long us, long lockedTotal) {
+        return String.format("%s: %dus (%.2fx)", name, us, lockedTotal / 3.0 / us);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.myopicmobile.textwarrior.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the gap buffer and the piece table storage of {@link TextBuffer}
+ * on a large log-like file. Run it on a desktop JVM with the main method; it
+ * prints one line per storage and scenario.
+ * <p>
+ * Results on a desktop JVM, 8.0 MB / 126k lines, and 40000 single-char
+ * deletes at random places of a 2M-char file, which cut the one loaded
+ * piece over and over:
+ * <pre>
+ * gap   load: copy 5 ms, setBuffer 5 ms, row table 8 ms
+ * gap   far jump+insert 3.109 ms/edit, typing 0.0083 ms/char, line lookup 1479.00 us/query
+ * gap   sequential charAt 43.8 ns/char, full getChars 24 ms
+ * gap   40000 scattered deletes in 2M chars: 774.3 us/edit (worst 31.96 ms), line lookup 468.19 us/query
+ * piece load: copy 6 ms, setBuffer 10 ms, row table 10 ms
+ * piece far jump+insert 0.019 ms/edit, typing 0.0118 ms/char, line lookup 0.84 us/query
+ * piece sequential charAt 71.8 ns/char, full getChars 9 ms
+ * piece 40000 scattered deletes in 2M chars: 13.7 us/edit (worst 12.95 ms), line lookup 0.83 us/query
+ * </pre>
+ *
+ * @author DifierLine
+ */
+public class PieceTableBenchmark {
+	private static final Document.TextFieldMetrics METRICS = new Document.TextFieldMetrics() {
+		@Override
+		public int getAdvance(char c) {
+			return 1;
+		}
+
+		@Override
+		public int getRowWidth() {
+			return 0;
+		}
+	};
+
+	public static void main(String[] args) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < 8_000_000; i++) {
+			sb.append("2026-10-17 12:00:00.000 INFO  worker-").append(i % 16)
+					.append(" processed request ").append(i).append('\n');
+		}
+		char[] raw = sb.toString().toCharArray();
+		int lines = 1;
+		for (char c : raw) {
+			if (c == Language.NEWLINE) {
+				++lines;
+			}
+		}
+		// the first rounds only warm up the JIT
+		for (int round = 0; round < 3; ++round) {
+			for (boolean piece : new boolean[]{false, true}) {
+				run(piece, raw, lines, round == 2);
+				scatteredEdits(piece, round == 2);
+			}
+		}
+	}
+
+	private static void resetSpans(TextBuffer doc) {
+		List<Pair> spans = new ArrayList<Pair>();
+		spans.add(new Pair(doc.getTextLength(), 0));
+		doc.setSpans(spans);
+	}
+
+	private static void run(boolean piece, char[] raw, int lineCount, boolean print) {
+		String name = piece ? "piece" : "gap  ";
+		Random random = new Random(5);
+		Document doc = new Document(METRICS, piece);
+		long t0 = System.nanoTime();
+		char[] buf = piece ? raw.clone() : new char[TextBuffer.memoryNeeded(raw.length)];
+		if (!piece) {
+			System.arraycopy(raw, 0, buf, 0, raw.length);
+		}
+		long copied = System.nanoTime();
+		doc.setBuffer(buf, raw.length, lineCount);
+		long loaded = System.nanoTime();
+		doc.analyzeWordWrap();
+		long analyzed = System.nanoTime();
+
+		// far cursor jumps: type one char at a random place
+		int jumps = 2000;
+		long start = System.nanoTime();
+		for (int i = 0; i < jumps; ++i) {
+			resetSpans(doc);
+			doc.insert(new char[]{'x'}, random.nextInt(doc.getTextLength() - 1), 0, false);
+		}
+		long jumpNs = System.nanoTime() - start;
+
+		// typing in one place
+		int typed = 5000;
+		int pos = doc.getTextLength() / 2;
+		start = System.nanoTime();
+		for (int i = 0; i < typed; ++i) {
+			resetSpans(doc);
+			doc.insert(new char[]{'y'}, pos + i, 0, false);
+		}
+		long typeNs = System.nanoTime() - start;
+
+		// random line lookups
+		int queries = 20000;
+		long sum = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < queries; ++i) {
+			sum += doc.getLineOffset(random.nextInt(doc.getLineCount()));
+			sum += doc.findLineNumber(random.nextInt(doc.getTextLength()));
+		}
+		long lookupNs = System.nanoTime() - start;
+
+		// sequential char reads, as the renderer does
+		int from = doc.getTextLength() / 3;
+		start = System.nanoTime();
+		for (int i = 0; i < 1_000_000; ++i) {
+			sum += doc.charAt(from + i);
+		}
+		long scanNs = System.nanoTime() - start;
+
+		// whole-text snapshot, as the lexer takes
+		start = System.nanoTime();
+		char[] all = new char[doc.length()];
+		doc.getChars(0, all.length, all, 0);
+		long snapNs = System.nanoTime() - start;
+
+		if (print) {
+			System.out.printf("%s load: copy %d ms, setBuffer %d ms, row table %d ms%n",
+					name, (copied - t0) / 1000000, (loaded - copied) / 1000000,
+					(analyzed - loaded) / 1000000);
+			System.out.printf("%s far jump+insert %.3f ms/edit, typing %.4f ms/char, line lookup %.2f us/query%n",
+					name, jumpNs / 1e6 / jumps, typeNs / 1e6 / typed, lookupNs / 1e3 / (2 * queries));
+			System.out.printf("%s sequential charAt %.1f ns/char, full getChars %d ms%n",
+					name, scanNs / 1e6, snapNs / 1000000);
+		}
+		if (sum == 42) {
+			System.out.println();
+		}
+	}
+
+	private static void scatteredEdits(boolean piece, boolean print) {
+		String name = piece ? "piece" : "gap  ";
+		int size = 2_000_000;
+		char[] raw = new char[size];
+		for (int i = 0; i < size; ++i) {
+			raw[i] = (i % 40 == 39) ? Language.NEWLINE : (char) ('a' + i % 26);
+		}
+		TextBuffer text = new TextBuffer(piece);
+		char[] buf = piece ? raw : new char[TextBuffer.memoryNeeded(size)];
+		if (!piece) {
+			System.arraycopy(raw, 0, buf, 0, size);
+		}
+		text.setBuffer(buf, size, size / 40 + 1);
+		Random random = new Random(1);
+		int edits = 40000;
+		long worst = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < edits; ++i) {
+			resetSpans(text);
+			long t = System.nanoTime();
+			text.delete(random.nextInt(text.getTextLength() - 2), 1, 0, false);
+			worst = Math.max(worst, System.nanoTime() - t);
+		}
+		long editNs = System.nanoTime() - start;
+		int queries = 20000;
+		long sum = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < queries; ++i) {
+			sum += text.getLineOffset(random.nextInt(text.getLineCount()));
+		}
+		long lookupNs = System.nanoTime() - start;
+		if (print) {
+			System.out.printf("%s %d scattered deletes in 2M chars: %.1f us/edit (worst %.2f ms), line lookup %.2f us/query%n",
+					name, edits, editNs / 1e3 / edits, worst / 1e6, lookupNs / 1e3 / queries);
+		}
+		if (sum == 42) {
+			System.out.println();
+		}
+	}
+}
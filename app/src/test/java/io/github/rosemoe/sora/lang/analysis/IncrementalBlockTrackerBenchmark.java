@@ -0,0 +1,295 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.analysis;
+
+import com.nirithy.luaeditor.lualanguage.HighlightToken;
+import com.nirithy.luaeditor.lualanguage.LuaIncrementalAnalyzeManager;
+import com.nirithy.luaeditor.lualanguage.State;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import io.github.rosemoe.sora.lang.styling.CodeBlock;
+
+/**
+ * Benchmark of chunked initial tokenization and {@link IncrementalBlockTracker} on a 30k-line
+ * Lua file, run with the main method on a desktop JVM.
+ * <p>
+ * The initial pass tokenizes like {@code AsyncIncrementalAnalyzeManager#initialize()}: the
+ * first 256 lines, then 4096 lines per chunk, and builds the blocks of each chunk. Edits replace
+ * one line in the middle of the file and compare
+ * {@link IncrementalBlockTracker#update(int, int, IncrementalBlockTracker.LineSummarizer)} with
+ * summarizing every line again, which is what a full block computation costs. A balanced edit
+ * keeps the open blocks, an early {@code end} closes the function until its original end. Both
+ * include creating the 6000 code blocks for the styles. A random edit fuzz checks the tracker
+ * against fresh rebuilds and a plain stack scan.
+ * <p>
+ * Results on a single core desktop JVM (OpenJDK 17):
+ * <pre>
+ * 30000 lines: first 256 lines colored after 0.53 ms, all lines and 6000 blocks after 155.8 ms
+ * balanced edit: 1 lines scanned/edit, incremental 0.079 ms, full 4.59 ms
+ * early end: 5 lines scanned/edit, incremental 0.072 ms, full 4.35 ms
+ * fuzz: 60000 random edits matched fresh rebuilds and a stack scan
+ * </pre>
+ */
+public final class IncrementalBlockTrackerBenchmark {
+
+    private final static int LINES = 30000;
+    private final static int INITIAL_CHUNK_LINES = 256;
+    private final static int CHUNK_LINES = 4096;
+    private final static int EDITS = 1000;
+    private final static int FULL_REBUILDS = 20;
+
+    private final static String[] UNIT = {
+            "local function f%d(a, b)",
+            "  -- comment about f%d",
+            "  local t = {x = 1, y = \"str\", [3] = a}",
+            "  for i = 1, #t do",
+            "    if t[i] ~= nil and b then",
+            "      print(string.format(\"%%d\", i), tostring(t[i]))",
+            "    elseif a == 2 then",
+            "      b = b + 1",
+            "    end",
+            "  end",
+            "  while a > 0 do a = a - 1 end",
+            "  return t",
+            "end",
+            "--[[ long",
+            "comment ]]",
+    };
+
+    private IncrementalBlockTrackerBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        var lines = new ArrayList<String>(LINES);
+        for (int i = 0; lines.size() < LINES; i++) {
+            for (var line : UNIT) {
+                lines.add(String.format(line, i, i));
+            }
+        }
+        AsyncIncrementalAnalyzeManager<State, HighlightToken> manager = new LuaIncrementalAnalyzeManager();
+        // The first rounds only warm up the JIT
+        for (int round = 0; round < 5; round++) {
+            boolean print = round == 4;
+            var states = initial(manager, lines, print);
+            // Line 15007 is "      b = b + 1", line 15008 the "    end" of the if
+            edit(manager, states, 15007, "      b = b + 2", "balanced edit", print);
+            edit(manager, states, 15008, "    end end", "early end", print);
+        }
+        fuzz();
+    }
+
+    /**
+     * Tokenize in chunks and build the tracker, as the analysis thread does on a new text
+     * with a single core, where tokenizeInitialLines tokenizes line by line
+     */
+    private static List<IncrementalAnalyzeManager.LineTokenizeResult<State, HighlightToken>> initial(
+            AsyncIncrementalAnalyzeManager<State, HighlightToken> manager, List<String> text, boolean print) {
+        int lineCount = text.size();
+        var states = new ArrayList<IncrementalAnalyzeManager.LineTokenizeResult<State, HighlightToken>>(lineCount);
+        var tracker = new IncrementalBlockTracker();
+        var state = manager.getInitialState();
+        long start = System.nanoTime();
+        long firstChunk = 0;
+        for (int chunkStart = 0; chunkStart < lineCount; ) {
+            int chunkEnd = Math.min(lineCount, chunkStart == 0 ? INITIAL_CHUNK_LINES : chunkStart + CHUNK_LINES);
+            for (int i = chunkStart; i < chunkEnd; i++) {
+                var result = manager.tokenizeLine(text.get(i), state, i);
+                manager.generateSpansForLine(result);
+                state = result.state;
+                states.add(result.clearSpans());
+            }
+            tracker.insertLines(chunkStart, chunkEnd - chunkStart);
+            tracker.update(chunkStart, chunkEnd - 1, line -> manager.summarizeLine(states.get(line)));
+            if (chunkStart == 0) {
+                firstChunk = System.nanoTime();
+            }
+            chunkStart = chunkEnd;
+        }
+        var blocks = tracker.createBlocks();
+        long end = System.nanoTime();
+        if (print) {
+            System.out.printf("%d lines: first %d lines colored after %.2f ms, all lines and %d blocks after %.1f ms%n",
+                    lineCount, INITIAL_CHUNK_LINES, (firstChunk - start) / 1e6, blocks.size(), (end - start) / 1e6);
+        }
+        return states;
+    }
+
+    /**
+     * Replace a line back and forth, updating the blocks incrementally and by a full rebuild
+     */
+    private static void edit(AsyncIncrementalAnalyzeManager<State, HighlightToken> manager,
+                             List<IncrementalAnalyzeManager.LineTokenizeResult<State, HighlightToken>> states,
+                             int line, String replacement, String name, boolean print) {
+        IncrementalBlockTracker.LineSummarizer summarizer = l -> manager.summarizeLine(states.get(l));
+        var tracker = new IncrementalBlockTracker();
+        tracker.insertLines(0, states.size());
+        tracker.update(0, states.size() - 1, summarizer);
+        var original = states.get(line);
+        var previous = states.get(line - 1).state;
+        var edited = manager.tokenizeLine(replacement, previous, line).clearSpans();
+        int scanned = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < EDITS; i++) {
+            states.set(line, i % 2 == 0 ? edited : original);
+            scanned += tracker.update(line, line, summarizer) - line;
+            tracker.createBlocks();
+        }
+        long incremental = System.nanoTime() - start;
+        states.set(line, original);
+
+        start = System.nanoTime();
+        for (int i = 0; i < FULL_REBUILDS; i++) {
+            var fresh = new IncrementalBlockTracker();
+            fresh.insertLines(0, states.size());
+            fresh.update(0, states.size() - 1, summarizer);
+            fresh.createBlocks();
+        }
+        long full = System.nanoTime() - start;
+        if (print) {
+            System.out.printf("%s: %d lines scanned/edit, incremental %.3f ms, full %.2f ms%n",
+                    name, scanned / EDITS, incremental / 1e6 / EDITS, full / 1e6 / FULL_REBUILDS);
+        }
+    }
+
+    /**
+     * Random line edits, inserts and deletes on lines made of '{', '}' and 'x'
+     */
+    private static void fuzz() {
+        var random = new Random(3);
+        int edits = 0;
+        for (int round = 0; round < 200; round++) {
+            var text = new ArrayList<String>();
+            int n = 1 + random.nextInt(60);
+            for (int i = 0; i < n; i++) {
+                text.add(randomLine(random));
+            }
+            IncrementalBlockTracker.LineSummarizer summarizer = line -> summarize(text.get(line));
+            var tracker = new IncrementalBlockTracker();
+            // Build in chunks of random sizes, like the initial pass
+            for (int chunkStart = 0; chunkStart < n; ) {
+                int chunkEnd = Math.min(n, chunkStart + 1 + random.nextInt(10));
+                tracker.insertLines(chunkStart, chunkEnd - chunkStart);
+                tracker.update(chunkStart, chunkEnd - 1, summarizer);
+                chunkStart = chunkEnd;
+            }
+            for (int i = 0; i < 300; i++, edits++) {
+                int at = random.nextInt(text.size());
+                int op = random.nextInt(3);
+                if (op == 0) {
+                    text.set(at, randomLine(random));
+                    tracker.update(at, at, summarizer);
+                } else if (op == 1) {
+                    int count = 1 + random.nextInt(3);
+                    for (int j = 0; j < count; j++) {
+                        text.add(at + 1, randomLine(random));
+                    }
+                    text.set(at, randomLine(random));
+                    tracker.insertLines(at + 1, count);
+                    tracker.update(at, at + count, summarizer);
+                } else if (at + 1 < text.size()) {
+                    int count = Math.min(text.size() - at - 1, 1 + random.nextInt(3));
+                    text.subList(at + 1, at + 1 + count).clear();
+                    text.set(at, randomLine(random));
+                    tracker.deleteLines(at + 1, count);
+                    tracker.update(at, at, summarizer);
+                }
+                var fresh = new IncrementalBlockTracker();
+                fresh.insertLines(0, text.size());
+                fresh.update(0, text.size() - 1, summarizer);
+                var actual = key(tracker.createBlocks());
+                if (tracker.getLineCount() != text.size() || !actual.equals(key(fresh.createBlocks()))
+                        || !actual.equals(reference(text))) {
+                    throw new IllegalStateException("Round " + round + ", edit " + i + " differs from a full scan");
+                }
+            }
+        }
+        System.out.printf("fuzz: %d random edits matched fresh rebuilds and a stack scan%n", edits);
+    }
+
+    private static String randomLine(Random random) {
+        int n = random.nextInt(4);
+        var sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append("{}x".charAt(random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+
+    private static int[] summarize(String line) {
+        var events = new int[line.length()];
+        int count = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '{') {
+                events[count++] = BlockSummary.blockStart(i);
+            } else if (c == '}') {
+                events[count++] = BlockSummary.blockEnd(i);
+            }
+        }
+        return Arrays.copyOf(events, count);
+    }
+
+    /**
+     * Multi-line blocks by a plain stack scan, in the order they are closed
+     */
+    private static String reference(List<String> text) {
+        Deque<int[]> stack = new ArrayDeque<>();
+        var blocks = new ArrayList<CodeBlock>();
+        for (int line = 0; line < text.size(); line++) {
+            var s = text.get(line);
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) == '{') {
+                    stack.push(new int[]{line, i});
+                } else if (s.charAt(i) == '}' && !stack.isEmpty()) {
+                    var open = stack.pop();
+                    if (open[0] != line) {
+                        var block = new CodeBlock();
+                        block.startLine = open[0];
+                        block.startColumn = open[1];
+                        block.endLine = line;
+                        block.endColumn = i;
+                        blocks.add(block);
+                    }
+                }
+            }
+        }
+        return key(blocks);
+    }
+
+    private static String key(List<CodeBlock> blocks) {
+        var sb = new StringBuilder();
+        for (var block : blocks) {
+            sb.append(block.startLine).append(':').append(block.startColumn).append('-')
+                    .append(block.endLine).append(':').append(block.endColumn).append(' ');
+        }
+        return sb.toString();
+    }
+
+}
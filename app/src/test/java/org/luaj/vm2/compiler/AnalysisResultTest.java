@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2026-2099 DifierLine.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.luaj.vm2.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.graphics.Rect;
+
+import com.myopicmobile.textwarrior.common.Flag;
+import com.myopicmobile.textwarrior.common.Pair;
+
+import org.junit.Test;
+import org.luaj.vm2.LuaString;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * {@link LuaC#lexer}同时分析多个文档时，每个{@link AnalysisResult}须与单独分析的结果一致
+ *
+ * @author DifierLine
+ */
+public class AnalysisResultTest {
+
+    private static final int DOCUMENTS = 8;
+
+    private static final int ROUNDS = 20;
+
+    /**
+     * 第i个文档：各自的全局变量、局部变量与函数，数量随i变化；
+     * 最后一个文档有语法错误
+     */
+    private static String document(int i) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("local shared").append(i).append(" = {}\n");
+        for (int f = 0; f <= i * 3; f++) {
+            sb.append("function global").append(i).append('_').append(f).append("(a, b)\n")
+                    .append("  local sum").append(f).append(" = a + b + ").append(f).append('\n')
+                    .append("  for k = 1, ").append(f + 2).append(" do\n")
+                    .append("    if k % 2 == 0 then shared").append(i).append("[k] = sum").append(f)
+                    .append(" else undeclared").append(i).append(" = k end\n")
+                    .append("  end\n")
+                    .append("  return function(c) return sum").append(f).append(" + c end\n")
+                    .append("end\n");
+        }
+        if (i == DOCUMENTS - 1) {
+            sb.append("local broken = (1 +\n");
+        }
+        return sb.toString();
+    }
+
+    private static AnalysisResult analyze(String src) throws Exception {
+        return LuaC.lexer(src, "doc", new Flag());
+    }
+
+    /**
+     * 把结果中与文档内容有关的部分转成字符串，便于比较
+     */
+    private static String describe(AnalysisResult r) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("error=").append(r.errormsg).append('@').append(r.errorline).append(':').append(r.erroridx)
+                .append(" warn=").append(r.warnidx).append(" proto=").append(r.proto != null).append('\n');
+        sb.append("globals=");
+        for (LuaString g : r.globals) {
+            sb.append(g.tojstring()).append(' ');
+        }
+        sb.append('\n');
+        for (Map.Entry<String, ArrayList<Pair>> e : new TreeMap<>(r.valueMap).entrySet()) {
+            sb.append(e.getKey()).append('=');
+            appendPairs(sb, e.getValue());
+            sb.append('\n');
+        }
+        sb.append("tokens=");
+        appendPairs(sb, r.tokens);
+        sb.append("\nlines=");
+        for (Rect l : r.lines) {
+            sb.append(l.left).append(',').append(l.top).append(',').append(l.right).append(',').append(l.bottom)
+                    .append(' ');
+        }
+        sb.append("\nfunctions=");
+        for (AnalysisResult.FuncRange f : r.functions) {
+            sb.append(f.proto.startidx).append('-').append(f.proto.endidx).append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static void appendPairs(StringBuilder sb, List<Pair> pairs) {
+        for (Pair p : pairs) {
+            sb.append(p.getFirst()).append(':').append(p.getSecond()).append(' ');
+        }
+    }
+
+    @Test
+    public void syntaxErrorIsRecordedInTheResult() throws Exception {
+        AnalysisResult r = analyze(document(DOCUMENTS - 1));
+        assertNull(r.proto);
+        assertNotNull(r.errormsg);
+        AnalysisResult ok = analyze(document(0));
+        assertNotNull(ok.proto);
+        assertNull(ok.errormsg);
+    }
+
+    @Test
+    public void concurrentParsesMatchSerialParses() throws Exception {
+        final String[] docs = new String[DOCUMENTS];
+        String[] expected = new String[DOCUMENTS];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            docs[i] = document(i);
+            expected[i] = describe(analyze(docs[i]));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(DOCUMENTS);
+        try {
+            final CyclicBarrier barrier = new CyclicBarrier(DOCUMENTS);
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < DOCUMENTS; i++) {
+                final String src = docs[i];
+                futures.add(pool.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        List<String> results = new ArrayList<>();
+                        for (int round = 0; round < ROUNDS; round++) {
+                            // 每轮所有线程同时开始，使分析过程尽量重叠
+                            barrier.await();
+                            results.add(describe(analyze(src)));
+                        }
+                        return results;
+                    }
+                }));
+            }
+            for (int i = 0; i < DOCUMENTS; i++) {
+                List<String> results = futures.get(i).get();
+                for (int round = 0; round < ROUNDS; round++) {
+                    assertEquals("document " + i + ", round " + round, expected[i], results.get(round));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -61,6 +61,14 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
     private final static int MSG_BASE = 11451400;
     private final static int MSG_INIT = MSG_BASE + 1;
     private final static int MSG_MOD = MSG_BASE + 2;
+    /**
+     * Lines tokenized before the first styles are sent, enough to color the first screen
+     */
+    private final static int INITIAL_CHUNK_LINES = 256;
+    /**
+     * Lines tokenized between two style updates while the rest of the text streams in
+     */
+    private final static int CHUNK_LINES = 4096;
     private static int sThreadId = 0;
     private LooperThread thread;
     private volatile long runCount;
@@ -177,6 +185,53 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
      */
     public abstract List<CodeBlock> computeBlocks(Content text, CodeBlockAnalyzeDelegate delegate);
 
+    /**
+     * Tokenize lines in [startLine, endLine) for the initial analysis, beginning with the given state.
+     * <p>
+     * The default implementation tokenizes the lines one by one on the analysis thread. Subclasses
+     * may split the range and tokenize the parts concurrently, as long as the results are the same
+     * as those of sequential {@link #tokenizeLine(CharSequence, Object, int)} calls. The text is
+     * not modified during the call.
+     *
+     * @return Tokenize results of the lines, with spans
+     */
+    @NonNull
+    protected List<LineTokenizeResult<S, T>> tokenizeInitialLines(@NonNull Content text, int startLine, int endLine, S state) {
+        var results = new ArrayList<LineTokenizeResult<S, T>>(endLine - startLine);
+        for (int i = startLine; i < endLine; i++) {
+            var result = tokenizeLine(text.getLine(i), state, i);
+            if (result.spans == null) {
+                result.spans = generateSpansForLine(result);
+            }
+            state = result.state;
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Whether this manager summarizes lines with {@link #summarizeLine(LineTokenizeResult)}.
+     * <p>
+     * If so, code blocks and paired brackets are kept up to date from the summaries, and only the
+     * lines around a modification are scanned again. {@link #computeBlocks(Content, CodeBlockAnalyzeDelegate)}
+     * is not called then.
+     */
+    protected boolean isLineSummarySupported() {
+        return false;
+    }
+
+    /**
+     * Summarize code block and bracket boundaries of a tokenized line
+     *
+     * @param result Tokenize result of the line, without spans
+     * @return Events built by {@link BlockSummary}, in text order
+     * @see #isLineSummarySupported()
+     */
+    @NonNull
+    protected int[] summarizeLine(@NonNull LineTokenizeResult<S, T> result) {
+        return BlockSummary.EMPTY;
+    }
+
     public Styles getManagedStyles() {
         var thread = Thread.currentThread();
         if (thread.getClass() != AsyncIncrementalAnalyzeManager.LooperThread.class) {
@@ -430,6 +485,11 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
         Styles styles;
         LockedSpans spans;
         CodeBlockAnalyzeDelegate delegate = new CodeBlockAnalyzeDelegate(this);
+        /**
+         * Non-null if line summaries are supported
+         */
+        IncrementalBlockTracker blockTracker;
+        final IncrementalBlockTracker.LineSummarizer summarizer = line -> summarizeLine(states.get(line));
 
         public void offerMessage(int what, @Nullable Object obj) {
             var msg = Message.obtain();
@@ -446,23 +506,69 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
 
         private void initialize() {
             styles = new Styles(spans = new LockedSpans());
+            blockTracker = isLineSummarySupported() ? new IncrementalBlockTracker() : null;
             S state = getInitialState();
             var mdf = spans.modify();
-            for (int i = 0; i < shadowed.getLineCount() && !abort && !isInterrupted(); i++) {
-                var line = shadowed.getLine(i);
-                var result = tokenizeLine(line, state, i);
-                state = result.state;
-                var spans = result.spans != null ? result.spans : generateSpansForLine(result);
-                states.add(result.clearSpans());
-                onAddState(result.state);
-                mdf.addLineAt(i, spans);
+            int lineCount = shadowed.getLineCount();
+            int chunkStart = 0;
+            boolean sent = false;
+            // Tokenize in chunks. The first one is sent as soon as it is done so that the
+            // screen gets colored, the rest streams in through updates
+            while (chunkStart < lineCount && !abort && !isInterrupted()) {
+                int chunkEnd = Math.min(lineCount, chunkStart == 0 ? INITIAL_CHUNK_LINES : chunkStart + CHUNK_LINES);
+                var results = tokenizeInitialLines(shadowed, chunkStart, chunkEnd, state);
+                for (int i = chunkStart; i < chunkEnd; i++) {
+                    var result = results.get(i - chunkStart);
+                    state = result.state;
+                    var spans = result.spans;
+                    states.add(result.clearSpans());
+                    onAddState(result.state);
+                    mdf.addLineAt(i, spans);
+                }
+                if (blockTracker != null) {
+                    blockTracker.insertLines(chunkStart, chunkEnd - chunkStart);
+                    blockTracker.update(chunkStart, chunkEnd - 1, summarizer);
+                }
+                if (chunkEnd < lineCount && !abort) {
+                    if (sent) {
+                        sendUpdate(styles, chunkStart, chunkEnd);
+                    } else {
+                        styles.finishBuilding();
+                        sendNewStyles(styles);
+                        sent = true;
+                    }
+                }
+                chunkStart = chunkEnd;
             }
-            styles.blocks = computeBlocks(shadowed, delegate);
+            if (abort || isInterrupted()) {
+                return;
+            }
+            if (blockTracker != null) {
+                applyTrackedBlocks();
+            } else {
+                styles.blocks = computeBlocks(shadowed, delegate);
+                styles.setSuppressSwitch(delegate.suppressSwitch);
+                styles.finishBuilding();
+            }
+
+            if (!abort) {
+                if (sent) {
+                    sendUpdate(styles, Math.max(0, lineCount - CHUNK_LINES), lineCount);
+                } else {
+                    sendNewStyles(styles);
+                }
+            }
+        }
+
+        /**
+         * Publish code blocks and paired brackets of the block tracker
+         */
+        private void applyTrackedBlocks() {
+            styles.blocks = blockTracker.createBlocks();
             styles.setSuppressSwitch(delegate.suppressSwitch);
             styles.finishBuilding();
-
-            if (!abort)
-                sendNewStyles(styles);
+            var brackets = blockTracker.createBracketsProvider();
+            withReceiver(r -> r.updateBracketProvider(AsyncIncrementalAnalyzeManager.this, brackets));
         }
 
         public boolean handleMessage(@NonNull Message msg) {
@@ -500,6 +606,9 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
                                 for (int i = startLine + 1; i <= endLine; i++) {
                                     mdf.deleteLineAt(startLine + 1);
                                 }
+                                if (blockTracker != null) {
+                                    blockTracker.deleteLines(startLine + 1, endLine - startLine);
+                                }
                                 int line = startLine;
                                 while (line < shadowed.getLineCount()) {
                                     var res = tokenizeLine(shadowed.getLine(line), state, line);
@@ -517,6 +626,9 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
                                 }
                                 updateEnd = line;
                             } else {
+                                if (blockTracker != null) {
+                                    blockTracker.insertLines(startLine + 1, endLine - startLine);
+                                }
                                 shadowed.insert(IntPair.getFirst(mod.start), IntPair.getSecond(mod.start), mod.changedText);
                                 S state = startLine == 0 ? getInitialState() : states.get(startLine - 1).state;
                                 int line = startLine;
@@ -556,13 +668,21 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
                                 }
                                 updateEnd = line;
                             }
+                            if (blockTracker != null) {
+                                // Only the changed lines, and the lines until the open blocks
+                                // are the same as before, are scanned again
+                                blockTracker.update(updateStart, updateEnd, summarizer);
+                                applyTrackedBlocks();
+                            }
                         }
-                        // Do not update incomplete code blocks
-                        var blocks = computeBlocks(shadowed, delegate);
-                        if (delegate.isNotCancelled()) {
-                            styles.blocks = blocks;
-                            styles.finishBuilding();
-                            styles.setSuppressSwitch(delegate.suppressSwitch);
+                        if (blockTracker == null) {
+                            // Do not update incomplete code blocks
+                            var blocks = computeBlocks(shadowed, delegate);
+                            if (delegate.isNotCancelled()) {
+                                styles.blocks = blocks;
+                                styles.finishBuilding();
+                                styles.setSuppressSwitch(delegate.suppressSwitch);
+                            }
                         }
                         if (!abort) {
                             sendUpdate(styles, updateStart, updateEnd);
@@ -0,0 +1,100 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.analysis;
+
+/**
+ * Encodes the code block and bracket boundaries on a line for incremental block computation.
+ * <p>
+ * A line is summarized as an {@code int[]} of events in text order. Block events open and close
+ * code blocks (and folding regions), bracket events open and close paired brackets of a type
+ * (1 to 7). Like the stacks in a full scan, an end event closes the innermost open block or
+ * bracket, and brackets are only paired if their types match.
+ *
+ * @see AsyncIncrementalAnalyzeManager#summarizeLine(IncrementalAnalyzeManager.LineTokenizeResult)
+ */
+public final class BlockSummary {
+
+    /**
+     * Summary of a line without any boundaries
+     */
+    public final static int[] EMPTY = new int[0];
+
+    final static int BLOCK_START = 0;
+    final static int BLOCK_END = 1;
+    final static int BRACKET_START = 2;
+    final static int BRACKET_END = 3;
+
+    private final static int KIND_MASK = 3;
+    private final static int TYPE_SHIFT = 2;
+    private final static int TYPE_MASK = 7;
+    private final static int COLUMN_SHIFT = 5;
+
+    private BlockSummary() {
+    }
+
+    /**
+     * A code block starts at the given column
+     */
+    public static int blockStart(int column) {
+        return event(BLOCK_START, 0, column);
+    }
+
+    /**
+     * The innermost code block ends at the given column
+     */
+    public static int blockEnd(int column) {
+        return event(BLOCK_END, 0, column);
+    }
+
+    /**
+     * A bracket of the given type (1 to 7) opens at the given column
+     */
+    public static int bracketStart(int type, int column) {
+        return event(BRACKET_START, type, column);
+    }
+
+    /**
+     * A bracket of the given type (1 to 7) closes at the given column
+     */
+    public static int bracketEnd(int type, int column) {
+        return event(BRACKET_END, type, column);
+    }
+
+    private static int event(int kind, int type, int column) {
+        return (column << COLUMN_SHIFT) | ((type & TYPE_MASK) << TYPE_SHIFT) | kind;
+    }
+
+    static int kind(int event) {
+        return event & KIND_MASK;
+    }
+
+    static int type(int event) {
+        return (event >>> TYPE_SHIFT) & TYPE_MASK;
+    }
+
+    static int column(int event) {
+        return event >>> COLUMN_SHIFT;
+    }
+
+}
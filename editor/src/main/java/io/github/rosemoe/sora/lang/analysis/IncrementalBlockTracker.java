@@ -0,0 +1,360 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.rosemoe.sora.lang.brackets.BracketsProvider;
+import io.github.rosemoe.sora.lang.brackets.PairedBracket;
+import io.github.rosemoe.sora.lang.styling.CodeBlock;
+import io.github.rosemoe.sora.text.Content;
+
+/**
+ * Computes code blocks from per-line {@link BlockSummary} events, and keeps them up to date
+ * after edits without rescanning the whole text.
+ * <p>
+ * Every line checkpoints the stack of blocks that are open at its start. After lines change,
+ * the scan restarts from the checkpoint of the first changed line, and stops at the first line
+ * after the change whose old checkpoint equals the new stack: from there on, nothing can differ.
+ * Stack nodes refer to the line object they were opened on, so the checkpoints and blocks stay
+ * valid when lines are inserted or deleted before them.
+ * <p>
+ * Not thread-safe. Snapshots for other threads are made by {@link #createBlocks()} and
+ * {@link #createBracketsProvider()}.
+ */
+final class IncrementalBlockTracker {
+
+    /**
+     * Max lines to search for a paired bracket
+     */
+    private final static int BRACKET_SEARCH_LINES = 10000;
+
+    private final List<Line> lines = new ArrayList<>();
+    /**
+     * Multi-line blocks in the order they are closed, which is (endLine, endColumn) order
+     */
+    private final List<Block> blocks = new ArrayList<>();
+    /**
+     * Stack after the last line
+     */
+    private Node tail;
+
+    public int getLineCount() {
+        return lines.size();
+    }
+
+    /**
+     * Add empty lines at the given position. Their summaries must be provided by a following
+     * {@link #update(int, int, LineSummarizer)} call.
+     */
+    public void insertLines(int at, int count) {
+        var added = new ArrayList<Line>(count);
+        for (int i = 0; i < count; i++) {
+            added.add(new Line(at + i));
+        }
+        if (at == lines.size() && count > 0) {
+            added.get(0).stack = tail;
+        }
+        lines.addAll(at, added);
+        renumber(at + count);
+    }
+
+    /**
+     * Remove lines in [at, at + count)
+     */
+    public void deleteLines(int at, int count) {
+        blocks.subList(firstBlockEndingAt(at), firstBlockEndingAt(at + count)).clear();
+        lines.subList(at, at + count).clear();
+        renumber(at);
+    }
+
+    private void renumber(int from) {
+        for (int i = from; i < lines.size(); i++) {
+            lines.get(i).index = i;
+        }
+    }
+
+    /**
+     * Summarize lines in [from, to] again and recompute blocks from line {@code from}, until the
+     * open blocks at a line start after {@code to} are the same as before.
+     *
+     * @return The line where the scan stopped
+     */
+    public int update(int from, int to, @NonNull LineSummarizer summarizer) {
+        int count = lines.size();
+        to = Math.min(to, count - 1);
+        var closed = new ArrayList<Block>();
+        var stack = from == 0 ? null : lines.get(from).stack;
+        int line = from;
+        for (; line < count; line++) {
+            var obj = lines.get(line);
+            if (line > to && sameStack(obj.stack, stack)) {
+                break;
+            }
+            obj.stack = stack;
+            if (line <= to) {
+                obj.events = summarizer.summarize(line);
+            }
+            stack = scanLine(obj, stack, closed);
+        }
+        if (line == count) {
+            tail = stack;
+        }
+        var replaced = blocks.subList(firstBlockEndingAt(from), line == count ? blocks.size() : firstBlockEndingAt(line));
+        replaced.clear();
+        replaced.addAll(closed);
+        return line;
+    }
+
+    private static Node scanLine(@NonNull Line line, @Nullable Node stack, @NonNull List<Block> closed) {
+        for (int event : line.events) {
+            var kind = BlockSummary.kind(event);
+            if (kind == BlockSummary.BLOCK_START) {
+                stack = new Node(line, BlockSummary.column(event), stack);
+            } else if (kind == BlockSummary.BLOCK_END && stack != null) {
+                if (stack.line != line) {
+                    closed.add(new Block(stack.line, stack.column, line, BlockSummary.column(event)));
+                }
+                stack = stack.parent;
+            }
+        }
+        return stack;
+    }
+
+    private static boolean sameStack(@Nullable Node a, @Nullable Node b) {
+        while (a != b) {
+            if (a == null || b == null || a.line != b.line || a.column != b.column) {
+                return false;
+            }
+            a = a.parent;
+            b = b.parent;
+        }
+        return true;
+    }
+
+    /**
+     * Index of the first block whose end line is not less than the given line
+     */
+    private int firstBlockEndingAt(int line) {
+        int left = 0, right = blocks.size();
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (blocks.get(mid).end.index < line) {
+                left = mid + 1;
+            } else {
+                right = mid;
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Create code blocks for {@link io.github.rosemoe.sora.lang.styling.Styles}, sorted by end
+     */
+    @NonNull
+    public List<CodeBlock> createBlocks() {
+        var result = new ArrayList<CodeBlock>(blocks.size());
+        for (var block : blocks) {
+            var codeBlock = new CodeBlock();
+            codeBlock.startLine = block.start.index;
+            codeBlock.startColumn = block.startColumn;
+            codeBlock.endLine = block.end.index;
+            codeBlock.endColumn = block.endColumn;
+            result.add(codeBlock);
+        }
+        return result;
+    }
+
+    /**
+     * Create a brackets provider over the current summaries, which can be used from any thread
+     */
+    @NonNull
+    public BracketsProvider createBracketsProvider() {
+        var events = new int[lines.size()][];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = lines.get(i).events;
+        }
+        return new LineBracketsProvider(events);
+    }
+
+    interface LineSummarizer {
+
+        /**
+         * Summarize the given line
+         */
+        @NonNull
+        int[] summarize(int line);
+
+    }
+
+    private static class Line {
+
+        int index;
+        int[] events = BlockSummary.EMPTY;
+        /**
+         * Blocks open at line start, innermost first
+         */
+        Node stack;
+
+        Line(int index) {
+            this.index = index;
+        }
+
+    }
+
+    private static class Node {
+
+        final Line line;
+        final int column;
+        final Node parent;
+
+        Node(Line line, int column, Node parent) {
+            this.line = line;
+            this.column = column;
+            this.parent = parent;
+        }
+
+    }
+
+    private static class Block {
+
+        final Line start;
+        final int startColumn;
+        final Line end;
+        final int endColumn;
+
+        Block(Line start, int startColumn, Line end, int endColumn) {
+            this.start = start;
+            this.startColumn = startColumn;
+            this.end = end;
+            this.endColumn = endColumn;
+        }
+
+    }
+
+    /**
+     * Pair brackets on query by walking the bracket events from the queried one. An end event
+     * always closes the innermost open bracket, so counting the depth is enough.
+     */
+    private static class LineBracketsProvider implements BracketsProvider {
+
+        private final int[][] lines;
+
+        LineBracketsProvider(int[][] lines) {
+            this.lines = lines;
+        }
+
+        @Nullable
+        @Override
+        public PairedBracket getPairedBracketAt(@NonNull Content text, int index) {
+            var pos = text.getIndexer().getCharPosition(index);
+            var res = pos.column > 0 ? getForPosition(text, pos.line, pos.column - 1) : null;
+            if (res == null) {
+                res = getForPosition(text, pos.line, pos.column);
+            }
+            return res;
+        }
+
+        private PairedBracket getForPosition(Content text, int line, int column) {
+            if (line >= lines.length) {
+                return null;
+            }
+            var events = lines[line];
+            for (int i = 0; i < events.length; i++) {
+                int event = events[i];
+                if (BlockSummary.column(event) == column) {
+                    var kind = BlockSummary.kind(event);
+                    if (kind == BlockSummary.BRACKET_START) {
+                        return findEnd(text, line, i);
+                    } else if (kind == BlockSummary.BRACKET_END) {
+                        return findStart(text, line, i);
+                    }
+                }
+            }
+            return null;
+        }
+
+        private PairedBracket findEnd(Content text, int line, int index) {
+            int start = lines[line][index];
+            int depth = 0;
+            int limit = Math.min(lines.length, line + BRACKET_SEARCH_LINES);
+            for (int i = line; i < limit; i++) {
+                var events = lines[i];
+                for (int j = i == line ? index + 1 : 0; j < events.length; j++) {
+                    int event = events[j];
+                    var kind = BlockSummary.kind(event);
+                    if (kind == BlockSummary.BRACKET_START) {
+                        depth++;
+                    } else if (kind == BlockSummary.BRACKET_END) {
+                        if (depth == 0) {
+                            return pair(text, line, start, i, event);
+                        }
+                        depth--;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private PairedBracket findStart(Content text, int line, int index) {
+            int end = lines[line][index];
+            int depth = 0;
+            int limit = Math.max(-1, line - BRACKET_SEARCH_LINES);
+            for (int i = line; i > limit; i--) {
+                var events = lines[i];
+                for (int j = i == line ? index - 1 : events.length - 1; j >= 0; j--) {
+                    int event = events[j];
+                    var kind = BlockSummary.kind(event);
+                    if (kind == BlockSummary.BRACKET_END) {
+                        depth++;
+                    } else if (kind == BlockSummary.BRACKET_START) {
+                        if (depth == 0) {
+                            return pair(text, i, event, line, end);
+                        }
+                        depth--;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static PairedBracket pair(Content text, int startLine, int start, int endLine, int end) {
+            if (BlockSummary.type(start) != BlockSummary.type(end) || endLine >= text.getLineCount()) {
+                return null;
+            }
+            int startColumn = BlockSummary.column(start), endColumn = BlockSummary.column(end);
+            if (startColumn >= text.getColumnCount(startLine) || endColumn >= text.getColumnCount(endLine)) {
+                // Summaries are older than the text
+                return null;
+            }
+            return new PairedBracket(text.getCharIndex(startLine, startColumn), text.getCharIndex(endLine, endColumn));
+        }
+
+    }
+
+}
@@ -23,6 +23,8 @@
  */
 package io.github.rosemoe.sora.text;
 
+import android.text.GetChars;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -44,7 +46,7 @@ import io.github.rosemoe.sora.text.bidi.Directions;
  *
  * @author Rosemoe
  */
-public class Content implements CharSequence {
+public class Content implements CharSequence, GetChars {
 
     public final static int DEFAULT_MAX_UNDO_STACK_SIZE = 500;
     public final static int DEFAULT_LIST_CAPACITY = 1000;
@@ -314,6 +316,51 @@ public class Content implements CharSequence {
         }
     }
 
+    /**
+     * Copy characters in [start, end) to dest, reading the backing arrays of lines directly.
+     * Line separators are included, so indices match {@link #charAt(int)}.
+     *
+     * @param dest    Destination of characters
+     * @param destoff Offset in dest to store the chars
+     */
+    @Override
+    public void getChars(int start, int end, @NonNull char[] dest, int destoff) {
+        if (start > end) {
+            throw new StringIndexOutOfBoundsException("start > end");
+        }
+        lock(false);
+        try {
+            checkIndex(end, CHECK_TYPE_INDEX);
+            if (start == end) {
+                return;
+            }
+            var p = getIndexer().getCharPosition(start);
+            int line = p.line;
+            int column = p.column;
+            int remaining = end - start;
+            while (remaining > 0) {
+                var text = lines.get(line);
+                int len = text.length();
+                if (column < len) {
+                    int count = Math.min(remaining, len - column);
+                    text.getChars(column, column + count, dest, destoff);
+                    destoff += count;
+                    remaining -= count;
+                    column = len;
+                }
+                var separator = text.getLineSeparator().getChars();
+                for (int i = column - len; i < separator.length && remaining > 0; i++) {
+                    dest[destoff++] = separator[i];
+                    remaining--;
+                }
+                line++;
+                column = 0;
+            }
+        } finally {
+            unlock(false);
+        }
+    }
+
     /**
      * Get characters of line
      */